@@ -0,0 +1,117 @@
+package mil.nga.geopackage.test.db;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mil.nga.geopackage.BoundingBox;
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.FeatureGridCounts;
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.metadata.GridCount;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Test feature grid and tile counts
+ *
+ * @author osbornb
+ */
+public class FeatureGridCountsTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public FeatureGridCountsTest() {
+
+    }
+
+    /**
+     * Test counting features per grid cell and per tile from the index
+     *
+     * @throws SQLException
+     */
+    public void testGridCounts() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        Map<List<Long>, Long> expectedGrid = new HashMap<List<Long>, Long>();
+        Map<List<Long>, Long> expectedTiles = new HashMap<List<Long>, Long>();
+        for (int x = -170; x < 180; x += 20) {
+            for (int y = -80; y < 85; y += 10) {
+                double px = x + 0.5;
+                double py = y + 0.5;
+                FeatureTileUtils.insertPoint(featureDao, px, py);
+                if (px >= 0 && px <= 40 && py >= 0 && py <= 20) {
+                    increment(expectedGrid, Arrays.asList((long) Math.min(3, Math.floor(px / 10)),
+                            (long) (1 - Math.min(1, Math.floor(py / 10)))));
+                }
+                double mercatorY = Math.log(Math.tan(Math.toRadians(py)) + 1 / Math.cos(Math.toRadians(py)));
+                increment(expectedTiles, Arrays.asList((long) Math.floor((px + 180) / 360 * 4),
+                        (long) Math.floor((1 - mercatorY / Math.PI) / 2 * 4)));
+            }
+        }
+        // Line centered in the first grid cell with an extent beyond it
+        FeatureTileUtils.insertLine(featureDao, new double[][]{{-5, 12.5}, {15, 18.5}});
+        increment(expectedGrid, Arrays.asList(0L, 0L));
+        increment(expectedTiles, Arrays.asList(2L, 1L));
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        indexer.index();
+        FeatureGridCounts gridCounts = new FeatureGridCounts(activity, featureDao);
+
+        Map<List<Long>, Long> grid = new HashMap<List<Long>, Long>();
+        for (GridCount count : gridCounts.queryGridCounts(new BoundingBox(0, 40, 0, 20), 4, 2, true)) {
+            assertNull(grid.put(Arrays.asList(count.getColumn(), count.getRow()), count.getCount()));
+            GeometryEnvelope extent = count.getExtent();
+            assertNotNull(extent);
+            if (count.getColumn() == 0 && count.getRow() == 0) {
+                assertEquals(-5.0, extent.getMinX());
+                assertEquals(15.0, extent.getMaxX());
+            } else {
+                assertTrue(extent.getMinX() >= count.getColumn() * 10);
+                assertTrue(extent.getMaxX() <= count.getColumn() * 10 + 10);
+            }
+        }
+        assertEquals(expectedGrid, grid);
+
+        Map<List<Long>, Long> tiles = new HashMap<List<Long>, Long>();
+        for (GridCount count : gridCounts.queryTileCounts(new BoundingBox(-180, 180, -90, 90), 2, false)) {
+            assertNull(tiles.put(Arrays.asList(count.getColumn(), count.getRow()), count.getCount()));
+            assertNull(count.getExtent());
+        }
+        assertEquals(expectedTiles, tiles);
+
+        // Tiles overlapping a viewport are counted in full
+        long tileCount = 0;
+        for (GridCount count : gridCounts.queryTileCounts(new BoundingBox(1, 2, 1, 2), 2, false)) {
+            assertEquals(2, count.getColumn());
+            assertEquals(1, count.getRow());
+            tileCount = count.getCount();
+        }
+        assertEquals(expectedTiles.get(Arrays.asList(2L, 1L)).longValue(), tileCount);
+
+        try {
+            gridCounts.queryGridCounts(new BoundingBox(0, 40, 0, 20), 0, 2, false);
+            fail("Grid without columns");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Increment the count of the key
+     *
+     * @param counts
+     * @param key
+     */
+    private static void increment(Map<List<Long>, Long> counts, List<Long> key) {
+        Long count = counts.get(key);
+        counts.put(key, count != null ? count + 1 : 1L);
+    }
+
+}
@@ -1,18 +1,42 @@
 package mil.nga.geopackage.test.db;
 
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
 
+import java.io.File;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import mil.nga.geopackage.BoundingBox;
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.FeatureChangeLog;
+import mil.nga.geopackage.db.FeatureIndexScheduler;
 import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.metadata.CellGrid;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDataSource;
 import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
 import mil.nga.geopackage.db.metadata.GeometryMetadata;
 import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.metadata.GeometryMetadataStore;
 import mil.nga.geopackage.db.metadata.TableMetadata;
 import mil.nga.geopackage.db.metadata.TableMetadataDataSource;
+import mil.nga.geopackage.features.user.FeatureCursor;
 import mil.nga.geopackage.features.user.FeatureDao;
 import mil.nga.geopackage.features.user.FeatureRow;
+import mil.nga.geopackage.io.GeoPackageProgress;
+import mil.nga.geopackage.projection.Projection;
+import mil.nga.geopackage.projection.ProjectionConstants;
+import mil.nga.geopackage.projection.ProjectionFactory;
 import mil.nga.geopackage.test.CreateGeoPackageTestCase;
 import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
 import mil.nga.wkb.geom.GeometryEnvelope;
@@ -181,24 +205,24 @@ public class FeatureIndexerTest extends CreateGeoPackageTestCase {
                     if (id == id1) {
                         id1Found = true;
                         assertEquals(GeometryType.POINT, geometryType);
-                        assertEquals(maxX, metadata.getMinX());
-                        assertEquals(maxX, metadata.getMaxX());
-                        assertEquals(minY, metadata.getMinY());
-                        assertEquals(minY, metadata.getMaxY());
+                        assertEquals(GeometryMetadataStore.roundDown(maxX), metadata.getMinX());
+                        assertEquals(GeometryMetadataStore.roundUp(maxX), metadata.getMaxX());
+                        assertEquals(GeometryMetadataStore.roundDown(minY), metadata.getMinY());
+                        assertEquals(GeometryMetadataStore.roundUp(minY), metadata.getMaxY());
                     } else if (id == id2) {
                         id2Found = true;
                         assertEquals(GeometryType.LINESTRING, geometryType);
-                        assertEquals(minX, metadata.getMinX());
-                        assertEquals(maxX, metadata.getMaxX());
-                        assertEquals(minY, metadata.getMinY());
-                        assertEquals(maxY, metadata.getMaxY());
+                        assertEquals(GeometryMetadataStore.roundDown(minX), metadata.getMinX());
+                        assertEquals(GeometryMetadataStore.roundUp(maxX), metadata.getMaxX());
+                        assertEquals(GeometryMetadataStore.roundDown(minY), metadata.getMinY());
+                        assertEquals(GeometryMetadataStore.roundUp(maxY), metadata.getMaxY());
                     } else if (id == id3) {
                         id3Found = true;
                         assertEquals(GeometryType.POLYGON, geometryType);
-                        assertEquals(minX, metadata.getMinX());
-                        assertEquals(maxX, metadata.getMaxX());
-                        assertEquals(minY, metadata.getMinY());
-                        assertEquals(maxY, metadata.getMaxY());
+                        assertEquals(GeometryMetadataStore.roundDown(minX), metadata.getMinX());
+                        assertEquals(GeometryMetadataStore.roundUp(maxX), metadata.getMaxX());
+                        assertEquals(GeometryMetadataStore.roundDown(minY), metadata.getMinY());
+                        assertEquals(GeometryMetadataStore.roundUp(maxY), metadata.getMaxY());
                     }
                 }
             } finally {
@@ -229,4 +253,1116 @@ public class FeatureIndexerTest extends CreateGeoPackageTestCase {
         }
     }
 
+    /**
+     * Benchmark indexing a synthetic table with and without bulk indexing
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testIndexerBulkPerformance() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int features = 5000;
+        SQLiteDatabase featureDb = featureDao.getSQLiteDatabase();
+        featureDb.beginTransaction();
+        try {
+            for (int i = 0; i < features; i++) {
+                double x = -180.0 + (360.0 * i / features);
+                double y = -85.0 + (170.0 * ((i * 7919) % features) / features);
+                FeatureTileUtils.insertPoint(featureDao, x, y);
+            }
+            featureDb.setTransactionSuccessful();
+        } finally {
+            featureDb.endTransaction();
+        }
+        FeatureTileUtils.updateLastChange(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+
+        // Index one row at a time
+        indexer.setBulkIndex(false);
+        long start = System.nanoTime();
+        int rowCount = indexer.index(true);
+        long rowTime = System.nanoTime() - start;
+        assertEquals(features, rowCount);
+        assertEquals(features, indexCount(featureDao));
+
+        // Index in chunked transactions with a compiled statement
+        indexer.setBulkIndex(true);
+        CheckpointProgress progress = new CheckpointProgress(featureDao);
+        indexer.setProgress(progress);
+        start = System.nanoTime();
+        int bulkCount = indexer.index(true);
+        long bulkTime = System.nanoTime() - start;
+        assertEquals(features, bulkCount);
+        assertEquals(features, indexCount(featureDao));
+        assertTrue(indexer.isIndexed());
+
+        // Progress is reported once per chunk after the chunk checkpoint is committed
+        List<Integer> chunks = progress.getChunks();
+        List<Long> checkpoints = progress.getCheckpoints();
+        assertEquals(features / indexer.getChunkLimit(), chunks.size());
+        int indexed = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            assertEquals(indexer.getChunkLimit(), (int) chunks.get(i));
+            indexed += chunks.get(i);
+            assertNotNull(checkpoints.get(i));
+            assertEquals(indexed, featureDao.count(featureDao.getTable().getPkColumn().getName() + " <= ?",
+                    new String[]{String.valueOf(checkpoints.get(i))}));
+        }
+        assertEquals(features, indexed);
+        assertNull(getTableMetadata(featureDao).getCheckpointId());
+
+        Log.i(FeatureIndexerTest.class.getSimpleName(), "Indexed " + features
+                + " features. Row: " + rowsPerSecond(features, rowTime)
+                + " rows/sec, Bulk: " + rowsPerSecond(features, bulkTime) + " rows/sec");
+    }
+
+    /**
+     * Test resuming cancelled indexing from the checkpoint, directly and with the scheduler
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testResume() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int features = 100;
+        SQLiteDatabase featureDb = featureDao.getSQLiteDatabase();
+        featureDb.beginTransaction();
+        try {
+            for (int i = 0; i < features; i++) {
+                FeatureTileUtils.insertPoint(featureDao, -180.0 + 3.0 * i, -45.0 + 0.9 * i);
+            }
+            featureDb.setTransactionSuccessful();
+        } finally {
+            featureDb.endTransaction();
+        }
+        FeatureTileUtils.updateLastChange(geoPackage, featureDao);
+
+        for (boolean bulk : new boolean[]{true, false}) {
+
+            // Cancel after three checkpoints, the first run has no previous index
+            boolean previous = !bulk;
+            FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+            indexer.setBulkIndex(bulk);
+            indexer.setChunkLimit(10);
+            indexer.setProgress(new CancelProgress(30));
+            assertEquals(30, indexer.index(true));
+            assertEquals(previous, indexer.isIndexed());
+            assertEquals(previous ? features : 0, indexCount(featureDao));
+            assertEquals(30, shadowIndexCount(featureDao));
+            assertTrue(indexer.hasCheckpoint());
+
+            TableMetadata shadow = getShadowTableMetadata(featureDao);
+            assertNotNull(shadow.getCheckpointId());
+            assertNotNull(shadow.getCheckpointTime());
+            assertEquals(30, featureDao.count(featureDao.getTable().getPkColumn().getName() + " <= ?",
+                    new String[]{String.valueOf(shadow.getCheckpointId())}));
+            assertEquals(previous, getTableMetadata(featureDao).getLastIndexed() != null);
+
+            // Resume after the checkpoint
+            indexer = new FeatureIndexer(activity, featureDao);
+            indexer.setBulkIndex(bulk);
+            CancelProgress progress = new CancelProgress(Integer.MAX_VALUE);
+            indexer.setProgress(progress);
+            assertEquals(features, indexer.index(true));
+            assertEquals(features, progress.getProgress());
+            assertTrue(indexer.isIndexed());
+            assertFalse(indexer.hasCheckpoint());
+            assertEquals(features, indexCount(featureDao));
+            assertEquals(0, shadowIndexCount(featureDao));
+            assertNull(getShadowTableMetadata(featureDao));
+
+            TableMetadata metadata = getTableMetadata(featureDao);
+            assertNotNull(metadata.getLastIndexed());
+            assertNull(metadata.getCheckpointId());
+            assertNull(metadata.getCheckpointTime());
+        }
+
+        // Resume checkpointed tables with the scheduler
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        indexer.setChunkLimit(10);
+        indexer.setProgress(new CancelProgress(50));
+        assertEquals(50, indexer.index(true));
+        assertTrue(indexer.hasCheckpoint());
+
+        FeatureIndexScheduler scheduler = new FeatureIndexScheduler(activity);
+        try {
+            assertTrue(scheduler.resume() >= 1);
+            assertTrue(scheduler.awaitIdle(60, TimeUnit.SECONDS));
+            assertEquals(0, scheduler.getPendingCount());
+            assertTrue(indexer.isIndexed());
+            assertFalse(indexer.hasCheckpoint());
+            assertEquals(features, indexCount(featureDao));
+            assertEquals(0, shadowIndexCount(featureDao));
+
+            // Scheduling an indexed GeoPackage does not re-index
+            assertTrue(scheduler.schedule(geoPackage.getName()));
+            assertTrue(scheduler.awaitIdle(60, TimeUnit.SECONDS));
+            assertTrue(indexer.isIndexed());
+        } finally {
+            scheduler.shutdown();
+        }
+        try {
+            scheduler.schedule(geoPackage.getName());
+            fail("Scheduled after shut down");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test queries are served from the previous index while the table is re-indexed
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testShadowRebuild() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int features = 100;
+        SQLiteDatabase featureDb = featureDao.getSQLiteDatabase();
+        featureDb.beginTransaction();
+        try {
+            for (int i = 0; i < features; i++) {
+                FeatureTileUtils.insertPoint(featureDao, -170.0 + 3.0 * i, -45.0 + 0.9 * i);
+            }
+            featureDb.setTransactionSuccessful();
+        } finally {
+            featureDb.endTransaction();
+        }
+        FeatureTileUtils.updateLastChange(geoPackage, featureDao);
+
+        final FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertEquals(features, indexer.index());
+        final GeometryEnvelope world = createEnvelope(-180, -90, 180, 90);
+        assertEquals(features, queryCount(indexer, world));
+
+        for (boolean bulk : new boolean[]{true, false}) {
+
+            // Query the index at each checkpoint of the re-index
+            final List<Integer> queryCounts = new ArrayList<Integer>();
+            FeatureIndexer rebuildIndexer = new FeatureIndexer(activity, featureDao);
+            rebuildIndexer.setBulkIndex(bulk);
+            rebuildIndexer.setChunkLimit(10);
+            rebuildIndexer.setProgress(new CancelProgress(Integer.MAX_VALUE) {
+                @Override
+                public void addProgress(int progress) {
+                    super.addProgress(progress);
+                    if (getProgress() % 10 == 0) {
+                        queryCounts.add(queryCount(indexer, world));
+                    }
+                }
+            });
+            assertEquals(features, rebuildIndexer.index(true));
+
+            assertEquals(features / 10, queryCounts.size());
+            for (int queryCount : queryCounts) {
+                assertEquals(features, queryCount);
+            }
+            assertEquals(features, queryCount(indexer, world));
+            assertEquals(features, indexCount(featureDao));
+            assertEquals(0, shadowIndexCount(featureDao));
+            assertTrue(indexer.isIndexed());
+        }
+
+        // A cancelled re-index leaves the previous index in place
+        FeatureIndexer rebuildIndexer = new FeatureIndexer(activity, featureDao);
+        rebuildIndexer.setChunkLimit(10);
+        rebuildIndexer.setProgress(new CancelProgress(20));
+        assertEquals(20, rebuildIndexer.index(true));
+        assertTrue(indexer.isIndexed());
+        assertEquals(features, queryCount(indexer, world));
+        assertEquals(20, shadowIndexCount(featureDao));
+
+        // Deleting the table metadata deletes the shadow index
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            assertTrue(tableDs.delete(geoPackage.getName(), featureDao.getTableName()));
+        } finally {
+            db.close();
+        }
+        assertEquals(0, shadowIndexCount(featureDao));
+        assertNull(getShadowTableMetadata(featureDao));
+    }
+
+    /**
+     * Count the features returned by an indexed envelope query
+     *
+     * @param indexer
+     * @param envelope
+     * @return count
+     */
+    private static int queryCount(FeatureIndexer indexer, GeometryEnvelope envelope) {
+        FeatureCursor cursor = indexer.query(envelope);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get the shadow index table metadata of the feature table
+     *
+     * @param featureDao
+     * @return shadow table metadata or null
+     */
+    private TableMetadata getShadowTableMetadata(FeatureDao featureDao) {
+        TableMetadata metadata;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            metadata = new TableMetadataDataSource(db).get(geoPackage.getName(),
+                    TableMetadata.getShadowTableName(featureDao.getTableName()));
+        } finally {
+            db.close();
+        }
+        return metadata;
+    }
+
+    /**
+     * Count the shadow index geometries of the feature table
+     *
+     * @param featureDao
+     * @return
+     */
+    private int shadowIndexCount(FeatureDao featureDao) {
+        int count;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            Cursor cursor = ds.query(geoPackage.getName(),
+                    TableMetadata.getShadowTableName(featureDao.getTableName()));
+            try {
+                count = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+        return count;
+    }
+
+    /**
+     * Get the table metadata of the feature table
+     *
+     * @param featureDao
+     * @return table metadata
+     */
+    private TableMetadata getTableMetadata(FeatureDao featureDao) {
+        TableMetadata metadata;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            metadata = new TableMetadataDataSource(db).get(geoPackage.getName(), featureDao.getTableName());
+        } finally {
+            db.close();
+        }
+        return metadata;
+    }
+
+    /**
+     * Get the geometry metadata store file of the test GeoPackage
+     *
+     * @return store file
+     */
+    private File getStoreFile() {
+        File file;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeoPackageMetadataDataSource geoPackageDs = new GeoPackageMetadataDataSource(db);
+            file = db.getGeometryMetadataStoreFile(geoPackageDs.get(geoPackage.getName()).getId());
+        } finally {
+            db.close();
+        }
+        return file;
+    }
+
+    /**
+     * Test write-through index maintenance of feature DAO writes
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testWriteThrough() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int initialFeatures = FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertEquals(initialFeatures, indexer.index());
+        assertTrue(indexer.isIndexed());
+
+        indexer.setWriteThrough(true);
+        try {
+            assertTrue(indexer.isWriteThrough());
+            assertSame(indexer, featureDao.getIndexer());
+
+            // Insert
+            long id = FeatureTileUtils.insertPoint(featureDao, 12.5, 34.5);
+            assertTrue(indexer.isIndexed());
+            assertEquals(initialFeatures + 1, indexCount(featureDao));
+            GeometryMetadata metadata = getGeometryMetadata(featureDao, id);
+            assertNotNull(metadata);
+            assertEquals(12.5, metadata.getMinX());
+            assertEquals(34.5, metadata.getMinY());
+
+            // Update
+            FeatureRow row = featureDao.queryForIdRow(id);
+            FeatureTileUtils.setPoint(row, -12.5, -34.5);
+            assertEquals(1, featureDao.update(row));
+            assertTrue(indexer.isIndexed());
+            metadata = getGeometryMetadata(featureDao, id);
+            assertEquals(-12.5, metadata.getMaxX());
+            assertEquals(-34.5, metadata.getMaxY());
+
+            // Delete by id
+            assertEquals(1, featureDao.deleteById(id));
+            assertTrue(indexer.isIndexed());
+            assertNull(getGeometryMetadata(featureDao, id));
+            assertEquals(initialFeatures, indexCount(featureDao));
+
+            // Delete by where clause
+            long id2 = FeatureTileUtils.insertPoint(featureDao, 1.0, 2.0);
+            assertEquals(initialFeatures + 1, indexCount(featureDao));
+            assertEquals(1, featureDao.delete(featureDao.getTable().getPkColumn().getName() + " = ?",
+                    new String[]{String.valueOf(id2)}));
+            assertEquals(initialFeatures, indexCount(featureDao));
+            assertTrue(indexer.isIndexed());
+
+            // Writes within a committed outer feature transaction are indexed once it ends
+            SQLiteDatabase featureDb = featureDao.getSQLiteDatabase();
+            featureDb.beginTransaction();
+            try {
+                FeatureTileUtils.insertPoint(featureDao, 3.0, 4.0);
+                FeatureTileUtils.insertPoint(featureDao, 5.0, 6.0);
+                assertFalse(indexer.isIndexed());
+                featureDb.setTransactionSuccessful();
+            } finally {
+                featureDb.endTransaction();
+            }
+            assertTrue(indexer.isIndexed());
+            assertEquals(initialFeatures + 2, indexCount(featureDao));
+
+            // Writes within a rolled back outer feature transaction mark the table not indexed
+            featureDb.beginTransaction();
+            try {
+                FeatureTileUtils.insertPoint(featureDao, 7.0, 8.0);
+            } finally {
+                featureDb.endTransaction();
+            }
+            assertFalse(indexer.isIndexed());
+            assertEquals(initialFeatures + 2, indexer.index());
+            assertTrue(indexer.isIndexed());
+            assertEquals(initialFeatures + 2, indexCount(featureDao));
+        } finally {
+            indexer.close();
+        }
+        assertFalse(indexer.isWriteThrough());
+        assertNull(featureDao.getIndexer());
+    }
+
+    /**
+     * Test incremental index updates from the feature change log
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testUpdate() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int initialFeatures = FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        FeatureChangeLog changeLog = new FeatureChangeLog(featureDao);
+        assertFalse(changeLog.has());
+
+        // First update enables change capture and fully indexes
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertEquals(initialFeatures, indexer.update());
+        assertTrue(changeLog.has());
+        assertEquals(0, changeLog.count());
+        assertEquals(initialFeatures, indexCount(featureDao));
+
+        // Insert, update, and delete rows
+        long insertId = FeatureTileUtils.insertPoint(featureDao, 22.5, 11.25);
+        long updateId = FeatureTileUtils.insertPoint(featureDao, 1.0, 1.0);
+        long deleteId = FeatureTileUtils.insertPoint(featureDao, 2.0, 2.0);
+        assertEquals(3, indexer.update());
+        assertEquals(initialFeatures + 3, indexCount(featureDao));
+
+        FeatureRow row = featureDao.queryForIdRow(updateId);
+        FeatureTileUtils.setPoint(row, -33.0, -44.0);
+        featureDao.update(row);
+        featureDao.deleteById(deleteId);
+        assertTrue(changeLog.count() > 0);
+
+        // Only the changed rows are re-indexed
+        assertEquals(2, indexer.update());
+        assertEquals(0, changeLog.count());
+        assertEquals(initialFeatures + 2, indexCount(featureDao));
+        assertNotNull(getGeometryMetadata(featureDao, insertId));
+        assertNull(getGeometryMetadata(featureDao, deleteId));
+        GeometryMetadata metadata = getGeometryMetadata(featureDao, updateId);
+        assertEquals(-33.0, metadata.getMinX());
+        assertEquals(-44.0, metadata.getMinY());
+
+        // No changes
+        assertEquals(0, indexer.update());
+
+        // Full indexing clears the log
+        FeatureTileUtils.insertPoint(featureDao, 3.0, 3.0);
+        assertTrue(changeLog.count() > 0);
+        indexer.index(true);
+        assertEquals(0, changeLog.count());
+
+        changeLog.delete();
+        assertFalse(changeLog.has());
+    }
+
+    /**
+     * Get the geometry metadata of a feature
+     *
+     * @param featureDao
+     * @param id
+     * @return
+     */
+    private GeometryMetadata getGeometryMetadata(FeatureDao featureDao, long id) {
+        GeometryMetadata metadata;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            metadata = ds.get(geoPackage.getName(), featureDao.getTableName(), id);
+        } finally {
+            db.close();
+        }
+        return metadata;
+    }
+
+    /**
+     * Test the envelope query is answered from cell key range scans of the covering
+     * cell index
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testQueryPlan() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        indexer.index();
+
+        GeometryEnvelope envelope = createEnvelope(-50.0, -40.0, 10.0, 30.0);
+        GeometryEnvelope zmEnvelope = createEnvelope(-50.0, -40.0, 10.0, 30.0);
+        zmEnvelope.setHasZ(true);
+        zmEnvelope.setMinZ(0.0);
+        zmEnvelope.setMaxZ(10.0);
+        zmEnvelope.setHasM(true);
+        zmEnvelope.setMinM(0.0);
+        zmEnvelope.setMaxM(10.0);
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            long geoPackageId = ds.getGeoPackageId(geoPackage.getName());
+            for (GeometryEnvelope queryEnvelope : new GeometryEnvelope[]{envelope, zmEnvelope}) {
+                List<String> plan = ds.explainQuery(geoPackageId, featureDao.getTableName(),
+                        queryEnvelope);
+                assertFalse(plan.isEmpty());
+                boolean covering = false;
+                for (String detail : plan) {
+                    Log.i("Query Plan", detail);
+                    assertFalse(detail, detail.startsWith("SCAN"));
+                    if (detail.contains("USING COVERING INDEX "
+                            + GeometryMetadata.INDEX_CELL_NAME)) {
+                        covering = true;
+                    }
+                }
+                assertTrue(plan.toString(), covering);
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Test the cell key query matches a full scan of the geometry metadata
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testCellKeyQuery() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int initialFeatures = FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+        FeatureTileUtils.insertPoint(featureDao, 180.0, 90.0);
+        FeatureTileUtils.insertPoint(featureDao, 0.0, 0.0);
+        FeatureTileUtils.insertLine(featureDao, new double[][]{{-1.0, -1.0}, {1.0, 1.0}});
+        FeatureTileUtils.updateLastChange(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertEquals(initialFeatures + 3, indexer.index());
+
+        GeometryEnvelope[] envelopes = new GeometryEnvelope[]{
+                createEnvelope(-180.0, -90.0, 180.0, 90.0),
+                createEnvelope(-1.0, -1.0, 1.0, 1.0),
+                createEnvelope(0.0, 0.0, 0.0, 0.0),
+                createEnvelope(-50.0, -40.0, 10.0, 30.0),
+                createEnvelope(60.0, 10.0, 170.0, 80.0),
+                createEnvelope(179.0, 89.0, 180.0, 90.0),
+                createEnvelope(190.0, 95.0, 200.0, 100.0)};
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            TableMetadata tableMetadata = tableDs.get(geoPackage.getName(), featureDao.getTableName());
+            CellGrid cellGrid = tableMetadata.getCellGrid();
+            assertNotNull(cellGrid);
+
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            long geoPackageId = tableMetadata.getGeoPackageId();
+
+            List<GeometryMetadata> all = new ArrayList<GeometryMetadata>();
+            Cursor cursor = ds.query(geoPackageId, featureDao.getTableName());
+            try {
+                while (cursor.moveToNext()) {
+                    GeometryMetadata metadata = ds.createGeometryMetadata(cursor);
+                    assertEquals(Long.valueOf(cellGrid.getCellKey(metadata.getMinX(), metadata.getMinY(),
+                            metadata.getMaxX(), metadata.getMaxY())), metadata.getCellKey());
+                    all.add(metadata);
+                }
+            } finally {
+                cursor.close();
+            }
+            assertEquals(initialFeatures + 3, all.size());
+
+            for (GeometryEnvelope envelope : envelopes) {
+
+                Set<Long> expected = new HashSet<Long>();
+                for (GeometryMetadata metadata : all) {
+                    if (metadata.getMinX() <= envelope.getMaxX() && metadata.getMaxX() >= envelope.getMinX()
+                            && metadata.getMinY() <= envelope.getMaxY() && metadata.getMaxY() >= envelope.getMinY()) {
+                        expected.add(metadata.getId());
+                    }
+                }
+
+                Set<Long> actual = new HashSet<Long>();
+                cursor = ds.query(geoPackageId, featureDao.getTableName(), envelope);
+                try {
+                    while (cursor.moveToNext()) {
+                        assertTrue(actual.add(ds.createGeometryMetadata(cursor).getId()));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                assertEquals(expected, actual);
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Test querying feature rows by bounding box through the metadata index
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testQueryForBoundingBox() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        BoundingBox boundingBox = new BoundingBox(-52.5, 12.5, -42.5, 27.5);
+
+        // Not RTree indexed and no indexer
+        try {
+            featureDao.queryForBoundingBox(boundingBox, null);
+            fail("Query without an index did not fail");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        indexer.index();
+        featureDao.setIndexer(indexer);
+
+        Set<Long> expected = new HashSet<Long>();
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            Cursor cursor = ds.query(geoPackage.getName(), featureDao.getTableName(), boundingBox);
+            try {
+                while (cursor.moveToNext()) {
+                    expected.add(ds.createGeometryMetadata(cursor).getId());
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+        assertFalse(expected.isEmpty());
+
+        Set<Long> actual = new HashSet<Long>();
+        FeatureCursor cursor = featureDao.queryForBoundingBox(boundingBox, null);
+        try {
+            while (cursor.moveToNext()) {
+                FeatureRow row = cursor.getRow();
+                assertNotNull(row.getGeometry());
+                assertTrue(actual.add(row.getId()));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(expected, actual);
+
+        // Query within a transaction of the feature connection
+        SQLiteDatabase featureDb = featureDao.getSQLiteDatabase();
+        featureDb.beginTransaction();
+        try {
+            Set<Long> transactionIds = new HashSet<Long>();
+            cursor = indexer.query(boundingBox);
+            try {
+                while (cursor.moveToNext()) {
+                    transactionIds.add(cursor.getRow().getId());
+                }
+            } finally {
+                cursor.close();
+            }
+            assertEquals(expected, transactionIds);
+        } finally {
+            featureDb.endTransaction();
+        }
+
+        // Query again with the bounding box in web mercator
+        Projection webMercator = ProjectionFactory.getProjection(ProjectionConstants.EPSG_WEB_MERCATOR);
+        BoundingBox webMercatorBoundingBox = featureDao.getProjection()
+                .getTransformation(webMercator).transform(boundingBox);
+        cursor = featureDao.queryForBoundingBox(webMercatorBoundingBox, webMercator);
+        try {
+            Set<Long> webMercatorIds = new HashSet<Long>();
+            while (cursor.moveToNext()) {
+                webMercatorIds.add(cursor.getRow().getId());
+            }
+            assertEquals(expected, webMercatorIds);
+        } finally {
+            cursor.close();
+        }
+
+        featureDao.setIndexer(null);
+    }
+
+    /**
+     * Test the float envelope encoding and the refine of index false positives
+     *
+     * @throws SQLException
+     */
+    public void testCompactEncoding() throws SQLException {
+
+        double[] values = new double[]{-Float.MAX_VALUE, -1.5, -Float.MIN_VALUE, 0.0,
+                Float.MIN_VALUE, 0.1f, 1.5, Float.MAX_VALUE};
+        for (int i = 0; i < values.length; i++) {
+            long encoded = GeometryMetadataStore.encode(values[i]);
+            assertEquals(values[i], GeometryMetadataStore.decode(encoded));
+            if (i > 0) {
+                assertTrue(GeometryMetadataStore.encode(values[i - 1]) < encoded);
+            }
+        }
+
+        // Negative zero is encoded as zero
+        assertEquals(0, GeometryMetadataStore.encode(-0.0));
+        assertEquals(0.0, GeometryMetadataStore.decode(GeometryMetadataStore.encode(-0.0)));
+        assertEquals(0, GeometryMetadataStore.encode(GeometryMetadataStore.roundUp(-Double.MIN_VALUE)));
+
+        double roundedDown = GeometryMetadataStore.roundDown(0.1);
+        double roundedUp = GeometryMetadataStore.roundUp(0.1);
+        assertTrue(roundedDown < 0.1);
+        assertTrue(roundedUp > 0.1);
+        assertEquals(GeometryMetadataStore.encode(roundedDown) + 1, GeometryMetadataStore.encode(roundedUp));
+        assertEquals(1.5, GeometryMetadataStore.roundDown(1.5));
+        assertEquals(1.5, GeometryMetadataStore.roundUp(1.5));
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+        long boundaryId = FeatureTileUtils.insertPoint(featureDao, 0.1, 0.5);
+        long insideId = FeatureTileUtils.insertPoint(featureDao, 0.5, 0.5);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertEquals(2, indexer.index());
+
+        // The rounded index envelope of the boundary point matches, the exact point does not
+        GeometryEnvelope envelope = createEnvelope(roundedUp, 0.0, 1.0, 1.0);
+        Set<Long> indexIds = new HashSet<Long>();
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            long geoPackageId = ds.getGeoPackageId(geoPackage.getName());
+            Cursor cursor = ds.query(geoPackageId, featureDao.getTableName(), envelope);
+            try {
+                while (cursor.moveToNext()) {
+                    indexIds.add(ds.createGeometryMetadata(cursor).getId());
+                }
+            } finally {
+                cursor.close();
+            }
+            assertEquals(Collections.singletonList(boundaryId),
+                    ds.queryBoundaryIds(geoPackageId, featureDao.getTableName(), envelope));
+        } finally {
+            db.close();
+        }
+        assertEquals(new HashSet<Long>(Arrays.asList(boundaryId, insideId)), indexIds);
+        assertEquals(Collections.singleton(insideId), queryIds(indexer, envelope));
+
+        // Refined candidates intersecting the envelope are kept
+        envelope = createEnvelope(0.1, 0.0, 1.0, 1.0);
+        assertEquals(new HashSet<Long>(Arrays.asList(boundaryId, insideId)), queryIds(indexer, envelope));
+
+        // Unrefined queries keep the boundary candidates
+        envelope = createEnvelope(roundedUp, 0.0, 1.0, 1.0);
+        Set<Long> unrefinedIds = new HashSet<Long>();
+        FeatureCursor featureCursor = indexer.query(envelope, false);
+        try {
+            while (featureCursor.moveToNext()) {
+                unrefinedIds.add(featureCursor.getRow().getId());
+            }
+        } finally {
+            featureCursor.close();
+        }
+        assertEquals(new HashSet<Long>(Arrays.asList(boundaryId, insideId)), unrefinedIds);
+
+        // A negative zero bound matches a query from positive zero
+        long negativeZeroId = FeatureTileUtils.insertPoint(featureDao, -0.0, 0.5);
+        assertEquals(3, indexer.index(true));
+        envelope = createEnvelope(0.0, 0.0, 1.0, 1.0);
+        assertTrue(queryIds(indexer, envelope).contains(negativeZeroId));
+
+        // Negative zero bounds encoded by format version 3 stores are migrated to zero
+        File storeFile = getStoreFile();
+        SQLiteDatabase store = SQLiteDatabase.openDatabase(storeFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            store.execSQL("UPDATE geom_metadata SET min_x = -1, max_x = -1 WHERE geom_id = ?",
+                    new Object[]{negativeZeroId});
+            store.setVersion(3);
+        } finally {
+            store.close();
+        }
+        assertTrue(queryIds(indexer, envelope).contains(negativeZeroId));
+        store = SQLiteDatabase.openDatabase(storeFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(GeometryMetadataStore.FORMAT_VERSION, store.getVersion());
+            Cursor cursor = store.rawQuery("SELECT min_x, max_x FROM geom_metadata WHERE geom_id = ?",
+                    new String[]{String.valueOf(negativeZeroId)});
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(0, cursor.getLong(0));
+                assertEquals(0, cursor.getLong(1));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Query the indexer for the feature ids intersecting the envelope
+     *
+     * @param indexer
+     * @param envelope
+     * @return feature ids
+     */
+    private static Set<Long> queryIds(FeatureIndexer indexer, GeometryEnvelope envelope) {
+        Set<Long> ids = new HashSet<Long>();
+        FeatureCursor cursor = indexer.query(envelope);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getRow().getId());
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Test querying ids and envelopes into buffers
+     *
+     * @throws SQLException
+     */
+    public void testQueryIds() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        indexer.index();
+
+        GeometryEnvelope envelope = createEnvelope(-100, -50, 100, 50);
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            long geoPackageId = ds.getGeoPackageId(geoPackage.getName());
+
+            List<GeometryMetadata> expected = new ArrayList<GeometryMetadata>();
+            Cursor cursor = ds.query(geoPackageId, featureDao.getTableName(), envelope);
+            try {
+                while (cursor.moveToNext()) {
+                    expected.add(ds.createGeometryMetadata(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+            assertTrue(expected.size() > 3);
+
+            // Page through the results with a buffer smaller than the result count
+            long[] ids = new long[3];
+            double[] envelopes = new double[ids.length * 4];
+            List<GeometryMetadata> actual = new ArrayList<GeometryMetadata>();
+            int offset = 0;
+            int count;
+            do {
+                count = ds.queryIds(geoPackageId, featureDao.getTableName(), envelope, offset, ids, envelopes);
+                for (int i = 0; i < count; i++) {
+                    GeometryMetadata metadata = new GeometryMetadata();
+                    metadata.setId(ids[i]);
+                    metadata.setMinX(envelopes[i * 4]);
+                    metadata.setMinY(envelopes[i * 4 + 1]);
+                    metadata.setMaxX(envelopes[i * 4 + 2]);
+                    metadata.setMaxY(envelopes[i * 4 + 3]);
+                    actual.add(metadata);
+                }
+                offset += count;
+            } while (count == ids.length);
+            assertEquals(expected.size(), actual.size());
+
+            Map<Long, GeometryMetadata> expectedById = new HashMap<Long, GeometryMetadata>();
+            for (GeometryMetadata metadata : expected) {
+                expectedById.put(metadata.getId(), metadata);
+            }
+            for (GeometryMetadata actualMetadata : actual) {
+                GeometryMetadata expectedMetadata = expectedById.remove(actualMetadata.getId());
+                assertNotNull(expectedMetadata);
+                assertEquals(expectedMetadata.getMinX(), actualMetadata.getMinX());
+                assertEquals(expectedMetadata.getMinY(), actualMetadata.getMinY());
+                assertEquals(expectedMetadata.getMaxX(), actualMetadata.getMaxX());
+                assertEquals(expectedMetadata.getMaxY(), actualMetadata.getMaxY());
+            }
+
+            // Ids only
+            long[] allIds = new long[expected.size() + 1];
+            assertEquals(expected.size(), ds.queryIds(geoPackageId, featureDao.getTableName(), envelope, 0, allIds));
+            Set<Long> allIdSet = new HashSet<Long>();
+            for (int i = 0; i < expected.size(); i++) {
+                assertTrue(allIdSet.add(allIds[i]));
+            }
+            for (GeometryMetadata metadata : expected) {
+                assertTrue(allIdSet.contains(metadata.getId()));
+            }
+
+            // Envelope buffer too small
+            try {
+                ds.queryIds(geoPackageId, featureDao.getTableName(), envelope, 0, ids, new double[ids.length]);
+                fail("Query with a small envelope buffer did not fail");
+            } catch (GeoPackageException e) {
+                // expected
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Create an envelope
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return
+     */
+    private static GeometryEnvelope createEnvelope(double minX, double minY, double maxX, double maxY) {
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(minX);
+        envelope.setMinY(minY);
+        envelope.setMaxX(maxX);
+        envelope.setMaxY(maxY);
+        return envelope;
+    }
+
+    /**
+     * Count the indexed geometries of the feature table
+     *
+     * @param featureDao
+     * @return
+     */
+    private int indexCount(FeatureDao featureDao) {
+        int count;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            Cursor cursor = ds.query(geoPackage.getName(), featureDao.getTableName());
+            try {
+                count = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+        return count;
+    }
+
+    /**
+     * Calculate the rows per second
+     *
+     * @param rows
+     * @param nanoseconds
+     * @return
+     */
+    private static long rowsPerSecond(int rows, long nanoseconds) {
+        return nanoseconds > 0 ? Math.round(rows / (nanoseconds / 1000000000.0)) : rows;
+    }
+
+    /**
+     * Progress recording the shadow index checkpoint at each progress call
+     */
+    private class CheckpointProgress implements GeoPackageProgress {
+
+        /**
+         * Feature DAO
+         */
+        private final FeatureDao featureDao;
+
+        /**
+         * Progress of each call
+         */
+        private final List<Integer> chunks = new ArrayList<Integer>();
+
+        /**
+         * Shadow index checkpoint id at each call
+         */
+        private final List<Long> checkpoints = new ArrayList<Long>();
+
+        /**
+         * Constructor
+         *
+         * @param featureDao
+         */
+        CheckpointProgress(FeatureDao featureDao) {
+            this.featureDao = featureDao;
+        }
+
+        /**
+         * Get the progress of each call
+         *
+         * @return
+         */
+        List<Integer> getChunks() {
+            return chunks;
+        }
+
+        /**
+         * Get the shadow index checkpoint id at each call
+         *
+         * @return
+         */
+        List<Long> getCheckpoints() {
+            return checkpoints;
+        }
+
+        @Override
+        public void setMax(int max) {
+        }
+
+        @Override
+        public void addProgress(int progress) {
+            chunks.add(progress);
+            checkpoints.add(getShadowTableMetadata(featureDao).getCheckpointId());
+        }
+
+        @Override
+        public boolean isActive() {
+            return true;
+        }
+
+        @Override
+        public boolean cleanupOnCancel() {
+            return false;
+        }
+
+    }
+
+    /**
+     * Progress that becomes inactive once the progress reaches the limit
+     */
+    private static class CancelProgress implements GeoPackageProgress {
+
+        /**
+         * Progress limit
+         */
+        private final int limit;
+
+        /**
+         * Progress
+         */
+        private int progress = 0;
+
+        /**
+         * Constructor
+         *
+         * @param limit
+         */
+        CancelProgress(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Get the progress
+         *
+         * @return
+         */
+        int getProgress() {
+            return progress;
+        }
+
+        @Override
+        public void setMax(int max) {
+        }
+
+        @Override
+        public void addProgress(int progress) {
+            this.progress += progress;
+        }
+
+        @Override
+        public boolean isActive() {
+            return progress < limit;
+        }
+
+        @Override
+        public boolean cleanupOnCancel() {
+            return false;
+        }
+
+    }
+
 }
@@ -0,0 +1,227 @@
+package mil.nga.geopackage.test.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.FeatureDistance;
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.FeatureNearestQuery;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.rtree.PackedRTree;
+import mil.nga.geopackage.db.rtree.PackedRTreeIndex;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.geom.GeoPackageGeometryData;
+import mil.nga.geopackage.geom.GeometryDistance;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+import mil.nga.wkb.geom.GeometryType;
+
+/**
+ * Test feature nearest and within distance queries
+ *
+ * @author osbornb
+ */
+public class FeatureNearestQueryTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public FeatureNearestQueryTest() {
+
+    }
+
+    /**
+     * Test the nearest and within distance queries against a brute force search
+     *
+     * @throws SQLException
+     */
+    public void testNearest() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        FeatureNearestQuery nearestQuery = new FeatureNearestQuery(activity, featureDao);
+        try {
+            nearestQuery.queryNearest(0, 0, 1);
+            fail("Nearest query without an index did not fail");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+        indexer.index();
+
+        double[][] points = new double[][]{{0.0, 0.0}, {40.0, 28.0}, {-100.0, 50.0},
+                {170.0, -80.0}, {-30.0, 25.0}};
+
+        // Searched in the metadata index without a packed R-tree
+        assertNearest(featureDao, nearestQuery, points);
+
+        // Searched in the packed R-tree
+        PackedRTree tree = indexer.getPackedRTree();
+        assertNearest(featureDao, nearestQuery, points);
+
+        // Write-through edits search the metadata index until the tree is rebuilt
+        indexer.setWriteThrough(true);
+        try {
+            FeatureTileUtils.insertPoint(featureDao, 40.5, 28.5);
+        } finally {
+            indexer.close();
+        }
+        assertNearest(featureDao, nearestQuery, points);
+        assertEquals(0.0, nearestQuery.queryNearest(40.5, 28.5, 1).get(0).getDistance(), 0.0);
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            long geoPackageId = new GeometryMetadataDataSource(db).getGeoPackageId(geoPackage.getName());
+            assertNull(PackedRTreeIndex.getCached(geoPackageId, featureDao.getTableName()));
+            assertEquals(tree.getLastIndexed(), PackedRTree.readLastIndexed(
+                    new PackedRTreeIndex(activity).getFile(geoPackageId, featureDao.getTableName())));
+        } finally {
+            db.close();
+        }
+
+        // Within a polygon and outside of its hole
+        List<FeatureDistance> nearest = nearestQuery.queryNearest(55.0, 30.0, 1);
+        assertEquals(0.0, nearest.get(0).getDistance(), 0.0);
+        assertEquals(GeometryType.POLYGON, nearest.get(0).getRow().getGeometry().getGeometry().getGeometryType());
+
+        assertTrue(nearestQuery.queryNearest(0.0, 0.0, 0).isEmpty());
+    }
+
+    /**
+     * Assert the nearest and within distance queries match a brute force search
+     *
+     * @param featureDao
+     * @param nearestQuery
+     * @param points       query points
+     */
+    private static void assertNearest(FeatureDao featureDao, FeatureNearestQuery nearestQuery,
+                                      double[][] points) {
+        for (double[] point : points) {
+
+            List<Double> expected = bruteForceDistances(featureDao, point[0], point[1]);
+
+            List<FeatureDistance> nearest = nearestQuery.queryNearest(point[0], point[1], 5);
+            assertEquals(Math.min(5, expected.size()), nearest.size());
+            for (int i = 0; i < nearest.size(); i++) {
+                assertEquals(expected.get(i), nearest.get(i).getDistance(), 0.001);
+            }
+
+            double distance = 3000000.0;
+            List<FeatureDistance> within = nearestQuery.queryWithinDistance(point[0], point[1], distance);
+            int expectedWithin = 0;
+            while (expectedWithin < expected.size() && expected.get(expectedWithin) <= distance) {
+                expectedWithin++;
+            }
+            assertEquals(expectedWithin, within.size());
+            for (int i = 0; i < within.size(); i++) {
+                assertEquals(expected.get(i), within.get(i).getDistance(), 0.001);
+            }
+        }
+    }
+
+    /**
+     * Benchmark the nearest queries against a brute force search
+     *
+     * @throws SQLException
+     */
+    public void testNearestPerformance() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int features = 5000;
+        SQLiteDatabase featureDb = featureDao.getSQLiteDatabase();
+        featureDb.beginTransaction();
+        try {
+            for (int i = 0; i < features; i++) {
+                double x = -180.0 + (360.0 * i / features);
+                double y = -85.0 + (170.0 * ((i * 7919) % features) / features);
+                FeatureTileUtils.insertPoint(featureDao, x, y);
+            }
+            featureDb.setTransactionSuccessful();
+        } finally {
+            featureDb.endTransaction();
+        }
+        FeatureTileUtils.updateLastChange(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        indexer.index();
+        indexer.getPackedRTree();
+        FeatureNearestQuery nearestQuery = new FeatureNearestQuery(activity, featureDao);
+
+        int queries = 20;
+        int k = 10;
+        long indexTime = 0;
+        long bruteForceTime = 0;
+        for (int i = 0; i < queries; i++) {
+            double x = -170.0 + (340.0 * i / queries);
+            double y = -60.0 + (120.0 * ((i * 7) % queries) / queries);
+
+            long start = System.nanoTime();
+            List<FeatureDistance> nearest = nearestQuery.queryNearest(x, y, k);
+            indexTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<Double> expected = bruteForceDistances(featureDao, x, y);
+            bruteForceTime += System.nanoTime() - start;
+
+            assertEquals(k, nearest.size());
+            for (int j = 0; j < k; j++) {
+                assertEquals(expected.get(j), nearest.get(j).getDistance(), 0.001);
+            }
+        }
+
+        Log.i(FeatureNearestQueryTest.class.getSimpleName(), "Nearest " + k + " of " + features
+                + " features. Index: " + rowsPerSecond(queries, indexTime)
+                + " queries/sec, Brute Force: " + rowsPerSecond(queries, bruteForceTime) + " queries/sec");
+    }
+
+    /**
+     * Get the sorted distances of all features from the point in meters
+     *
+     * @param featureDao
+     * @param x
+     * @param y
+     * @return distances
+     */
+    private static List<Double> bruteForceDistances(FeatureDao featureDao, double x, double y) {
+        double metersPerDegree = Math.toRadians(6378137.0);
+        double scaleX = metersPerDegree * Math.cos(Math.toRadians(y));
+        List<Double> distances = new ArrayList<Double>();
+        FeatureCursor cursor = featureDao.queryForAll();
+        try {
+            while (cursor.moveToNext()) {
+                GeoPackageGeometryData geometryData = cursor.getGeometry();
+                if (geometryData != null && geometryData.getGeometry() != null) {
+                    distances.add(GeometryDistance.distance(geometryData.getGeometry(),
+                            x, y, scaleX, metersPerDegree));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(distances);
+        return distances;
+    }
+
+    /**
+     * Calculate the rows per second
+     *
+     * @param rows
+     * @param nanoseconds
+     * @return
+     */
+    private static long rowsPerSecond(int rows, long nanoseconds) {
+        return nanoseconds > 0 ? Math.round(rows / (nanoseconds / 1000000000.0)) : rows;
+    }
+
+}
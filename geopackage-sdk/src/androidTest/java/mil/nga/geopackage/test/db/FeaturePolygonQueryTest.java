@@ -0,0 +1,100 @@
+package mil.nga.geopackage.test.db;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.FeaturePolygonResults;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+import mil.nga.wkb.geom.LineString;
+import mil.nga.wkb.geom.Point;
+import mil.nga.wkb.geom.Polygon;
+
+/**
+ * Test feature polygon queries
+ *
+ * @author osbornb
+ */
+public class FeaturePolygonQueryTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public FeaturePolygonQueryTest() {
+
+    }
+
+    /**
+     * Test querying features intersecting a polygon
+     *
+     * @throws SQLException
+     */
+    public void testPolygonQuery() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        // Points on a grid, within the L shaped query polygon when in either arm
+        Set<Long> expected = new HashSet<Long>();
+        for (int x = -10; x <= 50; x += 2) {
+            for (int y = -10; y <= 50; y += 2) {
+                long id = FeatureTileUtils.insertPoint(featureDao, x + 0.5, y + 0.5);
+                double px = x + 0.5;
+                double py = y + 0.5;
+                if ((px >= 0 && px <= 40 && py >= 0 && py <= 10)
+                        || (px >= 0 && px <= 10 && py >= 0 && py <= 40)) {
+                    expected.add(id);
+                }
+            }
+        }
+
+        // Line crossing an arm without a vertex inside
+        expected.add(FeatureTileUtils.insertLine(featureDao, new double[][]{{20, -5}, {20, 15}}));
+        // Line within the notch between the arms
+        FeatureTileUtils.insertLine(featureDao, new double[][]{{20, 20}, {30, 30}});
+        // Polygon containing the query polygon
+        expected.add(FeatureTileUtils.insertPolygon(featureDao,
+                new double[][]{{-100, -100}, {100, -100}, {100, 100}, {-100, 100}, {-100, -100}}));
+        // Polygon within the notch between the arms
+        FeatureTileUtils.insertPolygon(featureDao,
+                new double[][]{{20, 20}, {30, 20}, {30, 30}, {20, 30}, {20, 20}});
+        // Polygon touching the query polygon boundary
+        expected.add(FeatureTileUtils.insertPolygon(featureDao,
+                new double[][]{{40, 0}, {45, 0}, {45, 5}, {40, 5}, {40, 0}}));
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        indexer.index();
+
+        Polygon polygon = new Polygon(false, false);
+        LineString ring = new LineString(false, false);
+        double[][] points = new double[][]{{0, 0}, {40, 0}, {40, 10}, {10, 10}, {10, 40}, {0, 40}, {0, 0}};
+        for (double[] point : points) {
+            ring.addPoint(new Point(false, false, point[0], point[1]));
+        }
+        polygon.addRing(ring);
+
+        Set<Long> ids = new HashSet<Long>();
+        FeaturePolygonResults results = indexer.query(polygon);
+        try {
+            while (results.moveToNext()) {
+                assertTrue(ids.add(results.getRow().getId()));
+            }
+            assertTrue(results.getPrunedCount() > 0);
+            assertTrue(results.getExactCount() < ids.size());
+        } finally {
+            results.close();
+        }
+        assertEquals(expected, ids);
+
+        try {
+            indexer.query(new Polygon(false, false));
+            fail("Polygon without an exterior ring");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+    }
+
+}
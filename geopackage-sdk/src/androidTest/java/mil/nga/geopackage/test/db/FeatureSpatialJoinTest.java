@@ -0,0 +1,166 @@
+package mil.nga.geopackage.test.db;
+
+import android.database.Cursor;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mil.nga.geopackage.BoundingBox;
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.FeatureJoinResults;
+import mil.nga.geopackage.db.FeatureSpatialJoin;
+import mil.nga.geopackage.features.columns.GeometryColumns;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.features.user.FeatureRow;
+import mil.nga.geopackage.geom.GeometryIntersects;
+import mil.nga.geopackage.projection.ProjectionConstants;
+import mil.nga.geopackage.schema.TableColumnKey;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+import mil.nga.wkb.geom.Geometry;
+import mil.nga.wkb.geom.GeometryType;
+
+/**
+ * Test feature spatial joins
+ *
+ * @author osbornb
+ */
+public class FeatureSpatialJoinTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public FeatureSpatialJoinTest() {
+
+    }
+
+    /**
+     * Test the spatial join of two indexed feature tables
+     *
+     * @throws SQLException
+     */
+    public void testSpatialJoin() throws SQLException {
+
+        FeatureDao leftDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        GeometryColumns geometryColumns = new GeometryColumns();
+        geometryColumns.setId(new TableColumnKey("join_right", "geom"));
+        geometryColumns.setGeometryType(GeometryType.GEOMETRY);
+        geometryColumns.setZ((byte) 0);
+        geometryColumns.setM((byte) 0);
+        geoPackage.createFeatureTableWithMetadata(geometryColumns, new BoundingBox(),
+                ProjectionConstants.EPSG_WORLD_GEODETIC_SYSTEM);
+        FeatureDao rightDao = geoPackage.getFeatureDao(geometryColumns);
+
+        // Squares and diagonal lines on the left, points and lines on the right
+        for (int x = 0; x < 50; x += 5) {
+            for (int y = 0; y < 50; y += 5) {
+                FeatureTileUtils.insertPolygon(leftDao, new double[][]{{x, y}, {x + 3, y},
+                        {x + 3, y + 3}, {x, y + 3}, {x, y}});
+                FeatureTileUtils.insertPoint(rightDao, x + 1.5, y + 1.5);
+                FeatureTileUtils.insertPoint(rightDao, x + 4, y + 4);
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            FeatureTileUtils.insertLine(leftDao, new double[][]{{i * 5 + 3.5, 0}, {i * 5 + 3.5 + 10, 10}});
+            FeatureTileUtils.insertLine(rightDao, new double[][]{{0, i * 5 + 4}, {50, i * 5 + 4.5}});
+        }
+
+        FeatureSpatialJoin join = new FeatureSpatialJoin(activity, leftDao, rightDao);
+        try {
+            join.query();
+            fail("Join of unindexed feature tables");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+
+        new FeatureIndexer(activity, leftDao).index();
+        new FeatureIndexer(activity, rightDao).index();
+
+        // Brute force intersecting pairs
+        Map<Long, Geometry> rightGeometries = new HashMap<Long, Geometry>();
+        FeatureCursor rightCursor = rightDao.queryForAll();
+        try {
+            while (rightCursor.moveToNext()) {
+                FeatureRow row = rightCursor.getRow();
+                rightGeometries.put(row.getId(), row.getGeometry().getGeometry());
+            }
+        } finally {
+            rightCursor.close();
+        }
+        Set<List<Long>> expected = new HashSet<List<Long>>();
+        FeatureCursor leftCursor = leftDao.queryForAll();
+        try {
+            while (leftCursor.moveToNext()) {
+                FeatureRow row = leftCursor.getRow();
+                GeometryIntersects intersects = new GeometryIntersects(row.getGeometry().getGeometry());
+                for (Map.Entry<Long, Geometry> right : rightGeometries.entrySet()) {
+                    if (intersects.intersects(right.getValue())) {
+                        expected.add(Arrays.asList(row.getId(), right.getKey()));
+                    }
+                }
+            }
+        } finally {
+            leftCursor.close();
+        }
+        assertFalse(expected.isEmpty());
+
+        Set<List<Long>> pairs = joinPairs(join);
+        assertEquals(expected, pairs);
+
+        join.setRefine(false);
+        Set<List<Long>> candidates = joinPairs(join);
+        assertTrue(candidates.containsAll(expected));
+        assertTrue(candidates.size() > expected.size());
+
+        join.setRefine(true);
+        assertEquals(expected.size(), join.writeTable("join_pairs"));
+        Set<List<Long>> written = new HashSet<List<Long>>();
+        Cursor cursor = leftDao.getSQLiteDatabase().rawQuery("SELECT "
+                + FeatureSpatialJoin.COLUMN_LEFT_ID + ", " + FeatureSpatialJoin.COLUMN_RIGHT_ID
+                + " FROM join_pairs", null);
+        try {
+            while (cursor.moveToNext()) {
+                written.add(Arrays.asList(cursor.getLong(0), cursor.getLong(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(expected, written);
+
+        try {
+            join.writeTable("join_pairs");
+            fail("Join table already exists");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Read the joined pairs of the spatial join
+     *
+     * @param join
+     * @return left and right id pairs
+     */
+    private static Set<List<Long>> joinPairs(FeatureSpatialJoin join) {
+        Set<List<Long>> pairs = new HashSet<List<Long>>();
+        FeatureJoinResults results = join.query();
+        try {
+            while (results.moveToNext()) {
+                assertTrue(pairs.add(Arrays.asList(results.getLeftId(), results.getRightId())));
+            }
+            assertTrue(results.getCandidateCount() >= pairs.size());
+        } finally {
+            results.close();
+        }
+        return pairs;
+    }
+
+}
@@ -0,0 +1,131 @@
+package mil.nga.geopackage.test.db;
+
+import android.content.ContentValues;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import mil.nga.geopackage.BoundingBox;
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.FeatureTextIndex;
+import mil.nga.geopackage.extension.ExtensionsDao;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.features.user.FeatureRow;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+
+/**
+ * Test feature text index
+ *
+ * @author osbornb
+ */
+public class FeatureTextIndexTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public FeatureTextIndexTest() {
+
+    }
+
+    /**
+     * Test the feature text index
+     *
+     * @throws SQLException
+     */
+    public void testTextIndex() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+        featureDao.getSQLiteDatabase().execSQL("ALTER TABLE " + featureDao.getTableName()
+                + " ADD COLUMN name TEXT");
+        featureDao = geoPackage.getFeatureDao(featureDao.getGeometryColumns());
+
+        long mainStreet = insertNamed(featureDao, 1, 1, "Main Street");
+        long mainMain = insertNamed(featureDao, 2, 2, "Main Main Main");
+        long harbor = insertNamed(featureDao, 50, 50, "Maine Harbor");
+        long mill = insertNamed(featureDao, 3, 3, "Old Mill");
+        insertNamed(featureDao, 4, 4, null);
+
+        FeatureTextIndex textIndex = new FeatureTextIndex(featureDao);
+        assertFalse(textIndex.has());
+        try {
+            textIndex.create(Collections.singletonList("geom"));
+            fail("Text index of the geometry column");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+        textIndex.create(Collections.singletonList("name"));
+        assertTrue(textIndex.has());
+        assertEquals(Collections.singletonList("name"), textIndex.getColumns());
+        ExtensionsDao extensionsDao = geoPackage.getExtensionsDao();
+        assertEquals(1, extensionsDao.queryByExtension(FeatureTextIndex.EXTENSION_NAME,
+                featureDao.getTableName()).size());
+        textIndex.create(Collections.singletonList("name"));
+        assertEquals(1, extensionsDao.queryByExtension(FeatureTextIndex.EXTENSION_NAME,
+                featureDao.getTableName()).size());
+
+        assertEquals("mai* st*", FeatureTextIndex.prefixQuery(" Mai, st"));
+        assertEquals("", FeatureTextIndex.prefixQuery(" - "));
+        assertTrue(textIndex.query("", 10).isEmpty());
+
+        List<Long> ids = textIndex.query(FeatureTextIndex.prefixQuery("mai"), 10);
+        assertEquals(new HashSet<Long>(Arrays.asList(mainStreet, mainMain, harbor)), new HashSet<Long>(ids));
+        assertEquals(mainMain, ids.get(0).longValue());
+        assertEquals(Collections.singletonList(mainMain), textIndex.query(FeatureTextIndex.prefixQuery("mai"), 1));
+        assertEquals(ids.subList(0, 2), textIndex.query(FeatureTextIndex.prefixQuery("mai"), 2));
+        assertTrue(textIndex.query(FeatureTextIndex.prefixQuery("mai"), 0).isEmpty());
+        assertEquals(Collections.singletonList(mainStreet), textIndex.query("main street", 10));
+
+        // Writes after the index is created
+        long mainCafe = insertNamed(featureDao, 5, 5, "Main Cafe");
+        ContentValues values = new ContentValues();
+        values.put("name", "Main Mill");
+        assertEquals(1, featureDao.update(values, featureDao.getTable().getPkColumn().getName()
+                + " = ?", new String[]{String.valueOf(mill)}));
+        assertEquals(1, featureDao.deleteById(mainStreet));
+        assertEquals(new HashSet<Long>(Arrays.asList(mainMain, harbor, mainCafe, mill)),
+                new HashSet<Long>(textIndex.query("main*", 10)));
+        assertTrue(textIndex.query("old", 10).isEmpty());
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        indexer.index();
+        assertEquals(new HashSet<Long>(Arrays.asList(mainMain, mainCafe, mill)),
+                new HashSet<Long>(indexer.queryText("main*", new BoundingBox(0, 10, 0, 10), 10)));
+        assertEquals(Collections.singletonList(harbor),
+                indexer.queryText("harbor", new BoundingBox(40, 60, 40, 60), 10));
+        assertTrue(indexer.queryText("harbor", new BoundingBox(0, 10, 0, 10), 10).isEmpty());
+
+        textIndex.delete();
+        assertFalse(textIndex.has());
+        assertTrue(extensionsDao.queryByExtension(FeatureTextIndex.EXTENSION_NAME,
+                featureDao.getTableName()).isEmpty());
+        try {
+            textIndex.query("main", 10);
+            fail("Query without a text index");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+        insertNamed(featureDao, 6, 6, "Main Plaza");
+    }
+
+    /**
+     * Insert a point with a name
+     *
+     * @param featureDao
+     * @param x
+     * @param y
+     * @param name
+     * @return id
+     */
+    private static long insertNamed(FeatureDao featureDao, double x, double y, String name) {
+        FeatureRow row = featureDao.newRow();
+        FeatureTileUtils.setPoint(row, x, y);
+        row.setValue("name", name);
+        return featureDao.insert(row);
+    }
+
+}
@@ -0,0 +1,257 @@
+package mil.nga.geopackage.test.db;
+
+import android.content.ContentValues;
+
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.FeatureChangeLog;
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.FeatureTimeIndex;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadata;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.metadata.GeometryMetadataStore;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.features.user.FeatureRow;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Test feature time index queries
+ *
+ * @author osbornb
+ */
+public class FeatureTimeIndexTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public FeatureTimeIndexTest() {
+
+    }
+
+    /**
+     * Test combined envelope and time range queries of a time indexed table
+     *
+     * @throws SQLException
+     */
+    public void testTimeQuery() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+        featureDao.getSQLiteDatabase().execSQL("ALTER TABLE " + featureDao.getTableName()
+                + " ADD COLUMN obs_time DATETIME");
+        featureDao = geoPackage.getFeatureDao(featureDao.getGeometryColumns());
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long base = 1400000000000L;
+        long hour = TimeUnit.HOURS.toMillis(1);
+
+        Map<Long, double[]> points = new HashMap<Long, double[]>();
+        Map<Long, Long> times = new HashMap<Long, Long>();
+        for (int i = 0; i < 400; i++) {
+            double x = (i % 20) * 5.0 - 50.0;
+            double y = (i / 20) * 4.0 - 40.0;
+            long id = FeatureTileUtils.insertPoint(featureDao, x, y);
+            points.put(id, new double[]{x, y});
+            if (i % 10 != 9) {
+                long time = base + i * hour;
+                ContentValues values = new ContentValues();
+                values.put("obs_time", format.format(new Date(time)));
+                assertEquals(1, featureDao.update(values, featureDao.getTable().getPkColumn().getName()
+                        + " = ?", new String[]{String.valueOf(id)}));
+                times.put(id, time);
+            }
+        }
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        FeatureTimeIndex timeIndex = new FeatureTimeIndex(indexer);
+        try {
+            timeIndex.query(createEnvelope(-10.0, -10.0, 10.0, 10.0), new Date(base), new Date(base + hour));
+            fail("Time query without a time column");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+
+        try {
+            timeIndex.setTimeColumn("geom");
+            fail("Geometry column as the time column");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+
+        timeIndex.setTimeColumn("obs_time");
+        assertEquals("obs_time", timeIndex.getTimeColumn());
+        assertEquals(400, indexer.index());
+        assertEquals("obs_time", new FeatureIndexer(activity, featureDao).getTimeColumn());
+
+        GeometryEnvelope smallEnvelope = createEnvelope(-20.0, -20.0, 0.0, 0.0);
+        GeometryEnvelope largeEnvelope = createEnvelope(-60.0, -50.0, 60.0, 50.0);
+        long[][] ranges = new long[][]{
+                {base + 100 * hour, base + 110 * hour},
+                {base, base + 399 * hour},
+                {base - 10 * hour, base - hour}};
+        for (GeometryEnvelope envelope : new GeometryEnvelope[]{smallEnvelope, largeEnvelope}) {
+            for (long[] range : ranges) {
+                assertEquals(expectedTimeIds(points, times, envelope, range[0], range[1]),
+                        queryIds(timeIndex, envelope, range[0], range[1]));
+            }
+        }
+
+        // A narrow time range scans the time index, a small envelope over all time the cells
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            long geoPackageId = ds.getGeoPackageId(geoPackage.getName());
+            String timePlan = ds.explainQuery(geoPackageId, featureDao.getTableName(), largeEnvelope,
+                    ranges[0][0], ranges[0][1]).toString();
+            assertTrue(timePlan, timePlan.contains(GeometryMetadataStore.INDEX_TIME_NAME));
+            String cellPlan = ds.explainQuery(geoPackageId, featureDao.getTableName(),
+                    createEnvelope(-1.0, -1.0, 1.0, 1.0), ranges[1][0], ranges[1][1]).toString();
+            assertTrue(cellPlan, cellPlan.contains(GeometryMetadata.INDEX_CELL_NAME));
+            GeometryMetadata metadata = ds.get(geoPackageId, featureDao.getTableName(),
+                    times.keySet().iterator().next());
+            assertEquals(times.get(metadata.getId()), metadata.getTime());
+        } finally {
+            db.close();
+        }
+
+        // Time only writes are maintained by write-through indexing
+        indexer.setWriteThrough(true);
+        try {
+            long id = expectedTimeIds(points, times, largeEnvelope, ranges[0][0], ranges[0][1])
+                    .iterator().next();
+            long time = base + 1000 * hour;
+            ContentValues values = new ContentValues();
+            values.put("obs_time", format.format(new Date(time)));
+            assertEquals(1, featureDao.update(values, featureDao.getTable().getPkColumn().getName()
+                    + " = ?", new String[]{String.valueOf(id)}));
+            times.put(id, time);
+            assertTrue(indexer.isIndexed());
+            assertFalse(queryIds(timeIndex, largeEnvelope, ranges[0][0], ranges[0][1]).contains(id));
+            assertEquals(Collections.singleton(id), queryIds(timeIndex, largeEnvelope, time, time));
+
+            FeatureRow row = featureDao.newRow();
+            FeatureTileUtils.setPoint(row, 1.0, 1.0);
+            row.setValue("obs_time", format.format(new Date(time)));
+            long insertId = featureDao.insert(row);
+            assertEquals(new HashSet<Long>(Arrays.asList(id, insertId)),
+                    queryIds(timeIndex, largeEnvelope, time, time));
+        } finally {
+            indexer.close();
+        }
+
+        for (GeometryEnvelope envelope : new GeometryEnvelope[]{smallEnvelope, largeEnvelope}) {
+            assertEquals(expectedTimeIds(points, times, envelope, ranges[0][0], ranges[0][1]),
+                    queryIds(timeIndex, envelope, ranges[0][0], ranges[0][1]));
+        }
+
+        // Time only writes are captured by the change log for incremental updates
+        FeatureChangeLog changeLog = new FeatureChangeLog(featureDao);
+        indexer.update();
+        assertTrue(changeLog.has());
+        long id = times.keySet().iterator().next();
+        long time = base + 2000 * hour;
+        ContentValues values = new ContentValues();
+        values.put("obs_time", format.format(new Date(time)));
+        assertEquals(1, featureDao.update(values, featureDao.getTable().getPkColumn().getName()
+                + " = ?", new String[]{String.valueOf(id)}));
+        assertEquals(2, changeLog.count());
+        assertEquals(1, indexer.update());
+        assertEquals(Collections.singleton(id), queryIds(timeIndex, largeEnvelope, time, time));
+
+        // The update trigger follows the time column
+        timeIndex.setTimeColumn(null);
+        assertTrue(changeLog.has());
+        values.put("obs_time", format.format(new Date(time + hour)));
+        assertEquals(1, featureDao.update(values, featureDao.getTable().getPkColumn().getName()
+                + " = ?", new String[]{String.valueOf(id)}));
+        assertEquals(0, changeLog.count());
+        timeIndex.setTimeColumn("obs_time");
+        assertEquals(1, featureDao.update(values, featureDao.getTable().getPkColumn().getName()
+                + " = ?", new String[]{String.valueOf(id)}));
+        assertEquals(2, changeLog.count());
+        changeLog.delete();
+    }
+
+    /**
+     * Query for the ids of the features intersecting the envelope within the time range
+     *
+     * @param timeIndex
+     * @param envelope
+     * @param minTime
+     * @param maxTime
+     * @return ids
+     */
+    private static Set<Long> queryIds(FeatureTimeIndex timeIndex, GeometryEnvelope envelope,
+                                      long minTime, long maxTime) {
+        Set<Long> ids = new HashSet<Long>();
+        FeatureCursor cursor = timeIndex.query(envelope, new Date(minTime), new Date(maxTime));
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getRow().getId());
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Get the expected ids of the points within the envelope and time range
+     *
+     * @param points
+     * @param times
+     * @param envelope
+     * @param minTime
+     * @param maxTime
+     * @return ids
+     */
+    private static Set<Long> expectedTimeIds(Map<Long, double[]> points, Map<Long, Long> times,
+                                             GeometryEnvelope envelope, long minTime, long maxTime) {
+        Set<Long> ids = new HashSet<Long>();
+        for (Map.Entry<Long, Long> time : times.entrySet()) {
+            double[] point = points.get(time.getKey());
+            if (time.getValue() >= minTime && time.getValue() <= maxTime
+                    && point[0] >= envelope.getMinX() && point[0] <= envelope.getMaxX()
+                    && point[1] >= envelope.getMinY() && point[1] <= envelope.getMaxY()) {
+                ids.add(time.getKey());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Create an envelope
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return
+     */
+    private static GeometryEnvelope createEnvelope(double minX, double minY, double maxX, double maxY) {
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(minX);
+        envelope.setMinY(minY);
+        envelope.setMaxX(maxX);
+        envelope.setMaxY(maxY);
+        return envelope;
+    }
+
+}
@@ -0,0 +1,166 @@
+package mil.nga.geopackage.test.db;
+
+import android.database.Cursor;
+
+import java.sql.SQLException;
+
+import mil.nga.geopackage.db.FeatureChangeLog;
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.ParallelFeatureIndexer;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.io.GeoPackageProgress;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+
+/**
+ * Test parallel feature indexer
+ *
+ * @author osbornb
+ */
+public class ParallelFeatureIndexerTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public ParallelFeatureIndexerTest() {
+
+    }
+
+    /**
+     * Test the parallel indexer
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testParallelIndexer() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int initialFeatures = FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        ParallelFeatureIndexer indexer = new ParallelFeatureIndexer(activity, featureDao);
+        indexer.setThreads(4);
+        indexer.setRangeSize(3);
+        indexer.setChunkLimit(2);
+
+        assertFalse(new FeatureIndexer(activity, featureDao).isIndexed());
+
+        int count = indexer.index();
+        assertEquals(initialFeatures, count);
+        assertEquals(initialFeatures, indexCount(featureDao));
+        assertTrue(new FeatureIndexer(activity, featureDao).isIndexed());
+
+        // Not indexed again when not needed
+        assertEquals(0, indexer.index());
+
+        // Force indexing of all GeoPackage feature tables
+        indexer = new ParallelFeatureIndexer(activity, geoPackage);
+        count = indexer.index(true);
+        assertTrue(count >= initialFeatures);
+        assertEquals(initialFeatures, indexCount(featureDao));
+
+        // A cancelled build checkpoints the completed ranges
+        FeatureChangeLog changeLog = new FeatureChangeLog(featureDao);
+        changeLog.create();
+        FeatureTileUtils.insertPoint(featureDao, 3.0, 3.0);
+        int features = initialFeatures + 1;
+        assertTrue(changeLog.count() > 0);
+        indexer = new ParallelFeatureIndexer(activity, featureDao);
+        indexer.setThreads(1);
+        indexer.setRangeSize(3);
+        indexer.setChunkLimit(2);
+        indexer.setProgress(new CancelProgress(4));
+        assertTrue(indexer.index(true) < features);
+        FeatureIndexer featureIndexer = new FeatureIndexer(activity, featureDao);
+        assertTrue(featureIndexer.hasCheckpoint());
+        assertTrue(changeLog.count() > 0);
+
+        // The resumed build completes, clearing the checkpoint and the change log
+        indexer.setProgress(null);
+        assertEquals(features, indexer.index(true));
+        assertFalse(featureIndexer.hasCheckpoint());
+        assertEquals(features, indexCount(featureDao));
+        assertEquals(0, changeLog.count());
+        changeLog.delete();
+    }
+
+    /**
+     * Count the indexed geometries of the feature table
+     *
+     * @param featureDao
+     * @return
+     */
+    private int indexCount(FeatureDao featureDao) {
+        int count;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            Cursor cursor = ds.query(geoPackage.getName(), featureDao.getTableName());
+            try {
+                count = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+        return count;
+    }
+
+    /**
+     * Progress that becomes inactive once the progress reaches the limit
+     */
+    private static class CancelProgress implements GeoPackageProgress {
+
+        /**
+         * Progress limit
+         */
+        private final int limit;
+
+        /**
+         * Progress
+         */
+        private int progress = 0;
+
+        /**
+         * Constructor
+         *
+         * @param limit
+         */
+        CancelProgress(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Get the progress
+         *
+         * @return
+         */
+        int getProgress() {
+            return progress;
+        }
+
+        @Override
+        public void setMax(int max) {
+        }
+
+        @Override
+        public void addProgress(int progress) {
+            this.progress += progress;
+        }
+
+        @Override
+        public boolean isActive() {
+            return progress < limit;
+        }
+
+        @Override
+        public boolean cleanupOnCancel() {
+            return false;
+        }
+
+    }
+
+}
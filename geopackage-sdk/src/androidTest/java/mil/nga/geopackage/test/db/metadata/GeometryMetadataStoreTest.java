@@ -0,0 +1,333 @@
+package mil.nga.geopackage.test.db.metadata;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDataSource;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadata;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.metadata.GeometryMetadataStore;
+import mil.nga.geopackage.factory.GeoPackageFactory;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Test geometry metadata store database files
+ *
+ * @author osbornb
+ */
+public class GeometryMetadataStoreTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public GeometryMetadataStoreTest() {
+
+    }
+
+    /**
+     * Count the features returned by an indexed envelope query
+     *
+     * @param indexer
+     * @param envelope
+     * @return count
+     */
+    private static int queryCount(FeatureIndexer indexer, GeometryEnvelope envelope) {
+        FeatureCursor cursor = indexer.query(envelope);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Test the per GeoPackage geometry metadata store
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testGeometryMetadataStore() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int initialFeatures = FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertEquals(initialFeatures, indexer.index());
+
+        // Index rows are written to the GeoPackage store instead of the metadata database
+        File storeFile = getStoreFile();
+        assertTrue(storeFile.exists());
+        assertEquals(initialFeatures, rowCount(storeFile));
+        assertEquals(0, rowCount(activity.getDatabasePath(GeoPackageMetadataDb.DATABASE_NAME)));
+        assertEquals(initialFeatures, indexCount(featureDao));
+        assertEquals(initialFeatures, queryCount(indexer, createEnvelope(-180.0, -90.0, 180.0, 90.0)));
+
+        // The store directory is not listed as a GeoPackage
+        assertFalse(GeoPackageFactory.getManager(activity).databases()
+                .contains(GeometryMetadataStore.DIRECTORY));
+
+        // Deleting the GeoPackage metadata deletes the store file
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeoPackageMetadataDataSource geoPackageDs = new GeoPackageMetadataDataSource(db);
+            assertTrue(geoPackageDs.delete(geoPackage.getName()));
+        } finally {
+            db.close();
+        }
+        assertFalse(storeFile.exists());
+        assertFalse(indexer.isIndexed());
+        assertEquals(0, indexCount(featureDao));
+
+        // Indexing again creates a new store
+        assertEquals(initialFeatures, indexer.index());
+        storeFile = getStoreFile();
+        assertTrue(storeFile.exists());
+        assertEquals(initialFeatures, rowCount(storeFile));
+        assertEquals(initialFeatures, queryCount(indexer, createEnvelope(-180.0, -90.0, 180.0, 90.0)));
+
+        // Stores are stamped with the format version and do not repeat the GeoPackage id
+        SQLiteDatabase store = SQLiteDatabase.openDatabase(storeFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(GeometryMetadataStore.FORMAT_VERSION, store.getVersion());
+            Cursor cursor = store.rawQuery("PRAGMA table_info(geom_metadata)", null);
+            try {
+                int nameIndex = cursor.getColumnIndexOrThrow("name");
+                while (cursor.moveToNext()) {
+                    assertFalse(GeometryMetadata.COLUMN_GEOPACKAGE_ID.equals(cursor.getString(nameIndex)));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            store.close();
+        }
+
+        // A format version 1 store with table names and double bounds is re-encoded in
+        // place when attached
+        Map<Long, GeometryMetadata> rows = queryGeometryMetadata(featureDao);
+        assertEquals(initialFeatures, rows.size());
+        store = SQLiteDatabase.openDatabase(storeFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            store.execSQL("DROP TABLE geom_metadata");
+            store.execSQL("DROP TABLE " + GeometryMetadataStore.TABLE_NAMES_TABLE);
+            store.execSQL("CREATE TABLE geom_metadata (table_name TEXT NOT NULL, "
+                    + "geom_id INTEGER NOT NULL, min_x DOUBLE NOT NULL, max_x DOUBLE NOT NULL, "
+                    + "min_y DOUBLE NOT NULL, max_y DOUBLE NOT NULL, min_z DOUBLE, max_z DOUBLE, "
+                    + "min_m DOUBLE, max_m DOUBLE, cell_key INTEGER, "
+                    + "CONSTRAINT pk_geom_metadata PRIMARY KEY (table_name, geom_id))");
+            for (GeometryMetadata row : rows.values()) {
+                ContentValues values = new ContentValues();
+                values.put("table_name", row.getTableName());
+                values.put("geom_id", row.getId());
+                values.put("min_x", row.getMinX());
+                values.put("max_x", row.getMaxX());
+                values.put("min_y", row.getMinY());
+                values.put("max_y", row.getMaxY());
+                values.put("min_z", row.getMinZ());
+                values.put("max_z", row.getMaxZ());
+                values.put("min_m", row.getMinM());
+                values.put("max_m", row.getMaxM());
+                values.put("cell_key", row.getCellKey());
+                assertTrue(store.insert("geom_metadata", null, values) != -1);
+            }
+            store.setVersion(1);
+        } finally {
+            store.close();
+        }
+        assertTrue(indexer.isIndexed());
+        assertEquals(initialFeatures, queryCount(indexer, createEnvelope(-180.0, -90.0, 180.0, 90.0)));
+        Map<Long, GeometryMetadata> migratedRows = queryGeometryMetadata(featureDao);
+        assertEquals(rows.size(), migratedRows.size());
+        for (GeometryMetadata row : rows.values()) {
+            GeometryMetadata migratedRow = migratedRows.get(row.getId());
+            assertNotNull(migratedRow);
+            assertEquals(row.getTableName(), migratedRow.getTableName());
+            assertEquals(row.getMinX(), migratedRow.getMinX());
+            assertEquals(row.getMaxX(), migratedRow.getMaxX());
+            assertEquals(row.getMinY(), migratedRow.getMinY());
+            assertEquals(row.getMaxY(), migratedRow.getMaxY());
+            assertEquals(row.getCellKey(), migratedRow.getCellKey());
+            assertNull(migratedRow.getTime());
+        }
+        store = SQLiteDatabase.openDatabase(storeFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(GeometryMetadataStore.FORMAT_VERSION, store.getVersion());
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Test that queries on an open feature connection read the current store after the
+     * GeoPackage store is deleted and indexed again
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testGeometryMetadataStoreDelete() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int initialFeatures = FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertEquals(initialFeatures, indexer.index());
+        GeometryEnvelope envelope = createEnvelope(-180.0, -90.0, 180.0, 90.0);
+        assertEquals(initialFeatures, queryCount(indexer, envelope));
+
+        // Queries leave no store attached to the feature connection
+        File storeFile = getStoreFile();
+        Cursor cursor = featureDao.getSQLiteDatabase().rawQuery("PRAGMA database_list", null);
+        try {
+            int fileIndex = cursor.getColumnIndexOrThrow("file");
+            while (cursor.moveToNext()) {
+                assertFalse(storeFile.getAbsolutePath().equals(cursor.getString(fileIndex)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Deleting the store unlinks the file and the same connection reads no features
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeoPackageMetadataDataSource geoPackageDs = new GeoPackageMetadataDataSource(db);
+            assertTrue(geoPackageDs.delete(geoPackage.getName()));
+        } finally {
+            db.close();
+        }
+        assertFalse(storeFile.exists());
+        assertEquals(0, queryCount(indexer, envelope));
+
+        // Features indexed into a new store are read from the new store
+        FeatureTileUtils.insertFourPoints(featureDao, 10.0, 10.0);
+        assertEquals(initialFeatures + 4, indexer.index());
+        assertTrue(getStoreFile().exists());
+        assertEquals(initialFeatures + 4, queryCount(indexer, envelope));
+    }
+
+    /**
+     * Query the indexed geometry metadata of the table
+     *
+     * @param featureDao
+     * @return geometry metadata by id
+     */
+    private Map<Long, GeometryMetadata> queryGeometryMetadata(FeatureDao featureDao) {
+        Map<Long, GeometryMetadata> rows = new HashMap<Long, GeometryMetadata>();
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            Cursor cursor = ds.query(geoPackage.getName(), featureDao.getTableName());
+            try {
+                while (cursor.moveToNext()) {
+                    GeometryMetadata row = ds.createGeometryMetadata(cursor);
+                    rows.put(row.getId(), row);
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Get the geometry metadata store file of the test GeoPackage
+     *
+     * @return store file
+     */
+    private File getStoreFile() {
+        File file;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeoPackageMetadataDataSource geoPackageDs = new GeoPackageMetadataDataSource(db);
+            file = db.getGeometryMetadataStoreFile(geoPackageDs.get(geoPackage.getName()).getId());
+        } finally {
+            db.close();
+        }
+        return file;
+    }
+
+    /**
+     * Count the geometry metadata rows of the database file
+     *
+     * @param file
+     * @return row count
+     */
+    private static int rowCount(File file) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + GeometryMetadata.TABLE_NAME, null);
+            try {
+                cursor.moveToFirst();
+                return cursor.getInt(0);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Create an envelope
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return
+     */
+    private static GeometryEnvelope createEnvelope(double minX, double minY, double maxX, double maxY) {
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(minX);
+        envelope.setMinY(minY);
+        envelope.setMaxX(maxX);
+        envelope.setMaxY(maxY);
+        return envelope;
+    }
+
+    /**
+     * Count the indexed geometries of the feature table
+     *
+     * @param featureDao
+     * @return
+     */
+    private int indexCount(FeatureDao featureDao) {
+        int count;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            Cursor cursor = ds.query(geoPackage.getName(), featureDao.getTableName());
+            try {
+                count = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+        return count;
+    }
+
+}
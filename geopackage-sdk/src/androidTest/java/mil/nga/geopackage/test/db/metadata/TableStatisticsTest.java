@@ -0,0 +1,292 @@
+package mil.nga.geopackage.test.db.metadata;
+
+import android.database.Cursor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import mil.nga.geopackage.BoundingBox;
+import mil.nga.geopackage.db.FeatureChangeLog;
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadata;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.metadata.TableMetadataDataSource;
+import mil.nga.geopackage.db.metadata.TableStatistics;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.features.user.FeatureRow;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Test table statistics
+ *
+ * @author osbornb
+ */
+public class TableStatisticsTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public TableStatisticsTest() {
+
+    }
+
+    /**
+     * Test the table statistics and count estimates
+     *
+     * @throws SQLException
+     */
+    public void testStatistics() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertNull(indexer.getStatistics());
+        assertEquals(-1, indexer.estimateCount(createEnvelope(-180, -90, 180, 90)));
+
+        indexer.index();
+
+        // Count and extent from the index rows
+        int count = 0;
+        GeometryEnvelope extent = null;
+        List<GeometryEnvelope> envelopes = new ArrayList<GeometryEnvelope>();
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            Cursor cursor = ds.query(geoPackage.getName(), featureDao.getTableName());
+            try {
+                while (cursor.moveToNext()) {
+                    GeometryMetadata metadata = ds.createGeometryMetadata(cursor);
+                    GeometryEnvelope envelope = createEnvelope(metadata.getMinX(), metadata.getMinY(),
+                            metadata.getMaxX(), metadata.getMaxY());
+                    envelopes.add(envelope);
+                    count++;
+                    if (extent == null) {
+                        extent = createEnvelope(envelope.getMinX(), envelope.getMinY(),
+                                envelope.getMaxX(), envelope.getMaxY());
+                    } else {
+                        extent.setMinX(Math.min(extent.getMinX(), envelope.getMinX()));
+                        extent.setMinY(Math.min(extent.getMinY(), envelope.getMinY()));
+                        extent.setMaxX(Math.max(extent.getMaxX(), envelope.getMaxX()));
+                        extent.setMaxY(Math.max(extent.getMaxY(), envelope.getMaxY()));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+        assertTrue(count > 0);
+
+        TableStatistics statistics = indexer.getStatistics();
+        assertNotNull(statistics);
+        assertEquals(count, statistics.getCount());
+        assertEquals(extent.getMinX(), statistics.getMinX());
+        assertEquals(extent.getMinY(), statistics.getMinY());
+        assertEquals(extent.getMaxX(), statistics.getMaxX());
+        assertEquals(extent.getMaxY(), statistics.getMaxY());
+        assertEquals(TableStatistics.DEFAULT_HISTOGRAM_SIZE, statistics.getHistogramColumns());
+        assertEquals(TableStatistics.DEFAULT_HISTOGRAM_SIZE, statistics.getHistogramRows());
+        int histogramCount = 0;
+        for (int cellCount : statistics.getHistogram()) {
+            histogramCount += cellCount;
+        }
+        assertEquals(count, histogramCount);
+
+        // The full extent contains every feature and a disjoint envelope contains none
+        assertEquals(count, indexer.estimateCount(statistics.getExtent()));
+        assertEquals(1.0, statistics.estimateSelectivity(statistics.getExtent()), 0.0);
+        assertEquals(0, indexer.estimateCount(createEnvelope(extent.getMaxX() + 1, extent.getMaxY() + 1,
+                extent.getMaxX() + 2, extent.getMaxY() + 2)));
+
+        // Estimates are bounded by the count and near the actual count of partial envelopes
+        double width = extent.getMaxX() - extent.getMinX();
+        double height = extent.getMaxY() - extent.getMinY();
+        for (int i = 0; i < 4; i++) {
+            double minX = extent.getMinX() + width * i / 8.0;
+            double minY = extent.getMinY() + height * i / 8.0;
+            GeometryEnvelope query = createEnvelope(minX, minY, minX + width / 2.0, minY + height / 2.0);
+            int actual = 0;
+            for (GeometryEnvelope envelope : envelopes) {
+                if (envelope.getMinX() <= query.getMaxX() && envelope.getMaxX() >= query.getMinX()
+                        && envelope.getMinY() <= query.getMaxY() && envelope.getMaxY() >= query.getMinY()) {
+                    actual++;
+                }
+            }
+            long estimate = indexer.estimateCount(query);
+            assertTrue(estimate >= 0 && estimate <= count);
+            assertTrue("Estimate: " + estimate + ", Actual: " + actual,
+                    Math.abs(estimate - actual) <= Math.max(5, count / 4));
+        }
+
+        // Feature DAO estimates use the indexer statistics
+        featureDao.setIndexer(indexer);
+        BoundingBox boundingBox = new BoundingBox(extent.getMinX(), extent.getMaxX(),
+                extent.getMinY(), extent.getMaxY());
+        assertEquals(count, featureDao.estimateCount(boundingBox, null));
+        featureDao.setIndexer(null);
+
+        // Growing the extent keeps the histogram cells over the histogram bounds
+        GeometryEnvelope histogramBounds = statistics.getHistogramBounds();
+        assertEquals(extent.getMinX(), histogramBounds.getMinX());
+        assertEquals(extent.getMaxY(), histogramBounds.getMaxY());
+        GeometryEnvelope lowerLeft = createEnvelope(extent.getMinX(), extent.getMinY(),
+                extent.getMinX() + width / 2.0, extent.getMinY() + height / 2.0);
+        long lowerLeftEstimate = statistics.estimateCount(lowerLeft);
+        statistics.add(createEnvelope(extent.getMaxX() + width, extent.getMaxY() + height,
+                extent.getMaxX() + width, extent.getMaxY() + height));
+        assertEquals(extent.getMaxX() + width, statistics.getMaxX());
+        assertEquals(histogramBounds.getMaxX(), statistics.getHistogramBounds().getMaxX());
+        assertEquals(histogramBounds.getMaxY(), statistics.getHistogramBounds().getMaxY());
+        assertEquals(lowerLeftEstimate, statistics.estimateCount(lowerLeft));
+        assertEquals(count + 1, statistics.estimateCount(statistics.getExtent()));
+
+        // Deleting the table metadata deletes the statistics
+        db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            assertTrue(tableDs.delete(geoPackage.getName(), featureDao.getTableName()));
+        } finally {
+            db.close();
+        }
+        assertNull(indexer.getStatistics());
+    }
+
+    /**
+     * Test the statistics count and extent maintained by write-through writes and updates
+     *
+     * @throws SQLException
+     */
+    public void testStatisticsMaintenance() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int initialFeatures = FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertNull(indexer.getBoundingBox());
+        assertEquals(-1, indexer.getIndexedCount());
+
+        indexer.index();
+        assertEquals(initialFeatures, indexer.getIndexedCount());
+        BoundingBox boundingBox = indexer.getBoundingBox();
+        assertNotNull(boundingBox);
+        assertStatistics(indexer, featureDao);
+
+        double outsideX = Math.floor(boundingBox.getMaxLongitude()) + 2.0;
+        double outsideY = Math.floor(boundingBox.getMaxLatitude()) + 2.0;
+        double insideX = (boundingBox.getMinLongitude() + boundingBox.getMaxLongitude()) / 2.0;
+        double insideY = (boundingBox.getMinLatitude() + boundingBox.getMaxLatitude()) / 2.0;
+
+        indexer.setWriteThrough(true);
+        try {
+
+            // Insert outside the extent expands the extent
+            long id = FeatureTileUtils.insertPoint(featureDao, outsideX, outsideY);
+            assertEquals(initialFeatures + 1, indexer.getIndexedCount());
+            assertEquals(outsideX, indexer.getBoundingBox().getMaxLongitude());
+            assertEquals(outsideY, indexer.getBoundingBox().getMaxLatitude());
+            assertStatistics(indexer, featureDao);
+
+            // Moving the feature inside shrinks the extent back
+            FeatureRow row = featureDao.queryForIdRow(id);
+            FeatureTileUtils.setPoint(row, insideX, insideY);
+            assertEquals(1, featureDao.update(row));
+            assertEquals(initialFeatures + 1, indexer.getIndexedCount());
+            assertEquals(boundingBox, indexer.getBoundingBox());
+            assertStatistics(indexer, featureDao);
+
+            // Delete
+            assertEquals(1, featureDao.deleteById(id));
+            assertEquals(initialFeatures, indexer.getIndexedCount());
+            assertEquals(boundingBox, indexer.getBoundingBox());
+            assertStatistics(indexer, featureDao);
+        } finally {
+            indexer.close();
+        }
+
+        // Change log updates
+        indexer.update();
+        long id = FeatureTileUtils.insertPoint(featureDao, outsideX, outsideY);
+        assertEquals(1, indexer.update());
+        assertEquals(initialFeatures + 1, indexer.getIndexedCount());
+        assertEquals(outsideX, indexer.getBoundingBox().getMaxLongitude());
+        assertStatistics(indexer, featureDao);
+
+        featureDao.deleteById(id);
+        assertEquals(1, indexer.update());
+        assertEquals(initialFeatures, indexer.getIndexedCount());
+        assertEquals(boundingBox, indexer.getBoundingBox());
+        assertStatistics(indexer, featureDao);
+
+        new FeatureChangeLog(featureDao).delete();
+    }
+
+    /**
+     * Assert the table statistics count and extent match the index rows
+     *
+     * @param indexer
+     * @param featureDao
+     */
+    private void assertStatistics(FeatureIndexer indexer, FeatureDao featureDao) {
+        int count = 0;
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            Cursor cursor = ds.query(geoPackage.getName(), featureDao.getTableName());
+            try {
+                while (cursor.moveToNext()) {
+                    GeometryMetadata metadata = ds.createGeometryMetadata(cursor);
+                    minX = Math.min(minX, metadata.getMinX());
+                    minY = Math.min(minY, metadata.getMinY());
+                    maxX = Math.max(maxX, metadata.getMaxX());
+                    maxY = Math.max(maxY, metadata.getMaxY());
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+        TableStatistics statistics = indexer.getStatistics();
+        assertNotNull(statistics);
+        assertEquals(count, statistics.getCount());
+        assertEquals(minX, statistics.getMinX());
+        assertEquals(minY, statistics.getMinY());
+        assertEquals(maxX, statistics.getMaxX());
+        assertEquals(maxY, statistics.getMaxY());
+    }
+
+    /**
+     * Create an envelope
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return
+     */
+    private static GeometryEnvelope createEnvelope(double minX, double minY, double maxX, double maxY) {
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(minX);
+        envelope.setMinY(minY);
+        envelope.setMaxX(maxX);
+        envelope.setMaxY(maxY);
+        return envelope;
+    }
+
+}
@@ -0,0 +1,129 @@
+package mil.nga.geopackage.test.db.rtree;
+
+import android.database.Cursor;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.rtree.PackedRTree;
+import mil.nga.geopackage.db.rtree.PackedRTreeIndex;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Test packed R-tree index files
+ *
+ * @author osbornb
+ */
+public class PackedRTreeIndexTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public PackedRTreeIndexTest() {
+
+    }
+
+    /**
+     * Test the packed R-tree built from the index
+     *
+     * @throws java.sql.SQLException
+     */
+    public void testPackedRTree() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+
+        int initialFeatures = FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertNull(indexer.getPackedRTree());
+        assertEquals(initialFeatures, indexer.index());
+
+        PackedRTree tree = indexer.getPackedRTree();
+        assertNotNull(tree);
+        assertEquals(initialFeatures, tree.size());
+
+        // The opened tree is cached until the table is indexed again
+        assertSame(tree, indexer.getPackedRTree());
+        assertSame(tree, new FeatureIndexer(activity, featureDao).getPackedRTree());
+
+        GeometryEnvelope[] envelopes = new GeometryEnvelope[]{
+                createEnvelope(-180.0, -90.0, 180.0, 90.0),
+                createEnvelope(-1.0, -1.0, 1.0, 1.0),
+                createEnvelope(-50.0, -40.0, 10.0, 30.0),
+                createEnvelope(60.0, 10.0, 170.0, 80.0),
+                createEnvelope(179.0, 89.0, 180.0, 90.0)};
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(activity);
+        db.open();
+        try {
+            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
+            long geoPackageId = ds.getGeoPackageId(geoPackage.getName());
+            for (GeometryEnvelope envelope : envelopes) {
+
+                Cursor cursor = ds.query(geoPackageId, featureDao.getTableName(), envelope);
+                long[] expected = new long[cursor.getCount()];
+                try {
+                    int i = 0;
+                    while (cursor.moveToNext()) {
+                        expected[i++] = ds.createGeometryMetadata(cursor).getId();
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                long[] ids = new long[initialFeatures];
+                int count = tree.query(envelope, ids);
+                assertEquals(expected.length, count);
+                long[] actual = Arrays.copyOf(ids, count);
+                Arrays.sort(expected);
+                Arrays.sort(actual);
+                assertTrue(Arrays.equals(expected, actual));
+
+                // Counts beyond the id buffer capacity
+                assertEquals(count, tree.query(envelope, new long[0]));
+            }
+
+            // Rebuilt after the table is indexed again
+            long lastIndexed = tree.getLastIndexed();
+            FeatureTileUtils.insertPoint(featureDao, 0, 0);
+            FeatureTileUtils.updateLastChange(geoPackage, featureDao);
+            assertEquals(initialFeatures + 1, indexer.index(true));
+            PackedRTree previous = tree;
+            tree = indexer.getPackedRTree();
+            assertNotSame(previous, tree);
+            assertEquals(initialFeatures + 1, tree.size());
+            assertTrue(tree.getLastIndexed() >= lastIndexed);
+
+            PackedRTreeIndex rtreeIndex = new PackedRTreeIndex(activity);
+            assertTrue(rtreeIndex.delete(geoPackageId, featureDao.getTableName()));
+            assertNull(rtreeIndex.open(geoPackageId, featureDao.getTableName()));
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Create an envelope
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return
+     */
+    private static GeometryEnvelope createEnvelope(double minX, double minY, double maxX, double maxY) {
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(minX);
+        envelope.setMinY(minY);
+        envelope.setMaxX(maxX);
+        envelope.setMaxY(maxY);
+        return envelope;
+    }
+
+}
@@ -0,0 +1,133 @@
+package mil.nga.geopackage.test.extension;
+
+import android.database.sqlite.SQLiteException;
+
+import java.sql.SQLException;
+
+import mil.nga.geopackage.BoundingBox;
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.extension.ExtensionsDao;
+import mil.nga.geopackage.extension.RTreeIndexExtension;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.features.user.FeatureRow;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Test the GeoPackage RTree index extension
+ *
+ * @author osbornb
+ */
+public class RTreeIndexExtensionTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public RTreeIndexExtensionTest() {
+
+    }
+
+    /**
+     * Test creating, querying, and maintaining the RTree index
+     *
+     * @throws SQLException
+     */
+    public void testRTreeIndex() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+        int initialFeatures = FeatureTileUtils.insertFeatures(geoPackage, featureDao);
+
+        RTreeIndexExtension rtreeIndex = featureDao.getRTreeIndex();
+        assertFalse(featureDao.isRTreeIndexed());
+        assertEquals("rtree_" + featureDao.getTableName() + "_"
+                + featureDao.getGeometryColumnName(), rtreeIndex.getTableName());
+
+        int count;
+        try {
+            count = rtreeIndex.create();
+        } catch (SQLiteException e) {
+            // SQLite rtree module not available on this device
+            return;
+        }
+        assertEquals(initialFeatures, count);
+        assertTrue(featureDao.isRTreeIndexed());
+
+        // The indexer queries read the metadata index, which is still built
+        FeatureIndexer indexer = new FeatureIndexer(activity, featureDao);
+        assertFalse(indexer.isIndexed());
+        assertEquals(initialFeatures, indexer.index());
+        assertTrue(indexer.isIndexed());
+        assertEquals(initialFeatures, rtreeIndex.count());
+
+        // Extension registered
+        ExtensionsDao extensionsDao = geoPackage.getExtensionsDao();
+        assertNotNull(extensionsDao.queryByExtension(RTreeIndexExtension.EXTENSION_NAME,
+                featureDao.getTableName(), featureDao.getGeometryColumnName()));
+
+        // Query the world
+        BoundingBox world = new BoundingBox(-180.0, 180.0, -90.0, 90.0);
+        FeatureCursor cursor = rtreeIndex.query(world);
+        try {
+            assertEquals(initialFeatures, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        // Insert a point and verify it is indexed
+        long id = FeatureTileUtils.insertPoint(featureDao, 101.5, 55.25);
+        assertEquals(initialFeatures + 1, rtreeIndex.count());
+        GeometryEnvelope pointEnvelope = createEnvelope(101.0, 55.0, 102.0, 56.0);
+        assertEquals(1, rtreeIndex.count(pointEnvelope));
+        cursor = rtreeIndex.query(pointEnvelope);
+        try {
+            assertTrue(cursor.moveToNext());
+            assertEquals(id, cursor.getRow().getId());
+        } finally {
+            cursor.close();
+        }
+
+        // Move the point and verify the index follows it
+        FeatureRow row = featureDao.queryForIdRow(id);
+        FeatureTileUtils.setPoint(row, -101.5, -55.25);
+        assertEquals(1, featureDao.update(row));
+        assertEquals(0, rtreeIndex.count(pointEnvelope));
+        assertEquals(1, rtreeIndex.count(createEnvelope(-102.0, -56.0, -101.0, -55.0)));
+        assertEquals(initialFeatures + 1, rtreeIndex.count());
+
+        // Delete the point
+        assertEquals(1, featureDao.deleteById(id));
+        assertEquals(initialFeatures, rtreeIndex.count());
+        assertEquals(0, rtreeIndex.count(createEnvelope(-102.0, -56.0, -101.0, -55.0)));
+
+        // Delete by where clause
+        featureDao.delete(null, null);
+        assertEquals(0, rtreeIndex.count());
+
+        // Remove the extension
+        rtreeIndex.delete();
+        assertFalse(featureDao.isRTreeIndexed());
+        assertNull(extensionsDao.queryByExtension(RTreeIndexExtension.EXTENSION_NAME,
+                featureDao.getTableName(), featureDao.getGeometryColumnName()));
+    }
+
+    /**
+     * Create an envelope
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return
+     */
+    private static GeometryEnvelope createEnvelope(double minX, double minY, double maxX, double maxY) {
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(minX);
+        envelope.setMinY(minY);
+        envelope.setMaxX(maxX);
+        envelope.setMaxY(maxY);
+        return envelope;
+    }
+
+}
@@ -2,6 +2,7 @@ package mil.nga.geopackage.test.features.user;
 
 import java.nio.ByteBuffer;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -140,6 +141,43 @@ public class FeatureUtils {
 				TestCase.assertEquals(count, manualCount);
 				cursor.close();
 
+				// Query for all reusing the row and compare
+				cursor = dao.queryForAll();
+				FeatureCursor reuseCursor = dao.queryForAll();
+				reuseCursor.setReuseRow(true);
+				TestCase.assertTrue(reuseCursor.isReuseRow());
+				FeatureRow reusedRow = null;
+				while (cursor.moveToNext()) {
+					TestCase.assertTrue(reuseCursor.moveToNext());
+					FeatureRow featureRow = cursor.getRow();
+					FeatureRow reuseRow = reuseCursor.getRow();
+					if (reusedRow != null) {
+						TestCase.assertSame(reusedRow, reuseRow);
+					}
+					reusedRow = reuseRow;
+					validateFeatureRow(columns, reuseRow);
+					for (int i = 0; i < columns.length; i++) {
+						TestCase.assertEquals(featureRow.getRowColumnType(i),
+								reuseRow.getRowColumnType(i));
+						Object value = featureRow.getValue(i);
+						Object reuseValue = reuseRow.getValue(i);
+						if (value instanceof GeoPackageGeometryData) {
+							TestCase.assertTrue(Arrays.equals(
+									((GeoPackageGeometryData) value).getBytes(),
+									((GeoPackageGeometryData) reuseValue)
+											.getBytes()));
+						} else if (value instanceof byte[]) {
+							TestCase.assertTrue(Arrays.equals((byte[]) value,
+									(byte[]) reuseValue));
+						} else {
+							TestCase.assertEquals(value, reuseValue);
+						}
+					}
+				}
+				TestCase.assertFalse(reuseCursor.moveToNext());
+				reuseCursor.close();
+				cursor.close();
+
 				// Manually query for all and compare
 				cursor = (FeatureCursor) dao.getSQLiteDatabase().query(dao.getTableName(),
 						null, null, null, null, null, null);
@@ -31,4 +31,15 @@ public class GeoPackageGeometryDataCreateTest extends CreateGeoPackageTestCase {
 
 	}
 
+	/**
+	 * Test reading geometry envelopes from the header bytes
+	 * 
+	 * @throws SQLException
+	 */
+	public void testReadEnvelopes() throws SQLException {
+
+		GeoPackageGeometryDataUtils.testReadEnvelopes(geoPackage);
+
+	}
+
 }
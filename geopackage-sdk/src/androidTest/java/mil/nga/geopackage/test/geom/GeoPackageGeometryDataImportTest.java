@@ -31,4 +31,15 @@ public class GeoPackageGeometryDataImportTest extends ImportGeoPackageTestCase {
 
 	}
 
+	/**
+	 * Test reading geometry envelopes from the header bytes
+	 * 
+	 * @throws SQLException
+	 */
+	public void testReadEnvelopes() throws SQLException {
+
+		GeoPackageGeometryDataUtils.testReadEnvelopes(geoPackage);
+
+	}
+
 }
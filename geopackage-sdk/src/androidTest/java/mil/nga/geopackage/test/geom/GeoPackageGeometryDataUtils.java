@@ -5,6 +5,7 @@ import junit.framework.TestCase;
 import java.io.IOException;
 import java.nio.ByteOrder;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
 
 import mil.nga.geopackage.GeoPackage;
@@ -14,6 +15,7 @@ import mil.nga.geopackage.features.columns.GeometryColumnsDao;
 import mil.nga.geopackage.features.user.FeatureCursor;
 import mil.nga.geopackage.features.user.FeatureDao;
 import mil.nga.geopackage.geom.GeoPackageGeometryData;
+import mil.nga.geopackage.geom.GeoPackageGeometryEnvelopeReader;
 import mil.nga.wkb.geom.CircularString;
 import mil.nga.wkb.geom.CompoundCurve;
 import mil.nga.wkb.geom.CurvePolygon;
@@ -30,6 +32,7 @@ import mil.nga.wkb.geom.Polygon;
 import mil.nga.wkb.geom.PolyhedralSurface;
 import mil.nga.wkb.geom.TIN;
 import mil.nga.wkb.geom.Triangle;
+import mil.nga.wkb.util.GeometryEnvelopeBuilder;
 
 /**
  * GeoPackage Geometry Data test utils
@@ -134,6 +137,88 @@ public class GeoPackageGeometryDataUtils {
 
 	}
 
+	/**
+	 * Test reading geometry envelopes from the header bytes and compare them
+	 * with the decoded geometry data
+	 * 
+	 * @param geoPackage
+	 * @throws SQLException
+	 */
+	public static void testReadEnvelopes(GeoPackage geoPackage)
+			throws SQLException {
+
+		GeometryColumnsDao geometryColumnsDao = geoPackage
+				.getGeometryColumnsDao();
+
+		if (geometryColumnsDao.isTableExists()) {
+			List<GeometryColumns> results = geometryColumnsDao.queryForAll();
+
+			for (GeometryColumns geometryColumns : results) {
+
+				FeatureDao dao = geoPackage.getFeatureDao(geometryColumns);
+				TestCase.assertNotNull(dao);
+
+				FeatureCursor cursor = dao.queryForAll();
+
+				while (cursor.moveToNext()) {
+
+					GeoPackageGeometryData geometryData = cursor.getGeometry();
+					GeometryEnvelope envelope = cursor.getGeometryEnvelope();
+					if (geometryData == null) {
+						TestCase.assertNull(envelope);
+						continue;
+					}
+
+					byte[] bytes = geometryData.getBytes();
+					GeometryEnvelope headerEnvelope = geometryData
+							.getEnvelope();
+
+					// Header envelopes are read directly from the bytes
+					compareEnvelopes(headerEnvelope,
+							GeoPackageGeometryEnvelopeReader.readEnvelope(bytes));
+					TestCase.assertEquals(headerEnvelope != null,
+							GeoPackageGeometryEnvelopeReader.hasEnvelope(bytes));
+
+					if (geometryData.isEmpty()) {
+						TestCase.assertNull(envelope);
+					} else if (headerEnvelope != null) {
+						compareEnvelopes(headerEnvelope, envelope);
+						double[] values = new double[4];
+						TestCase.assertTrue(GeoPackageGeometryEnvelopeReader
+								.readEnvelope(bytes, values));
+						TestCase.assertEquals(headerEnvelope.getMinX(), values[0]);
+						TestCase.assertEquals(headerEnvelope.getMaxX(), values[1]);
+						TestCase.assertEquals(headerEnvelope.getMinY(), values[2]);
+						TestCase.assertEquals(headerEnvelope.getMaxY(), values[3]);
+
+						// Bytes truncated within the header envelope are rejected
+						try {
+							GeoPackageGeometryEnvelopeReader.readEnvelope(
+									Arrays.copyOf(bytes, 16), values);
+							TestCase.fail("Truncated header envelope was read");
+						} catch (GeoPackageException e) {
+							// expected
+						}
+					} else if (geometryData.getGeometry() != null) {
+						// Without a header envelope the geometry is decoded
+						GeometryEnvelope geometryEnvelope = GeometryEnvelopeBuilder
+								.buildEnvelope(geometryData.getGeometry());
+						compareEnvelopes(geometryEnvelope, envelope);
+						double[] values = new double[4];
+						TestCase.assertTrue(GeoPackageGeometryEnvelopeReader
+								.readEnvelope(bytes, values));
+						TestCase.assertEquals(geometryEnvelope.getMinX(), values[0]);
+						TestCase.assertEquals(geometryEnvelope.getMaxX(), values[1]);
+						TestCase.assertEquals(geometryEnvelope.getMinY(), values[2]);
+						TestCase.assertEquals(geometryEnvelope.getMaxY(), values[3]);
+					}
+				}
+				cursor.close();
+			}
+		}
+
+	}
+
 	/**
 	 * Compare two geometry datas and verify they are equal
 	 * 
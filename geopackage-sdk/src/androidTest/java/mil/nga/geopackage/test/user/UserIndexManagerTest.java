@@ -0,0 +1,139 @@
+package mil.nga.geopackage.test.user;
+
+import android.content.ContentValues;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.test.CreateGeoPackageTestCase;
+import mil.nga.geopackage.test.tiles.features.FeatureTileUtils;
+import mil.nga.geopackage.user.UserIndex;
+import mil.nga.geopackage.user.UserIndexManager;
+import mil.nga.geopackage.user.UserQueryPattern;
+
+/**
+ * Test the user table attribute index manager
+ *
+ * @author osbornb
+ */
+public class UserIndexManagerTest extends CreateGeoPackageTestCase {
+
+    /**
+     * Constructor
+     */
+    public UserIndexManagerTest() {
+
+    }
+
+    /**
+     * Test creating, listing, and dropping indexes and reporting unindexed query patterns
+     *
+     * @throws SQLException
+     */
+    public void testIndexManager() throws SQLException {
+
+        FeatureDao featureDao = FeatureTileUtils.createFeatureDao(geoPackage);
+        String tableName = featureDao.getTableName();
+        featureDao.getDb().execSQL("ALTER TABLE " + tableName + " ADD COLUMN name TEXT");
+        featureDao.getDb().execSQL("ALTER TABLE " + tableName + " ADD COLUMN category INTEGER");
+        featureDao = geoPackage.getFeatureDao(tableName);
+
+        int features = 50;
+        for (int i = 0; i < features; i++) {
+            ContentValues values = new ContentValues();
+            values.put("name", "feature" + i);
+            values.put("category", i % 5);
+            featureDao.insert(values);
+        }
+
+        UserIndexManager indexManager = new UserIndexManager(featureDao);
+        assertFalse(indexManager.isTrackQueryPatterns());
+        indexManager.setTrackQueryPatterns(true);
+        assertTrue(indexManager.isTrackQueryPatterns());
+
+        // Track the query patterns
+        for (int i = 0; i < 3; i++) {
+            FeatureCursor cursor = featureDao.queryForEq("category", i);
+            assertEquals(features / 5, cursor.getCount());
+            cursor.close();
+        }
+        FeatureCursor cursor = featureDao.queryForEq("name", "feature1", null, null,
+                featureDao.getTable().getPkColumn().getName());
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        List<UserQueryPattern> patterns = indexManager.getQueryPatterns();
+        assertEquals(2, patterns.size());
+        assertEquals(3, patterns.get(0).getCount());
+        assertEquals(1, patterns.get(1).getCount());
+        assertEquals(2, indexManager.getUnindexedQueryPatterns().size());
+
+        // Index the category
+        UserIndex categoryIndex = indexManager.create("category");
+        assertTrue(categoryIndex.isManaged());
+        assertTrue(indexManager.has("category"));
+        List<UserQueryPattern> unindexed = indexManager.getUnindexedQueryPatterns();
+        assertEquals(1, unindexed.size());
+        assertEquals(patterns.get(1).getWhere(), unindexed.get(0).getWhere());
+
+        // Index the name with the row id for the ordered query
+        UserIndex nameIndex = indexManager.createWithRowId("name");
+        assertEquals(2, nameIndex.getColumns().size());
+        assertEquals("name", nameIndex.getColumns().get(0));
+        assertEquals(featureDao.getTable().getPkColumn().getName(), nameIndex.getColumns().get(1));
+        assertTrue(indexManager.getUnindexedQueryPatterns().isEmpty());
+
+        int managed = 0;
+        for (UserIndex index : indexManager.getIndexes()) {
+            if (index.isManaged()) {
+                managed++;
+                assertFalse(index.isUnique());
+                if (index.getName().equals(nameIndex.getName())) {
+                    assertEquals(nameIndex.getColumns(), index.getColumns());
+                } else {
+                    assertEquals(categoryIndex.getName(), index.getName());
+                    assertEquals(categoryIndex.getColumns(), index.getColumns());
+                }
+            }
+        }
+        assertEquals(2, managed);
+
+        // Indexes are stored in the GeoPackage
+        assertEquals(1, featureDao.getDb().count("sqlite_master", "type = 'index' AND name = ?",
+                new String[]{categoryIndex.getName()}));
+
+        // Queries return the same results with the indexes
+        cursor = featureDao.queryForEq("category", 1);
+        assertEquals(features / 5, cursor.getCount());
+        cursor.close();
+
+        // Creating an existing index does not fail
+        indexManager.create("category");
+
+        // Names are unique per table and column list, and the column order is checked
+        assertFalse(indexManager.getIndexName("a_b", "c").equals(indexManager.getIndexName("a", "b_c")));
+        assertFalse(indexManager.getIndexName("a_b").equals(indexManager.getIndexName("a", "b")));
+        assertFalse(indexManager.has("name"));
+        assertFalse(indexManager.has(featureDao.getTable().getPkColumn().getName(), "name"));
+        assertTrue(indexManager.has("name", featureDao.getTable().getPkColumn().getName()));
+
+        try {
+            indexManager.create("missing_column");
+            fail("Created an index on a missing column");
+        } catch (GeoPackageException e) {
+            // expected
+        }
+
+        indexManager.drop("category");
+        assertFalse(indexManager.has("category"));
+        assertEquals(1, indexManager.dropAll());
+        assertEquals(2, indexManager.getUnindexedQueryPatterns().size());
+
+        indexManager.setTrackQueryPatterns(false);
+        assertTrue(indexManager.getQueryPatterns().isEmpty());
+    }
+
+}
@@ -0,0 +1,285 @@
+package mil.nga.geopackage.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mil.nga.geopackage.features.user.FeatureDao;
+
+/**
+ * Feature change log, trigger based capture of the feature rows inserted, updated, or
+ * deleted in a feature table. The log table and triggers are stored in the GeoPackage so
+ * changes made by other processes and tools are captured for incremental re-indexing.
+ */
+public class FeatureChangeLog {
+
+    /**
+     * Change log table name
+     */
+    public static final String TABLE_NAME = "feature_change_log";
+
+    /**
+     * Change id column, increasing with each logged change
+     */
+    public static final String COLUMN_ID = "id";
+
+    /**
+     * Feature table name column
+     */
+    public static final String COLUMN_TABLE_NAME = "table_name";
+
+    /**
+     * Feature row id column
+     */
+    public static final String COLUMN_ROW_ID = "row_id";
+
+    /**
+     * Create table SQL
+     */
+    public static final String CREATE_SQL = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + COLUMN_TABLE_NAME + " TEXT NOT NULL, "
+            + COLUMN_ROW_ID + " INTEGER NOT NULL)";
+
+    /**
+     * Create index SQL
+     */
+    public static final String CREATE_INDEX_SQL = "CREATE INDEX IF NOT EXISTS "
+            + TABLE_NAME + "_table_idx ON " + TABLE_NAME
+            + " (" + COLUMN_TABLE_NAME + ", " + COLUMN_ID + ")";
+
+    /**
+     * Trigger name prefix
+     */
+    private static final String TRIGGER_PREFIX = "fcl_";
+
+    /**
+     * Feature DAO
+     */
+    private final FeatureDao featureDao;
+
+    /**
+     * Database connection
+     */
+    private final SQLiteDatabase db;
+
+    /**
+     * Constructor
+     *
+     * @param featureDao
+     */
+    public FeatureChangeLog(FeatureDao featureDao) {
+        this.featureDao = featureDao;
+        this.db = featureDao.getSQLiteDatabase();
+    }
+
+    /**
+     * Determine if change capture is enabled for the feature table
+     *
+     * @return true if the log table and triggers exist
+     */
+    public boolean has() {
+        boolean exists = featureDao.getDb().tableExists(TABLE_NAME);
+        if (exists) {
+            Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'trigger' AND name IN (?, ?, ?)",
+                    new String[]{getTriggerName("insert"), getTriggerName("update"), getTriggerName("delete")});
+            try {
+                exists = cursor.moveToFirst() && cursor.getInt(0) == 3;
+            } finally {
+                cursor.close();
+            }
+        }
+        return exists;
+    }
+
+    /**
+     * Create the change log table and the feature table triggers
+     */
+    public void create() {
+        create(null);
+    }
+
+    /**
+     * Create the change log table and the feature table triggers, also logging updates of
+     * the indexed time column
+     *
+     * @param timeColumn indexed time column or null
+     */
+    public void create(String timeColumn) {
+
+        String table = quote(featureDao.getTableName());
+        String pk = quote(featureDao.getTable().getPkColumn().getName());
+
+        db.beginTransaction();
+        try {
+            db.execSQL(CREATE_SQL);
+            db.execSQL(CREATE_INDEX_SQL);
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + quote(getTriggerName("insert"))
+                    + " AFTER INSERT ON " + table + " BEGIN "
+                    + getInsertLogSQL() + "NEW." + pk + "); END");
+            createUpdateTrigger(timeColumn);
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + quote(getTriggerName("delete"))
+                    + " AFTER DELETE ON " + table + " BEGIN "
+                    + getInsertLogSQL() + "OLD." + pk + "); END");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Recreate the update trigger to log updates of the changed indexed time column
+     *
+     * @param timeColumn indexed time column or null
+     */
+    public void updateTimeColumn(String timeColumn) {
+        db.beginTransaction();
+        try {
+            db.execSQL("DROP TRIGGER IF EXISTS " + quote(getTriggerName("update")));
+            createUpdateTrigger(timeColumn);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Create the update trigger on the primary key, geometry, and time columns
+     *
+     * @param timeColumn indexed time column or null
+     */
+    private void createUpdateTrigger(String timeColumn) {
+        String pk = quote(featureDao.getTable().getPkColumn().getName());
+        StringBuilder columns = new StringBuilder(pk);
+        columns.append(", ").append(quote(featureDao.getGeometryColumnName()));
+        if (timeColumn != null) {
+            columns.append(", ").append(quote(timeColumn));
+        }
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + quote(getTriggerName("update"))
+                + " AFTER UPDATE OF " + columns + " ON " + quote(featureDao.getTableName()) + " BEGIN "
+                + getInsertLogSQL() + "OLD." + pk + "); "
+                + getInsertLogSQL() + "NEW." + pk + "); END");
+    }
+
+    /**
+     * Get the change log insert SQL prefix, completed by the row id and closing parenthesis
+     *
+     * @return insert SQL prefix
+     */
+    private String getInsertLogSQL() {
+        return "INSERT INTO " + TABLE_NAME + " (" + COLUMN_TABLE_NAME + ", " + COLUMN_ROW_ID
+                + ") VALUES (" + literal(featureDao.getTableName()) + ", ";
+    }
+
+    /**
+     * Drop the feature table triggers and remove the table changes from the log
+     */
+    public void delete() {
+        db.beginTransaction();
+        try {
+            db.execSQL("DROP TRIGGER IF EXISTS " + quote(getTriggerName("insert")));
+            db.execSQL("DROP TRIGGER IF EXISTS " + quote(getTriggerName("update")));
+            db.execSQL("DROP TRIGGER IF EXISTS " + quote(getTriggerName("delete")));
+            if (featureDao.getDb().tableExists(TABLE_NAME)) {
+                clear(Long.MAX_VALUE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Get the latest change id of the feature table, used as the watermark of an update
+     *
+     * @return change id, 0 if there are no changes
+     */
+    public long getLatestChange() {
+        long latest = 0;
+        Cursor cursor = db.rawQuery("SELECT MAX(" + COLUMN_ID + ") FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_TABLE_NAME + " = ?", new String[]{featureDao.getTableName()});
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                latest = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return latest;
+    }
+
+    /**
+     * Get the distinct changed feature row ids up to and including the change id
+     *
+     * @param latestChange change id watermark
+     * @return row ids
+     */
+    public List<Long> getChangedIds(long latestChange) {
+        List<Long> ids = new ArrayList<Long>();
+        Cursor cursor = db.rawQuery("SELECT DISTINCT " + COLUMN_ROW_ID + " FROM " + TABLE_NAME
+                        + " WHERE " + COLUMN_TABLE_NAME + " = ? AND " + COLUMN_ID + " <= ?",
+                new String[]{featureDao.getTableName(), String.valueOf(latestChange)});
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Count the logged changes of the feature table
+     *
+     * @return change count
+     */
+    public int count() {
+        return featureDao.getDb().count(TABLE_NAME, COLUMN_TABLE_NAME + " = ?",
+                new String[]{featureDao.getTableName()});
+    }
+
+    /**
+     * Clear the logged changes of the feature table up to and including the change id
+     *
+     * @param latestChange change id watermark
+     * @return cleared count
+     */
+    public int clear(long latestChange) {
+        return db.delete(TABLE_NAME, COLUMN_TABLE_NAME + " = ? AND " + COLUMN_ID + " <= ?",
+                new String[]{featureDao.getTableName(), String.valueOf(latestChange)});
+    }
+
+    /**
+     * Get the trigger name
+     *
+     * @param operation
+     * @return trigger name
+     */
+    private String getTriggerName(String operation) {
+        return TRIGGER_PREFIX + featureDao.getTableName() + "_" + operation;
+    }
+
+    /**
+     * Quote an identifier
+     *
+     * @param name
+     * @return quoted name
+     */
+    private static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Create a string literal
+     *
+     * @param value
+     * @return literal
+     */
+    private static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+}
@@ -0,0 +1,50 @@
+package mil.nga.geopackage.db;
+
+import mil.nga.geopackage.features.user.FeatureRow;
+
+/**
+ * Feature row and its distance from a query point, returned by the nearest and within
+ * distance queries of {@link FeatureNearestQuery}
+ */
+public class FeatureDistance {
+
+    /**
+     * Feature row
+     */
+    private final FeatureRow row;
+
+    /**
+     * Distance from the query point to the feature geometry
+     */
+    private final double distance;
+
+    /**
+     * Constructor
+     *
+     * @param row
+     * @param distance
+     */
+    public FeatureDistance(FeatureRow row, double distance) {
+        this.row = row;
+        this.distance = distance;
+    }
+
+    /**
+     * Get the feature row
+     *
+     * @return
+     */
+    public FeatureRow getRow() {
+        return row;
+    }
+
+    /**
+     * Get the distance from the query point to the feature geometry
+     *
+     * @return
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+}
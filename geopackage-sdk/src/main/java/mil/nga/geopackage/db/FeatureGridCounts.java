@@ -0,0 +1,205 @@
+package mil.nga.geopackage.db;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mil.nga.geopackage.BoundingBox;
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.metadata.GridCount;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.projection.ProjectionConstants;
+import mil.nga.geopackage.projection.ProjectionFactory;
+import mil.nga.geopackage.projection.ProjectionTransform;
+import mil.nga.geopackage.tiles.TileBoundingBoxUtils;
+import mil.nga.geopackage.tiles.TileGrid;
+
+/**
+ * Grid and tile counts of a feature table indexed by the {@link FeatureIndexer}, grouped
+ * by the index without reading the features
+ */
+public class FeatureGridCounts {
+
+    /**
+     * Max grid columns and rows of grid count queries, each grid bound is a term of the
+     * query
+     */
+    public static final int MAX_GRID_SIZE = 1024;
+
+    /**
+     * Context
+     */
+    private final Context context;
+
+    /**
+     * Feature DAO
+     */
+    private final FeatureDao featureDao;
+
+    /**
+     * Constructor
+     *
+     * @param context
+     * @param featureDao
+     */
+    public FeatureGridCounts(Context context, FeatureDao featureDao) {
+        this.context = context;
+        this.featureDao = featureDao;
+    }
+
+    /**
+     * Count the indexed features per cell of a regular grid over the bounding box by their
+     * envelope centers, grouped by the index without reading the features. Column 0 is at
+     * the min x and row 0 at the max y, matching tile rows.
+     *
+     * @param boundingBox bounding box in the feature projection
+     * @param columns     number of grid columns
+     * @param rows        number of grid rows
+     * @param extents     true to also query the extent of the feature envelopes per cell
+     * @return counts of the cells with features
+     */
+    public List<GridCount> queryGridCounts(BoundingBox boundingBox, int columns, int rows,
+                                           boolean extents) {
+
+        validateGridSize(columns, rows);
+
+        double[] xBounds = new double[columns + 1];
+        for (int i = 0; i < columns; i++) {
+            xBounds[i] = boundingBox.getMinLongitude()
+                    + (boundingBox.getMaxLongitude() - boundingBox.getMinLongitude()) * i / columns;
+        }
+        xBounds[columns] = boundingBox.getMaxLongitude();
+        double[] yBounds = new double[rows + 1];
+        for (int i = 0; i < rows; i++) {
+            yBounds[i] = boundingBox.getMinLatitude()
+                    + (boundingBox.getMaxLatitude() - boundingBox.getMinLatitude()) * i / rows;
+        }
+        yBounds[rows] = boundingBox.getMaxLatitude();
+
+        List<GridCount> counts = new ArrayList<GridCount>();
+        for (GridCount count : queryGridCounts(xBounds, yBounds, extents)) {
+            counts.add(new GridCount(count.getColumn(), rows - 1 - count.getRow(),
+                    count.getCount(), count.getExtent()));
+        }
+        return counts;
+    }
+
+    /**
+     * Count the indexed features per web mercator tile at the zoom level by their envelope
+     * centers, grouped by the index without reading the features. All tiles overlapping
+     * the bounding box are counted in full, with the tile x as the column and the tile y
+     * as the row. Supported for features in WGS84 or web mercator, which share the tile
+     * column and row axes.
+     *
+     * @param boundingBox bounding box in the feature projection
+     * @param zoom        zoom level
+     * @param extents     true to also query the extent of the feature envelopes per tile
+     * @return counts of the tiles with features
+     */
+    public List<GridCount> queryTileCounts(BoundingBox boundingBox, int zoom, boolean extents) {
+
+        long epsg = featureDao.getProjection().getEpsg();
+        BoundingBox webMercatorBoundingBox;
+        if (epsg == ProjectionConstants.EPSG_WEB_MERCATOR) {
+            webMercatorBoundingBox = boundingBox;
+        } else if (epsg == ProjectionConstants.EPSG_WORLD_GEODETIC_SYSTEM) {
+            BoundingBox clipped = new BoundingBox(boundingBox.getMinLongitude(),
+                    boundingBox.getMaxLongitude(),
+                    Math.max(boundingBox.getMinLatitude(), ProjectionConstants.WEB_MERCATOR_MIN_LAT_RANGE),
+                    Math.min(boundingBox.getMaxLatitude(), ProjectionConstants.WEB_MERCATOR_MAX_LAT_RANGE));
+            webMercatorBoundingBox = featureDao.getProjection()
+                    .getTransformation(ProjectionConstants.EPSG_WEB_MERCATOR).transform(clipped);
+        } else {
+            throw new GeoPackageException("Tile counts require features in WGS84 or web mercator. Table: "
+                    + featureDao.getTableName() + ", EPSG: " + epsg);
+        }
+
+        int tilesPerSide = TileBoundingBoxUtils.tilesPerSide(zoom);
+        TileGrid tileGrid = TileBoundingBoxUtils.getTileGrid(webMercatorBoundingBox, zoom);
+        long minTileX = Math.max(0, tileGrid.getMinX());
+        long maxTileX = Math.min(tilesPerSide - 1, tileGrid.getMaxX());
+        long minTileY = Math.max(0, tileGrid.getMinY());
+        long maxTileY = Math.min(tilesPerSide - 1, tileGrid.getMaxY());
+        if (minTileX > maxTileX || minTileY > maxTileY) {
+            return new ArrayList<GridCount>();
+        }
+        int columns = (int) (maxTileX - minTileX + 1);
+        int rows = (int) (maxTileY - minTileY + 1);
+        validateGridSize(columns, rows);
+
+        // Tile bounds in web mercator, rows ascending from the bottom tile row
+        double[] xBounds = new double[columns + 1];
+        for (int i = 0; i < columns; i++) {
+            xBounds[i] = TileBoundingBoxUtils.getWebMercatorBoundingBox(minTileX + i, maxTileY, zoom)
+                    .getMinLongitude();
+        }
+        xBounds[columns] = TileBoundingBoxUtils.getWebMercatorBoundingBox(maxTileX, maxTileY, zoom)
+                .getMaxLongitude();
+        double[] yBounds = new double[rows + 1];
+        for (int i = 0; i < rows; i++) {
+            yBounds[i] = TileBoundingBoxUtils.getWebMercatorBoundingBox(minTileX, maxTileY - i, zoom)
+                    .getMinLatitude();
+        }
+        yBounds[rows] = TileBoundingBoxUtils.getWebMercatorBoundingBox(minTileX, minTileY, zoom)
+                .getMaxLatitude();
+
+        if (epsg == ProjectionConstants.EPSG_WORLD_GEODETIC_SYSTEM) {
+            ProjectionTransform toFeatures = ProjectionFactory.getProjection(
+                    ProjectionConstants.EPSG_WEB_MERCATOR).getTransformation(epsg);
+            for (int i = 0; i < xBounds.length; i++) {
+                xBounds[i] = toFeatures.transform(xBounds[i], 0)[0];
+            }
+            for (int i = 0; i < yBounds.length; i++) {
+                yBounds[i] = toFeatures.transform(0, yBounds[i])[1];
+            }
+        }
+
+        List<GridCount> counts = new ArrayList<GridCount>();
+        for (GridCount count : queryGridCounts(xBounds, yBounds, extents)) {
+            counts.add(new GridCount(minTileX + count.getColumn(), maxTileY - count.getRow(),
+                    count.getCount(), count.getExtent()));
+        }
+        return counts;
+    }
+
+    /**
+     * Count the indexed features per grid cell between the ascending bounds
+     *
+     * @param xBounds
+     * @param yBounds
+     * @param extents
+     * @return counts with rows ascending from the min y
+     */
+    private List<GridCount> queryGridCounts(double[] xBounds, double[] yBounds, boolean extents) {
+        List<GridCount> counts;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+            long geoPackageId = geomDs.getGeoPackageId(featureDao.getDatabase());
+            counts = geomDs.queryGridCounts(geoPackageId, featureDao.getTableName(), xBounds,
+                    yBounds, extents);
+        } finally {
+            db.close();
+        }
+        return counts;
+    }
+
+    /**
+     * Validate the number of grid columns and rows
+     *
+     * @param columns
+     * @param rows
+     */
+    private void validateGridSize(int columns, int rows) {
+        if (columns < 1 || rows < 1 || columns > MAX_GRID_SIZE || rows > MAX_GRID_SIZE) {
+            throw new GeoPackageException("Grid columns and rows must be between 1 and "
+                    + MAX_GRID_SIZE + ". Table: " + featureDao.getTableName() + ", Columns: "
+                    + columns + ", Rows: " + rows);
+        }
+    }
+
+}
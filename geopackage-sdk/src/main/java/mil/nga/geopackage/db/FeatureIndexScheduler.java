@@ -0,0 +1,339 @@
+package mil.nga.geopackage.db;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import mil.nga.geopackage.GeoPackage;
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.GeoPackageManager;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadata;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDataSource;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.TableMetadata;
+import mil.nga.geopackage.db.metadata.TableMetadataDataSource;
+import mil.nga.geopackage.factory.GeoPackageFactory;
+import mil.nga.geopackage.factory.GeoPackageImportListener;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.io.GeoPackageProgress;
+
+/**
+ * Feature index scheduler, indexes queued feature tables across GeoPackages one at a time
+ * on a background thread. Indexing records checkpoints as it runs, so tables interrupted
+ * by {@link #shutdown()} or by the process being killed continue from the checkpoint when
+ * scheduled again or when {@link #resume()} is called. Newly imported GeoPackages can be
+ * queued automatically with {@link #setIndexImports(boolean)}.
+ */
+public class FeatureIndexScheduler implements GeoPackageImportListener {
+
+    /**
+     * Context
+     */
+    private final Context context;
+
+    /**
+     * Single background indexing thread
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Pending table keys, queued and not yet started
+     */
+    private final Set<String> pending = new LinkedHashSet<String>();
+
+    /**
+     * Progress shared by the indexers, inactive after shutdown
+     */
+    private final SchedulerProgress progress = new SchedulerProgress();
+
+    /**
+     * Number of rows indexed per transaction chunk and checkpoint
+     */
+    private int chunkLimit = 1000;
+
+    /**
+     * Constructor
+     *
+     * @param context
+     */
+    public FeatureIndexScheduler(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Get the number of rows indexed per transaction chunk and checkpoint
+     *
+     * @return
+     */
+    public int getChunkLimit() {
+        return chunkLimit;
+    }
+
+    /**
+     * Set the number of rows indexed per transaction chunk and checkpoint
+     *
+     * @param chunkLimit
+     */
+    public void setChunkLimit(int chunkLimit) {
+        if (chunkLimit < 1) {
+            throw new GeoPackageException("Chunk limit must be at least 1: " + chunkLimit);
+        }
+        this.chunkLimit = chunkLimit;
+    }
+
+    /**
+     * Set automatic indexing of GeoPackages imported by a GeoPackage Manager
+     *
+     * @param indexImports
+     */
+    public void setIndexImports(boolean indexImports) {
+        if (indexImports) {
+            GeoPackageFactory.addImportListener(this);
+        } else {
+            GeoPackageFactory.removeImportListener(this);
+        }
+    }
+
+    /**
+     * Queue the imported GeoPackage for indexing
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void onImport(String database) {
+        schedule(database);
+    }
+
+    /**
+     * Queue all feature tables of the GeoPackage for indexing
+     *
+     * @param database
+     * @return true if queued, false if already pending
+     */
+    public boolean schedule(String database) {
+        return schedule(database, null);
+    }
+
+    /**
+     * Queue the feature table for indexing
+     *
+     * @param database
+     * @param table    feature table, null for all feature tables
+     * @return true if queued, false if already pending
+     */
+    public boolean schedule(final String database, final String table) {
+        if (!progress.isActive()) {
+            throw new GeoPackageException("Feature index scheduler has been shut down");
+        }
+        final String key = getKey(database, table);
+        synchronized (pending) {
+            if (!pending.add(key)) {
+                return false;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (pending) {
+                    pending.remove(key);
+                }
+                if (progress.isActive()) {
+                    index(database, table);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Queue the feature tables with an interrupted indexing checkpoint, typically called
+     * at startup to continue indexing stopped when the process was killed. Interrupted
+     * re-indexing of tables with a current index is also resumed.
+     *
+     * @return number of tables queued
+     */
+    public int resume() {
+        List<String[]> tables = new ArrayList<String[]>();
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            GeoPackageMetadataDataSource geoPackageDs = new GeoPackageMetadataDataSource(db);
+            for (TableMetadata metadata : tableDs.getCheckpointed()) {
+                GeoPackageMetadata geoPackage = geoPackageDs.get(metadata.getGeoPackageId());
+                String tableName = metadata.getTableName();
+                if (TableMetadata.isShadowTableName(tableName)) {
+                    tableName = TableMetadata.getShadowedTableName(tableName);
+                }
+                if (geoPackage != null) {
+                    tables.add(new String[]{geoPackage.getName(), tableName});
+                }
+            }
+        } finally {
+            db.close();
+        }
+        int count = 0;
+        for (String[] table : tables) {
+            if (schedule(table[0], table[1])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of queued tables and GeoPackages not yet started
+     *
+     * @return pending count
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Wait for the queued indexing to finish
+     *
+     * @param timeout
+     * @param unit
+     * @return true if idle, false if the timeout elapsed
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) {
+        boolean idle;
+        try {
+            Future<?> marker = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            marker.get(timeout, unit);
+            idle = true;
+        } catch (TimeoutException e) {
+            idle = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            idle = false;
+        } catch (ExecutionException e) {
+            throw new GeoPackageException("Failed waiting for feature indexing", e);
+        }
+        return idle;
+    }
+
+    /**
+     * Shut down the scheduler, stopping the running indexer at its next checkpoint and
+     * discarding the queued tables. Stopped tables continue from their checkpoint when
+     * scheduled by another scheduler.
+     */
+    public void shutdown() {
+        setIndexImports(false);
+        progress.active = false;
+        synchronized (pending) {
+            pending.clear();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Index the feature tables of the GeoPackage
+     *
+     * @param database
+     * @param table    feature table, null for all feature tables
+     */
+    private void index(String database, String table) {
+        GeoPackageManager manager = GeoPackageFactory.getManager(context);
+        if (!manager.exists(database)) {
+            return;
+        }
+        GeoPackage geoPackage = manager.open(database);
+        try {
+            List<String> tables = new ArrayList<String>();
+            if (table != null) {
+                tables.add(table);
+            } else {
+                tables.addAll(geoPackage.getFeatureTables());
+            }
+            for (String featureTable : tables) {
+                if (!progress.isActive()) {
+                    break;
+                }
+                try {
+                    FeatureDao featureDao = geoPackage.getFeatureDao(featureTable);
+                    FeatureIndexer indexer = new FeatureIndexer(context, featureDao);
+                    indexer.setChunkLimit(chunkLimit);
+                    indexer.setProgress(progress);
+                    indexer.index(indexer.hasCheckpoint());
+                } catch (RuntimeException e) {
+                    Log.e(FeatureIndexScheduler.class.getSimpleName(), "Failed to index feature table. Database: "
+                            + database + ", Table: " + featureTable, e);
+                }
+            }
+        } finally {
+            geoPackage.close();
+        }
+    }
+
+    /**
+     * Get the pending key of the table
+     *
+     * @param database
+     * @param table
+     * @return key
+     */
+    private static String getKey(String database, String table) {
+        return table != null ? database + "/" + table : database;
+    }
+
+    /**
+     * Progress of the scheduled indexers, active until the scheduler is shut down
+     */
+    private static class SchedulerProgress implements GeoPackageProgress {
+
+        /**
+         * Active flag
+         */
+        private volatile boolean active = true;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setMax(int max) {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void addProgress(int progress) {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean cleanupOnCancel() {
+            return false;
+        }
+
+    }
+
+}
@@ -1,30 +1,54 @@
 package mil.nga.geopackage.db;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteStatement;
 
+import com.j256.ormlite.dao.DaoManager;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+import mil.nga.geopackage.BoundingBox;
 import mil.nga.geopackage.GeoPackageException;
 import mil.nga.geopackage.core.contents.Contents;
+import mil.nga.geopackage.core.contents.ContentsDao;
+import mil.nga.geopackage.db.metadata.CellGrid;
 import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
 import mil.nga.geopackage.db.metadata.GeometryMetadata;
 import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
 import mil.nga.geopackage.db.metadata.TableMetadata;
 import mil.nga.geopackage.db.metadata.TableMetadataDataSource;
+import mil.nga.geopackage.db.metadata.TableStatistics;
+import mil.nga.geopackage.db.metadata.TableStatisticsDataSource;
+import mil.nga.geopackage.db.rtree.PackedRTree;
+import mil.nga.geopackage.db.rtree.PackedRTreeIndex;
 import mil.nga.geopackage.features.user.FeatureCursor;
 import mil.nga.geopackage.features.user.FeatureDao;
 import mil.nga.geopackage.features.user.FeatureRow;
-import mil.nga.geopackage.geom.GeoPackageGeometryData;
+import mil.nga.geopackage.geom.GeoPackageGeometryEnvelopeReader;
+import mil.nga.geopackage.geom.PolygonFilter;
 import mil.nga.geopackage.io.GeoPackageProgress;
-import mil.nga.wkb.geom.Geometry;
+import mil.nga.geopackage.projection.ProjectionConstants;
 import mil.nga.wkb.geom.GeometryEnvelope;
-import mil.nga.wkb.util.GeometryEnvelopeBuilder;
+import mil.nga.wkb.geom.Polygon;
 
 /**
  * Feature Indexer, indexes feature geometries into a table for searching
  */
 public class FeatureIndexer {
 
+    /**
+     * Number of changed rows queried per statement when updating from the change log
+     */
+    private static final int UPDATE_BATCH_SIZE = 500;
+
     /**
      * Context
      */
@@ -40,6 +64,89 @@ public class FeatureIndexer {
      */
     private GeoPackageProgress progress;
 
+    /**
+     * When true, table indexing runs in chunked transactions with a compiled insert statement
+     */
+    private boolean bulkIndex = true;
+
+    /**
+     * When true, indexing continues after the checkpoint of an interrupted run
+     */
+    private boolean resume = true;
+
+    /**
+     * Number of rows indexed per transaction chunk when bulk indexing
+     */
+    private int chunkLimit = 1000;
+
+    /**
+     * Open metadata database connection used while write-through indexing is enabled
+     */
+    private GeoPackageMetadataDb writeThroughDb;
+
+    /**
+     * GeoPackage metadata id of the feature table while write-through indexing is enabled
+     */
+    private long writeThroughGeoPackageId;
+
+    /**
+     * True when the table was indexed at the start of the current write-through write
+     */
+    private boolean writeThroughIndexed;
+
+    /**
+     * Table statistics maintained by the current write-through write, null when not indexed
+     */
+    private TableStatistics writeThroughStatistics;
+
+    /**
+     * True when the current write-through write removed an envelope on the statistics extent
+     */
+    private boolean writeThroughExtentChanged;
+
+    /**
+     * True when the current write-through write is within an outer feature transaction
+     */
+    private boolean writeThroughNested;
+
+    /**
+     * Contents last change time of the current write-through write
+     */
+    private long writeThroughChangeTime;
+
+    /**
+     * Contents last change time of the last write-through write committed within an outer
+     * feature transaction, null when no outer transaction is pending
+     */
+    private Long pendingChangeTime;
+
+    /**
+     * True when the table was indexed at the first write-through write within the pending
+     * outer feature transaction
+     */
+    private boolean pendingIndexed;
+
+    /**
+     * Contents DAO used to update the contents last change of write-through writes
+     */
+    private ContentsDao contentsDao;
+
+    /**
+     * Feature time column indexed with the envelopes, null when not time indexed
+     */
+    private String timeColumn;
+
+    /**
+     * True when the time column has been read from the table metadata
+     */
+    private boolean timeColumnLoaded;
+
+    /**
+     * GeoPackage id of the last packed R-tree, used to read the cached tree without a
+     * metadata lookup, null until a tree is read
+     */
+    private Long packedRTreeGeoPackageId;
+
     /**
      * Constructor
      *
@@ -51,6 +158,24 @@ public class FeatureIndexer {
         this.featureDao = featureDao;
     }
 
+    /**
+     * Get the context
+     *
+     * @return context
+     */
+    Context getContext() {
+        return context;
+    }
+
+    /**
+     * Get the feature DAO
+     *
+     * @return feature DAO
+     */
+    FeatureDao getFeatureDao() {
+        return featureDao;
+    }
+
     /**
      * Set the progress tracker
      *
@@ -60,6 +185,215 @@ public class FeatureIndexer {
         this.progress = progress;
     }
 
+    /**
+     * Is bulk indexing enabled
+     *
+     * @return
+     */
+    public boolean isBulkIndex() {
+        return bulkIndex;
+    }
+
+    /**
+     * Set bulk indexing. When enabled, the table is indexed in chunked transactions
+     * reusing a single compiled insert statement, and progress is reported per chunk.
+     *
+     * @param bulkIndex
+     */
+    public void setBulkIndex(boolean bulkIndex) {
+        this.bulkIndex = bulkIndex;
+    }
+
+    /**
+     * Is resuming interrupted indexing enabled
+     *
+     * @return
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Set resuming interrupted indexing. When enabled, indexing the table after a cancelled
+     * or interrupted run continues after the checkpoint of the last indexed feature id,
+     * unless the table has changed since the interrupted run started.
+     *
+     * @param resume
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Get the number of rows indexed per transaction chunk
+     *
+     * @return
+     */
+    public int getChunkLimit() {
+        return chunkLimit;
+    }
+
+    /**
+     * Set the number of rows indexed per transaction chunk, also the number of rows
+     * indexed between checkpoints
+     *
+     * @param chunkLimit
+     */
+    public void setChunkLimit(int chunkLimit) {
+        if (chunkLimit < 1) {
+            throw new GeoPackageException("Chunk limit must be at least 1: " + chunkLimit);
+        }
+        this.chunkLimit = chunkLimit;
+    }
+
+    /**
+     * Is write-through indexing enabled
+     *
+     * @return
+     */
+    public boolean isWriteThrough() {
+        return writeThroughDb != null;
+    }
+
+    /**
+     * Set write-through indexing. When enabled, feature DAO inserts, updates, and deletes
+     * maintain the metadata index as they are written and move the last indexed time forward
+     * with the contents last change, so edits do not require re-indexing the table. The
+     * metadata database connection is kept open until disabled or {@link #close()} is called.
+     *
+     * The metadata index is a separate database, so its transaction commits after the feature
+     * write commits. If the metadata commit fails, the last indexed time is not advanced and
+     * the table reports as not indexed. Writes within an outer feature transaction do not
+     * advance the last indexed time until the outer transaction is seen to have committed by
+     * the next write or {@link #isIndexed()} after it ends. If the outer transaction rolled
+     * back, the table is marked as not indexed and must be re-indexed.
+     *
+     * @param writeThrough
+     */
+    public void setWriteThrough(boolean writeThrough) {
+        if (writeThrough) {
+            if (writeThroughDb == null) {
+                GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+                db.open();
+                try {
+                    TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+                    writeThroughGeoPackageId = tableDs.getOrCreate(featureDao.getDatabase(),
+                            featureDao.getTableName()).getGeoPackageId();
+                } catch (RuntimeException e) {
+                    db.close();
+                    throw e;
+                }
+                writeThroughDb = db;
+                featureDao.setIndexer(this);
+            }
+        } else if (writeThroughDb != null) {
+            if (featureDao.getIndexer() == this) {
+                featureDao.setIndexer(null);
+            }
+            if (!featureDao.getSQLiteDatabase().inTransaction()) {
+                resolvePendingWrite(writeThroughDb);
+            }
+            writeThroughDb.close();
+            writeThroughDb = null;
+        }
+    }
+
+    /**
+     * Get the feature time column indexed with the envelopes
+     *
+     * @return time column or null if not time indexed
+     */
+    public String getTimeColumn() {
+        if (!timeColumnLoaded) {
+            if (writeThroughDb != null) {
+                loadTimeColumn(writeThroughDb);
+            } else {
+                GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+                db.open();
+                try {
+                    loadTimeColumn(db);
+                } finally {
+                    db.close();
+                }
+            }
+        }
+        return timeColumn;
+    }
+
+    /**
+     * Set the cached time column after it is updated in the table metadata
+     *
+     * @param timeColumn
+     */
+    void setTimeColumnLoaded(String timeColumn) {
+        this.timeColumn = timeColumn;
+        timeColumnLoaded = true;
+    }
+
+    /**
+     * Load the time column from the table metadata
+     *
+     * @param db
+     */
+    private void loadTimeColumn(GeoPackageMetadataDb db) {
+        TableMetadata metadata = new TableMetadataDataSource(db).get(featureDao.getDatabase(),
+                featureDao.getTableName());
+        timeColumn = metadata != null ? metadata.getTimeColumn() : null;
+        timeColumnLoaded = true;
+    }
+
+    /**
+     * Create a time reader of the time column in feature cursors
+     *
+     * @return time reader or null if not time indexed
+     */
+    private FeatureTimeReader createTimeReader() {
+        String column = getTimeColumn();
+        return column != null ? new FeatureTimeReader(featureDao.getTable().getColumnIndex(column)) : null;
+    }
+
+    /**
+     * Read the time of the current feature cursor row
+     *
+     * @param timeReader time reader or null
+     * @param cursor
+     * @return time or null
+     */
+    private static Long readTime(FeatureTimeReader timeReader, Cursor cursor) {
+        return timeReader != null ? timeReader.read(cursor) : null;
+    }
+
+    /**
+     * Query for the time of the feature
+     *
+     * @param geomId
+     * @return time or null
+     */
+    private Long queryTime(long geomId) {
+        Long time = null;
+        String column = getTimeColumn();
+        if (column != null) {
+            Cursor cursor = featureDao.getSQLiteDatabase().query(featureDao.getTableName(),
+                    new String[]{column}, featureDao.getTable().getPkColumn().getName() + " = ?",
+                    new String[]{String.valueOf(geomId)}, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    time = new FeatureTimeReader(0).read(cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return time;
+    }
+
+    /**
+     * Close the indexer, disabling write-through indexing and closing the metadata connection
+     */
+    public void close() {
+        setWriteThrough(false);
+    }
+
     /**
      * Index the feature table if needed
      *
@@ -83,6 +417,34 @@ public class FeatureIndexer {
         return count;
     }
 
+    /**
+     * Create the cell grid of the feature table from the contents bounds, or the world
+     * bounds of WGS84 and Web Mercator tables without contents bounds
+     *
+     * @return cell grid or null if the table bounds are unknown
+     */
+    CellGrid createCellGrid() {
+        CellGrid cellGrid = null;
+        Contents contents = featureDao.getGeometryColumns().getContents();
+        if (contents != null && contents.getMinX() != null && contents.getMinY() != null
+                && contents.getMaxX() != null && contents.getMaxY() != null
+                && contents.getMaxX() > contents.getMinX() && contents.getMaxY() > contents.getMinY()
+                && (contents.getSrsId() == null
+                || contents.getSrsId() == featureDao.getGeometryColumns().getSrsId())) {
+            cellGrid = new CellGrid(contents.getMinX(), contents.getMinY(),
+                    contents.getMaxX(), contents.getMaxY());
+        } else {
+            long epsg = featureDao.getProjection().getEpsg();
+            if (epsg == ProjectionConstants.EPSG_WORLD_GEODETIC_SYSTEM) {
+                cellGrid = new CellGrid(-180.0, -90.0, 180.0, 90.0);
+            } else if (epsg == ProjectionConstants.EPSG_WEB_MERCATOR) {
+                double halfWorldWidth = ProjectionConstants.WEB_MERCATOR_HALF_WORLD_WIDTH;
+                cellGrid = new CellGrid(-halfWorldWidth, -halfWorldWidth, halfWorldWidth, halfWorldWidth);
+            }
+        }
+        return cellGrid;
+    }
+
     /**
      * Index the feature row. This method assumes that indexing has been completed and
      * maintained as the last indexed time is updated.
@@ -91,138 +453,770 @@ public class FeatureIndexer {
      */
     public void index(FeatureRow row) {
 
+        if (writeThroughDb != null) {
+            index(writeThroughDb, writeThroughGeoPackageId, row);
+            return;
+        }
+
         GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
         db.open();
         try {
-            GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
-            long geoPackageId = geomDs.getGeoPackageId(featureDao.getDatabase());
-            index(geomDs, geoPackageId, row, true);
-
-            // Update the last indexed time
-            updateLastIndexed(db, geoPackageId);
+            long geoPackageId = new GeometryMetadataDataSource(db).getGeoPackageId(featureDao.getDatabase());
+            index(db, geoPackageId, row);
         } finally {
             db.close();
         }
     }
 
     /**
-     * Index the feature table
+     * Index the feature row, updating the table statistics and the last indexed time
      *
-     * @return count
+     * @param db
+     * @param geoPackageId
+     * @param row
      */
-    private int indexTable() {
+    private void index(GeoPackageMetadataDb db, long geoPackageId, FeatureRow row) {
+        GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+        TableStatisticsDataSource statsDs = new TableStatisticsDataSource(db);
+        TableStatistics statistics = statsDs.get(geoPackageId, featureDao.getTableName());
+        Long time = null;
+        String column = getTimeColumn();
+        if (column != null) {
+            time = new FeatureTimeReader(0).getTime(row.getValue(column));
+        }
+        boolean extentChanged = indexChange(geomDs, statistics, geoPackageId, featureDao.getTableName(),
+                row.getId(), GeoPackageGeometryEnvelopeReader.getEnvelope(row.getGeometry()), time);
+        saveStatistics(statsDs, statistics, extentChanged);
 
-        int count = 0;
+        // Update the last indexed time
+        updateLastIndexed(db, geoPackageId);
+    }
 
-        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
-        db.open();
+    /**
+     * Begin a write-through write, called by the feature DAO before beginning its feature
+     * transaction
+     */
+    public void beginWrite() {
+        GeoPackageMetadataDb db = getWriteThroughDb();
+        writeThroughNested = featureDao.getSQLiteDatabase().inTransaction();
+        if (!writeThroughNested) {
+            resolvePendingWrite(db);
+        }
+        db.attachGeometryMetadataStore(writeThroughGeoPackageId);
+        db.beginTransaction();
         try {
-            // Get or create the table metadata
-            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
-            TableMetadata metadata = tableDs.getOrCreate(featureDao.getDatabase(), featureDao.getTableName());
-
-            // Delete existing index rows
-            GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
-            geomDs.delete(featureDao.getDatabase(), featureDao.getTableName());
-
-            // Index all features
-            FeatureCursor cursor = featureDao.queryForAll();
-            try {
-                while ((progress == null || progress.isActive()) && cursor.moveToNext()) {
-                    count++;
-                    FeatureRow row = cursor.getRow();
-                    index(geomDs, metadata.getGeoPackageId(), row, false);
-                    if (progress != null) {
-                        progress.addProgress(1);
-                    }
-                }
-            } finally {
-                cursor.close();
+            if (pendingChangeTime != null) {
+                writeThroughIndexed = pendingIndexed;
+            } else {
+                TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+                TableMetadata metadata = tableDs.get(writeThroughGeoPackageId, featureDao.getTableName());
+                Date lastChange = featureDao.getGeometryColumns().getContents().getLastChange();
+                writeThroughIndexed = metadata != null && metadata.getLastIndexed() != null
+                        && (lastChange == null || metadata.getLastIndexed() >= lastChange.getTime());
             }
+            writeThroughStatistics = writeThroughIndexed ? new TableStatisticsDataSource(db)
+                    .get(writeThroughGeoPackageId, featureDao.getTableName()) : null;
+            writeThroughExtentChanged = false;
+        } catch (RuntimeException e) {
+            db.endTransaction();
+            throw e;
+        }
+    }
 
-            // Update the last indexed time
-            if (progress == null || progress.isActive()) {
-                updateLastIndexed(db, metadata.getGeoPackageId());
+    /**
+     * Index the written feature envelope during a write-through write
+     *
+     * @param geomId   feature id
+     * @param envelope envelope, null to remove the feature from the index
+     */
+    public void indexWrite(long geomId, GeometryEnvelope envelope) {
+        GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(getWriteThroughDb());
+        Long time = envelope != null ? queryTime(geomId) : null;
+        if (indexChange(geomDs, writeThroughStatistics, writeThroughGeoPackageId,
+                featureDao.getTableName(), geomId, envelope, time)) {
+            writeThroughExtentChanged = true;
+        }
+    }
+
+    /**
+     * Re-index the written feature from its stored row during a write-through write, used
+     * when only the time column of the feature was written
+     *
+     * @param geomId feature id
+     */
+    public void indexWrite(long geomId) {
+        GeometryEnvelope envelope = null;
+        FeatureCursor cursor = queryForIds(Collections.singletonList(geomId));
+        try {
+            if (cursor.moveToNext()) {
+                envelope = cursor.getGeometryEnvelope();
             }
         } finally {
-            db.close();
+            cursor.close();
         }
-
-        return count;
+        indexWrite(geomId, envelope);
     }
 
     /**
-     * Index the feature row
+     * Remove the deleted features from the index during a write-through write
      *
-     * @param geomDs
-     * @param geoPackageId
-     * @param row
-     * @param possibleUpdate
+     * @param geomIds feature ids
      */
-    private void index(GeometryMetadataDataSource geomDs, long geoPackageId, FeatureRow row, boolean possibleUpdate) {
-        GeoPackageGeometryData geomData = row.getGeometry();
-        if (geomData != null) {
+    public void deleteWrite(List<Long> geomIds) {
+        GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(getWriteThroughDb());
+        for (long geomId : geomIds) {
+            if (indexChange(geomDs, writeThroughStatistics, writeThroughGeoPackageId,
+                    featureDao.getTableName(), geomId, null, null)) {
+                writeThroughExtentChanged = true;
+            }
+        }
+    }
 
-            // Get the envelope
-            GeometryEnvelope envelope = geomData.getEnvelope();
+    /**
+     * Finish a successful write-through write before the feature transaction commits. The
+     * contents last change is updated once for the write in the feature transaction and,
+     * when the table was indexed before the write, the last indexed time moves forward to
+     * match. Within an outer feature transaction the last indexed time is left until the
+     * outer transaction is seen to have committed.
+     */
+    public void writeSuccessful() {
+        GeoPackageMetadataDb db = getWriteThroughDb();
 
-            // If no envelope, build one from the geometry
-            if (envelope == null) {
-                Geometry geometry = geomData.getGeometry();
-                if (geometry != null) {
-                    envelope = GeometryEnvelopeBuilder.buildEnvelope(geometry);
-                }
-            }
+        writeThroughChangeTime = (new Date()).getTime();
+        Contents contents = featureDao.getGeometryColumns().getContents();
+        Date previousChange = contents.getLastChange();
+        contents.setLastChange(new Date(writeThroughChangeTime));
+        try {
+            getContentsDao().update(contents);
+        } catch (SQLException e) {
+            contents.setLastChange(previousChange);
+            throw new GeoPackageException("Failed to update the contents last change. Table: "
+                    + featureDao.getTableName(), e);
+        }
 
-            // Create the new index row
-            if (envelope != null) {
-                GeometryMetadata metadata = geomDs.populate(geoPackageId, featureDao.getTableName(), row.getId(), envelope);
-                if (possibleUpdate) {
-                    geomDs.createOrUpdate(metadata);
-                } else {
-                    geomDs.create(metadata);
-                }
+        if (writeThroughIndexed) {
+            saveStatistics(new TableStatisticsDataSource(db), writeThroughStatistics,
+                    writeThroughExtentChanged);
+            if (!writeThroughNested) {
+                updateWriteLastIndexed(db, writeThroughChangeTime);
             }
         }
     }
 
     /**
-     * Update the least indexed time
+     * End a write-through write after the feature transaction has ended
      *
-     * @param db
-     * @param geoPackageId
+     * @param committed true if the feature transaction committed the write, committing
+     *                  the metadata index changes
      */
-    private void updateLastIndexed(GeoPackageMetadataDb db, long geoPackageId) {
-
-        long indexedTime = (new Date()).getTime();
-
-        TableMetadataDataSource ds = new TableMetadataDataSource(db);
-        if (!ds.updateLastIndexed(geoPackageId, featureDao.getTableName(), indexedTime)) {
-            throw new GeoPackageException("Failed to update last indexed time. Table: GeoPackage Id: "
-                    + geoPackageId + ", Table: " + featureDao.getTableName() + ", Last Indexed: " + indexedTime);
+    public void endWrite(boolean committed) {
+        GeoPackageMetadataDb db = getWriteThroughDb();
+        writeThroughStatistics = null;
+        if (committed) {
+            db.setTransactionSuccessful();
+        }
+        db.endTransaction();
+        if (committed && writeThroughNested) {
+            if (pendingChangeTime == null) {
+                pendingIndexed = writeThroughIndexed;
+            }
+            pendingChangeTime = writeThroughChangeTime;
         }
-
     }
 
     /**
-     * Determine if the database table is indexed after database modifications
+     * Resolve the write-through writes committed within an outer feature transaction which
+     * has since ended. When the outer transaction committed, the contents last change
+     * matches the last write and the last indexed time moves forward to match. Otherwise
+     * the outer transaction rolled back after the index changes committed, and the table is
+     * marked as not indexed.
      *
-     * @return
+     * @param db metadata database
      */
-    public boolean isIndexed() {
-
-        boolean indexed = false;
-
-        Contents contents = featureDao.getGeometryColumns().getContents();
-        Date lastChange = contents.getLastChange();
-
-        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
-        db.open();
+    private void resolvePendingWrite(GeoPackageMetadataDb db) {
+        if (pendingChangeTime == null) {
+            return;
+        }
+        Contents storedContents;
         try {
+            storedContents = getContentsDao().queryForId(featureDao.getTableName());
+        } catch (SQLException e) {
+            throw new GeoPackageException("Failed to query the contents last change. Table: "
+                    + featureDao.getTableName(), e);
+        }
+        Date lastChange = storedContents != null ? storedContents.getLastChange() : null;
+        if (lastChange != null && lastChange.getTime() == pendingChangeTime) {
+            if (pendingIndexed) {
+                updateWriteLastIndexed(db, pendingChangeTime);
+            }
+        } else {
+            featureDao.getGeometryColumns().getContents().setLastChange(lastChange);
             TableMetadataDataSource ds = new TableMetadataDataSource(db);
-            TableMetadata metadata = ds.get(featureDao.getDatabase(), featureDao.getTableName());
+            TableMetadata metadata = ds.get(writeThroughGeoPackageId, featureDao.getTableName());
             if (metadata != null) {
-                Long lastIndexed = metadata.getLastIndexed();
+                ds.clearLastIndexed(metadata);
+            }
+        }
+        pendingChangeTime = null;
+    }
+
+    /**
+     * Update the last indexed time of the write-through table
+     *
+     * @param db          metadata database
+     * @param lastIndexed last indexed time
+     */
+    private void updateWriteLastIndexed(GeoPackageMetadataDb db, long lastIndexed) {
+        TableMetadataDataSource ds = new TableMetadataDataSource(db);
+        if (!ds.updateLastIndexed(writeThroughGeoPackageId, featureDao.getTableName(), lastIndexed)) {
+            throw new GeoPackageException("Failed to update last indexed time. GeoPackage Id: "
+                    + writeThroughGeoPackageId + ", Table: " + featureDao.getTableName()
+                    + ", Last Indexed: " + lastIndexed);
+        }
+    }
+
+    /**
+     * Get the contents DAO of the feature connection, created once
+     *
+     * @return contents DAO
+     */
+    private ContentsDao getContentsDao() {
+        if (contentsDao == null) {
+            try {
+                contentsDao = DaoManager.createDao(featureDao.getDb().getConnectionSource(),
+                        Contents.class);
+            } catch (SQLException e) {
+                throw new GeoPackageException("Failed to create the contents DAO. Table: "
+                        + featureDao.getTableName(), e);
+            }
+        }
+        return contentsDao;
+    }
+
+    /**
+     * Get the write-through metadata database connection
+     *
+     * @return metadata database
+     */
+    private GeoPackageMetadataDb getWriteThroughDb() {
+        if (writeThroughDb == null) {
+            throw new GeoPackageException("Write-through indexing is not enabled. Table: "
+                    + featureDao.getTableName());
+        }
+        return writeThroughDb;
+    }
+
+    /**
+     * Incrementally update the index from the feature change log, re-indexing only the rows
+     * inserted, updated, or deleted since the last index or update. When change capture is not
+     * enabled for the table or the table has not been indexed, change capture is enabled and
+     * the table is fully indexed.
+     *
+     * @return number of changed rows re-indexed, or the table count when fully indexed
+     */
+    public int update() {
+
+        FeatureChangeLog changeLog = new FeatureChangeLog(featureDao);
+        if (!changeLog.has()) {
+            changeLog.create(getTimeColumn());
+            return indexTable();
+        }
+
+        int count = 0;
+        boolean fullIndex = false;
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            TableMetadata metadata = tableDs.get(featureDao.getDatabase(), featureDao.getTableName());
+            if (metadata == null || metadata.getLastIndexed() == null) {
+                fullIndex = true;
+            } else {
+                long latestChange = changeLog.getLatestChange();
+                List<Long> ids = changeLog.getChangedIds(latestChange);
+
+                GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+                TableStatisticsDataSource statsDs = new TableStatisticsDataSource(db);
+                db.attachGeometryMetadataStore(metadata.getGeoPackageId());
+                db.beginTransaction();
+                try {
+                    TableStatistics statistics = statsDs.get(metadata.getGeoPackageId(), featureDao.getTableName());
+                    boolean extentChanged = false;
+                    for (int start = 0; start < ids.size()
+                            && (progress == null || progress.isActive()); start += UPDATE_BATCH_SIZE) {
+                        List<Long> batch = ids.subList(start, Math.min(start + UPDATE_BATCH_SIZE, ids.size()));
+                        if (updateIndex(geomDs, statistics, metadata.getGeoPackageId(), featureDao.getTableName(), batch)) {
+                            extentChanged = true;
+                        }
+                        count += batch.size();
+                        if (progress != null) {
+                            progress.addProgress(batch.size());
+                        }
+                    }
+                    if (progress == null || progress.isActive()) {
+                        if (statistics != null) {
+                            saveStatistics(statsDs, statistics, extentChanged);
+                        } else {
+                            statsDs.calculate(metadata.getGeoPackageId(), featureDao.getTableName());
+                        }
+                        updateLastIndexed(db, metadata.getGeoPackageId());
+                        db.setTransactionSuccessful();
+                    }
+                } finally {
+                    db.endTransaction();
+                }
+
+                // Clear the applied changes after the index commits
+                if (progress == null || progress.isActive()) {
+                    changeLog.clear(latestChange);
+                }
+            }
+        } finally {
+            db.close();
+        }
+
+        if (fullIndex) {
+            count = indexTable();
+        }
+
+        return count;
+    }
+
+    /**
+     * Re-index the changed rows, removing rows that no longer exist
+     *
+     * @param geomDs
+     * @param statistics   table statistics to update, or null
+     * @param geoPackageId
+     * @param tableName    index table name
+     * @param ids
+     * @return true if the statistics extent needs to be recalculated
+     */
+    private boolean updateIndex(GeometryMetadataDataSource geomDs, TableStatistics statistics,
+                                long geoPackageId, String tableName, List<Long> ids) {
+
+        boolean extentChanged = false;
+
+        Set<Long> deleted = new HashSet<Long>(ids);
+        FeatureTimeReader timeReader = createTimeReader();
+        FeatureCursor cursor = queryForIds(ids);
+        try {
+            int pkIndex = featureDao.getTable().getPkColumnIndex();
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(pkIndex);
+                deleted.remove(id);
+                if (indexChange(geomDs, statistics, geoPackageId, tableName, id, cursor.getGeometryEnvelope(),
+                        readTime(timeReader, cursor))) {
+                    extentChanged = true;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (long id : deleted) {
+            if (indexChange(geomDs, statistics, geoPackageId, tableName, id, null, null)) {
+                extentChanged = true;
+            }
+        }
+
+        return extentChanged;
+    }
+
+    /**
+     * Index or remove the envelope of a changed feature, applying the change to the table
+     * statistics count, extent, and histogram
+     *
+     * @param geomDs
+     * @param statistics   table statistics to update, or null
+     * @param geoPackageId
+     * @param tableName    index table name
+     * @param geomId
+     * @param envelope     envelope, null to remove the feature from the index
+     * @param time         feature time, or null
+     * @return true if the statistics extent needs to be recalculated
+     */
+    private boolean indexChange(GeometryMetadataDataSource geomDs, TableStatistics statistics,
+                                long geoPackageId, String tableName, long geomId,
+                                GeometryEnvelope envelope, Long time) {
+        boolean extentChanged = false;
+        GeometryMetadata metadata = null;
+        if (envelope != null) {
+            metadata = geomDs.populate(geoPackageId, tableName, geomId, envelope, time);
+        }
+        if (statistics != null) {
+            GeometryMetadata previous = geomDs.get(geoPackageId, tableName, geomId);
+            if (previous != null) {
+                extentChanged = statistics.remove(previous.getEnvelope());
+            }
+            if (metadata != null) {
+                statistics.add(metadata.getEnvelope());
+            }
+        }
+        if (metadata != null) {
+            geomDs.createOrUpdate(metadata);
+        } else {
+            geomDs.delete(geoPackageId, tableName, geomId);
+        }
+        return extentChanged;
+    }
+
+    /**
+     * Save the incrementally updated table statistics, recalculating the extent from the
+     * index when a removed envelope was on the extent
+     *
+     * @param statsDs
+     * @param statistics    table statistics, or null
+     * @param extentChanged
+     */
+    private static void saveStatistics(TableStatisticsDataSource statsDs, TableStatistics statistics,
+                                       boolean extentChanged) {
+        if (statistics != null) {
+            if (extentChanged) {
+                statsDs.calculateExtent(statistics);
+            }
+            statsDs.createOrUpdate(statistics);
+        }
+    }
+
+    /**
+     * Query for the feature rows with the ids
+     *
+     * @param ids
+     * @return feature cursor that must be closed
+     */
+    private FeatureCursor queryForIds(List<Long> ids) {
+        return queryForIds(featureDao, ids);
+    }
+
+    /**
+     * Query for the feature rows with the ids
+     *
+     * @param featureDao
+     * @param ids
+     * @return feature cursor that must be closed
+     */
+    static FeatureCursor queryForIds(FeatureDao featureDao, List<Long> ids) {
+        StringBuilder where = new StringBuilder(featureDao.getTable().getPkColumn().getName())
+                .append(" IN (");
+        String[] whereArgs = new String[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) {
+                where.append(", ");
+            }
+            where.append("?");
+            whereArgs[i] = String.valueOf(ids.get(i));
+        }
+        where.append(")");
+        return featureDao.query(where.toString(), whereArgs);
+    }
+
+    /**
+     * Index the feature table in feature id order into a shadow index, recording a
+     * checkpoint of the last indexed feature id as the shadow index is written. Queries
+     * continue to be served from the existing table index until the completed shadow index
+     * is swapped in within a single metadata transaction. When resuming is enabled and a
+     * previous run was cancelled or interrupted, indexing continues after the checkpoint.
+     *
+     * @return count of indexed table rows, including rows indexed by a resumed run
+     */
+    private int indexTable() {
+
+        int count = 0;
+
+        // Changes logged before indexing are covered by the full index
+        FeatureChangeLog changeLog = new FeatureChangeLog(featureDao);
+        long latestChange = changeLog.has() ? changeLog.getLatestChange() : 0;
+
+        String tableName = featureDao.getTableName();
+        String shadowTableName = TableMetadata.getShadowTableName(tableName);
+        String pkColumn = featureDao.getTable().getPkColumn().getName();
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            // Get or create the table metadata
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            TableMetadata metadata = tableDs.getOrCreate(featureDao.getDatabase(), tableName);
+            long geoPackageId = metadata.getGeoPackageId();
+            TableMetadata shadow = tableDs.get(geoPackageId, shadowTableName);
+            GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+            db.attachGeometryMetadataStore(geoPackageId);
+            timeColumn = metadata.getTimeColumn();
+            timeColumnLoaded = true;
+            if (timeColumn != null) {
+                geomDs.createTimeIndex(geoPackageId);
+            }
+            FeatureTimeReader timeReader = createTimeReader();
+
+            long startTime = (new Date()).getTime();
+            long checkpointId = Long.MIN_VALUE;
+            boolean resumed = resume && shadow != null && isCheckpointCurrent(shadow);
+            if (resumed) {
+                // Keep the shadow cell grid and index rows up to the checkpoint
+                checkpointId = shadow.getCheckpointId();
+                startTime = shadow.getCheckpointTime();
+                geomDs.deleteAfter(geoPackageId, shadowTableName, checkpointId);
+                count = featureDao.count(pkColumn + " <= ?", new String[]{String.valueOf(checkpointId)});
+                if (progress != null) {
+                    progress.addProgress(count);
+                }
+            } else {
+                tableDs.resetShadow(geoPackageId, tableName, createCellGrid());
+            }
+
+            // Index the features after the checkpoint
+            FeatureCursor cursor = featureDao.query(pkColumn + " > ?",
+                    new String[]{String.valueOf(checkpointId)}, null, null, pkColumn);
+            try {
+                if (bulkIndex) {
+                    count += bulkIndexRows(db, tableDs, geomDs, geoPackageId, shadowTableName, cursor,
+                            timeReader, startTime);
+                } else {
+                    int pkIndex = featureDao.getTable().getPkColumnIndex();
+                    long lastId = checkpointId;
+                    int chunkCount = 0;
+                    while ((progress == null || progress.isActive()) && cursor.moveToNext()) {
+                        count++;
+                        chunkCount++;
+                        lastId = cursor.getLong(pkIndex);
+                        index(geomDs, geoPackageId, shadowTableName, lastId, cursor.getGeometryEnvelope(),
+                                readTime(timeReader, cursor), false);
+                        if (progress != null) {
+                            progress.addProgress(1);
+                        }
+                        if (chunkCount >= chunkLimit) {
+                            tableDs.updateCheckpoint(geoPackageId, shadowTableName, lastId, startTime);
+                            chunkCount = 0;
+                        }
+                    }
+                    if (chunkCount > 0) {
+                        tableDs.updateCheckpoint(geoPackageId, shadowTableName, lastId, startTime);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (progress == null || progress.isActive()) {
+
+                // Re-index features changed since the resumed run started
+                if (resumed && latestChange > 0) {
+                    indexChanges(geomDs, geoPackageId, shadowTableName, changeLog, latestChange);
+                }
+
+                // Swap in the shadow index and update the statistics
+                db.beginTransaction();
+                try {
+                    tableDs.swapShadow(geoPackageId, tableName, (new Date()).getTime());
+                    new TableStatisticsDataSource(db).calculate(geoPackageId, tableName);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } finally {
+            db.close();
+        }
+
+        if (latestChange > 0 && (progress == null || progress.isActive())) {
+            changeLog.clear(latestChange);
+        }
+
+        return count;
+    }
+
+    /**
+     * Re-index the features changed up to the latest change into the index table, bringing
+     * a resumed shadow index up to date with changes made since the interrupted run started
+     *
+     * @param geomDs
+     * @param geoPackageId
+     * @param tableName    index table name
+     * @param changeLog
+     * @param latestChange latest change id
+     */
+    void indexChanges(GeometryMetadataDataSource geomDs, long geoPackageId, String tableName,
+                      FeatureChangeLog changeLog, long latestChange) {
+        List<Long> ids = changeLog.getChangedIds(latestChange);
+        for (int start = 0; start < ids.size(); start += UPDATE_BATCH_SIZE) {
+            updateIndex(geomDs, null, geoPackageId, tableName,
+                    ids.subList(start, Math.min(start + UPDATE_BATCH_SIZE, ids.size())));
+        }
+    }
+
+    /**
+     * Determine if an interrupted index build of the table has a checkpoint that can be
+     * resumed by {@link #index(boolean)}
+     *
+     * @return true if resumable
+     */
+    public boolean hasCheckpoint() {
+        boolean checkpoint = false;
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            TableMetadata shadow = tableDs.get(featureDao.getDatabase(),
+                    TableMetadata.getShadowTableName(featureDao.getTableName()));
+            checkpoint = shadow != null && isCheckpointCurrent(shadow);
+        } finally {
+            db.close();
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Determine if the table metadata has an indexing checkpoint that can be resumed, when
+     * the feature table has not changed since the interrupted run started
+     *
+     * @param metadata
+     * @return true if the checkpoint can be resumed
+     */
+    boolean isCheckpointCurrent(TableMetadata metadata) {
+        boolean current = false;
+        if (metadata.getCheckpointId() != null && metadata.getCheckpointTime() != null) {
+            Contents contents = featureDao.getGeometryColumns().getContents();
+            Date lastChange = contents != null ? contents.getLastChange() : null;
+            current = lastChange == null || lastChange.getTime() <= metadata.getCheckpointTime();
+        }
+        return current;
+    }
+
+    /**
+     * Index the feature envelope
+     *
+     * @param geomDs
+     * @param geoPackageId
+     * @param tableName      index table name
+     * @param geomId
+     * @param envelope
+     * @param time           feature time, or null
+     * @param possibleUpdate
+     */
+    private void index(GeometryMetadataDataSource geomDs, long geoPackageId, String tableName, long geomId,
+                       GeometryEnvelope envelope, Long time, boolean possibleUpdate) {
+
+        // Create the new index row
+        if (envelope != null) {
+            GeometryMetadata metadata = geomDs.populate(geoPackageId, tableName, geomId, envelope, time);
+            if (possibleUpdate) {
+                geomDs.createOrUpdate(metadata);
+            } else {
+                geomDs.create(metadata);
+            }
+        }
+    }
+
+    /**
+     * Index the cursor feature rows in chunked transactions using a compiled insert
+     * statement, committing the checkpoint with each chunk
+     *
+     * @param db
+     * @param tableDs
+     * @param geomDs
+     * @param geoPackageId
+     * @param tableName    index table name
+     * @param cursor       feature cursor ordered by feature id
+     * @param timeReader   time reader, or null if not time indexed
+     * @param startTime    indexing run start time
+     * @return count
+     */
+    private int bulkIndexRows(GeoPackageMetadataDb db, TableMetadataDataSource tableDs,
+                              GeometryMetadataDataSource geomDs, long geoPackageId, String tableName,
+                              FeatureCursor cursor, FeatureTimeReader timeReader, long startTime) {
+
+        int count = 0;
+        int pkIndex = featureDao.getTable().getPkColumnIndex();
+
+        SQLiteStatement statement = geomDs.createInsertStatement(geoPackageId);
+        try {
+            int chunkCount = 0;
+            long lastId = 0;
+            db.beginTransaction();
+            try {
+                while ((progress == null || progress.isActive()) && cursor.moveToNext()) {
+                    count++;
+                    chunkCount++;
+                    lastId = cursor.getLong(pkIndex);
+                    GeometryEnvelope envelope = cursor.getGeometryEnvelope();
+                    if (envelope != null) {
+                        geomDs.create(statement, geoPackageId, tableName, lastId, envelope,
+                                readTime(timeReader, cursor));
+                    }
+                    if (chunkCount >= chunkLimit) {
+                        tableDs.updateCheckpoint(geoPackageId, tableName, lastId, startTime);
+                        db.setTransactionSuccessful();
+                        db.endTransaction();
+                        if (progress != null) {
+                            progress.addProgress(chunkCount);
+                        }
+                        chunkCount = 0;
+                        db.beginTransaction();
+                    }
+                }
+                if (chunkCount > 0) {
+                    tableDs.updateCheckpoint(geoPackageId, tableName, lastId, startTime);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (progress != null && chunkCount > 0) {
+                progress.addProgress(chunkCount);
+            }
+        } finally {
+            statement.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Update the least indexed time
+     *
+     * @param db
+     * @param geoPackageId
+     */
+    void updateLastIndexed(GeoPackageMetadataDb db, long geoPackageId) {
+
+        long indexedTime = (new Date()).getTime();
+
+        TableMetadataDataSource ds = new TableMetadataDataSource(db);
+        if (!ds.updateLastIndexed(geoPackageId, featureDao.getTableName(), indexedTime)) {
+            throw new GeoPackageException("Failed to update last indexed time. Table: GeoPackage Id: "
+                    + geoPackageId + ", Table: " + featureDao.getTableName() + ", Last Indexed: " + indexedTime);
+        }
+
+    }
+
+    /**
+     * Determine if the database table is indexed in the metadata index after database
+     * modifications. A GeoPackage RTree index does not index the table for the indexer
+     * queries, which read the metadata index.
+     *
+     * @return
+     */
+    public boolean isIndexed() {
+
+        boolean indexed = false;
+
+        if (pendingChangeTime != null && writeThroughDb != null
+                && !featureDao.getSQLiteDatabase().inTransaction()) {
+            resolvePendingWrite(writeThroughDb);
+        }
+
+        Contents contents = featureDao.getGeometryColumns().getContents();
+        Date lastChange = contents.getLastChange();
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            TableMetadataDataSource ds = new TableMetadataDataSource(db);
+            TableMetadata metadata = ds.get(featureDao.getDatabase(), featureDao.getTableName());
+            if (metadata != null) {
+                Long lastIndexed = metadata.getLastIndexed();
                 indexed = lastIndexed != null && lastIndexed >= lastChange.getTime();
             }
         } finally {
@@ -232,4 +1226,366 @@ public class FeatureIndexer {
         return indexed;
     }
 
+    /**
+     * Get the packed R-tree of the indexed feature table, building the packed R-tree file
+     * when missing or out of date with the last index
+     *
+     * @return packed R-tree or null if the table has not been indexed
+     */
+    public PackedRTree getPackedRTree() {
+
+        PackedRTree tree = null;
+        if (packedRTreeGeoPackageId != null) {
+            tree = PackedRTreeIndex.getCached(packedRTreeGeoPackageId, featureDao.getTableName());
+        }
+
+        if (tree == null) {
+            GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+            db.open();
+            try {
+                long geoPackageId = new TableMetadataDataSource(db).getGeoPackageId(featureDao.getDatabase());
+                PackedRTreeIndex rtreeIndex = new PackedRTreeIndex(context);
+                tree = rtreeIndex.get(db, geoPackageId, featureDao.getTableName());
+                if (tree != null) {
+                    packedRTreeGeoPackageId = geoPackageId;
+                }
+            } finally {
+                db.close();
+            }
+        }
+
+        return tree;
+    }
+
+    /**
+     * Get the statistics of the indexed feature table, calculated when the table is indexed
+     * and maintained by updates and write-through writes
+     *
+     * @return table statistics or null if the table has not been indexed
+     */
+    public TableStatistics getStatistics() {
+
+        TableStatistics statistics;
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            TableStatisticsDataSource ds = new TableStatisticsDataSource(db);
+            statistics = ds.get(featureDao.getDatabase(), featureDao.getTableName());
+        } finally {
+            db.close();
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Get the extent of the indexed features from the table statistics, without reading the
+     * feature geometries, for use as the contents bounds or a layer bounding box
+     *
+     * @return bounding box in the feature projection, or null if the table has not been
+     * indexed or has no indexed features
+     */
+    public BoundingBox getBoundingBox() {
+        BoundingBox boundingBox = null;
+        TableStatistics statistics = getStatistics();
+        if (statistics != null) {
+            GeometryEnvelope extent = statistics.getExtent();
+            if (extent != null) {
+                boundingBox = new BoundingBox(extent.getMinX(), extent.getMaxX(),
+                        extent.getMinY(), extent.getMaxY());
+            }
+        }
+        return boundingBox;
+    }
+
+    /**
+     * Get the number of indexed features from the table statistics, without counting the
+     * feature table rows
+     *
+     * @return indexed feature count, or -1 if the table has no statistics
+     */
+    public long getIndexedCount() {
+        TableStatistics statistics = getStatistics();
+        return statistics != null ? statistics.getCount() : -1;
+    }
+
+    /**
+     * Estimate the number of indexed features intersecting the bounding box from the table
+     * statistics, without querying the index
+     *
+     * @param boundingBox bounding box in the feature projection
+     * @return estimated count, or -1 if the table has no statistics
+     */
+    public long estimateCount(BoundingBox boundingBox) {
+        return estimateCount(toEnvelope(boundingBox));
+    }
+
+    /**
+     * Estimate the number of indexed features intersecting the envelope from the table
+     * statistics, without querying the index
+     *
+     * @param envelope envelope in the feature projection
+     * @return estimated count, or -1 if the table has no statistics
+     */
+    public long estimateCount(GeometryEnvelope envelope) {
+        TableStatistics statistics = getStatistics();
+        return statistics != null ? statistics.estimateCount(envelope) : -1;
+    }
+
+    /**
+     * Query for feature rows with indexed envelopes intersecting the bounding box
+     *
+     * @param boundingBox bounding box in the feature projection
+     * @return feature cursor that must be closed
+     */
+    public FeatureCursor query(BoundingBox boundingBox) {
+        return query(toEnvelope(boundingBox));
+    }
+
+    /**
+     * Query for feature rows with indexed envelopes intersecting the envelope. The matching
+     * ids are read from the index and the rows queried in batches of ids. Index envelopes
+     * are rounded outwards to float precision, so the candidates matching on a rounded bound
+     * are refined first against their exact feature envelopes and the false positives
+     * excluded.
+     *
+     * @param envelope envelope in the feature projection
+     * @return feature cursor that must be closed
+     */
+    public FeatureCursor query(GeometryEnvelope envelope) {
+        return query(envelope, true);
+    }
+
+    /**
+     * Query for feature rows with indexed envelopes intersecting the envelope, optionally
+     * without refining the candidates matching on a float rounded bound. Unrefined results
+     * may include features just outside the envelope, within float precision.
+     *
+     * @param envelope envelope in the feature projection
+     * @param refine   true to refine the candidates against their exact feature envelopes
+     * @return feature cursor that must be closed
+     */
+    public FeatureCursor query(GeometryEnvelope envelope, boolean refine) {
+        return queryIndexed(envelope, null, null, refine);
+    }
+
+    /**
+     * Query for the ids of the feature rows matching the FTS query of the feature table
+     * text index with indexed envelopes intersecting the bounding box, ranked from the best
+     * match
+     *
+     * @param match       FTS query, see {@link FeatureTextIndex#prefixQuery(String)}
+     * @param boundingBox bounding box in the feature projection
+     * @param limit       max number of ids
+     * @return ranked feature row ids
+     */
+    public List<Long> queryText(String match, BoundingBox boundingBox, int limit) {
+        return queryText(match, toEnvelope(boundingBox), limit);
+    }
+
+    /**
+     * Query for the ids of the feature rows matching the FTS query of the feature table
+     * text index with indexed envelopes intersecting the envelope, ranked from the best
+     * match. The text matches are restricted to the ids matched by the index.
+     *
+     * @param match    FTS query, see {@link FeatureTextIndex#prefixQuery(String)}
+     * @param envelope envelope in the feature projection
+     * @param limit    max number of ids
+     * @return ranked feature row ids
+     */
+    public List<Long> queryText(String match, GeometryEnvelope envelope, int limit) {
+        Set<Long> ids = new HashSet<Long>(queryRefinedIds(envelope, null, null, true));
+        return new FeatureTextIndex(featureDao).query(match, ids, limit);
+    }
+
+    /**
+     * Query for feature rows with indexed envelopes intersecting the envelope, within the
+     * time range when provided. The rows are queried in batches of ids, merged into a
+     * single cursor.
+     *
+     * @param envelope envelope in the feature projection
+     * @param minTime  min time, or null for no time range
+     * @param maxTime  max time, or null for no time range
+     * @param refine   true to refine the candidates on a float rounded bound
+     * @return feature cursor that must be closed
+     */
+    FeatureCursor queryIndexed(GeometryEnvelope envelope, Long minTime, Long maxTime,
+                               boolean refine) {
+        List<Long> ids = queryRefinedIds(envelope, minTime, maxTime, refine);
+        if (ids.isEmpty()) {
+            return featureDao.query("0", null);
+        }
+        Collections.sort(ids);
+        List<Cursor> cursors = new ArrayList<Cursor>();
+        try {
+            for (int start = 0; start < ids.size(); start += UPDATE_BATCH_SIZE) {
+                cursors.add(queryForIds(ids.subList(start, Math.min(start + UPDATE_BATCH_SIZE, ids.size()))));
+            }
+        } catch (RuntimeException e) {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+            throw e;
+        }
+        FeatureCursor cursor;
+        if (cursors.size() == 1) {
+            cursor = (FeatureCursor) cursors.get(0);
+        } else {
+            cursor = new FeatureCursor(featureDao.getTable(),
+                    new MergeCursor(cursors.toArray(new Cursor[cursors.size()])));
+        }
+        return cursor;
+    }
+
+    /**
+     * Query for the ids of the features with indexed envelopes intersecting the envelope,
+     * within the time range when provided. When refining, candidates matching on a float
+     * rounded bound are refined against their exact feature envelopes and the rejected ids
+     * removed.
+     *
+     * @param envelope envelope in the feature projection
+     * @param minTime  min time, or null for no time range
+     * @param maxTime  max time, or null for no time range
+     * @param refine   true to refine the candidates on a float rounded bound
+     * @return feature ids
+     */
+    private List<Long> queryRefinedIds(GeometryEnvelope envelope, Long minTime, Long maxTime,
+                                       boolean refine) {
+
+        List<Long> ids = new ArrayList<Long>();
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+            long geoPackageId = geomDs.getGeoPackageId(featureDao.getDatabase());
+            if (geoPackageId >= 0) {
+                db.attachGeometryMetadataStore(geoPackageId);
+                ids = geomDs.queryIds(geoPackageId, featureDao.getTableName(), envelope,
+                        minTime, maxTime);
+                if (refine) {
+                    Set<Long> rejectedIds = new HashSet<Long>(refine(geomDs.queryBoundaryIds(
+                            geoPackageId, featureDao.getTableName(), envelope, minTime, maxTime),
+                            envelope));
+                    if (!rejectedIds.isEmpty()) {
+                        ids.removeAll(rejectedIds);
+                    }
+                }
+            }
+        } finally {
+            db.close();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Query for feature rows with geometries intersecting the polygon, including geometries
+     * touching the polygon boundary. Index candidates within the polygon envelope are pruned
+     * against the polygon by their indexed envelopes before the exact intersection test, and
+     * the matching rows are streamed a page at a time.
+     *
+     * @param polygon polygon in the feature projection
+     * @return polygon results that must be closed
+     */
+    public FeaturePolygonResults query(Polygon polygon) {
+        PolygonFilter filter = new PolygonFilter(polygon);
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            long geoPackageId = new GeometryMetadataDataSource(db).getGeoPackageId(featureDao.getDatabase());
+            db.attachGeometryMetadataStore(geoPackageId);
+            return new FeaturePolygonResults(featureDao, db, geoPackageId, filter);
+        } catch (RuntimeException e) {
+            db.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Refine the index candidates against their exact feature envelopes
+     *
+     * @param ids      candidate ids
+     * @param envelope envelope in the feature projection
+     * @return ids of the candidates not intersecting the envelope
+     */
+    private List<Long> refine(List<Long> ids, GeometryEnvelope envelope) {
+        List<Long> rejected = new ArrayList<Long>();
+        for (int start = 0; start < ids.size(); start += UPDATE_BATCH_SIZE) {
+            List<Long> batch = ids.subList(start, Math.min(start + UPDATE_BATCH_SIZE, ids.size()));
+            Set<Long> remaining = new HashSet<Long>(batch);
+            FeatureCursor cursor = queryForIds(batch);
+            try {
+                int pkIndex = featureDao.getTable().getPkColumnIndex();
+                while (cursor.moveToNext()) {
+                    GeometryEnvelope featureEnvelope = cursor.getGeometryEnvelope();
+                    if (featureEnvelope != null && intersects(featureEnvelope, envelope)) {
+                        remaining.remove(cursor.getLong(pkIndex));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            rejected.addAll(remaining);
+        }
+        return rejected;
+    }
+
+    /**
+     * Check if the exact feature envelope intersects the query envelope
+     *
+     * @param featureEnvelope
+     * @param envelope
+     * @return true if intersecting
+     */
+    private static boolean intersects(GeometryEnvelope featureEnvelope, GeometryEnvelope envelope) {
+        boolean intersects = featureEnvelope.getMinX() <= envelope.getMaxX()
+                && featureEnvelope.getMaxX() >= envelope.getMinX()
+                && featureEnvelope.getMinY() <= envelope.getMaxY()
+                && featureEnvelope.getMaxY() >= envelope.getMinY();
+        if (intersects && envelope.hasZ() && featureEnvelope.hasZ()) {
+            intersects = featureEnvelope.getMinZ() <= envelope.getMaxZ()
+                    && featureEnvelope.getMaxZ() >= envelope.getMinZ();
+        }
+        if (intersects && envelope.hasM() && featureEnvelope.hasM()) {
+            intersects = featureEnvelope.getMinM() <= envelope.getMaxM()
+                    && featureEnvelope.getMaxM() >= envelope.getMinM();
+        }
+        return intersects;
+    }
+
+    /**
+     * Create an envelope
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return envelope
+     */
+    static GeometryEnvelope createEnvelope(double minX, double minY, double maxX, double maxY) {
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(minX);
+        envelope.setMaxX(maxX);
+        envelope.setMinY(minY);
+        envelope.setMaxY(maxY);
+        return envelope;
+    }
+
+    /**
+     * Convert the bounding box to an envelope
+     *
+     * @param boundingBox
+     * @return envelope
+     */
+    static GeometryEnvelope toEnvelope(BoundingBox boundingBox) {
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(boundingBox.getMinLongitude());
+        envelope.setMaxX(boundingBox.getMaxLongitude());
+        envelope.setMinY(boundingBox.getMinLatitude());
+        envelope.setMaxY(boundingBox.getMaxLatitude());
+        return envelope;
+    }
+
 }
@@ -0,0 +1,335 @@
+package mil.nga.geopackage.db;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.metadata.GeometryMetadataStore;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.geom.GeoPackageGeometryData;
+import mil.nga.geopackage.geom.GeometryIntersects;
+import mil.nga.wkb.geom.Geometry;
+
+/**
+ * Streams the feature id pairs of a {@link FeatureSpatialJoin}. The indexed envelopes of
+ * both tables are read in min x order and merged in a plane sweep, holding only the
+ * envelopes active at the sweep position. Candidate pairs are refined a batch at a time,
+ * reading the geometries of the batch features once. The results must be closed.
+ */
+public class FeatureJoinResults {
+
+    /**
+     * Number of candidate pairs refined per batch
+     */
+    private static final int REFINE_BATCH_SIZE = 500;
+
+    /**
+     * Number of feature rows queried per statement when refining
+     */
+    private static final int QUERY_BATCH_SIZE = 500;
+
+    /**
+     * Open metadata database connection
+     */
+    private final GeoPackageMetadataDb db;
+
+    /**
+     * Left feature DAO
+     */
+    private final FeatureDao leftDao;
+
+    /**
+     * Right feature DAO
+     */
+    private final FeatureDao rightDao;
+
+    /**
+     * Left table envelopes in min x order
+     */
+    private final Cursor leftCursor;
+
+    /**
+     * Right table envelopes in min x order
+     */
+    private final Cursor rightCursor;
+
+    /**
+     * When true, candidate pairs are refined by an exact geometry intersection test
+     */
+    private final boolean refine;
+
+    /**
+     * Left envelopes active at the sweep position
+     */
+    private final List<double[]> leftActive = new ArrayList<double[]>();
+
+    /**
+     * Right envelopes active at the sweep position
+     */
+    private final List<double[]> rightActive = new ArrayList<double[]>();
+
+    /**
+     * Next left envelope, null when read
+     */
+    private double[] leftNext;
+
+    /**
+     * Next right envelope, null when read
+     */
+    private double[] rightNext;
+
+    /**
+     * Joined pairs ready to be read, left and right ids
+     */
+    private final List<long[]> pairs = new ArrayList<long[]>();
+
+    /**
+     * Index of the current pair
+     */
+    private int pairIndex = -1;
+
+    /**
+     * Number of candidate pairs produced by the sweep
+     */
+    private int candidateCount = 0;
+
+    /**
+     * True when the sweep has completed
+     */
+    private boolean swept = false;
+
+    /**
+     * Constructor
+     *
+     * @param db                open metadata database connection with the stores attached,
+     *                          closed with the results
+     * @param leftDao
+     * @param leftGeoPackageId
+     * @param rightDao
+     * @param rightGeoPackageId
+     * @param refine
+     */
+    FeatureJoinResults(GeoPackageMetadataDb db, FeatureDao leftDao, long leftGeoPackageId,
+                       FeatureDao rightDao, long rightGeoPackageId, boolean refine) {
+        this.db = db;
+        this.leftDao = leftDao;
+        this.rightDao = rightDao;
+        this.refine = refine;
+        GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+        leftCursor = geomDs.queryByMinX(leftGeoPackageId, leftDao.getTableName());
+        Cursor cursor = null;
+        try {
+            cursor = geomDs.queryByMinX(rightGeoPackageId, rightDao.getTableName());
+        } finally {
+            if (cursor == null) {
+                leftCursor.close();
+            }
+        }
+        rightCursor = cursor;
+    }
+
+    /**
+     * Move to the next joined pair
+     *
+     * @return true if moved to a pair, false when there are no more results
+     */
+    public boolean moveToNext() {
+        pairIndex++;
+        while (pairIndex >= pairs.size() && !swept) {
+            pairs.clear();
+            pairIndex = 0;
+            List<long[]> candidates = sweep(refine ? REFINE_BATCH_SIZE : 1);
+            pairs.addAll(refine ? refine(candidates) : candidates);
+        }
+        return pairIndex < pairs.size();
+    }
+
+    /**
+     * Get the left feature id of the current pair
+     *
+     * @return left feature id
+     */
+    public long getLeftId() {
+        return pairs.get(pairIndex)[0];
+    }
+
+    /**
+     * Get the right feature id of the current pair
+     *
+     * @return right feature id
+     */
+    public long getRightId() {
+        return pairs.get(pairIndex)[1];
+    }
+
+    /**
+     * Get the number of candidate pairs with intersecting indexed envelopes so far
+     *
+     * @return candidate count
+     */
+    public int getCandidateCount() {
+        return candidateCount;
+    }
+
+    /**
+     * Close the results, closing the metadata database connection
+     */
+    public void close() {
+        swept = true;
+        pairs.clear();
+        try {
+            leftCursor.close();
+            rightCursor.close();
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Advance the plane sweep until at least the minimum number of candidate pairs are
+     * produced or the sweep completes
+     *
+     * @param minimum minimum number of candidate pairs
+     * @return candidate pairs
+     */
+    private List<long[]> sweep(int minimum) {
+        List<long[]> candidates = new ArrayList<long[]>();
+        while (candidates.size() < minimum) {
+            if (leftNext == null) {
+                leftNext = read(leftCursor);
+            }
+            if (rightNext == null) {
+                rightNext = read(rightCursor);
+            }
+            if (leftNext == null && rightNext == null) {
+                swept = true;
+                break;
+            }
+            if (rightNext == null || (leftNext != null && leftNext[1] <= rightNext[1])) {
+                sweep(leftNext, rightActive, false, candidates);
+                leftActive.add(leftNext);
+                leftNext = null;
+            } else {
+                sweep(rightNext, leftActive, true, candidates);
+                rightActive.add(rightNext);
+                rightNext = null;
+            }
+        }
+        candidateCount += candidates.size();
+        return candidates;
+    }
+
+    /**
+     * Sweep the envelope against the active envelopes of the other table, removing active
+     * envelopes ending before the envelope min x
+     *
+     * @param envelope   id, min x, min y, max x, max y
+     * @param active     active envelopes of the other table
+     * @param right      true if the envelope is of the right table
+     * @param candidates candidate pairs to add to
+     */
+    private static void sweep(double[] envelope, List<double[]> active, boolean right,
+                              List<long[]> candidates) {
+        for (int i = active.size() - 1; i >= 0; i--) {
+            double[] other = active.get(i);
+            if (other[3] < envelope[1]) {
+                int last = active.size() - 1;
+                active.set(i, active.get(last));
+                active.remove(last);
+            } else if (other[2] <= envelope[4] && other[4] >= envelope[2]) {
+                long id = (long) envelope[0];
+                long otherId = (long) other[0];
+                candidates.add(right ? new long[]{otherId, id} : new long[]{id, otherId});
+            }
+        }
+    }
+
+    /**
+     * Read the next envelope of the cursor
+     *
+     * @param cursor
+     * @return id, min x, min y, max x, max y or null when done
+     */
+    private static double[] read(Cursor cursor) {
+        double[] envelope = null;
+        if (cursor.moveToNext()) {
+            envelope = new double[]{cursor.getLong(0),
+                    GeometryMetadataStore.decode(cursor.getLong(1)),
+                    GeometryMetadataStore.decode(cursor.getLong(2)),
+                    GeometryMetadataStore.decode(cursor.getLong(3)),
+                    GeometryMetadataStore.decode(cursor.getLong(4))};
+        }
+        return envelope;
+    }
+
+    /**
+     * Refine the candidate pairs by an exact geometry intersection test
+     *
+     * @param candidates candidate pairs
+     * @return intersecting pairs
+     */
+    private List<long[]> refine(List<long[]> candidates) {
+        Set<Long> leftIds = new LinkedHashSet<Long>();
+        Set<Long> rightIds = new LinkedHashSet<Long>();
+        for (long[] candidate : candidates) {
+            leftIds.add(candidate[0]);
+            rightIds.add(candidate[1]);
+        }
+        Map<Long, Geometry> leftGeometries = readGeometries(leftDao, leftIds);
+        Map<Long, Geometry> rightGeometries = readGeometries(rightDao, rightIds);
+        Map<Long, GeometryIntersects> prepared = new HashMap<Long, GeometryIntersects>();
+        List<long[]> refined = new ArrayList<long[]>();
+        for (long[] candidate : candidates) {
+            Geometry leftGeometry = leftGeometries.get(candidate[0]);
+            Geometry rightGeometry = rightGeometries.get(candidate[1]);
+            if (leftGeometry != null && rightGeometry != null) {
+                GeometryIntersects intersects = prepared.get(candidate[0]);
+                if (intersects == null) {
+                    intersects = new GeometryIntersects(leftGeometry);
+                    prepared.put(candidate[0], intersects);
+                }
+                if (intersects.intersects(rightGeometry)) {
+                    refined.add(candidate);
+                }
+            }
+        }
+        return refined;
+    }
+
+    /**
+     * Read the geometries of the features
+     *
+     * @param featureDao
+     * @param ids
+     * @return geometries by feature id
+     */
+    private static Map<Long, Geometry> readGeometries(FeatureDao featureDao, Set<Long> ids) {
+        Map<Long, Geometry> geometries = new HashMap<Long, Geometry>();
+        List<Long> idList = new ArrayList<Long>(ids);
+        int pkIndex = featureDao.getTable().getPkColumnIndex();
+        for (int start = 0; start < idList.size(); start += QUERY_BATCH_SIZE) {
+            FeatureCursor cursor = FeatureIndexer.queryForIds(featureDao,
+                    idList.subList(start, Math.min(start + QUERY_BATCH_SIZE, idList.size())));
+            try {
+                while (cursor.moveToNext()) {
+                    GeoPackageGeometryData geometryData = cursor.getGeometry();
+                    if (geometryData != null && geometryData.getGeometry() != null) {
+                        geometries.put(cursor.getLong(pkIndex), geometryData.getGeometry());
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return geometries;
+    }
+
+}
@@ -0,0 +1,429 @@
+package mil.nga.geopackage.db;
+
+import android.content.Context;
+
+import org.osgeo.proj4j.proj.LongLatProjection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.metadata.TableMetadata;
+import mil.nga.geopackage.db.metadata.TableMetadataDataSource;
+import mil.nga.geopackage.db.metadata.TableStatistics;
+import mil.nga.geopackage.db.metadata.TableStatisticsDataSource;
+import mil.nga.geopackage.db.rtree.PackedRTree;
+import mil.nga.geopackage.db.rtree.PackedRTreeIndex;
+import mil.nga.geopackage.db.rtree.PackedRTreeNearest;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.features.user.FeatureRow;
+import mil.nga.geopackage.geom.GeoPackageGeometryData;
+import mil.nga.geopackage.geom.GeometryDistance;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Nearest neighbor and within distance queries of a feature table indexed by the
+ * {@link FeatureIndexer}, refined by the exact distance to the feature geometries
+ */
+public class FeatureNearestQuery {
+
+    /**
+     * Number of candidate features queried per statement
+     */
+    private static final int QUERY_BATCH_SIZE = 500;
+
+    /**
+     * Earth radius in meters used to measure distances in geographic projections
+     */
+    private static final double EARTH_RADIUS = 6378137.0;
+
+    /**
+     * Context
+     */
+    private final Context context;
+
+    /**
+     * Feature DAO
+     */
+    private final FeatureDao featureDao;
+
+    /**
+     * GeoPackage id of the last packed R-tree, used to read the cached tree without a
+     * metadata lookup, null until a tree is read
+     */
+    private Long packedRTreeGeoPackageId;
+
+    /**
+     * Constructor
+     *
+     * @param context
+     * @param featureDao
+     */
+    public FeatureNearestQuery(Context context, FeatureDao featureDao) {
+        this.context = context;
+        this.featureDao = featureDao;
+    }
+
+    /**
+     * Query for the nearest feature rows to the point, ordered by distance. When the packed
+     * R-tree is current with the index, candidates are visited best-first by envelope
+     * distance in the tree. Otherwise, such as after write-through or incremental updates,
+     * the metadata index is searched within growing distances of the point, so the tree is
+     * never rebuilt on the query thread. Candidates are refined by the exact distance to the
+     * decoded geometry. Distances are in meters for geographic projections, measured
+     * locally around the point, or in projection units otherwise.
+     *
+     * @param x nearest to x in the feature projection
+     * @param y nearest to y in the feature projection
+     * @param k max number of features
+     * @return up to k nearest features, ordered from the nearest
+     */
+    public List<FeatureDistance> queryNearest(double x, double y, int k) {
+
+        List<FeatureDistance> results = new ArrayList<FeatureDistance>();
+        if (k < 1) {
+            return results;
+        }
+
+        double[] scale = getDistanceScale(y);
+        PackedRTree tree = getCurrentPackedRTree();
+        if (tree != null) {
+            results = queryNearest(tree.nearest(x, y, scale[0], scale[1]), x, y, k, scale);
+        } else {
+            results = queryNearestIndexed(x, y, k, scale);
+        }
+        return results;
+    }
+
+    /**
+     * Query for the nearest feature rows from the packed R-tree traversal, stopping once no
+     * remaining envelope can be closer
+     *
+     * @param nearest packed R-tree nearest traversal
+     * @param x
+     * @param y
+     * @param k
+     * @param scale
+     * @return up to k nearest features, ordered from the nearest
+     */
+    private List<FeatureDistance> queryNearest(PackedRTreeNearest nearest, double x, double y,
+                                               int k, double[] scale) {
+
+        // Max heap of the nearest features found
+        PriorityQueue<FeatureDistance> best = new PriorityQueue<FeatureDistance>(k,
+                new Comparator<FeatureDistance>() {
+                    @Override
+                    public int compare(FeatureDistance lhs, FeatureDistance rhs) {
+                        return Double.compare(rhs.getDistance(), lhs.getDistance());
+                    }
+                });
+
+        List<Long> candidates = new ArrayList<Long>();
+        boolean more = nearest.next();
+        while (more) {
+            double bound = best.size() == k ? best.peek().getDistance() : Double.POSITIVE_INFINITY;
+            candidates.clear();
+            while (more && candidates.size() < k && nearest.getDistance() < bound) {
+                candidates.add(nearest.getId());
+                more = nearest.next();
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+            for (FeatureDistance feature : queryDistances(candidates, x, y, scale)) {
+                if (best.size() < k) {
+                    best.add(feature);
+                } else if (feature.getDistance() < best.peek().getDistance()) {
+                    best.poll();
+                    best.add(feature);
+                }
+            }
+        }
+
+        List<FeatureDistance> results = new ArrayList<FeatureDistance>(best);
+        sortByDistance(results);
+        return results;
+    }
+
+    /**
+     * Query for the nearest feature rows from the metadata index, searching the indexed
+     * envelopes within a distance of the point that doubles until k features are found
+     * within the distance or the search covers the indexed extent. The first distance is
+     * estimated from the table statistics to hold about k features.
+     *
+     * @param x
+     * @param y
+     * @param k
+     * @param scale
+     * @return up to k nearest features, ordered from the nearest
+     */
+    private List<FeatureDistance> queryNearestIndexed(double x, double y, int k, double[] scale) {
+
+        List<FeatureDistance> results = new ArrayList<FeatureDistance>();
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+            long geoPackageId = getRequiredIndexedGeoPackageId(db);
+            TableStatistics statistics = new TableStatisticsDataSource(db).get(geoPackageId,
+                    featureDao.getTableName());
+            if (statistics == null || statistics.getCount() == 0 || statistics.getMinX() == null) {
+                return results;
+            }
+
+            double width = (statistics.getMaxX() - statistics.getMinX()) * scale[0];
+            double height = (statistics.getMaxY() - statistics.getMinY()) * scale[1];
+            double distance = Math.sqrt(width * height * Math.min(k, statistics.getCount())
+                    / statistics.getCount()) / 2.0;
+            if (!(distance > 0)) {
+                distance = Math.max(Math.max(width, height) / 2.0, Double.MIN_NORMAL);
+            }
+
+            Set<Long> measured = new HashSet<Long>();
+            while (true) {
+                double dx = distance / scale[0];
+                double dy = distance / scale[1];
+                GeometryEnvelope envelope = FeatureIndexer.createEnvelope(x - dx, y - dy, x + dx, y + dy);
+                List<Long> candidates = queryIndexedIds(geomDs, geoPackageId, envelope);
+                candidates.removeAll(measured);
+                measured.addAll(candidates);
+                for (int start = 0; start < candidates.size(); start += QUERY_BATCH_SIZE) {
+                    results.addAll(queryDistances(candidates.subList(start,
+                            Math.min(start + QUERY_BATCH_SIZE, candidates.size())), x, y, scale));
+                }
+                sortByDistance(results);
+
+                // Features outside the searched envelope are further than the distance
+                boolean found = results.size() >= k && results.get(k - 1).getDistance() <= distance;
+                boolean covered = envelope.getMinX() <= statistics.getMinX()
+                        && envelope.getMaxX() >= statistics.getMaxX()
+                        && envelope.getMinY() <= statistics.getMinY()
+                        && envelope.getMaxY() >= statistics.getMaxY();
+                if (found || covered || Double.isInfinite(distance)) {
+                    break;
+                }
+                distance *= 2;
+            }
+        } finally {
+            db.close();
+        }
+
+        if (results.size() > k) {
+            results = new ArrayList<FeatureDistance>(results.subList(0, k));
+        }
+        return results;
+    }
+
+    /**
+     * Query for the feature rows within the distance of the point, ordered by distance.
+     * Candidates are visited best-first by envelope distance in the packed R-tree up to the
+     * distance when the tree is current with the index, or otherwise read from the metadata
+     * index within the distance, and refined by the exact distance to the decoded geometry.
+     * Distances are in meters for geographic projections, measured locally around the point,
+     * or in projection units otherwise.
+     *
+     * @param x        x in the feature projection
+     * @param y        y in the feature projection
+     * @param distance max distance, inclusive
+     * @return features within the distance, ordered from the nearest
+     */
+    public List<FeatureDistance> queryWithinDistance(double x, double y, double distance) {
+
+        double[] scale = getDistanceScale(y);
+
+        List<FeatureDistance> results = new ArrayList<FeatureDistance>();
+        List<Long> candidates = new ArrayList<Long>();
+        PackedRTree tree = getCurrentPackedRTree();
+        if (tree != null) {
+            PackedRTreeNearest nearest = tree.nearest(x, y, scale[0], scale[1]);
+            boolean more = nearest.next();
+            while (more && nearest.getDistance() <= distance) {
+                candidates.clear();
+                while (more && candidates.size() < QUERY_BATCH_SIZE && nearest.getDistance() <= distance) {
+                    candidates.add(nearest.getId());
+                    more = nearest.next();
+                }
+                addWithinDistance(candidates, x, y, scale, distance, results);
+            }
+        } else {
+            GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+            db.open();
+            try {
+                long geoPackageId = getRequiredIndexedGeoPackageId(db);
+                double dx = distance / scale[0];
+                double dy = distance / scale[1];
+                candidates = queryIndexedIds(new GeometryMetadataDataSource(db), geoPackageId,
+                        FeatureIndexer.createEnvelope(x - dx, y - dy, x + dx, y + dy));
+            } finally {
+                db.close();
+            }
+            for (int start = 0; start < candidates.size(); start += QUERY_BATCH_SIZE) {
+                addWithinDistance(candidates.subList(start,
+                        Math.min(start + QUERY_BATCH_SIZE, candidates.size())), x, y, scale,
+                        distance, results);
+            }
+        }
+
+        sortByDistance(results);
+        return results;
+    }
+
+    /**
+     * Measure the candidate features and add those within the distance to the results
+     *
+     * @param candidates candidate ids
+     * @param x
+     * @param y
+     * @param scale
+     * @param distance   max distance, inclusive
+     * @param results    features within the distance
+     */
+    private void addWithinDistance(List<Long> candidates, double x, double y, double[] scale,
+                                   double distance, List<FeatureDistance> results) {
+        for (FeatureDistance feature : queryDistances(candidates, x, y, scale)) {
+            if (feature.getDistance() <= distance) {
+                results.add(feature);
+            }
+        }
+    }
+
+    /**
+     * Get the packed R-tree of the indexed feature table when current with the index,
+     * without building it
+     *
+     * @return packed R-tree or null
+     */
+    private PackedRTree getCurrentPackedRTree() {
+
+        PackedRTree tree = null;
+        if (packedRTreeGeoPackageId != null) {
+            tree = PackedRTreeIndex.getCached(packedRTreeGeoPackageId, featureDao.getTableName());
+        }
+
+        if (tree == null) {
+            GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+            db.open();
+            try {
+                long geoPackageId = new TableMetadataDataSource(db).getGeoPackageId(featureDao.getDatabase());
+                tree = new PackedRTreeIndex(context).getCurrent(db, geoPackageId, featureDao.getTableName());
+                if (tree != null) {
+                    packedRTreeGeoPackageId = geoPackageId;
+                }
+            } finally {
+                db.close();
+            }
+        }
+
+        return tree;
+    }
+
+    /**
+     * Get the GeoPackage id of the indexed feature table
+     *
+     * @param db
+     * @return GeoPackage id
+     */
+    private long getRequiredIndexedGeoPackageId(GeoPackageMetadataDb db) {
+        TableMetadata metadata = new TableMetadataDataSource(db).get(featureDao.getDatabase(),
+                featureDao.getTableName());
+        if (metadata == null || metadata.getLastIndexed() == null) {
+            throw new GeoPackageException("Feature table is not indexed. GeoPackage: "
+                    + featureDao.getDatabase() + ", Table: " + featureDao.getTableName());
+        }
+        return metadata.getGeoPackageId();
+    }
+
+    /**
+     * Query for the ids of the indexed envelopes intersecting the envelope, paging through
+     * the index into an id buffer
+     *
+     * @param geomDs
+     * @param geoPackageId
+     * @param envelope
+     * @return ids
+     */
+    private List<Long> queryIndexedIds(GeometryMetadataDataSource geomDs, long geoPackageId,
+                                       GeometryEnvelope envelope) {
+        List<Long> ids = new ArrayList<Long>();
+        long[] buffer = new long[QUERY_BATCH_SIZE];
+        int read;
+        do {
+            read = geomDs.queryIds(geoPackageId, featureDao.getTableName(), envelope,
+                    ids.size(), buffer);
+            for (int i = 0; i < read; i++) {
+                ids.add(buffer[i]);
+            }
+        } while (read == buffer.length);
+        return ids;
+    }
+
+    /**
+     * Get the distance units per x and y unit of the feature projection at the y value,
+     * meters from an equirectangular approximation for geographic projections
+     *
+     * @param y
+     * @return x and y scale
+     */
+    private double[] getDistanceScale(double y) {
+        double[] scale;
+        if (featureDao.getProjection().getCrs().getProjection() instanceof LongLatProjection) {
+            double metersPerDegree = Math.toRadians(EARTH_RADIUS);
+            scale = new double[]{metersPerDegree * Math.cos(Math.toRadians(y)), metersPerDegree};
+        } else {
+            scale = new double[]{1.0, 1.0};
+        }
+        return scale;
+    }
+
+    /**
+     * Query for the feature rows with the ids and measure their geometry distances
+     *
+     * @param ids
+     * @param x
+     * @param y
+     * @param scale
+     * @return features with geometries
+     */
+    private List<FeatureDistance> queryDistances(List<Long> ids, double x, double y, double[] scale) {
+        List<FeatureDistance> features = new ArrayList<FeatureDistance>();
+        FeatureCursor cursor = FeatureIndexer.queryForIds(featureDao, ids);
+        try {
+            while (cursor.moveToNext()) {
+                FeatureRow row = cursor.getRow();
+                GeoPackageGeometryData geometryData = row.getGeometry();
+                if (geometryData != null && geometryData.getGeometry() != null) {
+                    double distance = GeometryDistance.distance(geometryData.getGeometry(),
+                            x, y, scale[0], scale[1]);
+                    features.add(new FeatureDistance(row, distance));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return features;
+    }
+
+    /**
+     * Sort the features from the nearest
+     *
+     * @param features
+     */
+    private static void sortByDistance(List<FeatureDistance> features) {
+        Collections.sort(features, new Comparator<FeatureDistance>() {
+            @Override
+            public int compare(FeatureDistance lhs, FeatureDistance rhs) {
+                return Double.compare(lhs.getDistance(), rhs.getDistance());
+            }
+        });
+    }
+
+}
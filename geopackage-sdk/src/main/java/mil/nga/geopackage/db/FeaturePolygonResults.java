@@ -0,0 +1,216 @@
+package mil.nga.geopackage.db;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.features.user.FeatureRow;
+import mil.nga.geopackage.geom.GeoPackageGeometryData;
+import mil.nga.geopackage.geom.PolygonFilter;
+
+/**
+ * Streams the feature rows intersecting a query polygon from {@link FeatureIndexer#query(mil.nga.wkb.geom.Polygon)}.
+ * Index candidates within the polygon envelope are read a page at a time. Candidates with
+ * indexed envelopes outside of the polygon are pruned and those within the polygon interior
+ * are accepted without decoding the geometry, the remaining candidates are tested exactly.
+ * The index must not be modified while reading and the results must be closed.
+ */
+public class FeaturePolygonResults {
+
+    /**
+     * Number of index candidates read per page
+     */
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * Feature DAO
+     */
+    private final FeatureDao featureDao;
+
+    /**
+     * Open metadata database connection
+     */
+    private final GeoPackageMetadataDb db;
+
+    /**
+     * Geometry metadata data source
+     */
+    private final GeometryMetadataDataSource geomDs;
+
+    /**
+     * GeoPackage metadata id
+     */
+    private final long geoPackageId;
+
+    /**
+     * Query polygon filter
+     */
+    private final PolygonFilter filter;
+
+    /**
+     * Candidate id page buffer
+     */
+    private final long[] ids = new long[PAGE_SIZE];
+
+    /**
+     * Candidate envelope page buffer
+     */
+    private final double[] envelopes = new double[PAGE_SIZE * 4];
+
+    /**
+     * Matching rows of the current page
+     */
+    private final List<FeatureRow> rows = new ArrayList<FeatureRow>();
+
+    /**
+     * Index of the current row within the page rows
+     */
+    private int rowIndex = -1;
+
+    /**
+     * Number of index candidates read
+     */
+    private int offset = 0;
+
+    /**
+     * True when all index candidates have been read
+     */
+    private boolean exhausted = false;
+
+    /**
+     * Number of candidates pruned by their indexed envelopes
+     */
+    private int prunedCount = 0;
+
+    /**
+     * Number of candidates tested against their exact geometries
+     */
+    private int exactCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param featureDao
+     * @param db           open metadata database connection, closed with the results
+     * @param geoPackageId
+     * @param filter
+     */
+    FeaturePolygonResults(FeatureDao featureDao, GeoPackageMetadataDb db, long geoPackageId,
+                          PolygonFilter filter) {
+        this.featureDao = featureDao;
+        this.db = db;
+        this.geomDs = new GeometryMetadataDataSource(db);
+        this.geoPackageId = geoPackageId;
+        this.filter = filter;
+    }
+
+    /**
+     * Move to the next feature row intersecting the polygon
+     *
+     * @return true if moved to a row, false when there are no more results
+     */
+    public boolean moveToNext() {
+        rowIndex++;
+        while (rowIndex >= rows.size() && !exhausted) {
+            readPage();
+        }
+        return rowIndex < rows.size();
+    }
+
+    /**
+     * Get the current feature row
+     *
+     * @return feature row
+     */
+    public FeatureRow getRow() {
+        return rows.get(rowIndex);
+    }
+
+    /**
+     * Get the number of index candidates pruned by their indexed envelopes so far
+     *
+     * @return pruned count
+     */
+    public int getPrunedCount() {
+        return prunedCount;
+    }
+
+    /**
+     * Get the number of index candidates tested against their exact geometries so far
+     *
+     * @return exact test count
+     */
+    public int getExactCount() {
+        return exactCount;
+    }
+
+    /**
+     * Close the results, closing the metadata database connection
+     */
+    public void close() {
+        exhausted = true;
+        rows.clear();
+        db.close();
+    }
+
+    /**
+     * Read the next page of index candidates into the page rows
+     */
+    private void readPage() {
+
+        rows.clear();
+        rowIndex = 0;
+
+        int count = geomDs.queryIds(geoPackageId, featureDao.getTableName(), filter.getEnvelope(),
+                offset, ids, envelopes);
+        offset += count;
+        exhausted = count < ids.length;
+
+        // Classify the candidates by their indexed envelopes, rounded outwards
+        List<Long> candidates = new ArrayList<Long>();
+        Set<Long> accepted = new HashSet<Long>();
+        for (int i = 0; i < count; i++) {
+            int index = i * 4;
+            double minX = envelopes[index];
+            double minY = envelopes[index + 1];
+            double maxX = envelopes[index + 2];
+            double maxY = envelopes[index + 3];
+            if (!filter.intersects(minX, minY, maxX, maxY)) {
+                prunedCount++;
+            } else {
+                candidates.add(ids[i]);
+                if (filter.contains(minX, minY, maxX, maxY)) {
+                    accepted.add(ids[i]);
+                }
+            }
+        }
+
+        if (!candidates.isEmpty()) {
+            FeatureCursor cursor = FeatureIndexer.queryForIds(featureDao, candidates);
+            try {
+                int pkIndex = featureDao.getTable().getPkColumnIndex();
+                while (cursor.moveToNext()) {
+                    boolean matches = accepted.contains(cursor.getLong(pkIndex));
+                    FeatureRow row = cursor.getRow();
+                    if (!matches) {
+                        exactCount++;
+                        GeoPackageGeometryData geometryData = row.getGeometry();
+                        matches = geometryData != null && geometryData.getGeometry() != null
+                                && filter.intersects(geometryData.getGeometry());
+                    }
+                    if (matches) {
+                        rows.add(row);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+}
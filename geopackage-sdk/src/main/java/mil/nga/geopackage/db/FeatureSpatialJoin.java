@@ -0,0 +1,194 @@
+package mil.nga.geopackage.db;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.TableMetadata;
+import mil.nga.geopackage.db.metadata.TableMetadataDataSource;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.io.GeoPackageProgress;
+
+/**
+ * Spatial join of two feature tables indexed by the {@link FeatureIndexer}. A plane sweep
+ * over the indexed envelopes of both tables in min x order produces the candidate pairs of
+ * features with intersecting envelopes, optionally refined by an exact geometry
+ * intersection test. The feature tables must share a projection.
+ */
+public class FeatureSpatialJoin {
+
+    /**
+     * Join table left feature id column
+     */
+    public static final String COLUMN_LEFT_ID = "left_id";
+
+    /**
+     * Join table right feature id column
+     */
+    public static final String COLUMN_RIGHT_ID = "right_id";
+
+    /**
+     * Context
+     */
+    private final Context context;
+
+    /**
+     * Left feature DAO
+     */
+    private final FeatureDao leftDao;
+
+    /**
+     * Right feature DAO
+     */
+    private final FeatureDao rightDao;
+
+    /**
+     * When true, candidate pairs are refined by an exact geometry intersection test
+     */
+    private boolean refine = true;
+
+    /**
+     * Progress
+     */
+    private GeoPackageProgress progress;
+
+    /**
+     * Constructor
+     *
+     * @param context
+     * @param leftDao
+     * @param rightDao
+     */
+    public FeatureSpatialJoin(Context context, FeatureDao leftDao, FeatureDao rightDao) {
+        if (leftDao.getProjection().getEpsg() != rightDao.getProjection().getEpsg()) {
+            throw new GeoPackageException("Spatial join requires feature tables in the same projection. Left: "
+                    + leftDao.getTableName() + " (EPSG " + leftDao.getProjection().getEpsg() + "), Right: "
+                    + rightDao.getTableName() + " (EPSG " + rightDao.getProjection().getEpsg() + ")");
+        }
+        this.context = context;
+        this.leftDao = leftDao;
+        this.rightDao = rightDao;
+    }
+
+    /**
+     * Is the exact refine of candidate pairs enabled
+     *
+     * @return
+     */
+    public boolean isRefine() {
+        return refine;
+    }
+
+    /**
+     * Set the exact refine of candidate pairs. When disabled, all pairs of features with
+     * intersecting indexed envelopes are joined, which are rounded outwards to float
+     * precision.
+     *
+     * @param refine
+     */
+    public void setRefine(boolean refine) {
+        this.refine = refine;
+    }
+
+    /**
+     * Set the progress tracker, progress is added per joined pair written to a join table
+     *
+     * @param progress
+     */
+    public void setProgress(GeoPackageProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Stream the joined feature id pairs in left envelope min x order
+     *
+     * @return join results that must be closed
+     */
+    public FeatureJoinResults query() {
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            long leftGeoPackageId = getIndexedGeoPackageId(tableDs, leftDao);
+            long rightGeoPackageId = getIndexedGeoPackageId(tableDs, rightDao);
+            db.attachGeometryMetadataStore(leftGeoPackageId);
+            db.attachGeometryMetadataStore(rightGeoPackageId);
+            return new FeatureJoinResults(db, leftDao, leftGeoPackageId, rightDao, rightGeoPackageId, refine);
+        } catch (RuntimeException e) {
+            db.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the joined feature id pairs into a new table of the left feature table
+     * GeoPackage, with a left id and right id column
+     *
+     * @param tableName join table name
+     * @return number of joined pairs
+     */
+    public int writeTable(String tableName) {
+
+        if (leftDao.getDb().tableExists(tableName)) {
+            throw new GeoPackageException("Join table already exists: " + tableName);
+        }
+
+        int count = 0;
+
+        SQLiteDatabase db = leftDao.getSQLiteDatabase();
+        String table = "\"" + tableName.replace("\"", "\"\"") + "\"";
+        FeatureJoinResults results = query();
+        try {
+            db.beginTransaction();
+            try {
+                db.execSQL("CREATE TABLE " + table + " ("
+                        + COLUMN_LEFT_ID + " INTEGER NOT NULL, "
+                        + COLUMN_RIGHT_ID + " INTEGER NOT NULL, "
+                        + "PRIMARY KEY (" + COLUMN_LEFT_ID + ", " + COLUMN_RIGHT_ID + "))");
+                SQLiteStatement statement = db.compileStatement("INSERT INTO " + table + " ("
+                        + COLUMN_LEFT_ID + ", " + COLUMN_RIGHT_ID + ") VALUES (?, ?)");
+                try {
+                    while ((progress == null || progress.isActive()) && results.moveToNext()) {
+                        statement.bindLong(1, results.getLeftId());
+                        statement.bindLong(2, results.getRightId());
+                        statement.executeInsert();
+                        count++;
+                        if (progress != null) {
+                            progress.addProgress(1);
+                        }
+                    }
+                } finally {
+                    statement.close();
+                }
+                if (progress == null || progress.isActive()) {
+                    db.setTransactionSuccessful();
+                }
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            results.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the GeoPackage metadata id of an indexed feature table
+     *
+     * @param tableDs
+     * @param featureDao
+     * @return GeoPackage id
+     */
+    private static long getIndexedGeoPackageId(TableMetadataDataSource tableDs, FeatureDao featureDao) {
+        TableMetadata metadata = tableDs.get(featureDao.getDatabase(), featureDao.getTableName());
+        if (metadata == null || metadata.getLastIndexed() == null) {
+            throw new GeoPackageException("Feature table is not indexed. GeoPackage: "
+                    + featureDao.getDatabase() + ", Table: " + featureDao.getTableName());
+        }
+        return metadata.getGeoPackageId();
+    }
+
+}
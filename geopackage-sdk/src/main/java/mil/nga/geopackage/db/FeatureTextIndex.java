@@ -0,0 +1,444 @@
+package mil.nga.geopackage.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.j256.ormlite.dao.DaoManager;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.extension.ExtensionScopeType;
+import mil.nga.geopackage.extension.Extensions;
+import mil.nga.geopackage.extension.ExtensionsDao;
+import mil.nga.geopackage.features.user.FeatureColumn;
+import mil.nga.geopackage.features.user.FeatureDao;
+
+/**
+ * Full-text index of chosen text columns of a feature table, an FTS4 table keyed by the
+ * feature row id. Triggers on the feature table keep the index in sync with feature DAO
+ * writes and changes made by other processes and tools. Matches are ranked by BM25 from
+ * the FTS match information. The index is registered as the nga_text_index extension of
+ * the feature table.
+ */
+public class FeatureTextIndex {
+
+    /**
+     * Extension author
+     */
+    public static final String EXTENSION_AUTHOR = "nga";
+
+    /**
+     * Extension name without the author
+     */
+    public static final String EXTENSION_NAME_NO_AUTHOR = "text_index";
+
+    /**
+     * Extension name
+     */
+    public static final String EXTENSION_NAME = EXTENSION_AUTHOR + "_" + EXTENSION_NAME_NO_AUTHOR;
+
+    /**
+     * Extension definition
+     */
+    public static final String DEFINITION = "FTS4 table fts_<table> of feature text columns,"
+            + " maintained by the fti_<table>_<operation> triggers";
+
+    /**
+     * Text index table name prefix
+     */
+    public static final String TABLE_PREFIX = "fts_";
+
+    /**
+     * Trigger name prefix
+     */
+    private static final String TRIGGER_PREFIX = "fti_";
+
+    /**
+     * BM25 term frequency saturation
+     */
+    private static final double BM25_K1 = 1.2;
+
+    /**
+     * BM25 document length normalization
+     */
+    private static final double BM25_B = 0.75;
+
+    /**
+     * Feature DAO
+     */
+    private final FeatureDao featureDao;
+
+    /**
+     * Database connection
+     */
+    private final SQLiteDatabase db;
+
+    /**
+     * Constructor
+     *
+     * @param featureDao
+     */
+    public FeatureTextIndex(FeatureDao featureDao) {
+        this.featureDao = featureDao;
+        this.db = featureDao.getSQLiteDatabase();
+    }
+
+    /**
+     * Get the text index table name
+     *
+     * @return table name
+     */
+    public String getTableName() {
+        return TABLE_PREFIX + featureDao.getTableName();
+    }
+
+    /**
+     * Determine if the feature table has a text index
+     *
+     * @return true if the index table and triggers exist
+     */
+    public boolean has() {
+        boolean exists = featureDao.getDb().tableExists(getTableName());
+        if (exists) {
+            Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'trigger' AND name IN (?, ?, ?)",
+                    new String[]{getTriggerName("insert"), getTriggerName("update"), getTriggerName("delete")});
+            try {
+                exists = cursor.moveToFirst() && cursor.getInt(0) == 3;
+            } finally {
+                cursor.close();
+            }
+        }
+        return exists;
+    }
+
+    /**
+     * Get the indexed text columns
+     *
+     * @return column names, empty if not indexed
+     */
+    public List<String> getColumns() {
+        List<String> columns = new ArrayList<String>();
+        if (featureDao.getDb().tableExists(getTableName())) {
+            Cursor cursor = db.rawQuery("PRAGMA table_info(" + quote(getTableName()) + ")", null);
+            try {
+                int nameIndex = cursor.getColumnIndexOrThrow("name");
+                while (cursor.moveToNext()) {
+                    columns.add(cursor.getString(nameIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Create the text index of the columns, replacing an existing index, and index the
+     * current feature rows
+     *
+     * @param columns text column names
+     */
+    public void create(List<String> columns) {
+
+        if (columns.isEmpty()) {
+            throw new GeoPackageException("Text index requires at least one column. Table: "
+                    + featureDao.getTableName());
+        }
+        for (String column : columns) {
+            FeatureColumn featureColumn = featureDao.getTable().getColumn(column);
+            if (featureColumn.getDataType() != GeoPackageDataType.TEXT) {
+                throw new GeoPackageException("Unsupported text index column data type: "
+                        + featureColumn.getDataType() + ". Table: " + featureDao.getTableName()
+                        + ", Column: " + column);
+            }
+        }
+
+        String table = quote(featureDao.getTableName());
+        String indexTable = quote(getTableName());
+        String pk = quote(featureDao.getTable().getPkColumn().getName());
+        StringBuilder columnList = new StringBuilder();
+        StringBuilder newValues = new StringBuilder();
+        for (String column : columns) {
+            if (columnList.length() > 0) {
+                columnList.append(", ");
+                newValues.append(", ");
+            }
+            columnList.append(quote(column));
+            newValues.append("NEW.").append(quote(column));
+        }
+        String insertIndex = "INSERT INTO " + indexTable + " (docid, " + columnList
+                + ") VALUES (NEW." + pk + ", " + newValues + "); ";
+        String deleteIndex = "DELETE FROM " + indexTable + " WHERE docid = OLD." + pk + "; ";
+
+        db.beginTransaction();
+        try {
+            dropIndex();
+            db.execSQL("CREATE VIRTUAL TABLE " + indexTable + " USING fts4(" + columnList + ")");
+            db.execSQL("INSERT INTO " + indexTable + " (docid, " + columnList + ") SELECT "
+                    + pk + ", " + columnList + " FROM " + table);
+            db.execSQL("CREATE TRIGGER " + quote(getTriggerName("insert"))
+                    + " AFTER INSERT ON " + table + " BEGIN " + insertIndex + "END");
+            db.execSQL("CREATE TRIGGER " + quote(getTriggerName("update"))
+                    + " AFTER UPDATE OF " + pk + ", " + columnList + " ON " + table + " BEGIN "
+                    + deleteIndex + insertIndex + "END");
+            db.execSQL("CREATE TRIGGER " + quote(getTriggerName("delete"))
+                    + " AFTER DELETE ON " + table + " BEGIN " + deleteIndex + "END");
+            registerExtension();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Drop the text index table and triggers and remove the extension registration
+     */
+    public void delete() {
+        db.beginTransaction();
+        try {
+            dropIndex();
+            ExtensionsDao extensionsDao = DaoManager.createDao(featureDao.getDb().getConnectionSource(),
+                    Extensions.class);
+            if (extensionsDao.isTableExists()) {
+                extensionsDao.deleteByExtension(EXTENSION_NAME, featureDao.getTableName());
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            throw new GeoPackageException("Failed to delete the " + EXTENSION_NAME
+                    + " extension. Table: " + featureDao.getTableName(), e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Register the extension in the GeoPackage extensions table
+     */
+    private void registerExtension() {
+        GeoPackageCoreConnection connection = featureDao.getDb();
+        try {
+            ExtensionsDao extensionsDao = DaoManager.createDao(connection.getConnectionSource(),
+                    Extensions.class);
+            if (!extensionsDao.isTableExists()) {
+                new GeoPackageTableCreator(connection).createExtensions();
+            }
+            if (extensionsDao.queryByExtension(EXTENSION_NAME, featureDao.getTableName()).isEmpty()) {
+                Extensions extension = new Extensions();
+                extension.setTableName(featureDao.getTableName());
+                extension.setExtensionName(EXTENSION_AUTHOR, EXTENSION_NAME_NO_AUTHOR);
+                extension.setDefinition(DEFINITION);
+                extension.setScope(ExtensionScopeType.WRITE_ONLY);
+                extensionsDao.create(extension);
+            }
+        } catch (SQLException e) {
+            throw new GeoPackageException("Failed to register the " + EXTENSION_NAME
+                    + " extension. Table: " + featureDao.getTableName(), e);
+        }
+    }
+
+    /**
+     * Query for the ids of the feature rows matching the FTS query, ranked from the best
+     * match
+     *
+     * @param match FTS query, see {@link #prefixQuery(String)} for search-as-you-type input
+     * @param limit max number of ids
+     * @return ranked feature row ids
+     */
+    public List<Long> query(String match, int limit) {
+        return query(match, null, limit);
+    }
+
+    /**
+     * Query for the ids of the feature rows matching the FTS query and within the id
+     * restriction, ranked from the best match
+     *
+     * @param match       FTS query
+     * @param restriction ids the matches are restricted to, or null
+     * @param limit       max number of ids
+     * @return ranked feature row ids
+     */
+    List<Long> query(String match, Set<Long> restriction, int limit) {
+
+        if (!has()) {
+            throw new GeoPackageException("Feature table has no text index. Table: "
+                    + featureDao.getTableName());
+        }
+        if (match.trim().length() == 0) {
+            return new ArrayList<Long>();
+        }
+
+        String indexTable = quote(getTableName());
+        String sql = "SELECT docid, matchinfo(" + indexTable + ", 'pcnalx') FROM "
+                + indexTable + " WHERE " + indexTable + " MATCH ?";
+
+        // Keep the best matches in a bounded heap with the worst kept match at the head
+        Comparator<RankedId> worstFirst = new Comparator<RankedId>() {
+            @Override
+            public int compare(RankedId lhs, RankedId rhs) {
+                int compare = Double.compare(lhs.score, rhs.score);
+                if (compare == 0) {
+                    compare = lhs.id > rhs.id ? -1 : (lhs.id == rhs.id ? 0 : 1);
+                }
+                return compare;
+            }
+        };
+        PriorityQueue<RankedId> best = new PriorityQueue<RankedId>(Math.max(1, Math.min(limit, 1024)),
+                worstFirst);
+        if (limit > 0) {
+            Cursor cursor = db.rawQuery(sql, new String[]{match});
+            try {
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    if (restriction != null && !restriction.contains(id)) {
+                        continue;
+                    }
+                    RankedId ranked = new RankedId(id, score(cursor.getBlob(1)));
+                    if (best.size() < limit) {
+                        best.add(ranked);
+                    } else if (worstFirst.compare(ranked, best.peek()) > 0) {
+                        best.poll();
+                        best.add(ranked);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        List<Long> ranked = new ArrayList<Long>(best.size());
+        while (!best.isEmpty()) {
+            ranked.add(best.poll().id);
+        }
+        Collections.reverse(ranked);
+        return ranked;
+    }
+
+    /**
+     * Build an FTS query matching rows containing words beginning with each word of the
+     * text, for search-as-you-type input. Words are split on characters other than letters
+     * and digits, and ASCII letters are lower cased so no word is read as a query operator.
+     *
+     * @param text input text
+     * @return FTS query, empty if the text has no words
+     */
+    public static String prefixQuery(String text) {
+        StringBuilder query = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+            } else if (word.length() > 0) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append(word).append('*');
+                word.setLength(0);
+            }
+        }
+        return query.toString();
+    }
+
+    /**
+     * Score a match by BM25 summed over the query phrases and indexed columns, from the
+     * 'pcnalx' match information of 32 bit unsigned integers
+     *
+     * @param matchInfo match information
+     * @return score, higher for better matches
+     */
+    private static double score(byte[] matchInfo) {
+        ByteBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phrases = buffer.getInt(0);
+        int columns = buffer.getInt(4);
+        long rows = buffer.getInt(8) & 0xFFFFFFFFL;
+        int averageOffset = 12;
+        int lengthOffset = averageOffset + columns * 4;
+        int hitsOffset = lengthOffset + columns * 4;
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int hits = hitsOffset + (phrase * columns + column) * 12;
+                long rowHits = buffer.getInt(hits) & 0xFFFFFFFFL;
+                if (rowHits == 0) {
+                    continue;
+                }
+                long rowsWithHits = buffer.getInt(hits + 8) & 0xFFFFFFFFL;
+                long average = buffer.getInt(averageOffset + column * 4) & 0xFFFFFFFFL;
+                long length = buffer.getInt(lengthOffset + column * 4) & 0xFFFFFFFFL;
+                double idf = Math.log(1 + (rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5));
+                double normalization = average > 0 ? (double) length / average : 1.0;
+                score += idf * rowHits * (BM25_K1 + 1)
+                        / (rowHits + BM25_K1 * (1 - BM25_B + BM25_B * normalization));
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Drop the text index table and triggers if they exist
+     */
+    private void dropIndex() {
+        db.execSQL("DROP TRIGGER IF EXISTS " + quote(getTriggerName("insert")));
+        db.execSQL("DROP TRIGGER IF EXISTS " + quote(getTriggerName("update")));
+        db.execSQL("DROP TRIGGER IF EXISTS " + quote(getTriggerName("delete")));
+        db.execSQL("DROP TABLE IF EXISTS " + quote(getTableName()));
+    }
+
+    /**
+     * Get the trigger name
+     *
+     * @param operation
+     * @return trigger name
+     */
+    private String getTriggerName(String operation) {
+        return TRIGGER_PREFIX + featureDao.getTableName() + "_" + operation;
+    }
+
+    /**
+     * Quote an identifier
+     *
+     * @param name
+     * @return quoted name
+     */
+    private static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Feature row id with its match score
+     */
+    private static class RankedId {
+
+        /**
+         * Feature row id
+         */
+        private final long id;
+
+        /**
+         * Match score
+         */
+        private final double score;
+
+        /**
+         * Constructor
+         *
+         * @param id
+         * @param score
+         */
+        private RankedId(long id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+
+    }
+
+}
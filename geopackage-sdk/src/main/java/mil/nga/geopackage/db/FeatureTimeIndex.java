@@ -0,0 +1,126 @@
+package mil.nga.geopackage.db;
+
+import java.util.Date;
+
+import mil.nga.geopackage.BoundingBox;
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.TableMetadata;
+import mil.nga.geopackage.db.metadata.TableMetadataDataSource;
+import mil.nga.geopackage.features.user.FeatureColumn;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Time column of a feature table indexed with the envelopes by the {@link FeatureIndexer},
+ * and combined envelope and time range queries of the index
+ */
+public class FeatureTimeIndex {
+
+    /**
+     * Feature indexer
+     */
+    private final FeatureIndexer indexer;
+
+    /**
+     * Constructor
+     *
+     * @param indexer feature indexer, caching the time column for indexing
+     */
+    public FeatureTimeIndex(FeatureIndexer indexer) {
+        this.indexer = indexer;
+    }
+
+    /**
+     * Get the feature time column indexed with the envelopes
+     *
+     * @return time column or null if not time indexed
+     */
+    public String getTimeColumn() {
+        return indexer.getTimeColumn();
+    }
+
+    /**
+     * Set the feature time column indexed with the envelopes, for combined envelope and
+     * time range queries by {@link #query(GeometryEnvelope, Date, Date)}. Time values are
+     * GeoPackage DATE or DATETIME text values in UTC, or integer milliseconds since epoch.
+     * Changing the time column marks the table as not indexed, so the next index of the
+     * table indexes the time values.
+     *
+     * @param timeColumn time column or null to stop time indexing
+     */
+    public void setTimeColumn(String timeColumn) {
+        FeatureDao featureDao = indexer.getFeatureDao();
+        if (timeColumn != null) {
+            FeatureColumn column = featureDao.getTable().getColumn(timeColumn);
+            GeoPackageDataType dataType = column.getDataType();
+            if (dataType != GeoPackageDataType.DATE && dataType != GeoPackageDataType.DATETIME
+                    && dataType != GeoPackageDataType.TEXT && dataType != GeoPackageDataType.INTEGER
+                    && dataType != GeoPackageDataType.INT && dataType != GeoPackageDataType.MEDIUMINT) {
+                throw new GeoPackageException("Unsupported time column data type: " + dataType
+                        + ". Table: " + featureDao.getTableName() + ", Column: " + timeColumn);
+            }
+        }
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(indexer.getContext());
+        db.open();
+        try {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            TableMetadata metadata = tableDs.getOrCreate(featureDao.getDatabase(), featureDao.getTableName());
+            if (timeColumn != null ? !timeColumn.equals(metadata.getTimeColumn())
+                    : metadata.getTimeColumn() != null) {
+                tableDs.updateTimeColumn(metadata, timeColumn);
+            }
+        } finally {
+            db.close();
+        }
+        FeatureChangeLog changeLog = new FeatureChangeLog(featureDao);
+        if (changeLog.has()) {
+            changeLog.updateTimeColumn(timeColumn);
+        }
+        indexer.setTimeColumnLoaded(timeColumn);
+    }
+
+    /**
+     * Query for feature rows with indexed envelopes intersecting the bounding box and an
+     * indexed time within the inclusive time range
+     *
+     * @param boundingBox bounding box in the feature projection
+     * @param from        time range start
+     * @param to          time range end
+     * @return feature cursor that must be closed
+     */
+    public FeatureCursor query(BoundingBox boundingBox, Date from, Date to) {
+        return query(FeatureIndexer.toEnvelope(boundingBox), from, to);
+    }
+
+    /**
+     * Query for feature rows with indexed envelopes intersecting the envelope and an
+     * indexed time within the inclusive time range. The index scans the time index or the
+     * envelope cell ranges, whichever is estimated to be more selective. Features without
+     * a time are not matched.
+     *
+     * @param envelope envelope in the feature projection
+     * @param from     time range start
+     * @param to       time range end
+     * @return feature cursor that must be closed
+     */
+    public FeatureCursor query(GeometryEnvelope envelope, Date from, Date to) {
+        Long minTime = null;
+        Long maxTime = null;
+        if (from != null || to != null) {
+            if (from == null || to == null) {
+                throw new GeoPackageException("Time range requires both a start and an end. Table: "
+                        + indexer.getFeatureDao().getTableName());
+            }
+            if (getTimeColumn() == null) {
+                throw new GeoPackageException("Feature table is not time indexed. Table: "
+                        + indexer.getFeatureDao().getTableName());
+            }
+            minTime = from.getTime();
+            maxTime = to.getTime();
+        }
+        return indexer.queryIndexed(envelope, minTime, maxTime, true);
+    }
+
+}
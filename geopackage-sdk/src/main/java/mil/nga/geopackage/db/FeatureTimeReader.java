@@ -0,0 +1,121 @@
+package mil.nga.geopackage.db;
+
+import android.database.Cursor;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Reads the feature time column values indexed by the {@link FeatureIndexer} as milliseconds
+ * since epoch. Integer values are milliseconds since epoch and text values are GeoPackage
+ * DATE or DATETIME values in UTC. Not thread safe, each indexing thread uses its own reader.
+ */
+class FeatureTimeReader {
+
+    /**
+     * GeoPackage DATETIME format
+     */
+    private final SimpleDateFormat dateTimeFormat = createFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+    /**
+     * GeoPackage DATETIME format without milliseconds
+     */
+    private final SimpleDateFormat dateTimeSecondsFormat = createFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+    /**
+     * GeoPackage DATE format
+     */
+    private final SimpleDateFormat dateFormat = createFormat("yyyy-MM-dd");
+
+    /**
+     * Time column index
+     */
+    private final int columnIndex;
+
+    /**
+     * Constructor
+     *
+     * @param columnIndex time column index in the read cursors
+     */
+    FeatureTimeReader(int columnIndex) {
+        this.columnIndex = columnIndex;
+    }
+
+    /**
+     * Read the time of the current cursor row
+     *
+     * @param cursor
+     * @return time in milliseconds since epoch, or null when null or not a time value
+     */
+    Long read(Cursor cursor) {
+        Long time = null;
+        switch (cursor.getType(columnIndex)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                time = cursor.getLong(columnIndex);
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                time = (long) cursor.getDouble(columnIndex);
+                break;
+            case Cursor.FIELD_TYPE_STRING:
+                time = parse(cursor.getString(columnIndex));
+                break;
+            default:
+        }
+        return time;
+    }
+
+    /**
+     * Get the time of a feature row value
+     *
+     * @param value
+     * @return time in milliseconds since epoch, or null when null or not a time value
+     */
+    Long getTime(Object value) {
+        Long time = null;
+        if (value instanceof Number) {
+            time = ((Number) value).longValue();
+        } else if (value instanceof Date) {
+            time = ((Date) value).getTime();
+        } else if (value instanceof String) {
+            time = parse((String) value);
+        }
+        return time;
+    }
+
+    /**
+     * Parse a GeoPackage DATE or DATETIME value
+     *
+     * @param value
+     * @return time in milliseconds since epoch, or null if not a date
+     */
+    Long parse(String value) {
+        SimpleDateFormat format;
+        if (value.length() == 10) {
+            format = dateFormat;
+        } else if (value.indexOf('.') >= 0) {
+            format = dateTimeFormat;
+        } else {
+            format = dateTimeSecondsFormat;
+        }
+        ParsePosition position = new ParsePosition(0);
+        Date date = format.parse(value, position);
+        return date != null && position.getIndex() == value.length() ? date.getTime() : null;
+    }
+
+    /**
+     * Create a strict UTC date format
+     *
+     * @param pattern
+     * @return date format
+     */
+    private static SimpleDateFormat createFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        return format;
+    }
+
+}
@@ -0,0 +1,787 @@
+package mil.nga.geopackage.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import mil.nga.geopackage.GeoPackage;
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.metadata.GeometryMetadataStore;
+import mil.nga.geopackage.db.metadata.TableMetadata;
+import mil.nga.geopackage.db.metadata.TableMetadataDataSource;
+import mil.nga.geopackage.db.metadata.TableStatisticsDataSource;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.io.GeoPackageProgress;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Parallel Feature Indexer, indexes one or more feature tables by splitting each table
+ * into rowid ranges. Geometry envelopes are decoded on a worker pool and written to the
+ * metadata database by a single writer on the calling thread. The writer checkpoints the
+ * contiguous completed ranges of each table so an interrupted build can be resumed.
+ */
+public class ParallelFeatureIndexer {
+
+    /**
+     * Context
+     */
+    private final Context context;
+
+    /**
+     * Feature DAOs
+     */
+    private final List<FeatureDao> featureDaos;
+
+    /**
+     * Progress
+     */
+    private GeoPackageProgress progress;
+
+    /**
+     * Number of worker threads
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of rowids per range, 0 to calculate from the table size and threads
+     */
+    private int rangeSize = 0;
+
+    /**
+     * Number of rows written per transaction chunk
+     */
+    private int chunkLimit = 1000;
+
+    /**
+     * Resume interrupted indexing from the checkpoint
+     */
+    private boolean resume = true;
+
+    /**
+     * Constructor, indexes all feature tables of the GeoPackage
+     *
+     * @param context
+     * @param geoPackage
+     */
+    public ParallelFeatureIndexer(Context context, GeoPackage geoPackage) {
+        this.context = context;
+        this.featureDaos = new ArrayList<FeatureDao>();
+        for (String featureTable : geoPackage.getFeatureTables()) {
+            featureDaos.add(geoPackage.getFeatureDao(featureTable));
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     * @param featureDaos
+     */
+    public ParallelFeatureIndexer(Context context, List<FeatureDao> featureDaos) {
+        this.context = context;
+        this.featureDaos = new ArrayList<FeatureDao>(featureDaos);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     * @param featureDao
+     */
+    public ParallelFeatureIndexer(Context context, FeatureDao featureDao) {
+        this.context = context;
+        this.featureDaos = new ArrayList<FeatureDao>();
+        this.featureDaos.add(featureDao);
+    }
+
+    /**
+     * Set the progress tracker
+     *
+     * @param progress
+     */
+    public void setProgress(GeoPackageProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Get the number of worker threads
+     *
+     * @return
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of worker threads
+     *
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new GeoPackageException("Threads must be at least 1: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Get the number of rowids per range
+     *
+     * @return
+     */
+    public int getRangeSize() {
+        return rangeSize;
+    }
+
+    /**
+     * Set the number of rowids per range, 0 to calculate from the table size and threads
+     *
+     * @param rangeSize
+     */
+    public void setRangeSize(int rangeSize) {
+        if (rangeSize < 0) {
+            throw new GeoPackageException("Range size can not be negative: " + rangeSize);
+        }
+        this.rangeSize = rangeSize;
+    }
+
+    /**
+     * Get the number of rows written per transaction chunk
+     *
+     * @return
+     */
+    public int getChunkLimit() {
+        return chunkLimit;
+    }
+
+    /**
+     * Set the number of rows written per transaction chunk
+     *
+     * @param chunkLimit
+     */
+    public void setChunkLimit(int chunkLimit) {
+        if (chunkLimit < 1) {
+            throw new GeoPackageException("Chunk limit must be at least 1: " + chunkLimit);
+        }
+        this.chunkLimit = chunkLimit;
+    }
+
+    /**
+     * Is resuming interrupted indexing enabled
+     *
+     * @return
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Set resuming interrupted indexing. When enabled, indexing a table after a cancelled
+     * or interrupted run continues after the checkpoint of the completed rowid ranges,
+     * unless the table has changed since the interrupted run started.
+     *
+     * @param resume
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Index the feature tables if needed
+     *
+     * @return count
+     */
+    public int index() {
+        return index(false);
+    }
+
+    /**
+     * Index the feature tables
+     *
+     * @param force true to force re-indexing
+     * @return count
+     */
+    public int index(boolean force) {
+
+        // Determine the tables needing to be indexed
+        List<FeatureIndexer> indexers = new ArrayList<FeatureIndexer>();
+        List<FeatureDao> daos = new ArrayList<FeatureDao>();
+        for (FeatureDao featureDao : featureDaos) {
+            FeatureIndexer indexer = new FeatureIndexer(context, featureDao);
+            if (force || !indexer.isIndexed()) {
+                indexers.add(indexer);
+                daos.add(featureDao);
+            }
+        }
+
+        int count = 0;
+        if (!daos.isEmpty()) {
+            count = indexTables(indexers, daos);
+        }
+        return count;
+    }
+
+    /**
+     * Index the feature tables
+     *
+     * @param indexers
+     * @param daos
+     * @return count
+     */
+    private int indexTables(List<FeatureIndexer> indexers, List<FeatureDao> daos) {
+
+        int count = 0;
+        boolean completed = false;
+
+        // Changes logged before indexing are covered by the full index
+        FeatureChangeLog[] changeLogs = new FeatureChangeLog[daos.size()];
+        long[] latestChanges = new long[daos.size()];
+        for (int i = 0; i < daos.size(); i++) {
+            changeLogs[i] = new FeatureChangeLog(daos.get(i));
+            latestChanges[i] = changeLogs[i].has() ? changeLogs[i].getLatestChange() : 0;
+        }
+
+        // Each GeoPackage store remains attached while its batches are written
+        Set<String> databases = new HashSet<String>();
+        for (FeatureDao featureDao : daos) {
+            databases.add(featureDao.getDatabase());
+        }
+        if (databases.size() > GeometryMetadataStore.MAX_ATTACHED) {
+            throw new GeoPackageException("Feature tables of at most "
+                    + GeometryMetadataStore.MAX_ATTACHED
+                    + " GeoPackages can be indexed together: " + databases.size());
+        }
+
+        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
+        db.open();
+        try {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+
+            // Get or create the table metadata and reset or resume the shadow indexes, queries
+            // are served from the existing table indexes until the shadow indexes are swapped in
+            long[] geoPackageIds = new long[daos.size()];
+            String[] shadowTableNames = new String[daos.size()];
+            int[] timeColumnIndexes = new int[daos.size()];
+            boolean[] resumed = new boolean[daos.size()];
+            long[] checkpointIds = new long[daos.size()];
+            long[] startTimes = new long[daos.size()];
+            for (int i = 0; i < daos.size(); i++) {
+                FeatureDao featureDao = daos.get(i);
+                TableMetadata metadata = tableDs.getOrCreate(featureDao.getDatabase(), featureDao.getTableName());
+                geoPackageIds[i] = metadata.getGeoPackageId();
+                timeColumnIndexes[i] = metadata.getTimeColumn() != null
+                        ? featureDao.getTable().getColumnIndex(metadata.getTimeColumn()) : -1;
+                shadowTableNames[i] = TableMetadata.getShadowTableName(featureDao.getTableName());
+                TableMetadata shadow = tableDs.get(geoPackageIds[i], shadowTableNames[i]);
+                resumed[i] = resume && shadow != null && indexers.get(i).isCheckpointCurrent(shadow);
+                if (resumed[i]) {
+                    checkpointIds[i] = shadow.getCheckpointId();
+                    startTimes[i] = shadow.getCheckpointTime();
+                } else {
+                    checkpointIds[i] = Long.MIN_VALUE;
+                    startTimes[i] = (new Date()).getTime();
+                    tableDs.resetShadow(geoPackageIds[i], featureDao.getTableName(),
+                            indexers.get(i).createCellGrid());
+                }
+            }
+
+            // Attach the GeoPackage stores written by the batch transactions
+            for (long geoPackageId : geoPackageIds) {
+                db.attachGeometryMetadataStore(geoPackageId);
+            }
+
+            // Keep the resumed shadow index rows up to the checkpoints
+            for (int i = 0; i < daos.size(); i++) {
+                if (resumed[i]) {
+                    FeatureDao featureDao = daos.get(i);
+                    geomDs.deleteAfter(geoPackageIds[i], shadowTableNames[i], checkpointIds[i]);
+                    int resumedCount = featureDao.count(featureDao.getTable().getPkColumn().getName()
+                            + " <= ?", new String[]{String.valueOf(checkpointIds[i])});
+                    count += resumedCount;
+                    if (progress != null) {
+                        progress.addProgress(resumedCount);
+                    }
+                }
+            }
+
+            // Create the time indexes of the stores with time indexed tables
+            for (int i = 0; i < daos.size(); i++) {
+                if (timeColumnIndexes[i] >= 0) {
+                    geomDs.createTimeIndex(geoPackageIds[i]);
+                }
+            }
+
+            AtomicBoolean active = new AtomicBoolean(true);
+            BlockingQueue<IndexBatch> queue = new ArrayBlockingQueue<IndexBatch>(threads * 2);
+
+            // Submit the rowid range readers of the rows after the checkpoints to the worker pool
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            TableRanges[] tableRanges = new TableRanges[daos.size()];
+            try {
+                for (int i = 0; i < daos.size(); i++) {
+                    FeatureDao featureDao = daos.get(i);
+                    List<long[]> ranges = getRanges(featureDao, checkpointIds[i]);
+                    tableRanges[i] = new TableRanges(ranges);
+                    for (int range = 0; range < ranges.size(); range++) {
+                        futures.add(executor.submit(new RangeReader(i, range, featureDao,
+                                ranges.get(range)[0], ranges.get(range)[1], timeColumnIndexes[i],
+                                queue, active)));
+                    }
+                }
+                executor.shutdown();
+
+                count += write(db, tableDs, geomDs, shadowTableNames, geoPackageIds, tableRanges,
+                        startTimes, queue, futures, active);
+            } finally {
+                active.set(false);
+                executor.shutdownNow();
+            }
+
+            // Swap in the shadow indexes and update the statistics
+            if (isActive()) {
+                TableStatisticsDataSource statsDs = new TableStatisticsDataSource(db);
+                for (int i = 0; i < daos.size(); i++) {
+                    String tableName = daos.get(i).getTableName();
+
+                    // Re-index features changed since the resumed run started
+                    if (resumed[i] && latestChanges[i] > 0) {
+                        indexers.get(i).indexChanges(geomDs, geoPackageIds[i], shadowTableNames[i],
+                                changeLogs[i], latestChanges[i]);
+                    }
+
+                    db.beginTransaction();
+                    try {
+                        tableDs.swapShadow(geoPackageIds[i], tableName, (new Date()).getTime());
+                        statsDs.calculate(geoPackageIds[i], tableName);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+                completed = true;
+            }
+        } finally {
+            db.close();
+        }
+
+        if (completed) {
+            for (int i = 0; i < daos.size(); i++) {
+                if (latestChanges[i] > 0) {
+                    changeLogs[i].clear(latestChanges[i]);
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Write the envelope batches produced by the range readers until all readers complete,
+     * committing the checkpoint of a table with the batch completing its contiguous ranges
+     *
+     * @param db
+     * @param tableDs
+     * @param geomDs
+     * @param tableNames    index table names
+     * @param geoPackageIds
+     * @param tableRanges   range completion of each table
+     * @param startTimes    indexing run start time of each table
+     * @param queue
+     * @param futures
+     * @param active
+     * @return count
+     */
+    private int write(GeoPackageMetadataDb db, TableMetadataDataSource tableDs,
+                      GeometryMetadataDataSource geomDs, String[] tableNames, long[] geoPackageIds,
+                      TableRanges[] tableRanges, long[] startTimes, BlockingQueue<IndexBatch> queue,
+                      List<Future<?>> futures, AtomicBoolean active) {
+
+        int count = 0;
+
+        Map<Long, SQLiteStatement> statements = new HashMap<Long, SQLiteStatement>();
+        try {
+            while (true) {
+                if (!isActive()) {
+                    active.set(false);
+                }
+                boolean done = allDone(futures, active);
+                IndexBatch batch;
+                try {
+                    batch = queue.poll(50, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    throw new GeoPackageException("Interrupted while indexing feature tables", e);
+                }
+                if (batch != null) {
+                    String tableName = tableNames[batch.table];
+                    long geoPackageId = geoPackageIds[batch.table];
+                    SQLiteStatement statement = statements.get(geoPackageId);
+                    if (statement == null) {
+                        statement = geomDs.createInsertStatement(geoPackageId);
+                        statements.put(geoPackageId, statement);
+                    }
+                    db.beginTransaction();
+                    try {
+                        for (int i = 0; i < batch.size; i++) {
+                            GeometryEnvelope envelope = batch.envelopes[i];
+                            if (envelope != null) {
+                                geomDs.create(statement, geoPackageId, tableName, batch.ids[i], envelope,
+                                        batch.times[i]);
+                            }
+                        }
+                        if (batch.last) {
+                            Long checkpointId = tableRanges[batch.table].complete(batch.range);
+                            if (checkpointId != null) {
+                                tableDs.updateCheckpoint(geoPackageId, tableName, checkpointId,
+                                        startTimes[batch.table]);
+                            }
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    count += batch.size;
+                    if (progress != null) {
+                        progress.addProgress(batch.size);
+                    }
+                } else if (done && queue.isEmpty()) {
+                    break;
+                }
+            }
+        } finally {
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Check if all futures are done. A future completed exceptionally stops the remaining
+     * readers and its failure is thrown immediately.
+     *
+     * @param futures
+     * @param active
+     * @return
+     */
+    private static boolean allDone(List<Future<?>> futures, AtomicBoolean active) {
+        boolean done = true;
+        for (Future<?> future : futures) {
+            if (future.isDone()) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    active.set(false);
+                    throw new GeoPackageException("Interrupted while indexing feature tables", e);
+                } catch (ExecutionException e) {
+                    active.set(false);
+                    throw new GeoPackageException("Failed to index feature table", e.getCause());
+                }
+            } else {
+                done = false;
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Check if the progress is still active
+     *
+     * @return
+     */
+    private boolean isActive() {
+        return progress == null || progress.isActive();
+    }
+
+    /**
+     * Split the feature table rows after the id into inclusive start and exclusive end rowid
+     * ranges
+     *
+     * @param featureDao
+     * @param afterId    exclusive start id
+     * @return ranges
+     */
+    private List<long[]> getRanges(FeatureDao featureDao, long afterId) {
+
+        List<long[]> ranges = new ArrayList<long[]>();
+
+        String pkColumn = featureDao.getTable().getPkColumn().getName();
+        Cursor cursor = featureDao.getSQLiteDatabase().rawQuery(
+                "SELECT MIN(" + pkColumn + "), MAX(" + pkColumn + ") FROM " + featureDao.getTableName()
+                        + " WHERE " + pkColumn + " > ?", new String[]{String.valueOf(afterId)});
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                long min = cursor.getLong(0);
+                long max = cursor.getLong(1);
+                long size = rangeSize;
+                if (size == 0) {
+                    size = Math.max(chunkLimit, (max - min + 1) / (threads * 4L));
+                }
+                for (long start = min; start <= max; start += size) {
+                    ranges.add(new long[]{start, Math.min(start + size, max + 1)});
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Completion of the rowid ranges of a table, the contiguous completed ranges from the
+     * first range determine the table checkpoint
+     */
+    private static class TableRanges {
+
+        /**
+         * Exclusive end rowids of the ranges
+         */
+        private final long[] ends;
+
+        /**
+         * Completed ranges
+         */
+        private final boolean[] completed;
+
+        /**
+         * Index of the first range not completed
+         */
+        private int next = 0;
+
+        /**
+         * Constructor
+         *
+         * @param ranges
+         */
+        TableRanges(List<long[]> ranges) {
+            ends = new long[ranges.size()];
+            completed = new boolean[ranges.size()];
+            for (int i = 0; i < ends.length; i++) {
+                ends[i] = ranges.get(i)[1];
+            }
+        }
+
+        /**
+         * Complete the range
+         *
+         * @param range range index
+         * @return new checkpoint id when the contiguous completed ranges advanced, or null
+         */
+        Long complete(int range) {
+            completed[range] = true;
+            Long checkpointId = null;
+            while (next < completed.length && completed[next]) {
+                checkpointId = ends[next] - 1;
+                next++;
+            }
+            return checkpointId;
+        }
+
+    }
+
+    /**
+     * Batch of decoded envelopes for a single table
+     */
+    private static class IndexBatch {
+
+        /**
+         * Index of the table within the indexed DAOs
+         */
+        private final int table;
+
+        /**
+         * Index of the rowid range within the table ranges
+         */
+        private final int range;
+
+        /**
+         * True when the batch is the last of the range
+         */
+        private boolean last = false;
+
+        /**
+         * Feature ids
+         */
+        private final long[] ids;
+
+        /**
+         * Feature envelopes, null when the feature has no geometry
+         */
+        private final GeometryEnvelope[] envelopes;
+
+        /**
+         * Feature times, null when the table is not time indexed or the feature has no time
+         */
+        private final Long[] times;
+
+        /**
+         * Number of rows in the batch
+         */
+        private int size = 0;
+
+        /**
+         * Constructor
+         *
+         * @param table
+         * @param range
+         * @param capacity
+         */
+        IndexBatch(int table, int range, int capacity) {
+            this.table = table;
+            this.range = range;
+            this.ids = new long[capacity];
+            this.envelopes = new GeometryEnvelope[capacity];
+            this.times = new Long[capacity];
+        }
+
+        /**
+         * Check if the batch is full
+         *
+         * @return
+         */
+        boolean isFull() {
+            return size == ids.length;
+        }
+
+    }
+
+    /**
+     * Reads a rowid range of a feature table, decoding the geometry envelopes
+     */
+    private class RangeReader implements Runnable {
+
+        /**
+         * Index of the table within the indexed DAOs
+         */
+        private final int table;
+
+        /**
+         * Index of the rowid range within the table ranges
+         */
+        private final int range;
+
+        /**
+         * Feature DAO
+         */
+        private final FeatureDao featureDao;
+
+        /**
+         * Inclusive start rowid
+         */
+        private final long start;
+
+        /**
+         * Exclusive end rowid
+         */
+        private final long end;
+
+        /**
+         * Time reader of this reader thread, null when the table is not time indexed
+         */
+        private final FeatureTimeReader timeReader;
+
+        /**
+         * Writer queue
+         */
+        private final BlockingQueue<IndexBatch> queue;
+
+        /**
+         * Active flag, false when indexing has been cancelled
+         */
+        private final AtomicBoolean active;
+
+        /**
+         * Constructor
+         *
+         * @param table
+         * @param range
+         * @param featureDao
+         * @param start
+         * @param end
+         * @param timeColumnIndex time column index, or -1 if not time indexed
+         * @param queue
+         * @param active
+         */
+        RangeReader(int table, int range, FeatureDao featureDao, long start, long end,
+                    int timeColumnIndex, BlockingQueue<IndexBatch> queue, AtomicBoolean active) {
+            this.table = table;
+            this.range = range;
+            this.featureDao = featureDao;
+            this.start = start;
+            this.end = end;
+            this.timeReader = timeColumnIndex >= 0 ? new FeatureTimeReader(timeColumnIndex) : null;
+            this.queue = queue;
+            this.active = active;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            String pkColumn = featureDao.getTable().getPkColumn().getName();
+            int pkIndex = featureDao.getTable().getPkColumnIndex();
+            FeatureCursor cursor = featureDao.query(pkColumn + " >= ? AND " + pkColumn + " < ?",
+                    new String[]{String.valueOf(start), String.valueOf(end)});
+            try {
+                IndexBatch batch = new IndexBatch(table, range, chunkLimit);
+                while (active.get() && cursor.moveToNext()) {
+                    batch.ids[batch.size] = cursor.getLong(pkIndex);
+                    batch.envelopes[batch.size] = cursor.getGeometryEnvelope();
+                    if (timeReader != null) {
+                        batch.times[batch.size] = timeReader.read(cursor);
+                    }
+                    batch.size++;
+                    if (batch.isFull()) {
+                        put(batch);
+                        batch = new IndexBatch(table, range, chunkLimit);
+                    }
+                }
+                if (active.get()) {
+                    batch.last = true;
+                    put(batch);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        /**
+         * Put the batch on the writer queue, waiting while the queue is full
+         *
+         * @param batch
+         */
+        private void put(IndexBatch batch) {
+            try {
+                while (active.get() && !queue.offer(batch, 50, TimeUnit.MILLISECONDS)) {
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+}
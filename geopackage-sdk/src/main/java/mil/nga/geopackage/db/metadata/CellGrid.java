@@ -0,0 +1,318 @@
+package mil.nga.geopackage.db.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Hierarchical quadtree grid over the extent of a feature table, assigning each
+ * geometry envelope a space-filling cell key. Each envelope is stored in the smallest
+ * quadtree cell containing it, and cells are numbered in depth first pre-order with the
+ * child quadrants in Z-order so every cell and all of its descendants form a single key
+ * range. Envelopes outside the grid are stored in the root cell.
+ */
+public class CellGrid {
+
+    /**
+     * Max quadtree level, cells per axis at the max level is 2^MAX_LEVEL
+     */
+    public static final int MAX_LEVEL = 16;
+
+    /**
+     * Root cell key
+     */
+    public static final long ROOT_KEY = 0;
+
+    /**
+     * Number of cells in the subtree of a cell at each level, including the cell
+     */
+    private static final long[] SUBTREE_SIZE = new long[MAX_LEVEL + 1];
+
+    static {
+        for (int level = MAX_LEVEL; level >= 0; level--) {
+            SUBTREE_SIZE[level] = level == MAX_LEVEL ? 1 : 1 + 4 * SUBTREE_SIZE[level + 1];
+        }
+    }
+
+    /**
+     * Number of cells per axis at the max level
+     */
+    private static final int CELLS = 1 << MAX_LEVEL;
+
+    /**
+     * Grid min x
+     */
+    private final double minX;
+
+    /**
+     * Grid min y
+     */
+    private final double minY;
+
+    /**
+     * Grid max x
+     */
+    private final double maxX;
+
+    /**
+     * Grid max y
+     */
+    private final double maxY;
+
+    /**
+     * Constructor
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     */
+    public CellGrid(double minX, double minY, double maxX, double maxY) {
+        if (!(maxX > minX) || !(maxY > minY)) {
+            throw new GeoPackageException("Cell grid bounds must have a positive width and height. Min X: "
+                    + minX + ", Min Y: " + minY + ", Max X: " + maxX + ", Max Y: " + maxY);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Get the grid min x
+     *
+     * @return
+     */
+    public double getMinX() {
+        return minX;
+    }
+
+    /**
+     * Get the grid min y
+     *
+     * @return
+     */
+    public double getMinY() {
+        return minY;
+    }
+
+    /**
+     * Get the grid max x
+     *
+     * @return
+     */
+    public double getMaxX() {
+        return maxX;
+    }
+
+    /**
+     * Get the grid max y
+     *
+     * @return
+     */
+    public double getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Get the cell key of the envelope
+     *
+     * @param envelope
+     * @return cell key
+     */
+    public long getCellKey(GeometryEnvelope envelope) {
+        return getCellKey(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY());
+    }
+
+    /**
+     * Get the cell key of the smallest cell containing the envelope
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return cell key, the root key when the envelope is not within the grid
+     */
+    public long getCellKey(double minX, double minY, double maxX, double maxY) {
+
+        if (!(minX >= this.minX && maxX <= this.maxX && minY >= this.minY && maxY <= this.maxY)) {
+            return ROOT_KEY;
+        }
+
+        int minColumn = getColumn(minX);
+        int maxColumn = getColumn(maxX);
+        int minRow = getRow(minY);
+        int maxRow = getRow(maxY);
+
+        int differentBits = (minColumn ^ maxColumn) | (minRow ^ maxRow);
+        int level = MAX_LEVEL - (Integer.SIZE - Integer.numberOfLeadingZeros(differentBits));
+
+        long key = ROOT_KEY;
+        for (int childLevel = 1; childLevel <= level; childLevel++) {
+            int shift = MAX_LEVEL - childLevel;
+            int quadrant = (((minRow >> shift) & 1) << 1) | ((minColumn >> shift) & 1);
+            key += 1 + quadrant * SUBTREE_SIZE[childLevel];
+        }
+        return key;
+    }
+
+    /**
+     * Plan the cell key ranges containing every envelope that may intersect the query
+     * envelope. Matches within the ranges must be filtered by their exact envelopes.
+     *
+     * @param envelope  query envelope
+     * @param maxRanges max number of ranges, adjacent ranges are merged over the
+     *                  smallest gaps to stay within the limit
+     * @return ascending inclusive key ranges as start and end key pairs
+     */
+    public List<long[]> getRanges(GeometryEnvelope envelope, int maxRanges) {
+
+        int minColumn = getColumn(envelope.getMinX());
+        int maxColumn = getColumn(envelope.getMaxX());
+        int minRow = getRow(envelope.getMinY());
+        int maxRow = getRow(envelope.getMaxY());
+
+        // Subdivide until the cells are a quarter of the query size, bounding the
+        // partially covered cells to a ring around the query
+        int span = Math.max(maxColumn - minColumn, maxRow - minRow) + 1;
+        int stopShift = Math.max(0, (Integer.SIZE - Integer.numberOfLeadingZeros(span)) - 3);
+        int stopLevel = MAX_LEVEL - stopShift;
+
+        List<long[]> ranges = new ArrayList<long[]>();
+        addRanges(ranges, 0, ROOT_KEY, 0, 0, minColumn, minRow, maxColumn, maxRow, stopLevel);
+
+        // Envelopes outside the grid are always stored in the root cell
+        if (ranges.isEmpty() || ranges.get(0)[0] != ROOT_KEY) {
+            ranges.add(0, new long[]{ROOT_KEY, ROOT_KEY});
+        }
+
+        coarsen(ranges, Math.max(1, maxRanges));
+
+        return ranges;
+    }
+
+    /**
+     * Add the key ranges of the cell and its descendants intersecting the query cells
+     *
+     * @param ranges    ranges in ascending order
+     * @param level     cell level
+     * @param key       cell key
+     * @param column    cell column at the level
+     * @param row       cell row at the level
+     * @param minColumn query min column at the max level
+     * @param minRow    query min row at the max level
+     * @param maxColumn query max column at the max level
+     * @param maxRow    query max row at the max level
+     * @param stopLevel level at which partially covered cells are added whole
+     */
+    private static void addRanges(List<long[]> ranges, int level, long key, int column, int row,
+                                  int minColumn, int minRow, int maxColumn, int maxRow, int stopLevel) {
+
+        int shift = MAX_LEVEL - level;
+        int cellMinColumn = column << shift;
+        int cellMaxColumn = ((column + 1) << shift) - 1;
+        int cellMinRow = row << shift;
+        int cellMaxRow = ((row + 1) << shift) - 1;
+
+        if (cellMinColumn > maxColumn || cellMaxColumn < minColumn
+                || cellMinRow > maxRow || cellMaxRow < minRow) {
+            return;
+        }
+
+        boolean contained = cellMinColumn >= minColumn && cellMaxColumn <= maxColumn
+                && cellMinRow >= minRow && cellMaxRow <= maxRow;
+        if (contained || level >= stopLevel) {
+            addRange(ranges, key, key + SUBTREE_SIZE[level] - 1);
+        } else {
+            addRange(ranges, key, key);
+            int childLevel = level + 1;
+            for (int quadrant = 0; quadrant < 4; quadrant++) {
+                addRanges(ranges, childLevel, key + 1 + quadrant * SUBTREE_SIZE[childLevel],
+                        (column << 1) | (quadrant & 1), (row << 1) | (quadrant >> 1),
+                        minColumn, minRow, maxColumn, maxRow, stopLevel);
+            }
+        }
+    }
+
+    /**
+     * Add a range after the existing ranges, merging with the last range when adjacent
+     *
+     * @param ranges
+     * @param start
+     * @param end
+     */
+    private static void addRange(List<long[]> ranges, long start, long end) {
+        if (!ranges.isEmpty()) {
+            long[] last = ranges.get(ranges.size() - 1);
+            if (last[1] + 1 >= start) {
+                last[1] = Math.max(last[1], end);
+                return;
+            }
+        }
+        ranges.add(new long[]{start, end});
+    }
+
+    /**
+     * Merge the ranges separated by the smallest gaps until within the max ranges
+     *
+     * @param ranges
+     * @param maxRanges
+     */
+    private static void coarsen(List<long[]> ranges, int maxRanges) {
+        while (ranges.size() > maxRanges) {
+            int mergeIndex = 0;
+            long smallestGap = Long.MAX_VALUE;
+            for (int i = 0; i < ranges.size() - 1; i++) {
+                long gap = ranges.get(i + 1)[0] - ranges.get(i)[1];
+                if (gap < smallestGap) {
+                    smallestGap = gap;
+                    mergeIndex = i;
+                }
+            }
+            ranges.get(mergeIndex)[1] = ranges.remove(mergeIndex + 1)[1];
+        }
+    }
+
+    /**
+     * Get the column at the max level containing the x value
+     *
+     * @param x
+     * @return column
+     */
+    private int getColumn(double x) {
+        return getCell(x, minX, maxX);
+    }
+
+    /**
+     * Get the row at the max level containing the y value
+     *
+     * @param y
+     * @return row
+     */
+    private int getRow(double y) {
+        return getCell(y, minY, maxY);
+    }
+
+    /**
+     * Get the cell at the max level containing the value, clamped to the grid
+     *
+     * @param value
+     * @param min
+     * @param max
+     * @return cell
+     */
+    private static int getCell(double value, double min, double max) {
+        int cell;
+        if (value <= min) {
+            cell = 0;
+        } else if (value >= max) {
+            cell = CELLS - 1;
+        } else {
+            cell = Math.min(CELLS - 1, (int) ((value - min) / (max - min) * CELLS));
+        }
+        return cell;
+    }
+
+}
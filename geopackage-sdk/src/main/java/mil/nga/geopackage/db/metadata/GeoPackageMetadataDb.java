@@ -1,10 +1,17 @@
 package mil.nga.geopackage.db.metadata;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import mil.nga.geopackage.GeoPackageException;
+import mil.nga.wkb.geom.GeometryEnvelope;
 
 /**
  * GeoPackage Metadata database
@@ -21,13 +28,29 @@ public class GeoPackageMetadataDb extends SQLiteOpenHelper {
     /**
      * Metadata database version
      */
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 10;
+
+    /**
+     * Metadata database version of the base tables created before migrations are applied
+     */
+    private static final int BASE_DATABASE_VERSION = 1;
+
+    /**
+     * Geometry metadata table of database versions before 6, renamed by the migration to
+     * version 6 and copied into the GeoPackage stores when opened
+     */
+    private static final String LEGACY_TABLE_NAME = "geom_metadata_legacy";
 
     /**
      * Open db
      */
     private SQLiteDatabase db;
 
+    /**
+     * True when the GeoPackage stores are deleted after the create transaction commits
+     */
+    private boolean deleteStores = false;
+
     /**
      * Constructor
      *
@@ -38,6 +61,9 @@ public class GeoPackageMetadataDb extends SQLiteOpenHelper {
     }
 
     /**
+     * Create the base tables and apply the migrations up to the current version so new
+     * and upgraded databases share the same schema
+     *
      * {@inheritDoc}
      */
     @Override
@@ -45,17 +71,169 @@ public class GeoPackageMetadataDb extends SQLiteOpenHelper {
         db.execSQL(GeoPackageMetadata.CREATE_SQL);
         db.execSQL(TableMetadata.CREATE_SQL);
         db.execSQL(GeometryMetadata.CREATE_SQL);
+        deleteStores = true;
+        onUpgrade(db, BASE_DATABASE_VERSION, DATABASE_VERSION);
     }
 
     /**
+     * Apply each migration after the old version up to the new version, keeping the
+     * existing metadata. Called within a transaction by {@link SQLiteOpenHelper}.
+     *
      * {@inheritDoc}
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + GeometryMetadata.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + TableMetadata.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + GeoPackageMetadata.TABLE_NAME);
-        onCreate(db);
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrate(db, version);
+        }
+    }
+
+    /**
+     * Migrate the database from the previous version to the version
+     *
+     * @param db
+     * @param version
+     */
+    private void migrate(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                db.execSQL(GeometryMetadata.CREATE_INDEX_ENVELOPE_SQL);
+                break;
+            case 3:
+                db.execSQL(GeometryMetadata.ADD_CELL_KEY_SQL);
+                for (String sql : TableMetadata.ADD_GRID_SQL) {
+                    db.execSQL(sql);
+                }
+                db.execSQL("DROP INDEX IF EXISTS " + GeometryMetadata.INDEX_ENVELOPE_NAME);
+                db.execSQL(GeometryMetadata.CREATE_INDEX_CELL_SQL);
+                break;
+            case 4:
+                db.execSQL(TableStatistics.CREATE_SQL);
+                break;
+            case 5:
+                for (String sql : TableMetadata.ADD_CHECKPOINT_SQL) {
+                    db.execSQL(sql);
+                }
+                break;
+            case 6:
+                db.execSQL("DROP INDEX IF EXISTS " + GeometryMetadata.INDEX_ENVELOPE_NAME);
+                db.execSQL("DROP INDEX IF EXISTS " + GeometryMetadata.INDEX_CELL_NAME);
+                db.execSQL("ALTER TABLE " + GeometryMetadata.TABLE_NAME + " RENAME TO " + LEGACY_TABLE_NAME);
+                GeometryMetadataStore.migrate(db, 1);
+                break;
+            case 7:
+                GeometryMetadataStore.migrate(db, 2);
+                break;
+            case 8:
+                db.execSQL(TableMetadata.ADD_TIME_COLUMN_SQL);
+                GeometryMetadataStore.migrate(db, 3);
+                break;
+            case 9:
+                for (String sql : TableStatistics.ADD_HISTOGRAM_BOUNDS_SQL) {
+                    db.execSQL(sql);
+                }
+                break;
+            case 10:
+                GeometryMetadataStore.migrate(db, 4);
+                break;
+            default:
+                throw new GeoPackageException(
+                        "Unsupported metadata database version: " + version);
+        }
+    }
+
+    /**
+     * Delete the GeoPackage stores of a created database and copy the geometry metadata
+     * of a migrated database into the GeoPackage stores, after the create or upgrade
+     * transaction has committed
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (deleteStores) {
+            GeometryMetadataStore.deleteAll(db);
+            deleteStores = false;
+        }
+        if (!db.isReadOnly()) {
+            copyLegacyGeometryMetadata(db);
+        }
+    }
+
+    /**
+     * Copy the geometry metadata of database versions before 6 into the GeoPackage
+     * stores, one transaction per GeoPackage, and drop the legacy table once copied. A
+     * copy interrupted before the drop is repeated from the start when next opened.
+     *
+     * @param db
+     */
+    private static void copyLegacyGeometryMetadata(SQLiteDatabase db) {
+
+        Cursor tableCursor = db.rawQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{LEGACY_TABLE_NAME});
+        try {
+            if (!tableCursor.moveToFirst() || tableCursor.getInt(0) == 0) {
+                return;
+            }
+        } finally {
+            tableCursor.close();
+        }
+
+        List<Long> geoPackageIds = new ArrayList<Long>();
+        Cursor idCursor = db.rawQuery("SELECT DISTINCT " + GeometryMetadata.COLUMN_GEOPACKAGE_ID
+                + " FROM " + LEGACY_TABLE_NAME, null);
+        try {
+            while (idCursor.moveToNext()) {
+                geoPackageIds.add(idCursor.getLong(0));
+            }
+        } finally {
+            idCursor.close();
+        }
+
+        GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+        for (long geoPackageId : geoPackageIds) {
+            geomDs.delete(geoPackageId);
+            SQLiteStatement statement = geomDs.createInsertStatement(geoPackageId);
+            db.beginTransaction();
+            try {
+                Cursor cursor = db.query(LEGACY_TABLE_NAME, new String[]{
+                                GeometryMetadata.COLUMN_TABLE_NAME, GeometryMetadata.COLUMN_ID,
+                                GeometryMetadata.COLUMN_MIN_X, GeometryMetadata.COLUMN_MAX_X,
+                                GeometryMetadata.COLUMN_MIN_Y, GeometryMetadata.COLUMN_MAX_Y,
+                                GeometryMetadata.COLUMN_MIN_Z, GeometryMetadata.COLUMN_MAX_Z,
+                                GeometryMetadata.COLUMN_MIN_M, GeometryMetadata.COLUMN_MAX_M},
+                        GeometryMetadata.COLUMN_GEOPACKAGE_ID + " = ?",
+                        new String[]{String.valueOf(geoPackageId)}, null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        GeometryEnvelope envelope = new GeometryEnvelope(!cursor.isNull(6), !cursor.isNull(8));
+                        envelope.setMinX(cursor.getDouble(2));
+                        envelope.setMaxX(cursor.getDouble(3));
+                        envelope.setMinY(cursor.getDouble(4));
+                        envelope.setMaxY(cursor.getDouble(5));
+                        if (envelope.hasZ()) {
+                            envelope.setMinZ(cursor.getDouble(6));
+                            envelope.setMaxZ(cursor.getDouble(7));
+                        }
+                        if (envelope.hasM()) {
+                            envelope.setMinM(cursor.getDouble(8));
+                            envelope.setMaxM(cursor.getDouble(9));
+                        }
+                        geomDs.create(statement, geoPackageId, cursor.getString(0),
+                                cursor.getLong(1), envelope);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                statement.close();
+            }
+        }
+
+        db.execSQL("DROP TABLE " + LEGACY_TABLE_NAME);
     }
 
     /**
@@ -77,6 +255,50 @@ public class GeoPackageMetadataDb extends SQLiteOpenHelper {
         return db;
     }
 
+    /**
+     * Attach the geometry metadata store of the GeoPackage to the open database, creating
+     * the store if needed. Stores are attached when first used, but can only be attached
+     * outside of a transaction, so attach before beginning a transaction that uses it.
+     *
+     * @param geoPackageId
+     */
+    public void attachGeometryMetadataStore(long geoPackageId) {
+        if (geoPackageId >= 0) {
+            GeometryMetadataStore.attach(getDb(), geoPackageId);
+        }
+    }
+
+    /**
+     * Get the geometry metadata store file of the GeoPackage
+     *
+     * @param geoPackageId
+     * @return store file
+     */
+    public File getGeometryMetadataStoreFile(long geoPackageId) {
+        return GeometryMetadataStore.getFile(getDb(), geoPackageId);
+    }
+
+    /**
+     * Begin a transaction on the open database
+     */
+    public void beginTransaction() {
+        getDb().beginTransaction();
+    }
+
+    /**
+     * Mark the current transaction as successful
+     */
+    public void setTransactionSuccessful() {
+        getDb().setTransactionSuccessful();
+    }
+
+    /**
+     * End the current transaction, committing if marked successful
+     */
+    public void endTransaction() {
+        getDb().endTransaction();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1,5 +1,7 @@
 package mil.nga.geopackage.db.metadata;
 
+import mil.nga.wkb.geom.GeometryEnvelope;
+
 /**
  * Geometry metadata used to index feature bounds
  *
@@ -22,6 +24,11 @@ public class GeometryMetadata {
      */
     public static final String COLUMN_TABLE_NAME = TableMetadata.COLUMN_TABLE_NAME;
 
+    /**
+     * Table id column of the compact store encoding, see {@link GeometryMetadataStore}
+     */
+    public static final String COLUMN_TABLE_ID = "table_id";
+
     /**
      * Geometry Id column
      */
@@ -68,11 +75,21 @@ public class GeometryMetadata {
     public static final String COLUMN_MAX_M = "max_m";
 
     /**
-     * Columns
+     * Cell key column, added in database version 3
+     */
+    public static final String COLUMN_CELL_KEY = "cell_key";
+
+    /**
+     * Time column of tables indexed with a time column, see {@link TableMetadata#COLUMN_TIME_COLUMN}
+     */
+    public static final String COLUMN_TIME = "time";
+
+    /**
+     * Columns of the geometry metadata store
      */
     public static final String[] COLUMNS = {
             COLUMN_GEOPACKAGE_ID,
-            COLUMN_TABLE_NAME,
+            COLUMN_TABLE_ID,
             COLUMN_ID,
             COLUMN_MIN_X,
             COLUMN_MAX_X,
@@ -81,10 +98,12 @@ public class GeometryMetadata {
             COLUMN_MIN_Z,
             COLUMN_MAX_Z,
             COLUMN_MIN_M,
-            COLUMN_MAX_M};
+            COLUMN_MAX_M,
+            COLUMN_CELL_KEY,
+            COLUMN_TIME};
 
     /**
-     * Create table SQL
+     * Create table SQL of database version 1
      */
     public static final String CREATE_SQL = "CREATE TABLE "
             + TABLE_NAME
@@ -105,6 +124,50 @@ public class GeometryMetadata {
             + "CONSTRAINT fk_gm_tm FOREIGN KEY (" + COLUMN_TABLE_NAME + ") REFERENCES " + TableMetadata.TABLE_NAME + "(" + TableMetadata.COLUMN_TABLE_NAME + ")"
             + ");";
 
+    /**
+     * Envelope index name, replaced by the cell index in database version 3
+     */
+    public static final String INDEX_ENVELOPE_NAME = "idx_geom_metadata_envelope";
+
+    /**
+     * Create envelope index SQL. The index contains every column so envelope queries
+     * are answered from the index without table lookups.
+     */
+    public static final String CREATE_INDEX_ENVELOPE_SQL = "CREATE INDEX IF NOT EXISTS "
+            + INDEX_ENVELOPE_NAME + " ON " + TABLE_NAME + " ("
+            + COLUMN_GEOPACKAGE_ID + ", " + COLUMN_TABLE_NAME + ", "
+            + COLUMN_MIN_X + ", " + COLUMN_MAX_X + ", "
+            + COLUMN_MIN_Y + ", " + COLUMN_MAX_Y + ", "
+            + COLUMN_ID + ", "
+            + COLUMN_MIN_Z + ", " + COLUMN_MAX_Z + ", "
+            + COLUMN_MIN_M + ", " + COLUMN_MAX_M + ")";
+
+    /**
+     * Add cell key column SQL
+     */
+    public static final String ADD_CELL_KEY_SQL = "ALTER TABLE " + TABLE_NAME
+            + " ADD COLUMN " + COLUMN_CELL_KEY + " INTEGER";
+
+    /**
+     * Cell index name
+     */
+    public static final String INDEX_CELL_NAME = "idx_geom_metadata_cell";
+
+    /**
+     * Create cell index SQL. Cell key ranges and the null cell key of tables without a
+     * cell grid are followed by the envelope bounds, and the index contains every column
+     * so envelope queries are answered from the index without table lookups.
+     */
+    public static final String CREATE_INDEX_CELL_SQL = "CREATE INDEX IF NOT EXISTS "
+            + INDEX_CELL_NAME + " ON " + TABLE_NAME + " ("
+            + COLUMN_GEOPACKAGE_ID + ", " + COLUMN_TABLE_NAME + ", "
+            + COLUMN_CELL_KEY + ", "
+            + COLUMN_MIN_X + ", " + COLUMN_MAX_X + ", "
+            + COLUMN_MIN_Y + ", " + COLUMN_MAX_Y + ", "
+            + COLUMN_ID + ", "
+            + COLUMN_MIN_Z + ", " + COLUMN_MAX_Z + ", "
+            + COLUMN_MIN_M + ", " + COLUMN_MAX_M + ")";
+
     /**
      * GeoPackage Id
      */
@@ -160,6 +223,16 @@ public class GeometryMetadata {
      */
     public Double maxM;
 
+    /**
+     * Cell key within the table cell grid
+     */
+    public Long cellKey;
+
+    /**
+     * Feature time in milliseconds since epoch
+     */
+    public Long time;
+
     /**
      * Get the GeoPackage id
      *
@@ -356,4 +429,62 @@ public class GeometryMetadata {
         this.maxM = maxM;
     }
 
+    /**
+     * Get the cell key
+     *
+     * @return
+     */
+    public Long getCellKey() {
+        return cellKey;
+    }
+
+    /**
+     * Set the cell key
+     *
+     * @param cellKey
+     */
+    public void setCellKey(Long cellKey) {
+        this.cellKey = cellKey;
+    }
+
+    /**
+     * Get the feature time
+     *
+     * @return time in milliseconds since epoch or null
+     */
+    public Long getTime() {
+        return time;
+    }
+
+    /**
+     * Set the feature time
+     *
+     * @param time time in milliseconds since epoch or null
+     */
+    public void setTime(Long time) {
+        this.time = time;
+    }
+
+    /**
+     * Get the envelope of the geometry metadata
+     *
+     * @return envelope
+     */
+    public GeometryEnvelope getEnvelope() {
+        GeometryEnvelope envelope = new GeometryEnvelope(minZ != null, minM != null);
+        envelope.setMinX(minX);
+        envelope.setMaxX(maxX);
+        envelope.setMinY(minY);
+        envelope.setMaxY(maxY);
+        if (minZ != null) {
+            envelope.setMinZ(minZ);
+            envelope.setMaxZ(maxZ);
+        }
+        if (minM != null) {
+            envelope.setMinM(minM);
+            envelope.setMaxM(maxM);
+        }
+        return envelope;
+    }
+
 }
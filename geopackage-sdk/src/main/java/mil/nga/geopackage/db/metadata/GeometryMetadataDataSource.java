@@ -3,6 +3,14 @@ package mil.nga.geopackage.db.metadata;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import mil.nga.geopackage.BoundingBox;
 import mil.nga.geopackage.GeoPackageException;
@@ -15,11 +23,36 @@ import mil.nga.wkb.geom.GeometryEnvelope;
  */
 public class GeometryMetadataDataSource {
 
+    /**
+     * Max number of cell key ranges scanned by an envelope query
+     */
+    public static final int MAX_CELL_RANGES = 16;
+
     /**
      * Database
      */
     private SQLiteDatabase db;
 
+    /**
+     * Cell grids by GeoPackage id and table name, null when the table has no cell grid
+     */
+    private final Map<String, CellGrid> cellGrids = new HashMap<String, CellGrid>();
+
+    /**
+     * Interned table ids by GeoPackage id and table name
+     */
+    private final Map<String, Long> tableIds = new HashMap<String, Long>();
+
+    /**
+     * Interned table names by GeoPackage id and table id
+     */
+    private final Map<String, String> tableNames = new HashMap<String, String>();
+
+    /**
+     * Cached existence of the time index per GeoPackage store
+     */
+    private final Map<Long, Boolean> timeIndexes = new HashMap<Long, Boolean>();
+
     /**
      * Constructor
      *
@@ -45,20 +78,16 @@ public class GeometryMetadataDataSource {
      * @return
      */
     public long create(GeometryMetadata metadata) {
+        roundOutwards(metadata);
         ContentValues values = new ContentValues();
-        values.put(GeometryMetadata.COLUMN_GEOPACKAGE_ID, metadata.getGeoPackageId());
-        values.put(GeometryMetadata.COLUMN_TABLE_NAME, metadata.getTableName());
+        values.put(GeometryMetadata.COLUMN_TABLE_ID,
+                getTableId(metadata.getGeoPackageId(), metadata.getTableName(), true));
         values.put(GeometryMetadata.COLUMN_ID, metadata.getId());
-        values.put(GeometryMetadata.COLUMN_MIN_X, metadata.getMinX());
-        values.put(GeometryMetadata.COLUMN_MAX_X, metadata.getMaxX());
-        values.put(GeometryMetadata.COLUMN_MIN_Y, metadata.getMinY());
-        values.put(GeometryMetadata.COLUMN_MAX_Y, metadata.getMaxY());
-        values.put(GeometryMetadata.COLUMN_MIN_Z, metadata.getMinZ());
-        values.put(GeometryMetadata.COLUMN_MAX_Z, metadata.getMaxZ());
-        values.put(GeometryMetadata.COLUMN_MIN_M, metadata.getMinM());
-        values.put(GeometryMetadata.COLUMN_MAX_M, metadata.getMaxM());
+        putEnvelope(values, metadata);
+        values.put(GeometryMetadata.COLUMN_CELL_KEY, getCellKey(metadata));
+        values.put(GeometryMetadata.COLUMN_TIME, metadata.getTime());
         long insertId = db.insert(
-                GeometryMetadata.TABLE_NAME, null,
+                getTable(metadata.getGeoPackageId()), null,
                 values);
         if (insertId == -1) {
             throw new GeoPackageException(
@@ -71,6 +100,170 @@ public class GeometryMetadataDataSource {
         return insertId;
     }
 
+    /**
+     * Compile an insert statement for bulk creation of geometry metadata in the GeoPackage
+     * store. The statement should be reused for each insert of the GeoPackage and closed
+     * when done.
+     *
+     * @param geoPackageId
+     * @return compiled insert statement
+     */
+    public SQLiteStatement createInsertStatement(long geoPackageId) {
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ").append(getTable(geoPackageId)).append(" (");
+        for (int i = 1; i < GeometryMetadata.COLUMNS.length; i++) {
+            if (i > 1) {
+                sql.append(", ");
+            }
+            sql.append(GeometryMetadata.COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 1; i < GeometryMetadata.COLUMNS.length; i++) {
+            if (i > 1) {
+                sql.append(", ");
+            }
+            sql.append("?");
+        }
+        sql.append(")");
+        return db.compileStatement(sql.toString());
+    }
+
+    /**
+     * Create a new geometry metadata from an envelope using a compiled insert statement
+     *
+     * @param statement    statement from {@link #createInsertStatement(long)}
+     * @param geoPackageId
+     * @param tableName
+     * @param geomId
+     * @param envelope
+     * @return row id
+     */
+    public long create(SQLiteStatement statement, long geoPackageId, String tableName, long geomId, GeometryEnvelope envelope) {
+        return create(statement, geoPackageId, tableName, geomId, envelope, null);
+    }
+
+    /**
+     * Create a new geometry metadata from an envelope and feature time using a compiled
+     * insert statement
+     *
+     * @param statement    statement from {@link #createInsertStatement(long)}
+     * @param geoPackageId
+     * @param tableName
+     * @param geomId
+     * @param envelope
+     * @param time         feature time in milliseconds since epoch, or null
+     * @return row id
+     */
+    public long create(SQLiteStatement statement, long geoPackageId, String tableName, long geomId,
+                       GeometryEnvelope envelope, Long time) {
+        double minX = GeometryMetadataStore.roundDown(envelope.getMinX());
+        double maxX = GeometryMetadataStore.roundUp(envelope.getMaxX());
+        double minY = GeometryMetadataStore.roundDown(envelope.getMinY());
+        double maxY = GeometryMetadataStore.roundUp(envelope.getMaxY());
+        statement.clearBindings();
+        statement.bindLong(1, getTableId(geoPackageId, tableName, true));
+        statement.bindLong(2, geomId);
+        statement.bindLong(3, GeometryMetadataStore.encode(minX));
+        statement.bindLong(4, GeometryMetadataStore.encode(maxX));
+        statement.bindLong(5, GeometryMetadataStore.encode(minY));
+        statement.bindLong(6, GeometryMetadataStore.encode(maxY));
+        bindEncoded(statement, 7, envelope.hasZ() ? GeometryMetadataStore.roundDown(envelope.getMinZ()) : null);
+        bindEncoded(statement, 8, envelope.hasZ() ? GeometryMetadataStore.roundUp(envelope.getMaxZ()) : null);
+        bindEncoded(statement, 9, envelope.hasM() ? GeometryMetadataStore.roundDown(envelope.getMinM()) : null);
+        bindEncoded(statement, 10, envelope.hasM() ? GeometryMetadataStore.roundUp(envelope.getMaxM()) : null);
+        CellGrid cellGrid = getCellGrid(geoPackageId, tableName);
+        if (cellGrid != null) {
+            statement.bindLong(11, cellGrid.getCellKey(minX, minY, maxX, maxY));
+        } else {
+            statement.bindNull(11);
+        }
+        if (time != null) {
+            statement.bindLong(12, time);
+        } else {
+            statement.bindNull(12);
+        }
+        long insertId = statement.executeInsert();
+        if (insertId == -1) {
+            throw new GeoPackageException(
+                    "Failed to insert geometry metadata. GeoPackage Id: "
+                            + geoPackageId + ", Table Name: "
+                            + tableName + ", Geometry Id: "
+                            + geomId);
+        }
+        return insertId;
+    }
+
+    /**
+     * Bind a nullable float value encoded to the statement
+     *
+     * @param statement
+     * @param index
+     * @param value
+     */
+    private static void bindEncoded(SQLiteStatement statement, int index, Double value) {
+        if (value != null) {
+            statement.bindLong(index, GeometryMetadataStore.encode(value));
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    /**
+     * Put the encoded envelope bounds of the geometry metadata into the values
+     *
+     * @param values
+     * @param metadata rounded geometry metadata
+     */
+    private static void putEnvelope(ContentValues values, GeometryMetadata metadata) {
+        values.put(GeometryMetadata.COLUMN_MIN_X, GeometryMetadataStore.encode(metadata.getMinX()));
+        values.put(GeometryMetadata.COLUMN_MAX_X, GeometryMetadataStore.encode(metadata.getMaxX()));
+        values.put(GeometryMetadata.COLUMN_MIN_Y, GeometryMetadataStore.encode(metadata.getMinY()));
+        values.put(GeometryMetadata.COLUMN_MAX_Y, GeometryMetadataStore.encode(metadata.getMaxY()));
+        putEncoded(values, GeometryMetadata.COLUMN_MIN_Z, metadata.getMinZ());
+        putEncoded(values, GeometryMetadata.COLUMN_MAX_Z, metadata.getMaxZ());
+        putEncoded(values, GeometryMetadata.COLUMN_MIN_M, metadata.getMinM());
+        putEncoded(values, GeometryMetadata.COLUMN_MAX_M, metadata.getMaxM());
+    }
+
+    /**
+     * Put a nullable float value encoded into the values
+     *
+     * @param values
+     * @param column
+     * @param value
+     */
+    private static void putEncoded(ContentValues values, String column, Double value) {
+        if (value != null) {
+            values.put(column, GeometryMetadataStore.encode(value));
+        } else {
+            values.putNull(column);
+        }
+    }
+
+    /**
+     * Round the envelope bounds of the geometry metadata outwards to float precision
+     *
+     * @param metadata
+     */
+    private static void roundOutwards(GeometryMetadata metadata) {
+        metadata.setMinX(GeometryMetadataStore.roundDown(metadata.getMinX()));
+        metadata.setMaxX(GeometryMetadataStore.roundUp(metadata.getMaxX()));
+        metadata.setMinY(GeometryMetadataStore.roundDown(metadata.getMinY()));
+        metadata.setMaxY(GeometryMetadataStore.roundUp(metadata.getMaxY()));
+        if (metadata.getMinZ() != null) {
+            metadata.setMinZ(GeometryMetadataStore.roundDown(metadata.getMinZ()));
+        }
+        if (metadata.getMaxZ() != null) {
+            metadata.setMaxZ(GeometryMetadataStore.roundUp(metadata.getMaxZ()));
+        }
+        if (metadata.getMinM() != null) {
+            metadata.setMinM(GeometryMetadataStore.roundDown(metadata.getMinM()));
+        }
+        if (metadata.getMaxM() != null) {
+            metadata.setMaxM(GeometryMetadataStore.roundUp(metadata.getMaxM()));
+        }
+    }
+
     /**
      * Create a new geometry metadata from an envelope
      *
@@ -101,7 +294,8 @@ public class GeometryMetadataDataSource {
     }
 
     /**
-     * Populate a new geometry metadata from an envelope
+     * Populate a new geometry metadata from an envelope, rounded outwards to the float
+     * precision of the store
      *
      * @param geoPackageId
      * @param tableName
@@ -110,6 +304,22 @@ public class GeometryMetadataDataSource {
      * @return
      */
     public GeometryMetadata populate(long geoPackageId, String tableName, long geomId, GeometryEnvelope envelope) {
+        return populate(geoPackageId, tableName, geomId, envelope, null);
+    }
+
+    /**
+     * Populate a new geometry metadata from an envelope and feature time, rounded outwards
+     * to the float precision of the store
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param geomId
+     * @param envelope
+     * @param time         feature time in milliseconds since epoch, or null
+     * @return
+     */
+    public GeometryMetadata populate(long geoPackageId, String tableName, long geomId,
+                                     GeometryEnvelope envelope, Long time) {
 
         GeometryMetadata metadata = new GeometryMetadata();
         metadata.setGeoPackageId(geoPackageId);
@@ -127,6 +337,9 @@ public class GeometryMetadataDataSource {
             metadata.setMinM(envelope.getMinM());
             metadata.setMaxM(envelope.getMaxM());
         }
+        metadata.setTime(time);
+        roundOutwards(metadata);
+        getCellKey(metadata);
         return metadata;
     }
 
@@ -144,25 +357,24 @@ public class GeometryMetadataDataSource {
      * Delete geometry metadata by database
      *
      * @param geoPackage
-     * @return
+     * @return true if the GeoPackage store was deleted
      */
-    public int delete(String geoPackage) {
+    public boolean delete(String geoPackage) {
         return delete(getGeoPackageId(geoPackage));
     }
 
     /**
-     * Delete geometry metadata by database
+     * Delete geometry metadata by database, deleting the GeoPackage store file. Must be
+     * called outside of a transaction when the store is attached.
      *
      * @param geoPackageId
-     * @return
+     * @return true if the GeoPackage store was deleted
      */
-    public int delete(long geoPackageId) {
-        String whereClause = GeometryMetadata.COLUMN_GEOPACKAGE_ID + " = ?";
-        String[] whereArgs = new String[]{String.valueOf(geoPackageId)};
-        int deleteCount = db.delete(
-                GeometryMetadata.TABLE_NAME,
-                whereClause, whereArgs);
-        return deleteCount;
+    public boolean delete(long geoPackageId) {
+        tableIds.clear();
+        tableNames.clear();
+        timeIndexes.remove(geoPackageId);
+        return GeometryMetadataStore.delete(db, geoPackageId);
     }
 
     /**
@@ -184,11 +396,29 @@ public class GeometryMetadataDataSource {
      * @return
      */
     public int delete(long geoPackageId, String tableName) {
-        String whereClause = GeometryMetadata.COLUMN_GEOPACKAGE_ID
-                + " = ? AND " + GeometryMetadata.COLUMN_TABLE_NAME + " = ?";
-        String[] whereArgs = new String[]{String.valueOf(geoPackageId), tableName};
+        String whereClause = GeometryMetadata.COLUMN_TABLE_ID + " = ?";
+        String[] whereArgs = new String[]{String.valueOf(getTableId(geoPackageId, tableName, false))};
+        int deleteCount = db.delete(
+                getTable(geoPackageId),
+                whereClause, whereArgs);
+        return deleteCount;
+    }
+
+    /**
+     * Delete the geometry metadata of the table with feature ids after the id
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param id
+     * @return
+     */
+    public int deleteAfter(long geoPackageId, String tableName, long id) {
+        String whereClause = GeometryMetadata.COLUMN_TABLE_ID + " = ? AND "
+                + GeometryMetadata.COLUMN_ID + " > ?";
+        String[] whereArgs = new String[]{String.valueOf(getTableId(geoPackageId, tableName, false)),
+                String.valueOf(id)};
         int deleteCount = db.delete(
-                GeometryMetadata.TABLE_NAME,
+                getTable(geoPackageId),
                 whereClause, whereArgs);
         return deleteCount;
     }
@@ -214,12 +444,12 @@ public class GeometryMetadataDataSource {
      * @return
      */
     public boolean delete(long geoPackageId, String tableName, long id) {
-        String whereClause = GeometryMetadata.COLUMN_GEOPACKAGE_ID
-                + " = ? AND " + GeometryMetadata.COLUMN_TABLE_NAME + " = ? AND "
+        String whereClause = GeometryMetadata.COLUMN_TABLE_ID + " = ? AND "
                 + GeometryMetadata.COLUMN_ID + " = ?";
-        String[] whereArgs = new String[]{String.valueOf(geoPackageId), tableName, String.valueOf(id)};
+        String[] whereArgs = new String[]{String.valueOf(getTableId(geoPackageId, tableName, false)),
+                String.valueOf(id)};
         int deleteCount = db.delete(
-                GeometryMetadata.TABLE_NAME,
+                getTable(geoPackageId),
                 whereClause, whereArgs);
         return deleteCount > 0;
     }
@@ -251,21 +481,18 @@ public class GeometryMetadataDataSource {
      * @return
      */
     public boolean update(GeometryMetadata metadata) {
-        String whereClause = GeometryMetadata.COLUMN_GEOPACKAGE_ID
-                + " = ? AND " + GeometryMetadata.COLUMN_TABLE_NAME + " = ? AND "
+        roundOutwards(metadata);
+        String whereClause = GeometryMetadata.COLUMN_TABLE_ID + " = ? AND "
                 + GeometryMetadata.COLUMN_ID + " = ?";
-        String[] whereArgs = new String[]{String.valueOf(metadata.getGeoPackageId()), metadata.getTableName(), String.valueOf(metadata.getId())};
+        String[] whereArgs = new String[]{
+                String.valueOf(getTableId(metadata.getGeoPackageId(), metadata.getTableName(), false)),
+                String.valueOf(metadata.getId())};
         ContentValues values = new ContentValues();
-        values.put(GeometryMetadata.COLUMN_MIN_X, metadata.getMinX());
-        values.put(GeometryMetadata.COLUMN_MAX_X, metadata.getMaxX());
-        values.put(GeometryMetadata.COLUMN_MIN_Y, metadata.getMinY());
-        values.put(GeometryMetadata.COLUMN_MAX_Y, metadata.getMaxY());
-        values.put(GeometryMetadata.COLUMN_MIN_Z, metadata.getMinZ());
-        values.put(GeometryMetadata.COLUMN_MAX_Z, metadata.getMaxZ());
-        values.put(GeometryMetadata.COLUMN_MIN_M, metadata.getMinM());
-        values.put(GeometryMetadata.COLUMN_MAX_M, metadata.getMaxM());
+        putEnvelope(values, metadata);
+        values.put(GeometryMetadata.COLUMN_CELL_KEY, getCellKey(metadata));
+        values.put(GeometryMetadata.COLUMN_TIME, metadata.getTime());
         int updateCount = db.update(
-                GeometryMetadata.TABLE_NAME, values,
+                getTable(metadata.getGeoPackageId()), values,
                 whereClause, whereArgs);
         return updateCount > 0;
     }
@@ -312,13 +539,13 @@ public class GeometryMetadataDataSource {
      * @return
      */
     public GeometryMetadata get(long geoPackageId, String tableName, long id) {
-        String selection = GeometryMetadata.COLUMN_GEOPACKAGE_ID
-                + " = ? AND " + GeometryMetadata.COLUMN_TABLE_NAME + " = ? AND "
+        String selection = GeometryMetadata.COLUMN_TABLE_ID + " = ? AND "
                 + GeometryMetadata.COLUMN_ID + " = ?";
-        String[] selectionArgs = new String[]{String.valueOf(geoPackageId), tableName, String.valueOf(id)};
+        String[] selectionArgs = new String[]{String.valueOf(getTableId(geoPackageId, tableName, false)),
+                String.valueOf(id)};
         Cursor cursor = db.query(
-                GeometryMetadata.TABLE_NAME,
-                GeometryMetadata.COLUMNS, selection, selectionArgs, null, null, null);
+                getTable(geoPackageId),
+                getColumns(geoPackageId), selection, selectionArgs, null, null, null);
         GeometryMetadata metadata = null;
         try {
             if (cursor.moveToNext()) {
@@ -349,12 +576,11 @@ public class GeometryMetadataDataSource {
      * @return cursor that must be closed
      */
     public Cursor query(long geoPackageId, String tableName) {
-        String selection = GeometryMetadata.COLUMN_GEOPACKAGE_ID
-                + " = ? AND " + GeometryMetadata.COLUMN_TABLE_NAME + " = ?";
-        String[] selectionArgs = new String[]{String.valueOf(geoPackageId), tableName};
+        String selection = GeometryMetadata.COLUMN_TABLE_ID + " = ?";
+        String[] selectionArgs = new String[]{String.valueOf(getTableId(geoPackageId, tableName, false))};
         Cursor cursor = db.query(
-                GeometryMetadata.TABLE_NAME,
-                GeometryMetadata.COLUMNS, selection, selectionArgs, null, null, null);
+                getTable(geoPackageId),
+                getColumns(geoPackageId), selection, selectionArgs, null, null, null);
         return cursor;
     }
 
@@ -408,44 +634,859 @@ public class GeometryMetadataDataSource {
      * @return cursor that must be closed
      */
     public Cursor query(long geoPackageId, String tableName, GeometryEnvelope envelope) {
+        List<String> selectionArgs = new ArrayList<String>();
+        String sql = buildEnvelopeQuery(getColumns(geoPackageId), geoPackageId, tableName,
+                envelope, selectionArgs);
+        Cursor cursor = db.rawQuery(sql, selectionArgs.toArray(new String[selectionArgs.size()]));
+        return cursor;
+    }
+
+    /**
+     * Query for all table geometry metadata matching the envelope with a feature time
+     * within the inclusive time range
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @param minTime      min time in milliseconds since epoch
+     * @param maxTime      max time in milliseconds since epoch
+     * @return cursor that must be closed
+     */
+    public Cursor query(long geoPackageId, String tableName, GeometryEnvelope envelope,
+                        long minTime, long maxTime) {
+        List<String> selectionArgs = new ArrayList<String>();
+        String sql = buildEnvelopeQuery(getColumns(geoPackageId), geoPackageId, tableName,
+                envelope, minTime, maxTime, false, selectionArgs);
+        Cursor cursor = db.rawQuery(sql, selectionArgs.toArray(new String[selectionArgs.size()]));
+        return cursor;
+    }
+
+    /**
+     * Query for the ids of the table geometry metadata matching the envelope, with a
+     * feature time within the inclusive time range when provided
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @param minTime      min time in milliseconds since epoch, or null
+     * @param maxTime      max time in milliseconds since epoch, or null
+     * @return ids
+     */
+    public List<Long> queryIds(long geoPackageId, String tableName, GeometryEnvelope envelope,
+                               Long minTime, Long maxTime) {
+        List<Long> ids = new ArrayList<Long>();
+        List<String> selectionArgs = new ArrayList<String>();
+        String sql = buildEnvelopeQuery(new String[]{GeometryMetadata.COLUMN_ID}, geoPackageId,
+                tableName, envelope, minTime, maxTime, false, selectionArgs);
+        Cursor cursor = db.rawQuery(sql, selectionArgs.toArray(new String[selectionArgs.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Query for the ids of the table geometry metadata matching the envelope into the id
+     * buffer, reading only the id column
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @param offset       number of matching rows to skip, for paging through the results
+     * @param ids          id buffer filled from index 0, up to its length
+     * @return number of ids read, less than the buffer length when there are no more results
+     */
+    public int queryIds(long geoPackageId, String tableName, GeometryEnvelope envelope,
+                        int offset, long[] ids) {
+        return queryIds(geoPackageId, tableName, envelope, offset, ids, null);
+    }
+
+    /**
+     * Query for the ids and envelopes of the table geometry metadata matching the envelope
+     * into the caller buffers, avoiding a geometry metadata object per result. Results are
+     * paged by the offset and must be read without modifying the table index in between.
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @param offset       number of matching rows to skip, for paging through the results
+     * @param ids          id buffer filled from index 0, up to its length
+     * @param envelopes    optional envelope buffer of at least 4 times the id buffer length,
+     *                     filled with the min x, min y, max x, and max y of each id rounded
+     *                     outwards to float precision, or null
+     * @return number of ids read, less than the buffer length when there are no more results
+     */
+    public int queryIds(long geoPackageId, String tableName, GeometryEnvelope envelope,
+                        int offset, long[] ids, double[] envelopes) {
+
+        if (envelopes != null && envelopes.length < ids.length * 4) {
+            throw new GeoPackageException("Envelope buffer length " + envelopes.length
+                    + " is less than 4 times the id buffer length " + ids.length);
+        }
+        if (ids.length == 0) {
+            return 0;
+        }
+
+        String[] columns;
+        if (envelopes != null) {
+            columns = new String[]{GeometryMetadata.COLUMN_ID,
+                    GeometryMetadata.COLUMN_MIN_X, GeometryMetadata.COLUMN_MIN_Y,
+                    GeometryMetadata.COLUMN_MAX_X, GeometryMetadata.COLUMN_MAX_Y};
+        } else {
+            columns = new String[]{GeometryMetadata.COLUMN_ID};
+        }
+
+        List<String> selectionArgs = new ArrayList<String>();
+        String sql = buildEnvelopeQuery(columns, geoPackageId, tableName,
+                envelope, selectionArgs) + " LIMIT ? OFFSET ?";
+        selectionArgs.add(String.valueOf(ids.length));
+        selectionArgs.add(String.valueOf(offset));
+
+        int count = 0;
+        Cursor cursor = db.rawQuery(sql, selectionArgs.toArray(new String[selectionArgs.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                ids[count] = cursor.getLong(0);
+                if (envelopes != null) {
+                    int index = count * 4;
+                    envelopes[index] = GeometryMetadataStore.decode(cursor.getLong(1));
+                    envelopes[index + 1] = GeometryMetadataStore.decode(cursor.getLong(2));
+                    envelopes[index + 2] = GeometryMetadataStore.decode(cursor.getLong(3));
+                    envelopes[index + 3] = GeometryMetadataStore.decode(cursor.getLong(4));
+                }
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Query for the ids of the table geometry metadata matching the envelope only on a
+     * float rounded bound. These candidates may not intersect the envelope and are refined
+     * against the exact feature envelopes, all other matches intersect the envelope.
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @return boundary candidate ids
+     */
+    public List<Long> queryBoundaryIds(long geoPackageId, String tableName, GeometryEnvelope envelope) {
+        return queryBoundaryIds(geoPackageId, tableName, envelope, null, null);
+    }
+
+    /**
+     * Query for the ids of the table geometry metadata matching the envelope only on a
+     * float rounded bound, with a feature time within the inclusive time range when
+     * provided
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @param minTime      min time in milliseconds since epoch, or null
+     * @param maxTime      max time in milliseconds since epoch, or null
+     * @return boundary candidate ids
+     */
+    public List<Long> queryBoundaryIds(long geoPackageId, String tableName, GeometryEnvelope envelope,
+                                       Long minTime, Long maxTime) {
+        List<String> selectionArgs = new ArrayList<String>();
+        String sql = buildEnvelopeQuery(new String[]{GeometryMetadata.COLUMN_ID}, geoPackageId,
+                tableName, envelope, minTime, maxTime, true, selectionArgs);
+        List<Long> ids = new ArrayList<Long>();
+        Cursor cursor = db.rawQuery(sql, selectionArgs.toArray(new String[selectionArgs.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Query for the ids and envelopes of all table geometry metadata ordered by the min x,
+     * for plane sweeps over the table envelopes. Read the envelope bounds with
+     * {@link GeometryMetadataStore#decode(long)}.
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return cursor of the id and the encoded min x, min y, max x, and max y that must be closed
+     */
+    public Cursor queryByMinX(long geoPackageId, String tableName) {
+        String sql = "SELECT " + GeometryMetadata.COLUMN_ID + ", "
+                + GeometryMetadata.COLUMN_MIN_X + ", " + GeometryMetadata.COLUMN_MIN_Y + ", "
+                + GeometryMetadata.COLUMN_MAX_X + ", " + GeometryMetadata.COLUMN_MAX_Y
+                + " FROM " + getTable(geoPackageId) + " WHERE "
+                + GeometryMetadata.COLUMN_TABLE_ID + " = ? ORDER BY " + GeometryMetadata.COLUMN_MIN_X;
+        return db.rawQuery(sql, new String[]{
+                String.valueOf(getTableId(geoPackageId, tableName, false))});
+    }
+
+    /**
+     * Count the table geometries per grid cell by their envelope centers, grouped in a
+     * single query over the index without reading the features. The grid cells are
+     * between the ascending x and y bounds, column 0 and row 0 at the min bounds, and
+     * centers on an inner bound are in the following cell. Centers are the midpoints of
+     * the encoded bounds, exact for points and within the envelope otherwise, and are
+     * compared in SQL to the encoded grid bounds, which are within float precision.
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param xBounds      ascending x bounds of the grid columns, at least 2
+     * @param yBounds      ascending y bounds of the grid rows, at least 2
+     * @param extents      true to also query the extent of the envelopes per cell
+     * @return counts of the cells with geometries
+     */
+    public List<GridCount> queryGridCounts(long geoPackageId, String tableName, double[] xBounds,
+                                           double[] yBounds, boolean extents) {
+
+        validateBounds(xBounds, "x");
+        validateBounds(yBounds, "y");
+
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(xBounds[0]);
+        envelope.setMaxX(xBounds[xBounds.length - 1]);
+        envelope.setMinY(yBounds[0]);
+        envelope.setMaxY(yBounds[yBounds.length - 1]);
+
+        String centerX = "(" + GeometryMetadata.COLUMN_MIN_X + " + " + GeometryMetadata.COLUMN_MAX_X + ") / 2";
+        String centerY = "(" + GeometryMetadata.COLUMN_MIN_Y + " + " + GeometryMetadata.COLUMN_MAX_Y + ") / 2";
+        String[] columns;
+        if (extents) {
+            columns = new String[]{centerX + " AS center_x", centerY + " AS center_y",
+                    GeometryMetadata.COLUMN_MIN_X, GeometryMetadata.COLUMN_MIN_Y,
+                    GeometryMetadata.COLUMN_MAX_X, GeometryMetadata.COLUMN_MAX_Y};
+        } else {
+            columns = new String[]{centerX + " AS center_x", centerY + " AS center_y"};
+        }
+
+        List<String> selectionArgs = new ArrayList<String>();
+        String envelopeQuery = buildEnvelopeQuery(columns, geoPackageId, tableName,
+                envelope, selectionArgs);
+
+        long[] encodedX = encodeBounds(xBounds);
+        long[] encodedY = encodeBounds(yBounds);
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        appendBoundsSearch(sql, "center_x", encodedX, 0, xBounds.length - 2);
+        sql.append(" AS grid_column, ");
+        appendBoundsSearch(sql, "center_y", encodedY, 0, yBounds.length - 2);
+        sql.append(" AS grid_row, COUNT(*)");
+        if (extents) {
+            sql.append(", MIN(").append(GeometryMetadata.COLUMN_MIN_X)
+                    .append("), MIN(").append(GeometryMetadata.COLUMN_MIN_Y)
+                    .append("), MAX(").append(GeometryMetadata.COLUMN_MAX_X)
+                    .append("), MAX(").append(GeometryMetadata.COLUMN_MAX_Y).append(")");
+        }
+        // The centers are expressions without type affinity, so the grid bounds are
+        // written as integer literals rather than bound as text arguments
+        sql.append(" FROM (").append(envelopeQuery)
+                .append(") WHERE center_x BETWEEN ").append(encodedX[0])
+                .append(" AND ").append(encodedX[encodedX.length - 1])
+                .append(" AND center_y BETWEEN ").append(encodedY[0])
+                .append(" AND ").append(encodedY[encodedY.length - 1])
+                .append(" GROUP BY grid_column, grid_row");
+
+        List<GridCount> counts = new ArrayList<GridCount>();
+        Cursor cursor = db.rawQuery(sql.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                GeometryEnvelope extent = null;
+                if (extents) {
+                    extent = new GeometryEnvelope();
+                    extent.setMinX(GeometryMetadataStore.decode(cursor.getLong(3)));
+                    extent.setMinY(GeometryMetadataStore.decode(cursor.getLong(4)));
+                    extent.setMaxX(GeometryMetadataStore.decode(cursor.getLong(5)));
+                    extent.setMaxY(GeometryMetadataStore.decode(cursor.getLong(6)));
+                }
+                counts.add(new GridCount(cursor.getLong(0), cursor.getLong(1),
+                        cursor.getLong(2), extent));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Validate grid bounds are ascending with at least one cell
+     *
+     * @param bounds
+     * @param axis
+     */
+    private static void validateBounds(double[] bounds, String axis) {
+        if (bounds.length < 2) {
+            throw new GeoPackageException("Grid requires at least 2 " + axis + " bounds, found: "
+                    + bounds.length);
+        }
+        for (int i = 1; i < bounds.length; i++) {
+            if (!(bounds[i] > bounds[i - 1])) {
+                throw new GeoPackageException("Grid " + axis + " bounds are not ascending. Bound "
+                        + i + ": " + bounds[i] + ", Previous: " + bounds[i - 1]);
+            }
+        }
+    }
+
+    /**
+     * Encode the grid bounds to float precision
+     *
+     * @param bounds
+     * @return encoded bounds
+     */
+    private static long[] encodeBounds(double[] bounds) {
+        long[] encoded = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            encoded[i] = GeometryMetadataStore.encode(bounds[i]);
+        }
+        return encoded;
+    }
+
+    /**
+     * Append an expression of the grid cell of an encoded value, a binary search of the
+     * inner bounds as nested CASE expressions
+     *
+     * @param sql    SQL to append to
+     * @param value  encoded value expression
+     * @param bounds encoded bounds
+     * @param first  first cell of the search
+     * @param last   last cell of the search
+     */
+    private static void appendBoundsSearch(StringBuilder sql, String value, long[] bounds,
+                                           int first, int last) {
+        if (first == last) {
+            sql.append(first);
+        } else {
+            int middle = (first + last + 1) / 2;
+            sql.append("CASE WHEN ").append(value).append(" < ").append(bounds[middle]).append(" THEN ");
+            appendBoundsSearch(sql, value, bounds, first, middle - 1);
+            sql.append(" ELSE ");
+            appendBoundsSearch(sql, value, bounds, middle, last);
+            sql.append(" END");
+        }
+    }
+
+    /**
+     * Explain the query plan SQLite uses for the envelope query of
+     * {@link #query(long, String, GeometryEnvelope)}
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @return query plan detail lines
+     */
+    public List<String> explainQuery(long geoPackageId, String tableName, GeometryEnvelope envelope) {
+        return explainQuery(geoPackageId, tableName, envelope, null, null);
+    }
+
+    /**
+     * Explain the query plan SQLite uses for the envelope and time range query of
+     * {@link #query(long, String, GeometryEnvelope, long, long)}
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @param minTime      min time in milliseconds since epoch, or null
+     * @param maxTime      max time in milliseconds since epoch, or null
+     * @return query plan detail lines
+     */
+    public List<String> explainQuery(long geoPackageId, String tableName, GeometryEnvelope envelope,
+                                     Long minTime, Long maxTime) {
+        List<String> selectionArgs = new ArrayList<String>();
+        String sql = buildEnvelopeQuery(getColumns(geoPackageId), geoPackageId, tableName,
+                envelope, minTime, maxTime, false, selectionArgs);
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql,
+                selectionArgs.toArray(new String[selectionArgs.size()]));
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * Get the cell grid of the table
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return cell grid or null
+     */
+    private CellGrid getCellGrid(long geoPackageId, String tableName) {
+        String key = geoPackageId + "_" + tableName;
+        CellGrid cellGrid = cellGrids.get(key);
+        if (cellGrid == null && !cellGrids.containsKey(key)) {
+            cellGrid = new TableMetadataDataSource(db).getCellGrid(geoPackageId, tableName);
+            cellGrids.put(key, cellGrid);
+        }
+        return cellGrid;
+    }
+
+    /**
+     * Get the geometry metadata query columns of the GeoPackage, selecting the GeoPackage
+     * id as a constant as the stores only hold the rows of a single GeoPackage
+     *
+     * @param geoPackageId
+     * @return columns in the order of {@link GeometryMetadata#COLUMNS}
+     */
+    private static String[] getColumns(long geoPackageId) {
+        String[] columns = GeometryMetadata.COLUMNS.clone();
+        columns[0] = geoPackageId + " AS " + GeometryMetadata.COLUMN_GEOPACKAGE_ID;
+        return columns;
+    }
+
+    /**
+     * Get the geometry metadata table of the GeoPackage store, attaching the store when
+     * not attached
+     *
+     * @param geoPackageId
+     * @return qualified table name
+     */
+    private String getTable(long geoPackageId) {
+        return GeometryMetadataStore.getTable(db, geoPackageId);
+    }
+
+    /**
+     * Calculate and set the cell key of the geometry metadata from the table cell grid
+     *
+     * @param metadata
+     * @return cell key or null if the table has no cell grid
+     */
+    private Long getCellKey(GeometryMetadata metadata) {
+        Long cellKey = null;
+        CellGrid cellGrid = getCellGrid(metadata.getGeoPackageId(), metadata.getTableName());
+        if (cellGrid != null) {
+            cellKey = cellGrid.getCellKey(metadata.getMinX(), metadata.getMinY(),
+                    metadata.getMaxX(), metadata.getMaxY());
+        }
+        metadata.setCellKey(cellKey);
+        return cellKey;
+    }
+
+    /**
+     * Create the time index of the GeoPackage store if it does not exist. Must be called
+     * outside of a transaction.
+     *
+     * @param geoPackageId
+     */
+    public void createTimeIndex(long geoPackageId) {
+        GeometryMetadataStore.createTimeIndex(db, geoPackageId);
+        timeIndexes.put(geoPackageId, true);
+    }
+
+    /**
+     * Determine if the GeoPackage store has the time index
+     *
+     * @param geoPackageId
+     * @return true if the time index exists
+     */
+    private boolean hasTimeIndex(long geoPackageId) {
+        Boolean timeIndex = timeIndexes.get(geoPackageId);
+        if (timeIndex == null) {
+            timeIndex = GeometryMetadataStore.hasTimeIndex(db, geoPackageId);
+            timeIndexes.put(geoPackageId, timeIndex);
+        }
+        return timeIndex;
+    }
+
+    /**
+     * Build the envelope query. Tables with a cell grid are queried with a compound
+     * select of the planned cell key ranges, each a single index range scan, and all
+     * rows are filtered by their exact envelopes.
+     *
+     * @param columns       columns to select
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @param selectionArgs populated with the query arguments
+     * @return query SQL
+     */
+    private String buildEnvelopeQuery(String[] columns, long geoPackageId,
+                                      String tableName, GeometryEnvelope envelope,
+                                      List<String> selectionArgs) {
+        return buildEnvelopeQuery(columns, geoPackageId, tableName, envelope, false,
+                selectionArgs);
+    }
+
+    /**
+     * Build the envelope query
+     *
+     * @param columns       columns to select
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @param boundary      true to only match rows on a float rounded bound of the envelope
+     * @param selectionArgs populated with the query arguments
+     * @return query SQL
+     */
+    private String buildEnvelopeQuery(String[] columns, long geoPackageId,
+                                      String tableName, GeometryEnvelope envelope,
+                                      boolean boundary, List<String> selectionArgs) {
+        return buildEnvelopeQuery(columns, geoPackageId, tableName, envelope, null, null,
+                boundary, selectionArgs);
+    }
+
+    /**
+     * Build the envelope and time range query. Time range queries of stores with a time
+     * index estimate the selectivity of the time range against the table time extent and
+     * of the envelope against the cell grid bounds, and scan the time index when the time
+     * range is the more selective. Otherwise the cell key ranges are scanned and filtered
+     * by time.
+     *
+     * @param columns       columns to select
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @param minTime       min time in milliseconds since epoch, or null for no time range
+     * @param maxTime       max time in milliseconds since epoch, or null for no time range
+     * @param boundary      true to only match rows on a float rounded bound of the envelope
+     * @param selectionArgs populated with the query arguments
+     * @return query SQL
+     */
+    private String buildEnvelopeQuery(String[] columns, long geoPackageId,
+                                      String tableName, GeometryEnvelope envelope,
+                                      Long minTime, Long maxTime, boolean boundary,
+                                      List<String> selectionArgs) {
+
+        String table = getTable(geoPackageId);
+        long tableId = getTableId(geoPackageId, tableName, false);
+        boolean timeRange = minTime != null && maxTime != null;
+
+        String[] envelopeArgs = buildEnvelopeSelectionArgs(tableId, envelope);
+        List<String> args = new ArrayList<String>();
+        Collections.addAll(args, envelopeArgs);
+        if (timeRange) {
+            args.add(String.valueOf(minTime));
+            args.add(String.valueOf(maxTime));
+        }
+        if (boundary) {
+            for (int i = 1; i < envelopeArgs.length; i++) {
+                args.add(envelopeArgs[i]);
+            }
+        }
+        String selection = buildEnvelopeSelection(envelope, timeRange, boundary);
+
+        CellGrid cellGrid = getCellGrid(geoPackageId, tableName);
+        boolean timeIndex = timeRange && hasTimeIndex(geoPackageId);
+        if (timeIndex && getTimeFraction(geoPackageId, tableId, minTime, maxTime)
+                < getSpatialFraction(cellGrid, envelope)) {
+            selectionArgs.addAll(args);
+            return SQLiteQueryBuilder.buildQueryString(false,
+                    table + " INDEXED BY " + GeometryMetadataStore.INDEX_TIME_NAME,
+                    columns, selection, null, null, null, null);
+        }
+
+        StringBuilder sql = new StringBuilder();
+        if (cellGrid == null) {
+            String select = SQLiteQueryBuilder.buildQueryString(false, table,
+                    columns, selection, null, null, null, null);
+            sql.append(select).append(" AND ").append(GeometryMetadata.COLUMN_CELL_KEY).append(" IS NULL");
+            selectionArgs.addAll(args);
+        } else {
+            if (timeIndex) {
+                table += " INDEXED BY " + GeometryMetadata.INDEX_CELL_NAME;
+            }
+            String select = SQLiteQueryBuilder.buildQueryString(false, table,
+                    columns, selection, null, null, null, null);
+            for (long[] range : cellGrid.getRanges(envelope, MAX_CELL_RANGES)) {
+                if (sql.length() > 0) {
+                    sql.append(" UNION ALL ");
+                }
+                sql.append(select).append(" AND ").append(GeometryMetadata.COLUMN_CELL_KEY).append(" BETWEEN ? AND ?");
+                selectionArgs.addAll(args);
+                selectionArgs.add(String.valueOf(range[0]));
+                selectionArgs.add(String.valueOf(range[1]));
+            }
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Estimate the fraction of the table rows within the inclusive time range from the
+     * time extent of the table, read from the ends of the time index
+     *
+     * @param geoPackageId
+     * @param tableId
+     * @param minTime
+     * @param maxTime
+     * @return estimated fraction from 0.0 to 1.0
+     */
+    private double getTimeFraction(long geoPackageId, long tableId, long minTime, long maxTime) {
+        Long first = queryTime(geoPackageId, tableId, "ASC");
+        Long last = queryTime(geoPackageId, tableId, "DESC");
+        double fraction = 0.0;
+        if (first != null && last != null) {
+            long overlapMin = Math.max(minTime, first);
+            long overlapMax = Math.min(maxTime, last);
+            if (overlapMin <= overlapMax) {
+                fraction = ((double) overlapMax - overlapMin + 1) / ((double) last - first + 1);
+            }
+        }
+        return fraction;
+    }
+
+    /**
+     * Query for the first feature time of the table in the order
+     *
+     * @param geoPackageId
+     * @param tableId
+     * @param order        ASC or DESC
+     * @return time or null if no rows have a time
+     */
+    private Long queryTime(long geoPackageId, long tableId, String order) {
+        Cursor cursor = db.rawQuery("SELECT " + GeometryMetadata.COLUMN_TIME + " FROM "
+                        + getTable(geoPackageId) + " INDEXED BY " + GeometryMetadataStore.INDEX_TIME_NAME
+                        + " WHERE " + GeometryMetadata.COLUMN_TABLE_ID + " = ? AND "
+                        + GeometryMetadata.COLUMN_TIME + " IS NOT NULL ORDER BY "
+                        + GeometryMetadata.COLUMN_TIME + " " + order + " LIMIT 1",
+                new String[]{String.valueOf(tableId)});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Estimate the fraction of the table rows within the envelope from the area of the
+     * cell grid bounds
+     *
+     * @param cellGrid cell grid or null
+     * @param envelope
+     * @return estimated fraction from 0.0 to 1.0, 1.0 without a cell grid
+     */
+    private static double getSpatialFraction(CellGrid cellGrid, GeometryEnvelope envelope) {
+        double fraction = 1.0;
+        if (cellGrid != null) {
+            double area = (cellGrid.getMaxX() - cellGrid.getMinX())
+                    * (cellGrid.getMaxY() - cellGrid.getMinY());
+            if (area > 0) {
+                double width = Math.min(envelope.getMaxX(), cellGrid.getMaxX())
+                        - Math.max(envelope.getMinX(), cellGrid.getMinX());
+                double height = Math.min(envelope.getMaxY(), cellGrid.getMaxY())
+                        - Math.max(envelope.getMinY(), cellGrid.getMinY());
+                fraction = Math.min(1.0, Math.max(0.0, width) * Math.max(0.0, height) / area);
+            }
+        }
+        return fraction;
+    }
+
+    /**
+     * Build the selection of table geometry metadata matching an envelope
+     *
+     * @param envelope
+     * @param timeRange true to also match rows with a time between two arguments following
+     *                  the envelope bound arguments
+     * @param boundary  true to only match rows with a bound equal to the encoded envelope
+     *                  bound, the arguments of the envelope bounds are repeated
+     * @return selection
+     */
+    private static String buildEnvelopeSelection(GeometryEnvelope envelope, boolean timeRange,
+                                                 boolean boundary) {
         StringBuilder selection = new StringBuilder();
-        selection.append(GeometryMetadata.COLUMN_GEOPACKAGE_ID).append(" = ? AND ")
-                .append(GeometryMetadata.COLUMN_TABLE_NAME).append(" = ?");
+        selection.append(GeometryMetadata.COLUMN_TABLE_ID).append(" = ?");
         selection.append(" AND ").append(GeometryMetadata.COLUMN_MIN_X).append(" <= ?");
         selection.append(" AND ").append(GeometryMetadata.COLUMN_MAX_X).append(" >= ?");
         selection.append(" AND ").append(GeometryMetadata.COLUMN_MIN_Y).append(" <= ?");
         selection.append(" AND ").append(GeometryMetadata.COLUMN_MAX_Y).append(" >= ?");
-        int args = 6;
         if (envelope.hasZ()) {
-            args += 2;
             selection.append(" AND ").append(GeometryMetadata.COLUMN_MIN_Z).append(" <= ?");
             selection.append(" AND ").append(GeometryMetadata.COLUMN_MAX_Z).append(" >= ?");
         }
         if (envelope.hasM()) {
-            args += 2;
             selection.append(" AND ").append(GeometryMetadata.COLUMN_MIN_M).append(" <= ?");
             selection.append(" AND ").append(GeometryMetadata.COLUMN_MAX_M).append(" >= ?");
         }
+        if (timeRange) {
+            selection.append(" AND ").append(GeometryMetadata.COLUMN_TIME).append(" BETWEEN ? AND ?");
+        }
+        if (boundary) {
+            selection.append(" AND (").append(GeometryMetadata.COLUMN_MIN_X).append(" = ?");
+            selection.append(" OR ").append(GeometryMetadata.COLUMN_MAX_X).append(" = ?");
+            selection.append(" OR ").append(GeometryMetadata.COLUMN_MIN_Y).append(" = ?");
+            selection.append(" OR ").append(GeometryMetadata.COLUMN_MAX_Y).append(" = ?");
+            if (envelope.hasZ()) {
+                selection.append(" OR ").append(GeometryMetadata.COLUMN_MIN_Z).append(" = ?");
+                selection.append(" OR ").append(GeometryMetadata.COLUMN_MAX_Z).append(" = ?");
+            }
+            if (envelope.hasM()) {
+                selection.append(" OR ").append(GeometryMetadata.COLUMN_MIN_M).append(" = ?");
+                selection.append(" OR ").append(GeometryMetadata.COLUMN_MAX_M).append(" = ?");
+            }
+            selection.append(")");
+        }
+        return selection.toString();
+    }
+
+    /**
+     * Build the selection arguments of table geometry metadata matching an envelope. The
+     * envelope is rounded inwards to the encoded float bounds, which matches every stored
+     * envelope intersecting the envelope.
+     *
+     * @param tableId
+     * @param envelope
+     * @return selection arguments
+     */
+    private static String[] buildEnvelopeSelectionArgs(long tableId, GeometryEnvelope envelope) {
+        int args = 5;
+        if (envelope.hasZ()) {
+            args += 2;
+        }
+        if (envelope.hasM()) {
+            args += 2;
+        }
         String[] selectionArgs = new String[args];
         int argCount = 0;
-        selectionArgs[argCount++] = String.valueOf(geoPackageId);
-        selectionArgs[argCount++] = tableName;
-        selectionArgs[argCount++] = String.valueOf(envelope.getMaxX());
-        selectionArgs[argCount++] = String.valueOf(envelope.getMinX());
-        selectionArgs[argCount++] = String.valueOf(envelope.getMaxY());
-        selectionArgs[argCount++] = String.valueOf(envelope.getMinY());
+        selectionArgs[argCount++] = String.valueOf(tableId);
+        selectionArgs[argCount++] = encodeMax(envelope.getMaxX());
+        selectionArgs[argCount++] = encodeMin(envelope.getMinX());
+        selectionArgs[argCount++] = encodeMax(envelope.getMaxY());
+        selectionArgs[argCount++] = encodeMin(envelope.getMinY());
         if (envelope.hasZ()) {
-            selectionArgs[argCount++] = String.valueOf(envelope.getMaxZ());
-            selectionArgs[argCount++] = String.valueOf(envelope.getMinZ());
+            selectionArgs[argCount++] = encodeMax(envelope.getMaxZ());
+            selectionArgs[argCount++] = encodeMin(envelope.getMinZ());
         }
         if (envelope.hasM()) {
-            selectionArgs[argCount++] = String.valueOf(envelope.getMaxM());
-            selectionArgs[argCount++] = String.valueOf(envelope.getMinM());
+            selectionArgs[argCount++] = encodeMax(envelope.getMaxM());
+            selectionArgs[argCount++] = encodeMin(envelope.getMinM());
         }
-        Cursor cursor = db.query(
-                GeometryMetadata.TABLE_NAME,
-                GeometryMetadata.COLUMNS, selection.toString(), selectionArgs, null, null, null);
-        return cursor;
+        return selectionArgs;
+    }
+
+    /**
+     * Encode a query envelope max bound, compared against the stored min bounds
+     *
+     * @param value
+     * @return encoded selection argument
+     */
+    private static String encodeMax(double value) {
+        return String.valueOf(GeometryMetadataStore.encode(GeometryMetadataStore.roundDown(value)));
+    }
+
+    /**
+     * Encode a query envelope min bound, compared against the stored max bounds
+     *
+     * @param value
+     * @return encoded selection argument
+     */
+    private static String encodeMin(double value) {
+        return String.valueOf(GeometryMetadataStore.encode(GeometryMetadataStore.roundUp(value)));
+    }
+
+    /**
+     * Get the interned table id of the table in the GeoPackage store
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return table id or -1 if the table has no geometry metadata
+     */
+    public long getTableId(long geoPackageId, String tableName) {
+        return getTableId(geoPackageId, tableName, false);
+    }
+
+    /**
+     * Get the interned table id of the table in the GeoPackage store
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param create       true to intern the table name when not found
+     * @return table id or -1 if not found and not created
+     */
+    private long getTableId(long geoPackageId, String tableName, boolean create) {
+        String key = geoPackageId + "_" + tableName;
+        Long tableId = tableIds.get(key);
+        if (tableId == null) {
+            String table = GeometryMetadataStore.getTableNamesTable(db, geoPackageId);
+            Cursor cursor = db.query(table, new String[]{GeometryMetadata.COLUMN_TABLE_ID},
+                    GeometryMetadata.COLUMN_TABLE_NAME + " = ?", new String[]{tableName},
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    tableId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (tableId == null && create) {
+                ContentValues values = new ContentValues();
+                values.put(GeometryMetadata.COLUMN_TABLE_NAME, tableName);
+                tableId = db.insert(table, null, values);
+                if (tableId == -1) {
+                    throw new GeoPackageException(
+                            "Failed to intern geometry metadata table name. GeoPackage Id: "
+                                    + geoPackageId + ", Table Name: " + tableName);
+                }
+            }
+            if (tableId == null) {
+                return -1;
+            }
+            tableIds.put(key, tableId);
+            tableNames.put(geoPackageId + "_" + tableId, tableName);
+        }
+        return tableId;
+    }
+
+    /**
+     * Get the table name of the interned table id in the GeoPackage store
+     *
+     * @param geoPackageId
+     * @param tableId
+     * @return table name
+     */
+    private String getTableName(long geoPackageId, long tableId) {
+        String key = geoPackageId + "_" + tableId;
+        String tableName = tableNames.get(key);
+        if (tableName == null) {
+            Cursor cursor = db.query(GeometryMetadataStore.getTableNamesTable(db, geoPackageId),
+                    new String[]{GeometryMetadata.COLUMN_TABLE_NAME},
+                    GeometryMetadata.COLUMN_TABLE_ID + " = ?", new String[]{String.valueOf(tableId)},
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    tableName = cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (tableName == null) {
+                throw new GeoPackageException("No geometry metadata table name. GeoPackage Id: "
+                        + geoPackageId + ", Table Id: " + tableId);
+            }
+            tableNames.put(key, tableName);
+            tableIds.put(geoPackageId + "_" + tableName, tableId);
+        }
+        return tableName;
+    }
+
+    /**
+     * Rename the table of the geometry metadata by re-pointing its interned table name,
+     * replacing the geometry metadata of the new table name which should be deleted first
+     *
+     * @param geoPackageId
+     * @param fromTableName
+     * @param toTableName
+     */
+    public void rename(long geoPackageId, String fromTableName, String toTableName) {
+        String table = GeometryMetadataStore.getTableNamesTable(db, geoPackageId);
+        db.delete(table, GeometryMetadata.COLUMN_TABLE_NAME + " = ?", new String[]{toTableName});
+        ContentValues values = new ContentValues();
+        values.put(GeometryMetadata.COLUMN_TABLE_NAME, toTableName);
+        db.update(table, values, GeometryMetadata.COLUMN_TABLE_NAME + " = ?",
+                new String[]{fromTableName});
+        tableIds.clear();
+        tableNames.clear();
     }
 
     /**
@@ -473,23 +1514,29 @@ public class GeometryMetadataDataSource {
     public GeometryMetadata createGeometryMetadata(Cursor cursor) {
         GeometryMetadata metadata = new GeometryMetadata();
         metadata.setGeoPackageId(cursor.getLong(0));
-        metadata.setTableName(cursor.getString(1));
+        metadata.setTableName(getTableName(metadata.getGeoPackageId(), cursor.getLong(1)));
         metadata.setId(cursor.getLong(2));
-        metadata.setMinX(cursor.getDouble(3));
-        metadata.setMaxX(cursor.getDouble(4));
-        metadata.setMinY(cursor.getDouble(5));
-        metadata.setMaxY(cursor.getDouble(6));
+        metadata.setMinX(GeometryMetadataStore.decode(cursor.getLong(3)));
+        metadata.setMaxX(GeometryMetadataStore.decode(cursor.getLong(4)));
+        metadata.setMinY(GeometryMetadataStore.decode(cursor.getLong(5)));
+        metadata.setMaxY(GeometryMetadataStore.decode(cursor.getLong(6)));
         if (!cursor.isNull(7)) {
-            metadata.setMinZ(cursor.getDouble(7));
+            metadata.setMinZ(GeometryMetadataStore.decode(cursor.getLong(7)));
         }
         if (!cursor.isNull(8)) {
-            metadata.setMaxZ(cursor.getDouble(8));
+            metadata.setMaxZ(GeometryMetadataStore.decode(cursor.getLong(8)));
         }
         if (!cursor.isNull(9)) {
-            metadata.setMinM(cursor.getDouble(9));
+            metadata.setMinM(GeometryMetadataStore.decode(cursor.getLong(9)));
         }
         if (!cursor.isNull(10)) {
-            metadata.setMaxM(cursor.getDouble(10));
+            metadata.setMaxM(GeometryMetadataStore.decode(cursor.getLong(10)));
+        }
+        if (!cursor.isNull(11)) {
+            metadata.setCellKey(cursor.getLong(11));
+        }
+        if (!cursor.isNull(12)) {
+            metadata.setTime(cursor.getLong(12));
         }
         return metadata;
     }
@@ -0,0 +1,594 @@
+package mil.nga.geopackage.db.metadata;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import mil.nga.geopackage.GeoPackageException;
+
+/**
+ * Geometry metadata store of a single GeoPackage. Each GeoPackage index is kept in its own
+ * database file, attached to the metadata database connection when used, so each index
+ * B-tree only holds the rows of one GeoPackage and deleting a GeoPackage index is a file
+ * delete. Attached stores take part in metadata database transactions, but can only be
+ * attached or detached outside of a transaction.
+ *
+ * Rows use a compact encoding: envelope bounds are rounded outwards to float precision and
+ * stored as order preserving 32 bit integers, and table names are replaced by table ids
+ * interned per store. Index queries compare the encoded bounds directly, so results may
+ * include envelopes within float precision of the query which are removed by an exact refine.
+ *
+ * Stores are stamped with their format version and migrated in place when attached, so
+ * stores written by earlier versions keep their rows.
+ */
+public class GeometryMetadataStore {
+
+    /**
+     * Store directory within the databases directory, excluded from the GeoPackage databases
+     */
+    public static final String DIRECTORY = "geopackage_index";
+
+    /**
+     * Store file extension
+     */
+    public static final String FILE_EXTENSION = "db";
+
+    /**
+     * Schema name prefix of an attached store
+     */
+    public static final String SCHEMA_PREFIX = "geopackage_index_";
+
+    /**
+     * Maximum number of stores attached to a connection, within the SQLite attached
+     * database limit. The least recently attached store is detached when exceeded.
+     */
+    public static final int MAX_ATTACHED = 8;
+
+    /**
+     * Store format version, stamped as the store user version
+     */
+    public static final int FORMAT_VERSION = 4;
+
+    /**
+     * Interned table names table name
+     */
+    public static final String TABLE_NAMES_TABLE = "geom_table";
+
+    /**
+     * Create the format version 1 store SQL, the geometry metadata table without the
+     * GeoPackage id and foreign keys to the table metadata of the metadata database, and
+     * its cell index
+     */
+    private static final String[] MIGRATE_1_SQL = {
+            "CREATE TABLE " + GeometryMetadata.TABLE_NAME + " ("
+                    + GeometryMetadata.COLUMN_TABLE_NAME + " TEXT NOT NULL, "
+                    + GeometryMetadata.COLUMN_ID + " INTEGER NOT NULL, "
+                    + GeometryMetadata.COLUMN_MIN_X + " DOUBLE NOT NULL, "
+                    + GeometryMetadata.COLUMN_MAX_X + " DOUBLE NOT NULL, "
+                    + GeometryMetadata.COLUMN_MIN_Y + " DOUBLE NOT NULL, "
+                    + GeometryMetadata.COLUMN_MAX_Y + " DOUBLE NOT NULL, "
+                    + GeometryMetadata.COLUMN_MIN_Z + " DOUBLE, "
+                    + GeometryMetadata.COLUMN_MAX_Z + " DOUBLE, "
+                    + GeometryMetadata.COLUMN_MIN_M + " DOUBLE, "
+                    + GeometryMetadata.COLUMN_MAX_M + " DOUBLE, "
+                    + GeometryMetadata.COLUMN_CELL_KEY + " INTEGER, "
+                    + "CONSTRAINT pk_geom_metadata PRIMARY KEY ("
+                    + GeometryMetadata.COLUMN_TABLE_NAME + ", " + GeometryMetadata.COLUMN_ID + "))",
+            "CREATE INDEX " + GeometryMetadata.INDEX_CELL_NAME + " ON " + GeometryMetadata.TABLE_NAME + " ("
+                    + GeometryMetadata.COLUMN_TABLE_NAME + ", "
+                    + GeometryMetadata.COLUMN_CELL_KEY + ", "
+                    + GeometryMetadata.COLUMN_MIN_X + ", " + GeometryMetadata.COLUMN_MAX_X + ", "
+                    + GeometryMetadata.COLUMN_MIN_Y + ", " + GeometryMetadata.COLUMN_MAX_Y + ", "
+                    + GeometryMetadata.COLUMN_ID + ", "
+                    + GeometryMetadata.COLUMN_MIN_Z + ", " + GeometryMetadata.COLUMN_MAX_Z + ", "
+                    + GeometryMetadata.COLUMN_MIN_M + ", " + GeometryMetadata.COLUMN_MAX_M + ")"};
+
+    /**
+     * Migrate a store from format version 1 to 2 SQL, interning the table names and
+     * creating the table of the compact encoding which the rows are re-encoded into
+     */
+    private static final String[] MIGRATE_2_SQL = {
+            "CREATE TABLE geom_table ("
+                    + GeometryMetadata.COLUMN_TABLE_ID + " INTEGER PRIMARY KEY, "
+                    + GeometryMetadata.COLUMN_TABLE_NAME + " TEXT NOT NULL UNIQUE)",
+            "INSERT INTO geom_table (" + GeometryMetadata.COLUMN_TABLE_NAME + ") SELECT DISTINCT "
+                    + GeometryMetadata.COLUMN_TABLE_NAME + " FROM " + GeometryMetadata.TABLE_NAME,
+            "CREATE TABLE geom_metadata_2 ("
+                    + GeometryMetadata.COLUMN_TABLE_ID + " INTEGER NOT NULL, "
+                    + GeometryMetadata.COLUMN_ID + " INTEGER NOT NULL, "
+                    + GeometryMetadata.COLUMN_MIN_X + " INTEGER NOT NULL, "
+                    + GeometryMetadata.COLUMN_MAX_X + " INTEGER NOT NULL, "
+                    + GeometryMetadata.COLUMN_MIN_Y + " INTEGER NOT NULL, "
+                    + GeometryMetadata.COLUMN_MAX_Y + " INTEGER NOT NULL, "
+                    + GeometryMetadata.COLUMN_MIN_Z + " INTEGER, "
+                    + GeometryMetadata.COLUMN_MAX_Z + " INTEGER, "
+                    + GeometryMetadata.COLUMN_MIN_M + " INTEGER, "
+                    + GeometryMetadata.COLUMN_MAX_M + " INTEGER, "
+                    + GeometryMetadata.COLUMN_CELL_KEY + " INTEGER, "
+                    + "CONSTRAINT pk_geom_metadata PRIMARY KEY ("
+                    + GeometryMetadata.COLUMN_TABLE_ID + ", " + GeometryMetadata.COLUMN_ID + "))"};
+
+    /**
+     * Query the format version 1 rows with their interned table ids SQL
+     */
+    private static final String MIGRATE_2_QUERY_SQL = "SELECT t." + GeometryMetadata.COLUMN_TABLE_ID
+            + ", m." + GeometryMetadata.COLUMN_ID
+            + ", m." + GeometryMetadata.COLUMN_MIN_X + ", m." + GeometryMetadata.COLUMN_MAX_X
+            + ", m." + GeometryMetadata.COLUMN_MIN_Y + ", m." + GeometryMetadata.COLUMN_MAX_Y
+            + ", m." + GeometryMetadata.COLUMN_MIN_Z + ", m." + GeometryMetadata.COLUMN_MAX_Z
+            + ", m." + GeometryMetadata.COLUMN_MIN_M + ", m." + GeometryMetadata.COLUMN_MAX_M
+            + ", m." + GeometryMetadata.COLUMN_CELL_KEY
+            + " FROM " + GeometryMetadata.TABLE_NAME + " m JOIN geom_table t ON t."
+            + GeometryMetadata.COLUMN_TABLE_NAME + " = m." + GeometryMetadata.COLUMN_TABLE_NAME;
+
+    /**
+     * Insert a re-encoded format version 2 row SQL
+     */
+    private static final String MIGRATE_2_INSERT_SQL = "INSERT INTO geom_metadata_2 VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Replace the format version 1 table with the re-encoded table SQL
+     */
+    private static final String[] MIGRATE_2_REPLACE_SQL = {
+            "DROP TABLE " + GeometryMetadata.TABLE_NAME,
+            "ALTER TABLE geom_metadata_2 RENAME TO " + GeometryMetadata.TABLE_NAME,
+            "CREATE INDEX " + GeometryMetadata.INDEX_CELL_NAME + " ON " + GeometryMetadata.TABLE_NAME + " ("
+                    + GeometryMetadata.COLUMN_TABLE_ID + ", "
+                    + GeometryMetadata.COLUMN_CELL_KEY + ", "
+                    + GeometryMetadata.COLUMN_MIN_X + ", " + GeometryMetadata.COLUMN_MAX_X + ", "
+                    + GeometryMetadata.COLUMN_MIN_Y + ", " + GeometryMetadata.COLUMN_MAX_Y + ", "
+                    + GeometryMetadata.COLUMN_ID + ", "
+                    + GeometryMetadata.COLUMN_MIN_Z + ", " + GeometryMetadata.COLUMN_MAX_Z + ", "
+                    + GeometryMetadata.COLUMN_MIN_M + ", " + GeometryMetadata.COLUMN_MAX_M + ")"};
+
+    /**
+     * Migrate a store from format version 2 to 3 SQL, adding the nullable time column
+     */
+    private static final String MIGRATE_3_SQL = "ALTER TABLE " + GeometryMetadata.TABLE_NAME
+            + " ADD COLUMN " + GeometryMetadata.COLUMN_TIME + " INTEGER";
+
+    /**
+     * Migrate a store from format version 3 to 4 SQL, re-encoding negative zero bounds
+     * encoded below positive zero as zero
+     */
+    private static final String[] MIGRATE_4_SQL = {
+            "UPDATE " + GeometryMetadata.TABLE_NAME + " SET " + GeometryMetadata.COLUMN_MIN_X
+                    + " = 0 WHERE " + GeometryMetadata.COLUMN_MIN_X + " = -1",
+            "UPDATE " + GeometryMetadata.TABLE_NAME + " SET " + GeometryMetadata.COLUMN_MAX_X
+                    + " = 0 WHERE " + GeometryMetadata.COLUMN_MAX_X + " = -1",
+            "UPDATE " + GeometryMetadata.TABLE_NAME + " SET " + GeometryMetadata.COLUMN_MIN_Y
+                    + " = 0 WHERE " + GeometryMetadata.COLUMN_MIN_Y + " = -1",
+            "UPDATE " + GeometryMetadata.TABLE_NAME + " SET " + GeometryMetadata.COLUMN_MAX_Y
+                    + " = 0 WHERE " + GeometryMetadata.COLUMN_MAX_Y + " = -1",
+            "UPDATE " + GeometryMetadata.TABLE_NAME + " SET " + GeometryMetadata.COLUMN_MIN_Z
+                    + " = 0 WHERE " + GeometryMetadata.COLUMN_MIN_Z + " = -1",
+            "UPDATE " + GeometryMetadata.TABLE_NAME + " SET " + GeometryMetadata.COLUMN_MAX_Z
+                    + " = 0 WHERE " + GeometryMetadata.COLUMN_MAX_Z + " = -1",
+            "UPDATE " + GeometryMetadata.TABLE_NAME + " SET " + GeometryMetadata.COLUMN_MIN_M
+                    + " = 0 WHERE " + GeometryMetadata.COLUMN_MIN_M + " = -1",
+            "UPDATE " + GeometryMetadata.TABLE_NAME + " SET " + GeometryMetadata.COLUMN_MAX_M
+                    + " = 0 WHERE " + GeometryMetadata.COLUMN_MAX_M + " = -1"};
+
+    /**
+     * Time index name
+     */
+    public static final String INDEX_TIME_NAME = "idx_geom_metadata_time";
+
+    /**
+     * Get the store directory of the metadata database
+     *
+     * @param db metadata database connection
+     * @return directory
+     */
+    public static File getDirectory(SQLiteDatabase db) {
+        return new File(new File(db.getPath()).getParentFile(), DIRECTORY);
+    }
+
+    /**
+     * Get the store file of the GeoPackage
+     *
+     * @param db           metadata database connection
+     * @param geoPackageId
+     * @return file
+     */
+    public static File getFile(SQLiteDatabase db, long geoPackageId) {
+        return new File(getDirectory(db), geoPackageId + "." + FILE_EXTENSION);
+    }
+
+    /**
+     * Get the schema name of the attached GeoPackage store
+     *
+     * @param geoPackageId
+     * @return schema name
+     */
+    public static String getSchema(long geoPackageId) {
+        return SCHEMA_PREFIX + geoPackageId;
+    }
+
+    /**
+     * Get the qualified geometry metadata table of the GeoPackage store, attaching the
+     * store to the connection if needed. GeoPackages without metadata use the empty
+     * geometry metadata table of the metadata database.
+     *
+     * @param db           metadata database connection
+     * @param geoPackageId
+     * @return qualified table name
+     */
+    public static String getTable(SQLiteDatabase db, long geoPackageId) {
+        return getTable(db, geoPackageId, GeometryMetadata.TABLE_NAME);
+    }
+
+    /**
+     * Get the qualified interned table names table of the GeoPackage store, attaching the
+     * store to the connection if needed
+     *
+     * @param db           metadata database connection
+     * @param geoPackageId
+     * @return qualified table name
+     */
+    public static String getTableNamesTable(SQLiteDatabase db, long geoPackageId) {
+        return getTable(db, geoPackageId, TABLE_NAMES_TABLE);
+    }
+
+    /**
+     * Get the qualified store table
+     *
+     * @param db
+     * @param geoPackageId
+     * @param table
+     * @return qualified table name
+     */
+    private static String getTable(SQLiteDatabase db, long geoPackageId, String table) {
+        String qualified = table;
+        if (geoPackageId >= 0) {
+            qualified = attach(db, geoPackageId) + "." + table;
+        }
+        return qualified;
+    }
+
+    /**
+     * Create the time index of the GeoPackage store if it does not exist, ordering the
+     * time indexed rows by time followed by the envelope bounds. The index is only created
+     * in stores with time indexed tables, as the rows of all store tables are indexed.
+     * Must be called outside of a transaction when the store is not attached.
+     *
+     * @param db           metadata database connection
+     * @param geoPackageId
+     */
+    public static void createTimeIndex(SQLiteDatabase db, long geoPackageId) {
+        String index = INDEX_TIME_NAME;
+        if (geoPackageId >= 0) {
+            index = attach(db, geoPackageId) + "." + index;
+        }
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + index + " ON " + GeometryMetadata.TABLE_NAME + " ("
+                + GeometryMetadata.COLUMN_TABLE_ID + ", "
+                + GeometryMetadata.COLUMN_TIME + ", "
+                + GeometryMetadata.COLUMN_MIN_X + ", " + GeometryMetadata.COLUMN_MAX_X + ", "
+                + GeometryMetadata.COLUMN_MIN_Y + ", " + GeometryMetadata.COLUMN_MAX_Y + ", "
+                + GeometryMetadata.COLUMN_ID + ")");
+    }
+
+    /**
+     * Determine if the GeoPackage store has the time index
+     *
+     * @param db           metadata database connection
+     * @param geoPackageId
+     * @return true if the time index exists
+     */
+    public static boolean hasTimeIndex(SQLiteDatabase db, long geoPackageId) {
+        String master = "sqlite_master";
+        if (geoPackageId >= 0) {
+            master = attach(db, geoPackageId) + "." + master;
+        }
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + master + " WHERE type = 'index' AND name = ?",
+                new String[]{INDEX_TIME_NAME});
+        try {
+            return cursor.moveToFirst() && cursor.getInt(0) > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Round the value down to the nearest float
+     *
+     * @param value
+     * @return largest float value less than or equal to the value
+     */
+    public static double roundDown(double value) {
+        float rounded = (float) value;
+        if (rounded > value) {
+            rounded = Math.nextAfter(rounded, Double.NEGATIVE_INFINITY);
+        }
+        return rounded;
+    }
+
+    /**
+     * Round the value up to the nearest float
+     *
+     * @param value
+     * @return smallest float value greater than or equal to the value
+     */
+    public static double roundUp(double value) {
+        float rounded = (float) value;
+        if (rounded < value) {
+            rounded = Math.nextAfter(rounded, Double.POSITIVE_INFINITY);
+        }
+        return rounded;
+    }
+
+    /**
+     * Encode a float value as a 32 bit integer with the same ordering, so encoded bounds
+     * are compared by SQLite as integers. Negative zero is encoded as zero.
+     *
+     * @param value float value, see {@link #roundDown(double)} and {@link #roundUp(double)}
+     * @return encoded value
+     */
+    public static long encode(double value) {
+        float floatValue = (float) value;
+        if (floatValue == 0.0f) {
+            floatValue = 0.0f;
+        }
+        int bits = Float.floatToIntBits(floatValue);
+        if (bits < 0) {
+            bits ^= Integer.MAX_VALUE;
+        }
+        return bits;
+    }
+
+    /**
+     * Decode an encoded float value
+     *
+     * @param encoded value from {@link #encode(double)}
+     * @return float value
+     */
+    public static double decode(long encoded) {
+        int bits = (int) encoded;
+        if (bits < 0) {
+            bits ^= Integer.MAX_VALUE;
+        }
+        return Float.intBitsToFloat(bits);
+    }
+
+    /**
+     * Create the GeoPackage store if it does not exist
+     *
+     * @param db           metadata database connection
+     * @param geoPackageId
+     * @return store file
+     */
+    public static File create(SQLiteDatabase db, long geoPackageId) {
+        File file = getFile(db, geoPackageId);
+        if (!file.exists()) {
+            File directory = file.getParentFile();
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new GeoPackageException("Failed to create geometry metadata store directory: "
+                        + directory.getAbsolutePath());
+            }
+            migrate(file);
+        }
+        return file;
+    }
+
+    /**
+     * Migrate the geometry metadata table from the previous format version to the format
+     * version, on a store connection or the metadata database for its empty geometry
+     * metadata table. New stores are created by migrating from format version 0. The SQL
+     * of each version is fixed so later format changes do not alter earlier migrations.
+     *
+     * @param db     store or metadata database connection
+     * @param format format version to migrate to
+     */
+    static void migrate(SQLiteDatabase db, int format) {
+        switch (format) {
+            case 1:
+                for (String sql : MIGRATE_1_SQL) {
+                    db.execSQL(sql);
+                }
+                break;
+            case 2:
+                for (String sql : MIGRATE_2_SQL) {
+                    db.execSQL(sql);
+                }
+                reencode(db);
+                for (String sql : MIGRATE_2_REPLACE_SQL) {
+                    db.execSQL(sql);
+                }
+                break;
+            case 3:
+                db.execSQL(MIGRATE_3_SQL);
+                break;
+            case 4:
+                for (String sql : MIGRATE_4_SQL) {
+                    db.execSQL(sql);
+                }
+                break;
+            default:
+                throw new GeoPackageException(
+                        "Unsupported geometry metadata store format version: " + format);
+        }
+    }
+
+    /**
+     * Re-encode the format version 1 double bounds into the format version 2 table as
+     * order preserving integers rounded outwards to float precision, keeping the cell keys
+     *
+     * @param db
+     */
+    private static void reencode(SQLiteDatabase db) {
+        SQLiteStatement statement = db.compileStatement(MIGRATE_2_INSERT_SQL);
+        try {
+            Cursor cursor = db.rawQuery(MIGRATE_2_QUERY_SQL, null);
+            try {
+                while (cursor.moveToNext()) {
+                    statement.clearBindings();
+                    statement.bindLong(1, cursor.getLong(0));
+                    statement.bindLong(2, cursor.getLong(1));
+                    for (int column = 2; column <= 9; column++) {
+                        if (cursor.isNull(column)) {
+                            statement.bindNull(column + 1);
+                        } else {
+                            double value = cursor.getDouble(column);
+                            value = column % 2 == 0 ? roundDown(value) : roundUp(value);
+                            statement.bindLong(column + 1, encode(value));
+                        }
+                    }
+                    if (cursor.isNull(10)) {
+                        statement.bindNull(11);
+                    } else {
+                        statement.bindLong(11, cursor.getLong(10));
+                    }
+                    statement.executeInsert();
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Create or migrate the store file to the current format version on its own
+     * connection, in a single transaction
+     *
+     * @param file store file
+     */
+    private static void migrate(File file) {
+        SQLiteDatabase store = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            store.beginTransaction();
+            try {
+                for (int format = store.getVersion() + 1; format <= FORMAT_VERSION; format++) {
+                    migrate(store, format);
+                }
+                store.setVersion(FORMAT_VERSION);
+                store.setTransactionSuccessful();
+            } finally {
+                store.endTransaction();
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Attach the GeoPackage store to the connection if not already attached, creating the
+     * store if it does not exist
+     *
+     * @param db           metadata database connection
+     * @param geoPackageId
+     * @return schema name
+     */
+    public static String attach(SQLiteDatabase db, long geoPackageId) {
+        String schema = getSchema(geoPackageId);
+        synchronized (db) {
+            List<String> attached = getAttached(db);
+            if (!attached.contains(schema)) {
+                if (db.inTransaction()) {
+                    throw new GeoPackageException(
+                            "Geometry metadata store can not be attached within a transaction. GeoPackage Id: "
+                                    + geoPackageId);
+                }
+                for (int i = 0; i <= attached.size() - MAX_ATTACHED; i++) {
+                    db.execSQL("DETACH DATABASE " + attached.get(i));
+                }
+                File file = create(db, geoPackageId);
+                db.execSQL("ATTACH DATABASE ? AS " + schema, new Object[]{file.getAbsolutePath()});
+                if (getVersion(db, schema) < FORMAT_VERSION) {
+                    db.execSQL("DETACH DATABASE " + schema);
+                    migrate(file);
+                    db.execSQL("ATTACH DATABASE ? AS " + schema, new Object[]{file.getAbsolutePath()});
+                }
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Delete the GeoPackage store, detaching it from the connection
+     *
+     * @param db           metadata database connection
+     * @param geoPackageId
+     * @return true if a store was deleted
+     */
+    public static boolean delete(SQLiteDatabase db, long geoPackageId) {
+        String schema = getSchema(geoPackageId);
+        synchronized (db) {
+            if (getAttached(db).contains(schema)) {
+                if (db.inTransaction()) {
+                    throw new GeoPackageException(
+                            "Geometry metadata store can not be detached within a transaction. GeoPackage Id: "
+                                    + geoPackageId);
+                }
+                db.execSQL("DETACH DATABASE " + schema);
+            }
+        }
+        File file = getFile(db, geoPackageId);
+        new File(file.getPath() + "-journal").delete();
+        return file.delete();
+    }
+
+    /**
+     * Delete all GeoPackage stores, used when the metadata database is recreated
+     *
+     * @param db metadata database connection
+     * @return deleted count
+     */
+    public static int deleteAll(SQLiteDatabase db) {
+        int count = 0;
+        File[] files = getDirectory(db).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.delete()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the user version of the attached schema
+     *
+     * @param db
+     * @param schema
+     * @return user version
+     */
+    private static int getVersion(SQLiteDatabase db, String schema) {
+        Cursor cursor = db.rawQuery("PRAGMA " + schema + ".user_version", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get the attached store schema names in attach order
+     *
+     * @param db
+     * @return schema names
+     */
+    private static List<String> getAttached(SQLiteDatabase db) {
+        List<String> attached = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("PRAGMA database_list", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(nameIndex);
+                if (name.startsWith(SCHEMA_PREFIX)) {
+                    attached.add(name);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return attached;
+    }
+
+}
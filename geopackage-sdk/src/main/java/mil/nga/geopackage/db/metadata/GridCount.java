@@ -0,0 +1,82 @@
+package mil.nga.geopackage.db.metadata;
+
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Number of indexed geometries with envelope centers within a grid cell, and optionally
+ * the extent of their envelopes
+ */
+public class GridCount {
+
+    /**
+     * Grid column
+     */
+    private final long column;
+
+    /**
+     * Grid row
+     */
+    private final long row;
+
+    /**
+     * Geometry count
+     */
+    private final long count;
+
+    /**
+     * Extent of the geometry envelopes rounded outwards to float precision, or null
+     */
+    private final GeometryEnvelope extent;
+
+    /**
+     * Constructor
+     *
+     * @param column
+     * @param row
+     * @param count
+     * @param extent
+     */
+    public GridCount(long column, long row, long count, GeometryEnvelope extent) {
+        this.column = column;
+        this.row = row;
+        this.count = count;
+        this.extent = extent;
+    }
+
+    /**
+     * Get the grid column
+     *
+     * @return
+     */
+    public long getColumn() {
+        return column;
+    }
+
+    /**
+     * Get the grid row
+     *
+     * @return
+     */
+    public long getRow() {
+        return row;
+    }
+
+    /**
+     * Get the number of geometries
+     *
+     * @return
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the extent of the geometry envelopes, which may extend beyond the grid cell
+     *
+     * @return extent or null when not queried
+     */
+    public GeometryEnvelope getExtent() {
+        return extent;
+    }
+
+}
@@ -27,16 +27,63 @@ public class TableMetadata {
      */
     public static final String COLUMN_LAST_INDEXED = "last_indexed";
 
+    /**
+     * Cell grid min x column, added in database version 3
+     */
+    public static final String COLUMN_GRID_MIN_X = "grid_min_x";
+
+    /**
+     * Cell grid max x column, added in database version 3
+     */
+    public static final String COLUMN_GRID_MAX_X = "grid_max_x";
+
+    /**
+     * Cell grid min y column, added in database version 3
+     */
+    public static final String COLUMN_GRID_MIN_Y = "grid_min_y";
+
+    /**
+     * Cell grid max y column, added in database version 3
+     */
+    public static final String COLUMN_GRID_MAX_Y = "grid_max_y";
+
+    /**
+     * Indexing checkpoint feature id column, added in database version 5
+     */
+    public static final String COLUMN_CHECKPOINT_ID = "checkpoint_id";
+
+    /**
+     * Indexing checkpoint start time column, added in database version 5
+     */
+    public static final String COLUMN_CHECKPOINT_TIME = "checkpoint_time";
+
+    /**
+     * Indexed feature time column name column, added in database version 8
+     */
+    public static final String COLUMN_TIME_COLUMN = "time_column";
+
+    /**
+     * Table name suffix of the shadow index built while re-indexing a table
+     */
+    public static final String SHADOW_SUFFIX = "$shadow";
+
     /**
      * Columns
      */
     public static final String[] COLUMNS = {
             COLUMN_GEOPACKAGE_ID,
             COLUMN_TABLE_NAME,
-            COLUMN_LAST_INDEXED};
+            COLUMN_LAST_INDEXED,
+            COLUMN_GRID_MIN_X,
+            COLUMN_GRID_MAX_X,
+            COLUMN_GRID_MIN_Y,
+            COLUMN_GRID_MAX_Y,
+            COLUMN_CHECKPOINT_ID,
+            COLUMN_CHECKPOINT_TIME,
+            COLUMN_TIME_COLUMN};
 
     /**
-     * Create table SQL
+     * Create table SQL of database version 1
      */
     public static final String CREATE_SQL = "CREATE TABLE "
             + TABLE_NAME
@@ -48,6 +95,58 @@ public class TableMetadata {
             + "CONSTRAINT fk_tm_gp FOREIGN KEY (" + COLUMN_GEOPACKAGE_ID + ") REFERENCES " + GeoPackageMetadata.TABLE_NAME + "(" + GeoPackageMetadata.COLUMN_ID + ")"
             + ");";
 
+    /**
+     * Add cell grid columns SQL
+     */
+    public static final String[] ADD_GRID_SQL = {
+            "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_GRID_MIN_X + " DOUBLE",
+            "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_GRID_MAX_X + " DOUBLE",
+            "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_GRID_MIN_Y + " DOUBLE",
+            "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_GRID_MAX_Y + " DOUBLE"};
+
+    /**
+     * Add indexing checkpoint columns SQL
+     */
+    public static final String[] ADD_CHECKPOINT_SQL = {
+            "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_CHECKPOINT_ID + " INTEGER",
+            "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_CHECKPOINT_TIME + " INTEGER"};
+
+    /**
+     * Add indexed time column SQL
+     */
+    public static final String ADD_TIME_COLUMN_SQL = "ALTER TABLE " + TABLE_NAME
+            + " ADD COLUMN " + COLUMN_TIME_COLUMN + " TEXT";
+
+    /**
+     * Get the shadow index table name of the table
+     *
+     * @param tableName
+     * @return shadow table name
+     */
+    public static String getShadowTableName(String tableName) {
+        return tableName + SHADOW_SUFFIX;
+    }
+
+    /**
+     * Determine if the table name is a shadow index table name
+     *
+     * @param tableName
+     * @return true if a shadow table name
+     */
+    public static boolean isShadowTableName(String tableName) {
+        return tableName.endsWith(SHADOW_SUFFIX);
+    }
+
+    /**
+     * Get the table name indexed by the shadow index
+     *
+     * @param shadowTableName
+     * @return table name
+     */
+    public static String getShadowedTableName(String shadowTableName) {
+        return shadowTableName.substring(0, shadowTableName.length() - SHADOW_SUFFIX.length());
+    }
+
     /**
      * GeoPackage Id
      */
@@ -63,6 +162,26 @@ public class TableMetadata {
      */
     public Long lastIndexed;
 
+    /**
+     * Cell grid of the indexed geometry metadata
+     */
+    public CellGrid cellGrid;
+
+    /**
+     * Last feature id indexed by an interrupted indexing run
+     */
+    public Long checkpointId;
+
+    /**
+     * Time in milliseconds since epoch when the interrupted indexing run started
+     */
+    public Long checkpointTime;
+
+    /**
+     * Feature time column indexed with the geometry metadata
+     */
+    public String timeColumn;
+
     /**
      * Get the GeoPackage id
      *
@@ -117,4 +236,76 @@ public class TableMetadata {
         this.lastIndexed = lastIndexed;
     }
 
+    /**
+     * Get the cell grid
+     *
+     * @return cell grid or null if the geometry metadata has no cell keys
+     */
+    public CellGrid getCellGrid() {
+        return cellGrid;
+    }
+
+    /**
+     * Set the cell grid
+     *
+     * @param cellGrid
+     */
+    public void setCellGrid(CellGrid cellGrid) {
+        this.cellGrid = cellGrid;
+    }
+
+    /**
+     * Get the last feature id indexed by an interrupted indexing run
+     *
+     * @return checkpoint feature id or null if there is no interrupted run
+     */
+    public Long getCheckpointId() {
+        return checkpointId;
+    }
+
+    /**
+     * Set the last feature id indexed by an interrupted indexing run
+     *
+     * @param checkpointId
+     */
+    public void setCheckpointId(Long checkpointId) {
+        this.checkpointId = checkpointId;
+    }
+
+    /**
+     * Get the start time of the interrupted indexing run
+     *
+     * @return
+     */
+    public Long getCheckpointTime() {
+        return checkpointTime;
+    }
+
+    /**
+     * Set the start time of the interrupted indexing run
+     *
+     * @param checkpointTime
+     */
+    public void setCheckpointTime(Long checkpointTime) {
+        this.checkpointTime = checkpointTime;
+    }
+
+    /**
+     * Get the feature time column indexed with the geometry metadata
+     *
+     * @return time column or null
+     */
+    public String getTimeColumn() {
+        return timeColumn;
+    }
+
+    /**
+     * Set the feature time column indexed with the geometry metadata
+     *
+     * @param timeColumn
+     */
+    public void setTimeColumn(String timeColumn) {
+        this.timeColumn = timeColumn;
+    }
+
 }
@@ -4,7 +4,11 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.rtree.PackedRTreeIndex;
 
 /**
  * Table metadata Data Source
@@ -46,6 +50,10 @@ public class TableMetadataDataSource {
         values.put(TableMetadata.COLUMN_GEOPACKAGE_ID, metadata.getGeoPackageId());
         values.put(TableMetadata.COLUMN_TABLE_NAME, metadata.getTableName());
         values.put(TableMetadata.COLUMN_LAST_INDEXED, metadata.getLastIndexed());
+        putCellGrid(values, metadata.getCellGrid());
+        values.put(TableMetadata.COLUMN_CHECKPOINT_ID, metadata.getCheckpointId());
+        values.put(TableMetadata.COLUMN_CHECKPOINT_TIME, metadata.getCheckpointTime());
+        values.put(TableMetadata.COLUMN_TIME_COLUMN, metadata.getTimeColumn());
         long insertId = db.insert(
                 TableMetadata.TABLE_NAME, null,
                 values);
@@ -89,6 +97,11 @@ public class TableMetadataDataSource {
         GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
         geomDs.delete(geoPackageId);
 
+        TableStatisticsDataSource statsDs = new TableStatisticsDataSource(db);
+        statsDs.delete(geoPackageId);
+
+        PackedRTreeIndex.invalidate(geoPackageId);
+
         String whereClause = TableMetadata.COLUMN_GEOPACKAGE_ID + " = ?";
         String[] whereArgs = new String[]{String.valueOf(geoPackageId)};
         int deleteCount = db.delete(
@@ -109,7 +122,7 @@ public class TableMetadataDataSource {
     }
 
     /**
-     * Delete the database table name
+     * Delete the database table name, including any shadow index of the table
      *
      * @param geoPackageId
      * @param tableName
@@ -120,6 +133,99 @@ public class TableMetadataDataSource {
         GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
         geomDs.delete(geoPackageId, tableName);
 
+        TableStatisticsDataSource statsDs = new TableStatisticsDataSource(db);
+        statsDs.delete(geoPackageId, tableName);
+
+        deleteShadow(geoPackageId, tableName);
+
+        PackedRTreeIndex.invalidate(geoPackageId, tableName);
+
+        return deleteMetadata(geoPackageId, tableName);
+    }
+
+    /**
+     * Delete the shadow index of the table
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return true if a shadow index existed
+     */
+    public boolean deleteShadow(long geoPackageId, String tableName) {
+        String shadowTableName = TableMetadata.getShadowTableName(tableName);
+        GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+        geomDs.delete(geoPackageId, shadowTableName);
+        return deleteMetadata(geoPackageId, shadowTableName);
+    }
+
+    /**
+     * Reset the shadow index of the table for a new index build, deleting the shadow index
+     * rows and creating the shadow table metadata with the cell grid
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param cellGrid     cell grid of the new index or null
+     * @return shadow table metadata
+     */
+    public TableMetadata resetShadow(long geoPackageId, String tableName, CellGrid cellGrid) {
+        deleteShadow(geoPackageId, tableName);
+        TableMetadata shadow = new TableMetadata();
+        shadow.setGeoPackageId(geoPackageId);
+        shadow.setTableName(TableMetadata.getShadowTableName(tableName));
+        shadow.setCellGrid(cellGrid);
+        create(shadow);
+        return shadow;
+    }
+
+    /**
+     * Swap the completed shadow index in as the table index in a single transaction,
+     * replacing the table index rows and cell grid and updating the last indexed time.
+     * Readers on other connections are served from the previous index until the swap commits.
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param lastIndexed
+     */
+    public void swapShadow(long geoPackageId, String tableName, long lastIndexed) {
+
+        String shadowTableName = TableMetadata.getShadowTableName(tableName);
+        TableMetadata shadow = get(geoPackageId, shadowTableName);
+        TableMetadata metadata = get(geoPackageId, tableName);
+        if (shadow == null || metadata == null) {
+            throw new GeoPackageException("No shadow index to swap. GeoPackage Id: "
+                    + geoPackageId + ", Table Name: " + tableName);
+        }
+
+        if (geoPackageId >= 0) {
+            GeometryMetadataStore.attach(db, geoPackageId);
+        }
+
+        db.beginTransaction();
+        try {
+            GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+            geomDs.delete(geoPackageId, tableName);
+            geomDs.rename(geoPackageId, shadowTableName, tableName);
+
+            updateCellGrid(metadata, shadow.getCellGrid());
+            if (!updateLastIndexed(geoPackageId, tableName, lastIndexed)) {
+                throw new GeoPackageException("Failed to update last indexed time. GeoPackage Id: "
+                        + geoPackageId + ", Table Name: " + tableName + ", Last Indexed: " + lastIndexed);
+            }
+            deleteMetadata(geoPackageId, shadowTableName);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Delete the table metadata row
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return true if deleted
+     */
+    private boolean deleteMetadata(long geoPackageId, String tableName) {
         String whereClause = TableMetadata.COLUMN_GEOPACKAGE_ID
                 + " = ? AND " + TableMetadata.COLUMN_TABLE_NAME + " = ?";
         String[] whereArgs = new String[]{String.valueOf(geoPackageId), tableName};
@@ -157,7 +263,7 @@ public class TableMetadataDataSource {
     }
 
     /**
-     * Update the last indexed time
+     * Update the last indexed time, clearing any interrupted indexing checkpoint
      *
      * @param geoPackageId
      * @param tableName
@@ -165,17 +271,172 @@ public class TableMetadataDataSource {
      * @return
      */
     public boolean updateLastIndexed(long geoPackageId, String tableName, long lastIndexed) {
+        PackedRTreeIndex.invalidate(geoPackageId, tableName);
         String whereClause = TableMetadata.COLUMN_GEOPACKAGE_ID
                 + " = ? AND " + TableMetadata.COLUMN_TABLE_NAME + " = ?";
         String[] whereArgs = new String[]{String.valueOf(geoPackageId), tableName};
         ContentValues values = new ContentValues();
         values.put(TableMetadata.COLUMN_LAST_INDEXED, lastIndexed);
+        values.putNull(TableMetadata.COLUMN_CHECKPOINT_ID);
+        values.putNull(TableMetadata.COLUMN_CHECKPOINT_TIME);
         int updateCount = db.update(
                 TableMetadata.TABLE_NAME, values,
                 whereClause, whereArgs);
         return updateCount > 0;
     }
 
+    /**
+     * Clear the last indexed time, marking the table as not indexed
+     *
+     * @param metadata
+     * @return
+     */
+    public boolean clearLastIndexed(TableMetadata metadata) {
+        PackedRTreeIndex.invalidate(metadata.getGeoPackageId(), metadata.getTableName());
+        String whereClause = TableMetadata.COLUMN_GEOPACKAGE_ID
+                + " = ? AND " + TableMetadata.COLUMN_TABLE_NAME + " = ?";
+        String[] whereArgs = new String[]{String.valueOf(metadata.getGeoPackageId()), metadata.getTableName()};
+        ContentValues values = new ContentValues();
+        values.putNull(TableMetadata.COLUMN_LAST_INDEXED);
+        int updateCount = db.update(
+                TableMetadata.TABLE_NAME, values,
+                whereClause, whereArgs);
+        boolean updated = updateCount > 0;
+        if (updated) {
+            metadata.setLastIndexed(null);
+        }
+        return updated;
+    }
+
+    /**
+     * Update the feature time column indexed with the geometry metadata. The table is
+     * marked as not indexed and any interrupted shadow index is deleted, so the next
+     * index of the table indexes the time column values.
+     *
+     * @param metadata
+     * @param timeColumn time column or null
+     * @return
+     */
+    public boolean updateTimeColumn(TableMetadata metadata, String timeColumn) {
+        deleteShadow(metadata.getGeoPackageId(), metadata.getTableName());
+        PackedRTreeIndex.invalidate(metadata.getGeoPackageId(), metadata.getTableName());
+        String whereClause = TableMetadata.COLUMN_GEOPACKAGE_ID
+                + " = ? AND " + TableMetadata.COLUMN_TABLE_NAME + " = ?";
+        String[] whereArgs = new String[]{String.valueOf(metadata.getGeoPackageId()), metadata.getTableName()};
+        ContentValues values = new ContentValues();
+        values.put(TableMetadata.COLUMN_TIME_COLUMN, timeColumn);
+        values.putNull(TableMetadata.COLUMN_LAST_INDEXED);
+        int updateCount = db.update(
+                TableMetadata.TABLE_NAME, values,
+                whereClause, whereArgs);
+        boolean updated = updateCount > 0;
+        if (updated) {
+            metadata.setTimeColumn(timeColumn);
+            metadata.setLastIndexed(null);
+        }
+        return updated;
+    }
+
+    /**
+     * Update the indexing checkpoint, the last feature id indexed by an interrupted
+     * indexing run and the time the run started
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param checkpointId   last indexed feature id, null to clear the checkpoint
+     * @param checkpointTime indexing run start time, null to clear the checkpoint
+     * @return
+     */
+    public boolean updateCheckpoint(long geoPackageId, String tableName, Long checkpointId, Long checkpointTime) {
+        String whereClause = TableMetadata.COLUMN_GEOPACKAGE_ID
+                + " = ? AND " + TableMetadata.COLUMN_TABLE_NAME + " = ?";
+        String[] whereArgs = new String[]{String.valueOf(geoPackageId), tableName};
+        ContentValues values = new ContentValues();
+        values.put(TableMetadata.COLUMN_CHECKPOINT_ID, checkpointId);
+        values.put(TableMetadata.COLUMN_CHECKPOINT_TIME, checkpointTime);
+        int updateCount = db.update(
+                TableMetadata.TABLE_NAME, values,
+                whereClause, whereArgs);
+        return updateCount > 0;
+    }
+
+    /**
+     * Get the table metadata with an interrupted indexing checkpoint
+     *
+     * @return table metadata
+     */
+    public List<TableMetadata> getCheckpointed() {
+        List<TableMetadata> metadata = new ArrayList<TableMetadata>();
+        Cursor cursor = db.query(
+                TableMetadata.TABLE_NAME,
+                TableMetadata.COLUMNS, TableMetadata.COLUMN_CHECKPOINT_ID + " IS NOT NULL",
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                metadata.add(createTableMetadata(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return metadata;
+    }
+
+    /**
+     * Update the cell grid of the indexed geometry metadata. Existing geometry metadata
+     * cell keys must be cleared or recalculated by the caller.
+     *
+     * @param metadata
+     * @param cellGrid cell grid or null
+     * @return
+     */
+    public boolean updateCellGrid(TableMetadata metadata, CellGrid cellGrid) {
+        String whereClause = TableMetadata.COLUMN_GEOPACKAGE_ID
+                + " = ? AND " + TableMetadata.COLUMN_TABLE_NAME + " = ?";
+        String[] whereArgs = new String[]{String.valueOf(metadata.getGeoPackageId()), metadata.getTableName()};
+        ContentValues values = new ContentValues();
+        putCellGrid(values, cellGrid);
+        int updateCount = db.update(
+                TableMetadata.TABLE_NAME, values,
+                whereClause, whereArgs);
+        boolean updated = updateCount > 0;
+        if (updated) {
+            metadata.setCellGrid(cellGrid);
+        }
+        return updated;
+    }
+
+    /**
+     * Get the cell grid of the indexed geometry metadata
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return cell grid or null
+     */
+    public CellGrid getCellGrid(long geoPackageId, String tableName) {
+        TableMetadata metadata = get(geoPackageId, tableName);
+        return metadata != null ? metadata.getCellGrid() : null;
+    }
+
+    /**
+     * Put the cell grid values
+     *
+     * @param values
+     * @param cellGrid
+     */
+    private static void putCellGrid(ContentValues values, CellGrid cellGrid) {
+        if (cellGrid != null) {
+            values.put(TableMetadata.COLUMN_GRID_MIN_X, cellGrid.getMinX());
+            values.put(TableMetadata.COLUMN_GRID_MAX_X, cellGrid.getMaxX());
+            values.put(TableMetadata.COLUMN_GRID_MIN_Y, cellGrid.getMinY());
+            values.put(TableMetadata.COLUMN_GRID_MAX_Y, cellGrid.getMaxY());
+        } else {
+            values.putNull(TableMetadata.COLUMN_GRID_MIN_X);
+            values.putNull(TableMetadata.COLUMN_GRID_MAX_X);
+            values.putNull(TableMetadata.COLUMN_GRID_MIN_Y);
+            values.putNull(TableMetadata.COLUMN_GRID_MAX_Y);
+        }
+    }
+
     /**
      * Get a table metadata
      *
@@ -265,6 +526,19 @@ public class TableMetadataDataSource {
         if (!cursor.isNull(2)) {
             metadata.setLastIndexed(cursor.getLong(2));
         }
+        if (!cursor.isNull(3) && !cursor.isNull(4) && !cursor.isNull(5) && !cursor.isNull(6)) {
+            metadata.setCellGrid(new CellGrid(cursor.getDouble(3), cursor.getDouble(5),
+                    cursor.getDouble(4), cursor.getDouble(6)));
+        }
+        if (!cursor.isNull(7)) {
+            metadata.setCheckpointId(cursor.getLong(7));
+        }
+        if (!cursor.isNull(8)) {
+            metadata.setCheckpointTime(cursor.getLong(8));
+        }
+        if (!cursor.isNull(9)) {
+            metadata.setTimeColumn(cursor.getString(9));
+        }
         return metadata;
     }
 
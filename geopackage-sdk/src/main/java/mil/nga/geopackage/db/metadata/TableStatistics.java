@@ -0,0 +1,646 @@
+package mil.nga.geopackage.db.metadata;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Statistics about the indexed geometries of a table: the feature count, the total
+ * extent, and a coarse histogram of envelope centers used to estimate query result counts
+ * without scanning the index. The histogram keeps the bounds it was calculated over, so
+ * its cells stay fixed as the extent grows and shrinks between calculations.
+ */
+public class TableStatistics {
+
+    /**
+     * Table name
+     */
+    public static final String TABLE_NAME = "geopackage_table_stats";
+
+    /**
+     * GeoPackage Id column
+     */
+    public static final String COLUMN_GEOPACKAGE_ID = TableMetadata.COLUMN_GEOPACKAGE_ID;
+
+    /**
+     * Table name column
+     */
+    public static final String COLUMN_TABLE_NAME = TableMetadata.COLUMN_TABLE_NAME;
+
+    /**
+     * Feature count column
+     */
+    public static final String COLUMN_COUNT = "feature_count";
+
+    /**
+     * Extent min x column
+     */
+    public static final String COLUMN_MIN_X = "min_x";
+
+    /**
+     * Extent max x column
+     */
+    public static final String COLUMN_MAX_X = "max_x";
+
+    /**
+     * Extent min y column
+     */
+    public static final String COLUMN_MIN_Y = "min_y";
+
+    /**
+     * Extent max y column
+     */
+    public static final String COLUMN_MAX_Y = "max_y";
+
+    /**
+     * Histogram columns column
+     */
+    public static final String COLUMN_HISTOGRAM_COLUMNS = "histogram_columns";
+
+    /**
+     * Histogram rows column
+     */
+    public static final String COLUMN_HISTOGRAM_ROWS = "histogram_rows";
+
+    /**
+     * Histogram column, row major little endian integer counts
+     */
+    public static final String COLUMN_HISTOGRAM = "histogram";
+
+    /**
+     * Histogram bounds min x column, added in database version 10
+     */
+    public static final String COLUMN_HISTOGRAM_MIN_X = "histogram_min_x";
+
+    /**
+     * Histogram bounds max x column
+     */
+    public static final String COLUMN_HISTOGRAM_MAX_X = "histogram_max_x";
+
+    /**
+     * Histogram bounds min y column
+     */
+    public static final String COLUMN_HISTOGRAM_MIN_Y = "histogram_min_y";
+
+    /**
+     * Histogram bounds max y column
+     */
+    public static final String COLUMN_HISTOGRAM_MAX_Y = "histogram_max_y";
+
+    /**
+     * Columns
+     */
+    public static final String[] COLUMNS = {
+            COLUMN_GEOPACKAGE_ID,
+            COLUMN_TABLE_NAME,
+            COLUMN_COUNT,
+            COLUMN_MIN_X,
+            COLUMN_MAX_X,
+            COLUMN_MIN_Y,
+            COLUMN_MAX_Y,
+            COLUMN_HISTOGRAM_COLUMNS,
+            COLUMN_HISTOGRAM_ROWS,
+            COLUMN_HISTOGRAM,
+            COLUMN_HISTOGRAM_MIN_X,
+            COLUMN_HISTOGRAM_MAX_X,
+            COLUMN_HISTOGRAM_MIN_Y,
+            COLUMN_HISTOGRAM_MAX_Y};
+
+    /**
+     * Create table SQL
+     */
+    public static final String CREATE_SQL = "CREATE TABLE "
+            + TABLE_NAME
+            + "("
+            + COLUMN_GEOPACKAGE_ID + " INTEGER NOT NULL, "
+            + COLUMN_TABLE_NAME + " TEXT NOT NULL, "
+            + COLUMN_COUNT + " INTEGER NOT NULL, "
+            + COLUMN_MIN_X + " DOUBLE, "
+            + COLUMN_MAX_X + " DOUBLE, "
+            + COLUMN_MIN_Y + " DOUBLE, "
+            + COLUMN_MAX_Y + " DOUBLE, "
+            + COLUMN_HISTOGRAM_COLUMNS + " INTEGER NOT NULL, "
+            + COLUMN_HISTOGRAM_ROWS + " INTEGER NOT NULL, "
+            + COLUMN_HISTOGRAM + " BLOB, "
+            + "CONSTRAINT pk_table_stats PRIMARY KEY (" + COLUMN_GEOPACKAGE_ID + ", " + COLUMN_TABLE_NAME + "), "
+            + "CONSTRAINT fk_ts_tm_gp FOREIGN KEY (" + COLUMN_GEOPACKAGE_ID + ") REFERENCES " + TableMetadata.TABLE_NAME + "(" + TableMetadata.COLUMN_GEOPACKAGE_ID + "), "
+            + "CONSTRAINT fk_ts_tm FOREIGN KEY (" + COLUMN_TABLE_NAME + ") REFERENCES " + TableMetadata.TABLE_NAME + "(" + TableMetadata.COLUMN_TABLE_NAME + ")"
+            + ");";
+
+    /**
+     * Add histogram bounds columns SQL
+     */
+    public static final String[] ADD_HISTOGRAM_BOUNDS_SQL = {
+            "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_HISTOGRAM_MIN_X + " DOUBLE",
+            "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_HISTOGRAM_MAX_X + " DOUBLE",
+            "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_HISTOGRAM_MIN_Y + " DOUBLE",
+            "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_HISTOGRAM_MAX_Y + " DOUBLE"};
+
+    /**
+     * Default number of histogram columns and rows
+     */
+    public static final int DEFAULT_HISTOGRAM_SIZE = 32;
+
+    /**
+     * GeoPackage Id
+     */
+    public long geoPackageId;
+
+    /**
+     * GeoPackage table name
+     */
+    public String tableName;
+
+    /**
+     * Number of indexed features
+     */
+    public long count;
+
+    /**
+     * Extent min x, null when there are no features
+     */
+    public Double minX;
+
+    /**
+     * Extent max x
+     */
+    public Double maxX;
+
+    /**
+     * Extent min y
+     */
+    public Double minY;
+
+    /**
+     * Extent max y
+     */
+    public Double maxY;
+
+    /**
+     * Histogram columns
+     */
+    public int histogramColumns;
+
+    /**
+     * Histogram rows
+     */
+    public int histogramRows;
+
+    /**
+     * Histogram counts of envelope centers, row major from the min x and min y cell
+     */
+    public int[] histogram;
+
+    /**
+     * Histogram bounds min x
+     */
+    public double histogramMinX;
+
+    /**
+     * Histogram bounds max x
+     */
+    public double histogramMaxX;
+
+    /**
+     * Histogram bounds min y
+     */
+    public double histogramMinY;
+
+    /**
+     * Histogram bounds max y
+     */
+    public double histogramMaxY;
+
+    /**
+     * Get the GeoPackage id
+     *
+     * @return
+     */
+    public long getGeoPackageId() {
+        return geoPackageId;
+    }
+
+    /**
+     * Set the GeoPackage id
+     *
+     * @param geoPackageId
+     */
+    public void setGeoPackageId(long geoPackageId) {
+        this.geoPackageId = geoPackageId;
+    }
+
+    /**
+     * Get the table name
+     *
+     * @return
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Set the table name
+     *
+     * @param tableName
+     */
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * Get the feature count
+     *
+     * @return
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Set the feature count
+     *
+     * @param count
+     */
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    /**
+     * Get the extent min x
+     *
+     * @return
+     */
+    public Double getMinX() {
+        return minX;
+    }
+
+    /**
+     * Set the extent min x
+     *
+     * @param minX
+     */
+    public void setMinX(Double minX) {
+        this.minX = minX;
+    }
+
+    /**
+     * Get the extent max x
+     *
+     * @return
+     */
+    public Double getMaxX() {
+        return maxX;
+    }
+
+    /**
+     * Set the extent max x
+     *
+     * @param maxX
+     */
+    public void setMaxX(Double maxX) {
+        this.maxX = maxX;
+    }
+
+    /**
+     * Get the extent min y
+     *
+     * @return
+     */
+    public Double getMinY() {
+        return minY;
+    }
+
+    /**
+     * Set the extent min y
+     *
+     * @param minY
+     */
+    public void setMinY(Double minY) {
+        this.minY = minY;
+    }
+
+    /**
+     * Get the extent max y
+     *
+     * @return
+     */
+    public Double getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Set the extent max y
+     *
+     * @param maxY
+     */
+    public void setMaxY(Double maxY) {
+        this.maxY = maxY;
+    }
+
+    /**
+     * Get the histogram columns
+     *
+     * @return
+     */
+    public int getHistogramColumns() {
+        return histogramColumns;
+    }
+
+    /**
+     * Get the histogram rows
+     *
+     * @return
+     */
+    public int getHistogramRows() {
+        return histogramRows;
+    }
+
+    /**
+     * Get the histogram counts
+     *
+     * @return
+     */
+    public int[] getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Get the bounds the histogram cells divide
+     *
+     * @return bounds or null if there is no histogram
+     */
+    public GeometryEnvelope getHistogramBounds() {
+        GeometryEnvelope bounds = null;
+        if (histogram != null) {
+            bounds = new GeometryEnvelope();
+            bounds.setMinX(histogramMinX);
+            bounds.setMaxX(histogramMaxX);
+            bounds.setMinY(histogramMinY);
+            bounds.setMaxY(histogramMaxY);
+        }
+        return bounds;
+    }
+
+    /**
+     * Set the histogram counts
+     *
+     * @param columns
+     * @param rows
+     * @param histogram row major counts, or null
+     * @param bounds    bounds divided into the histogram cells, required with counts
+     */
+    public void setHistogram(int columns, int rows, int[] histogram, GeometryEnvelope bounds) {
+        if (histogram != null) {
+            if (histogram.length != columns * rows) {
+                throw new GeoPackageException("Histogram length " + histogram.length
+                        + " does not match " + columns + " columns and " + rows + " rows");
+            }
+            if (bounds == null) {
+                throw new GeoPackageException("Histogram requires bounds. Table: " + tableName);
+            }
+            this.histogramMinX = bounds.getMinX();
+            this.histogramMaxX = bounds.getMaxX();
+            this.histogramMinY = bounds.getMinY();
+            this.histogramMaxY = bounds.getMaxY();
+        }
+        this.histogramColumns = columns;
+        this.histogramRows = rows;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Get the extent envelope
+     *
+     * @return envelope or null if there are no features
+     */
+    public GeometryEnvelope getExtent() {
+        GeometryEnvelope extent = null;
+        if (minX != null && maxX != null && minY != null && maxY != null) {
+            extent = new GeometryEnvelope();
+            extent.setMinX(minX);
+            extent.setMaxX(maxX);
+            extent.setMinY(minY);
+            extent.setMaxY(maxY);
+        }
+        return extent;
+    }
+
+    /**
+     * Add an indexed feature envelope, incrementing the count, expanding the extent, and
+     * counting the envelope center in the histogram. Histogram cells are kept over the
+     * histogram bounds, with centers outside them counted in the edge cells.
+     *
+     * @param envelope
+     */
+    public void add(GeometryEnvelope envelope) {
+        updateHistogram(envelope, 1);
+        if (count == 0 || minX == null || maxX == null || minY == null || maxY == null) {
+            minX = envelope.getMinX();
+            maxX = envelope.getMaxX();
+            minY = envelope.getMinY();
+            maxY = envelope.getMaxY();
+        } else {
+            minX = Math.min(minX, envelope.getMinX());
+            maxX = Math.max(maxX, envelope.getMaxX());
+            minY = Math.min(minY, envelope.getMinY());
+            maxY = Math.max(maxY, envelope.getMaxY());
+        }
+        count++;
+    }
+
+    /**
+     * Remove an indexed feature envelope, decrementing the count and the histogram cell of
+     * the envelope center. The extent is not shrunk.
+     *
+     * @param envelope
+     * @return true if the envelope touched the extent, which may need to be recalculated
+     */
+    public boolean remove(GeometryEnvelope envelope) {
+        updateHistogram(envelope, -1);
+        count = Math.max(0, count - 1);
+        return count == 0 || minX == null || maxX == null || minY == null || maxY == null
+                || envelope.getMinX() <= minX || envelope.getMaxX() >= maxX
+                || envelope.getMinY() <= minY || envelope.getMaxY() >= maxY;
+    }
+
+    /**
+     * Update the histogram cell count of the envelope center
+     *
+     * @param envelope
+     * @param delta
+     */
+    private void updateHistogram(GeometryEnvelope envelope, int delta) {
+        if (histogram != null && histogramColumns > 0 && histogramRows > 0) {
+            double centerX = (envelope.getMinX() + envelope.getMaxX()) / 2.0;
+            double centerY = (envelope.getMinY() + envelope.getMaxY()) / 2.0;
+            int column = getHistogramCell(centerX, histogramMinX,
+                    (histogramMaxX - histogramMinX) / histogramColumns, histogramColumns);
+            int row = getHistogramCell(centerY, histogramMinY,
+                    (histogramMaxY - histogramMinY) / histogramRows, histogramRows);
+            int index = row * histogramColumns + column;
+            histogram[index] = Math.max(0, histogram[index] + delta);
+        }
+    }
+
+    /**
+     * Estimate the number of features intersecting the envelope from the histogram,
+     * assuming envelope centers are uniform within each histogram cell. The edge cells
+     * extend to the extent when it grew beyond the histogram bounds.
+     *
+     * @param envelope
+     * @return estimated count
+     */
+    public long estimateCount(GeometryEnvelope envelope) {
+
+        if (count == 0 || minX == null || minY == null || maxX == null || maxY == null
+                || envelope.getMinX() > maxX || envelope.getMaxX() < minX
+                || envelope.getMinY() > maxY || envelope.getMaxY() < minY) {
+            return 0;
+        }
+
+        if (histogram == null || histogramColumns == 0 || histogramRows == 0) {
+            return Math.round(count * getOverlap(envelope.getMinX(), envelope.getMaxX(), minX, maxX)
+                    * getOverlap(envelope.getMinY(), envelope.getMaxY(), minY, maxY));
+        }
+
+        double cellWidth = (histogramMaxX - histogramMinX) / histogramColumns;
+        double cellHeight = (histogramMaxY - histogramMinY) / histogramRows;
+
+        int minColumn = getHistogramCell(envelope.getMinX(), histogramMinX, cellWidth, histogramColumns);
+        int maxColumn = getHistogramCell(envelope.getMaxX(), histogramMinX, cellWidth, histogramColumns);
+        int minRow = getHistogramCell(envelope.getMinY(), histogramMinY, cellHeight, histogramRows);
+        int maxRow = getHistogramCell(envelope.getMaxY(), histogramMinY, cellHeight, histogramRows);
+
+        double estimate = 0;
+        for (int row = minRow; row <= maxRow; row++) {
+            double rowOverlap = getOverlap(envelope.getMinY(), envelope.getMaxY(),
+                    getCellMin(row, histogramMinY, cellHeight, minY),
+                    getCellMax(row, histogramRows, histogramMinY, cellHeight, maxY));
+            for (int column = minColumn; column <= maxColumn; column++) {
+                int cellCount = histogram[row * histogramColumns + column];
+                if (cellCount > 0) {
+                    estimate += cellCount * rowOverlap * getOverlap(envelope.getMinX(), envelope.getMaxX(),
+                            getCellMin(column, histogramMinX, cellWidth, minX),
+                            getCellMax(column, histogramColumns, histogramMinX, cellWidth, maxX));
+                }
+            }
+        }
+
+        return Math.min(count, Math.round(estimate));
+    }
+
+    /**
+     * Estimate the fraction of features intersecting the envelope
+     *
+     * @param envelope
+     * @return selectivity from 0.0 to 1.0
+     */
+    public double estimateSelectivity(GeometryEnvelope envelope) {
+        return count > 0 ? (double) estimateCount(envelope) / count : 0.0;
+    }
+
+    /**
+     * Get the histogram cell containing the value, clamped to the histogram
+     *
+     * @param value
+     * @param min
+     * @param cellSize
+     * @param cells
+     * @return cell
+     */
+    static int getHistogramCell(double value, double min, double cellSize, int cells) {
+        int cell = 0;
+        if (cellSize > 0) {
+            cell = (int) Math.floor((value - min) / cellSize);
+        }
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    /**
+     * Get the min of the histogram cell, extended to the extent for the first cell
+     *
+     * @param cell
+     * @param min       histogram bounds min
+     * @param cellSize
+     * @param extentMin extent min
+     * @return cell min
+     */
+    private static double getCellMin(int cell, double min, double cellSize, double extentMin) {
+        double cellMin = min + cell * cellSize;
+        if (cell == 0) {
+            cellMin = Math.min(cellMin, extentMin);
+        }
+        return cellMin;
+    }
+
+    /**
+     * Get the max of the histogram cell, extended to the extent for the last cell
+     *
+     * @param cell
+     * @param cells
+     * @param min       histogram bounds min
+     * @param cellSize
+     * @param extentMax extent max
+     * @return cell max
+     */
+    private static double getCellMax(int cell, int cells, double min, double cellSize, double extentMax) {
+        double cellMax = min + (cell + 1) * cellSize;
+        if (cell == cells - 1) {
+            cellMax = Math.max(cellMax, extentMax);
+        }
+        return cellMax;
+    }
+
+    /**
+     * Get the fraction of the cell range covered by the query range. Degenerate cell
+     * ranges are fully covered when they intersect the query range.
+     *
+     * @param queryMin
+     * @param queryMax
+     * @param cellMin
+     * @param cellMax
+     * @return fraction from 0.0 to 1.0
+     */
+    private static double getOverlap(double queryMin, double queryMax, double cellMin, double cellMax) {
+        double overlap;
+        double size = cellMax - cellMin;
+        if (size <= 0) {
+            overlap = queryMin <= cellMax && queryMax >= cellMin ? 1.0 : 0.0;
+        } else {
+            overlap = Math.max(0.0, Math.min(queryMax, cellMax) - Math.max(queryMin, cellMin)) / size;
+        }
+        return overlap;
+    }
+
+    /**
+     * Write the histogram counts to bytes
+     *
+     * @param histogram
+     * @return bytes
+     */
+    static byte[] toBytes(int[] histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int value : histogram) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Read the histogram counts from bytes
+     *
+     * @param bytes
+     * @return histogram
+     */
+    static int[] fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int[] histogram = new int[bytes.length / 4];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = buffer.getInt();
+        }
+        return histogram;
+    }
+
+}
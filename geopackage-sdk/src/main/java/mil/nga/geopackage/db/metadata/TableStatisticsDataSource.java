@@ -0,0 +1,294 @@
+package mil.nga.geopackage.db.metadata;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Table statistics Data Source
+ */
+public class TableStatisticsDataSource {
+
+    /**
+     * Database
+     */
+    private SQLiteDatabase db;
+
+    /**
+     * Constructor
+     *
+     * @param db
+     */
+    public TableStatisticsDataSource(GeoPackageMetadataDb db) {
+        this.db = db.getDb();
+    }
+
+    /**
+     * Constructor
+     *
+     * @param db
+     */
+    TableStatisticsDataSource(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Calculate and save the table statistics from the indexed geometry metadata
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return table statistics
+     */
+    public TableStatistics calculate(long geoPackageId, String tableName) {
+        return calculate(geoPackageId, tableName, TableStatistics.DEFAULT_HISTOGRAM_SIZE);
+    }
+
+    /**
+     * Calculate and save the table statistics from the indexed geometry metadata
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @param histogramSize number of histogram columns and rows
+     * @return table statistics
+     */
+    public TableStatistics calculate(long geoPackageId, String tableName, int histogramSize) {
+
+        TableStatistics statistics = new TableStatistics();
+        statistics.setGeoPackageId(geoPackageId);
+        statistics.setTableName(tableName);
+
+        calculateExtent(statistics);
+
+        String selection = GeometryMetadata.COLUMN_TABLE_ID + " = ?";
+        String[] selectionArgs = new String[]{
+                String.valueOf(new GeometryMetadataDataSource(db).getTableId(geoPackageId, tableName))};
+
+        // Histogram of envelope centers
+        if (statistics.getCount() > 0 && histogramSize > 0) {
+            double minX = statistics.getMinX();
+            double minY = statistics.getMinY();
+            double cellWidth = (statistics.getMaxX() - minX) / histogramSize;
+            double cellHeight = (statistics.getMaxY() - minY) / histogramSize;
+            int[] histogram = new int[histogramSize * histogramSize];
+            Cursor cursor = db.query(GeometryMetadataStore.getTable(db, geoPackageId), new String[]{
+                            GeometryMetadata.COLUMN_MIN_X,
+                            GeometryMetadata.COLUMN_MAX_X,
+                            GeometryMetadata.COLUMN_MIN_Y,
+                            GeometryMetadata.COLUMN_MAX_Y},
+                    selection, selectionArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    double centerX = (GeometryMetadataStore.decode(cursor.getLong(0))
+                            + GeometryMetadataStore.decode(cursor.getLong(1))) / 2.0;
+                    double centerY = (GeometryMetadataStore.decode(cursor.getLong(2))
+                            + GeometryMetadataStore.decode(cursor.getLong(3))) / 2.0;
+                    int column = TableStatistics.getHistogramCell(centerX, minX, cellWidth, histogramSize);
+                    int row = TableStatistics.getHistogramCell(centerY, minY, cellHeight, histogramSize);
+                    histogram[row * histogramSize + column]++;
+                }
+            } finally {
+                cursor.close();
+            }
+            statistics.setHistogram(histogramSize, histogramSize, histogram, statistics.getExtent());
+        }
+
+        createOrUpdate(statistics);
+
+        return statistics;
+    }
+
+    /**
+     * Recalculate the feature count and extent of the table statistics from the indexed
+     * geometry metadata, leaving the histogram unchanged
+     *
+     * @param statistics
+     */
+    public void calculateExtent(TableStatistics statistics) {
+
+        String selection = GeometryMetadata.COLUMN_TABLE_ID + " = ?";
+        String[] selectionArgs = new String[]{String.valueOf(new GeometryMetadataDataSource(db).getTableId(
+                statistics.getGeoPackageId(), statistics.getTableName()))};
+
+        statistics.setCount(0);
+        statistics.setMinX(null);
+        statistics.setMaxX(null);
+        statistics.setMinY(null);
+        statistics.setMaxY(null);
+
+        Cursor cursor = db.query(GeometryMetadataStore.getTable(db, statistics.getGeoPackageId()),
+                new String[]{
+                        "COUNT(*)",
+                        "MIN(" + GeometryMetadata.COLUMN_MIN_X + ")",
+                        "MAX(" + GeometryMetadata.COLUMN_MAX_X + ")",
+                        "MIN(" + GeometryMetadata.COLUMN_MIN_Y + ")",
+                        "MAX(" + GeometryMetadata.COLUMN_MAX_Y + ")"},
+                selection, selectionArgs, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                statistics.setCount(cursor.getLong(0));
+                if (!cursor.isNull(1)) {
+                    statistics.setMinX(GeometryMetadataStore.decode(cursor.getLong(1)));
+                    statistics.setMaxX(GeometryMetadataStore.decode(cursor.getLong(2)));
+                    statistics.setMinY(GeometryMetadataStore.decode(cursor.getLong(3)));
+                    statistics.setMaxY(GeometryMetadataStore.decode(cursor.getLong(4)));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Create the table statistics or replace them if they already exist
+     *
+     * @param statistics
+     */
+    public void createOrUpdate(TableStatistics statistics) {
+        ContentValues values = new ContentValues();
+        values.put(TableStatistics.COLUMN_GEOPACKAGE_ID, statistics.getGeoPackageId());
+        values.put(TableStatistics.COLUMN_TABLE_NAME, statistics.getTableName());
+        values.put(TableStatistics.COLUMN_COUNT, statistics.getCount());
+        values.put(TableStatistics.COLUMN_MIN_X, statistics.getMinX());
+        values.put(TableStatistics.COLUMN_MAX_X, statistics.getMaxX());
+        values.put(TableStatistics.COLUMN_MIN_Y, statistics.getMinY());
+        values.put(TableStatistics.COLUMN_MAX_Y, statistics.getMaxY());
+        values.put(TableStatistics.COLUMN_HISTOGRAM_COLUMNS, statistics.getHistogramColumns());
+        values.put(TableStatistics.COLUMN_HISTOGRAM_ROWS, statistics.getHistogramRows());
+        int[] histogram = statistics.getHistogram();
+        values.put(TableStatistics.COLUMN_HISTOGRAM, histogram != null ? TableStatistics.toBytes(histogram) : null);
+        GeometryEnvelope histogramBounds = statistics.getHistogramBounds();
+        if (histogramBounds != null) {
+            values.put(TableStatistics.COLUMN_HISTOGRAM_MIN_X, histogramBounds.getMinX());
+            values.put(TableStatistics.COLUMN_HISTOGRAM_MAX_X, histogramBounds.getMaxX());
+            values.put(TableStatistics.COLUMN_HISTOGRAM_MIN_Y, histogramBounds.getMinY());
+            values.put(TableStatistics.COLUMN_HISTOGRAM_MAX_Y, histogramBounds.getMaxY());
+        } else {
+            values.putNull(TableStatistics.COLUMN_HISTOGRAM_MIN_X);
+            values.putNull(TableStatistics.COLUMN_HISTOGRAM_MAX_X);
+            values.putNull(TableStatistics.COLUMN_HISTOGRAM_MIN_Y);
+            values.putNull(TableStatistics.COLUMN_HISTOGRAM_MAX_Y);
+        }
+        long insertId = db.replace(
+                TableStatistics.TABLE_NAME, null,
+                values);
+        if (insertId == -1) {
+            throw new GeoPackageException(
+                    "Failed to save table statistics. GeoPackage Id: "
+                            + statistics.getGeoPackageId() + ", Table Name: "
+                            + statistics.getTableName());
+        }
+    }
+
+    /**
+     * Get the table statistics
+     *
+     * @param geoPackage
+     * @param tableName
+     * @return table statistics or null
+     */
+    public TableStatistics get(String geoPackage, String tableName) {
+        return get(getGeoPackageId(geoPackage), tableName);
+    }
+
+    /**
+     * Get the table statistics
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return table statistics or null
+     */
+    public TableStatistics get(long geoPackageId, String tableName) {
+        String selection = TableStatistics.COLUMN_GEOPACKAGE_ID
+                + " = ? AND " + TableStatistics.COLUMN_TABLE_NAME + " = ?";
+        String[] selectionArgs = new String[]{String.valueOf(geoPackageId), tableName};
+        Cursor cursor = db.query(
+                TableStatistics.TABLE_NAME,
+                TableStatistics.COLUMNS, selection, selectionArgs, null, null, null);
+        TableStatistics statistics = null;
+        try {
+            if (cursor.moveToNext()) {
+                statistics = createTableStatistics(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+        return statistics;
+    }
+
+    /**
+     * Delete the table statistics of the database
+     *
+     * @param geoPackageId
+     * @return
+     */
+    public int delete(long geoPackageId) {
+        String whereClause = TableStatistics.COLUMN_GEOPACKAGE_ID + " = ?";
+        String[] whereArgs = new String[]{String.valueOf(geoPackageId)};
+        return db.delete(TableStatistics.TABLE_NAME, whereClause, whereArgs);
+    }
+
+    /**
+     * Delete the table statistics
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return
+     */
+    public boolean delete(long geoPackageId, String tableName) {
+        String whereClause = TableStatistics.COLUMN_GEOPACKAGE_ID
+                + " = ? AND " + TableStatistics.COLUMN_TABLE_NAME + " = ?";
+        String[] whereArgs = new String[]{String.valueOf(geoPackageId), tableName};
+        return db.delete(TableStatistics.TABLE_NAME, whereClause, whereArgs) > 0;
+    }
+
+    /**
+     * Get a GeoPackage id from the name
+     *
+     * @param geoPackage
+     * @return
+     */
+    public long getGeoPackageId(String geoPackage) {
+        long id = -1;
+        GeoPackageMetadataDataSource ds = new GeoPackageMetadataDataSource(db);
+        GeoPackageMetadata metadata = ds.get(geoPackage);
+        if (metadata != null) {
+            id = metadata.getId();
+        }
+        return id;
+    }
+
+    /**
+     * Create a table statistics from the current cursor location
+     *
+     * @param cursor
+     * @return
+     */
+    private TableStatistics createTableStatistics(Cursor cursor) {
+        TableStatistics statistics = new TableStatistics();
+        statistics.setGeoPackageId(cursor.getLong(0));
+        statistics.setTableName(cursor.getString(1));
+        statistics.setCount(cursor.getLong(2));
+        if (!cursor.isNull(3)) {
+            statistics.setMinX(cursor.getDouble(3));
+            statistics.setMaxX(cursor.getDouble(4));
+            statistics.setMinY(cursor.getDouble(5));
+            statistics.setMaxY(cursor.getDouble(6));
+        }
+        int[] histogram = null;
+        GeometryEnvelope histogramBounds = null;
+        if (!cursor.isNull(9) && !cursor.isNull(10)) {
+            histogram = TableStatistics.fromBytes(cursor.getBlob(9));
+            histogramBounds = new GeometryEnvelope();
+            histogramBounds.setMinX(cursor.getDouble(10));
+            histogramBounds.setMaxX(cursor.getDouble(11));
+            histogramBounds.setMinY(cursor.getDouble(12));
+            histogramBounds.setMaxY(cursor.getDouble(13));
+        }
+        statistics.setHistogram(cursor.getInt(7), cursor.getInt(8), histogram, histogramBounds);
+        return statistics;
+    }
+
+}
@@ -0,0 +1,431 @@
+package mil.nga.geopackage.db.rtree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import mil.nga.geopackage.BoundingBox;
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Read only Sort-Tile-Recursive packed R-tree of feature envelopes, memory mapped from a
+ * file written by {@link PackedRTreeWriter}. Queries traverse the mapped nodes without heap
+ * allocation and return primitive feature ids. Queries are synchronized as they share a
+ * preallocated traversal stack.
+ */
+public class PackedRTree {
+
+    /**
+     * File magic number, "GPRT"
+     */
+    static final int MAGIC = 0x47505254;
+
+    /**
+     * File format version
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Header length in bytes
+     */
+    static final int HEADER_LENGTH = 64;
+
+    /**
+     * Bytes per node box: min x, min y, max x, max y
+     */
+    static final int BOX_BYTES = 32;
+
+    /**
+     * Bytes per node index: feature id for leaves, first child node for parents
+     */
+    static final int INDEX_BYTES = 8;
+
+    /**
+     * File byte order
+     */
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Mapped file buffer
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Max number of children per node
+     */
+    private final int nodeSize;
+
+    /**
+     * Number of indexed features (leaf nodes)
+     */
+    private final int numItems;
+
+    /**
+     * Total number of nodes
+     */
+    private final int numNodes;
+
+    /**
+     * Last indexed time of the geometry metadata the tree was built from
+     */
+    private final long lastIndexed;
+
+    /**
+     * Exclusive end node of each level, from the leaves up to the root
+     */
+    private final int[] levelBounds;
+
+    /**
+     * Byte offset of the node boxes
+     */
+    private final int boxesOffset;
+
+    /**
+     * Byte offset of the node indices
+     */
+    private final int indicesOffset;
+
+    /**
+     * Traversal stack of node group starts
+     */
+    private final int[] stack;
+
+    /**
+     * Open and memory map a packed R-tree file
+     *
+     * @param file packed R-tree file
+     * @return packed R-tree
+     */
+    public static PackedRTree open(File file) {
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return new PackedRTree(buffer);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            throw new GeoPackageException("Failed to open packed R-tree file: "
+                    + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Read the last indexed time from the header of a packed R-tree file without mapping
+     * the file
+     *
+     * @param file packed R-tree file
+     * @return last indexed time in milliseconds, or -1 if not a readable packed R-tree file
+     */
+    public static long readLastIndexed(File file) {
+        long lastIndexed = -1;
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                if (randomAccessFile.length() >= HEADER_LENGTH) {
+                    byte[] header = new byte[32];
+                    randomAccessFile.readFully(header);
+                    ByteBuffer buffer = ByteBuffer.wrap(header).order(BYTE_ORDER);
+                    if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+                        lastIndexed = buffer.getLong(24);
+                    }
+                }
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            lastIndexed = -1;
+        }
+        return lastIndexed;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param buffer packed R-tree bytes
+     */
+    public PackedRTree(ByteBuffer buffer) {
+        this.buffer = buffer.order(BYTE_ORDER);
+
+        if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+            throw new GeoPackageException("Unexpected packed R-tree file format");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new GeoPackageException("Unexpected packed R-tree version: " + version
+                    + ", Expected: " + VERSION);
+        }
+
+        nodeSize = buffer.getInt(8);
+        numItems = buffer.getInt(12);
+        numNodes = buffer.getInt(16);
+        int numLevels = buffer.getInt(20);
+        lastIndexed = buffer.getLong(24);
+
+        levelBounds = new int[numLevels];
+        for (int i = 0; i < numLevels; i++) {
+            levelBounds[i] = buffer.getInt(HEADER_LENGTH + (i * 4));
+        }
+        boxesOffset = getBoxesOffset(numLevels);
+        indicesOffset = boxesOffset + (numNodes * BOX_BYTES);
+
+        if (buffer.capacity() < indicesOffset + (numNodes * INDEX_BYTES)) {
+            throw new GeoPackageException("Packed R-tree file is truncated. Length: "
+                    + buffer.capacity() + ", Expected: "
+                    + (indicesOffset + (numNodes * INDEX_BYTES)));
+        }
+
+        stack = new int[Math.max(1, numLevels * nodeSize)];
+    }
+
+    /**
+     * Get the byte offset of the node boxes after the header and level bounds
+     *
+     * @param numLevels
+     * @return offset
+     */
+    static int getBoxesOffset(int numLevels) {
+        int offset = HEADER_LENGTH + (numLevels * 4);
+        return (offset + 7) & ~7;
+    }
+
+    /**
+     * Get the max number of children per node
+     *
+     * @return node size
+     */
+    public int getNodeSize() {
+        return nodeSize;
+    }
+
+    /**
+     * Get the number of indexed features
+     *
+     * @return count
+     */
+    public int size() {
+        return numItems;
+    }
+
+    /**
+     * Get the last indexed time of the geometry metadata the tree was built from
+     *
+     * @return last indexed time in milliseconds
+     */
+    public long getLastIndexed() {
+        return lastIndexed;
+    }
+
+    /**
+     * Get the envelope of all indexed features
+     *
+     * @return envelope or null if empty
+     */
+    public GeometryEnvelope getEnvelope() {
+        GeometryEnvelope envelope = null;
+        if (numItems > 0) {
+            int root = numNodes - 1;
+            envelope = new GeometryEnvelope();
+            envelope.setMinX(minX(root));
+            envelope.setMinY(minY(root));
+            envelope.setMaxX(maxX(root));
+            envelope.setMaxY(maxY(root));
+        }
+        return envelope;
+    }
+
+    /**
+     * Query for feature ids intersecting the envelope
+     *
+     * @param envelope
+     * @param ids      populated with up to ids.length matching feature ids
+     * @return total matching count, which may exceed ids.length
+     */
+    public int query(GeometryEnvelope envelope, long[] ids) {
+        return query(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(),
+                envelope.getMaxY(), ids);
+    }
+
+    /**
+     * Query for feature ids intersecting the bounding box in the same projection
+     *
+     * @param boundingBox
+     * @param ids         populated with up to ids.length matching feature ids
+     * @return total matching count, which may exceed ids.length
+     */
+    public int query(BoundingBox boundingBox, long[] ids) {
+        return query(boundingBox.getMinLongitude(), boundingBox.getMinLatitude(),
+                boundingBox.getMaxLongitude(), boundingBox.getMaxLatitude(), ids);
+    }
+
+    /**
+     * Count the features intersecting the bounds
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return count
+     */
+    public int count(double minX, double minY, double maxX, double maxY) {
+        return query(minX, minY, maxX, maxY, null);
+    }
+
+    /**
+     * Query for feature ids intersecting the bounds
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @param ids  populated with up to ids.length matching feature ids, may be null to count
+     * @return total matching count, which may exceed ids.length
+     */
+    public synchronized int query(double minX, double minY, double maxX, double maxY, long[] ids) {
+
+        int count = 0;
+        if (numItems == 0) {
+            return count;
+        }
+
+        int capacity = ids != null ? ids.length : 0;
+        int stackSize = 0;
+        int group = numNodes - 1;
+
+        while (true) {
+
+            int end = Math.min(group + nodeSize, levelEnd(group));
+            boolean leaves = group < numItems;
+
+            for (int node = group; node < end; node++) {
+                if (maxX(node) < minX || maxY(node) < minY
+                        || minX(node) > maxX || minY(node) > maxY) {
+                    continue;
+                }
+                long index = index(node);
+                if (leaves) {
+                    if (count < capacity) {
+                        ids[count] = index;
+                    }
+                    count++;
+                } else {
+                    stack[stackSize++] = (int) index;
+                }
+            }
+
+            if (stackSize == 0) {
+                break;
+            }
+            group = stack[--stackSize];
+        }
+
+        return count;
+    }
+
+    /**
+     * Traverse the features in increasing envelope distance from the point in the same
+     * projection, with distances in projection units
+     *
+     * @param x
+     * @param y
+     * @return nearest neighbour traversal
+     */
+    public PackedRTreeNearest nearest(double x, double y) {
+        return nearest(x, y, 1.0, 1.0);
+    }
+
+    /**
+     * Traverse the features in increasing envelope distance from the point in the same
+     * projection, with the x and y offsets scaled to the distance units
+     *
+     * @param x
+     * @param y
+     * @param scaleX distance units per x unit
+     * @param scaleY distance units per y unit
+     * @return nearest neighbour traversal
+     */
+    public PackedRTreeNearest nearest(double x, double y, double scaleX, double scaleY) {
+        return new PackedRTreeNearest(this, x, y, scaleX, scaleY);
+    }
+
+    /**
+     * Get the exclusive end node of the level containing the node
+     *
+     * @param node
+     * @return level end
+     */
+    int levelEnd(int node) {
+        for (int bound : levelBounds) {
+            if (node < bound) {
+                return bound;
+            }
+        }
+        return numNodes;
+    }
+
+    /**
+     * Get the number of nodes
+     *
+     * @return node count
+     */
+    int getNumNodes() {
+        return numNodes;
+    }
+
+    /**
+     * Get the node min x
+     *
+     * @param node
+     * @return min x
+     */
+    double minX(int node) {
+        return buffer.getDouble(boxesOffset + (node * BOX_BYTES));
+    }
+
+    /**
+     * Get the node min y
+     *
+     * @param node
+     * @return min y
+     */
+    double minY(int node) {
+        return buffer.getDouble(boxesOffset + (node * BOX_BYTES) + 8);
+    }
+
+    /**
+     * Get the node max x
+     *
+     * @param node
+     * @return max x
+     */
+    double maxX(int node) {
+        return buffer.getDouble(boxesOffset + (node * BOX_BYTES) + 16);
+    }
+
+    /**
+     * Get the node max y
+     *
+     * @param node
+     * @return max y
+     */
+    double maxY(int node) {
+        return buffer.getDouble(boxesOffset + (node * BOX_BYTES) + 24);
+    }
+
+    /**
+     * Get the node index, the feature id of a leaf or first child node of a parent
+     *
+     * @param node
+     * @return index
+     */
+    long index(int node) {
+        return buffer.getLong(indicesOffset + (node * INDEX_BYTES));
+    }
+
+}
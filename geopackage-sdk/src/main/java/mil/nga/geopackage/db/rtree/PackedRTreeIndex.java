@@ -0,0 +1,325 @@
+package mil.nga.geopackage.db.rtree;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadata;
+import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.metadata.GeometryMetadataStore;
+import mil.nga.geopackage.db.metadata.TableMetadata;
+import mil.nga.geopackage.db.metadata.TableMetadataDataSource;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * Packed R-tree index files built from the indexed geometry metadata, one file per
+ * GeoPackage feature table stored in the application files directory. Opened trees are
+ * cached per GeoPackage table until the table is indexed again or deleted.
+ */
+public class PackedRTreeIndex {
+
+    /**
+     * Directory within the application files directory
+     */
+    public static final String DIRECTORY = "rtree";
+
+    /**
+     * File extension
+     */
+    public static final String FILE_EXTENSION = "rtree";
+
+    /**
+     * Opened packed R-trees by GeoPackage table key
+     */
+    private static final Map<String, PackedRTree> trees = new HashMap<String, PackedRTree>();
+
+    /**
+     * Context
+     */
+    private final Context context;
+
+    /**
+     * Constructor
+     *
+     * @param context
+     */
+    public PackedRTreeIndex(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Get the packed R-tree file directory
+     *
+     * @return directory
+     */
+    public File getDirectory() {
+        return new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * Get the packed R-tree file for the GeoPackage table
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return file
+     */
+    public File getFile(long geoPackageId, String tableName) {
+        return new File(getDirectory(), getKey(geoPackageId, tableName) + "." + FILE_EXTENSION);
+    }
+
+    /**
+     * Get the cache key and file name of the GeoPackage table
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return key
+     */
+    private static String getKey(long geoPackageId, String tableName) {
+        return geoPackageId + "_" + tableName;
+    }
+
+    /**
+     * Get the cached packed R-tree of the table, opened or built from the current index
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return packed R-tree or null if not cached
+     */
+    public static PackedRTree getCached(long geoPackageId, String tableName) {
+        synchronized (trees) {
+            return trees.get(getKey(geoPackageId, tableName));
+        }
+    }
+
+    /**
+     * Invalidate the cached packed R-tree of the table, called when the last indexed time
+     * of the table changes
+     *
+     * @param geoPackageId
+     * @param tableName
+     */
+    public static void invalidate(long geoPackageId, String tableName) {
+        synchronized (trees) {
+            trees.remove(getKey(geoPackageId, tableName));
+        }
+    }
+
+    /**
+     * Invalidate the cached packed R-trees of all tables of the GeoPackage
+     *
+     * @param geoPackageId
+     */
+    public static void invalidate(long geoPackageId) {
+        String prefix = geoPackageId + "_";
+        synchronized (trees) {
+            Iterator<String> keys = trees.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the packed R-tree file from the indexed geometry metadata of the table
+     *
+     * @param db
+     * @param geoPackage
+     * @param tableName
+     * @return packed R-tree
+     */
+    public PackedRTree build(GeoPackageMetadataDb db, String geoPackage, String tableName) {
+        TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+        return build(db, tableDs.getGeoPackageId(geoPackage), tableName);
+    }
+
+    /**
+     * Build the packed R-tree file from the indexed geometry metadata of the table
+     *
+     * @param db
+     * @param geoPackageId
+     * @param tableName
+     * @return packed R-tree
+     */
+    public PackedRTree build(GeoPackageMetadataDb db, long geoPackageId, String tableName) {
+
+        TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+        TableMetadata metadata = tableDs.get(geoPackageId, tableName);
+        if (metadata == null || metadata.getLastIndexed() == null) {
+            throw new GeoPackageException("Feature table is not indexed. GeoPackage Id: "
+                    + geoPackageId + ", Table: " + tableName);
+        }
+
+        File directory = getDirectory();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new GeoPackageException("Failed to create packed R-tree directory: "
+                    + directory.getAbsolutePath());
+        }
+
+        GeometryMetadataDataSource geomDs = new GeometryMetadataDataSource(db);
+        Cursor cursor = geomDs.query(geoPackageId, tableName);
+        try {
+            int idIndex = cursor.getColumnIndexOrThrow(GeometryMetadata.COLUMN_ID);
+            int minXIndex = cursor.getColumnIndexOrThrow(GeometryMetadata.COLUMN_MIN_X);
+            int minYIndex = cursor.getColumnIndexOrThrow(GeometryMetadata.COLUMN_MIN_Y);
+            int maxXIndex = cursor.getColumnIndexOrThrow(GeometryMetadata.COLUMN_MAX_X);
+            int maxYIndex = cursor.getColumnIndexOrThrow(GeometryMetadata.COLUMN_MAX_Y);
+
+            PackedRTreeWriter writer = new PackedRTreeWriter(cursor.getCount());
+            while (cursor.moveToNext()) {
+                writer.add(cursor.getLong(idIndex),
+                        GeometryMetadataStore.decode(cursor.getLong(minXIndex)),
+                        GeometryMetadataStore.decode(cursor.getLong(minYIndex)),
+                        GeometryMetadataStore.decode(cursor.getLong(maxXIndex)),
+                        GeometryMetadataStore.decode(cursor.getLong(maxYIndex)));
+            }
+            writer.write(getFile(geoPackageId, tableName), metadata.getLastIndexed());
+        } finally {
+            cursor.close();
+        }
+
+        return open(geoPackageId, tableName);
+    }
+
+    /**
+     * Open the packed R-tree file of the table
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return packed R-tree or null if the file does not exist
+     */
+    public PackedRTree open(long geoPackageId, String tableName) {
+        PackedRTree tree = null;
+        File file = getFile(geoPackageId, tableName);
+        if (file.exists()) {
+            tree = PackedRTree.open(file);
+        }
+        return tree;
+    }
+
+    /**
+     * Get the packed R-tree of the table, building it when missing or built from an
+     * earlier index of the table
+     *
+     * @param db
+     * @param geoPackage
+     * @param tableName
+     * @return packed R-tree or null if the table is not indexed
+     */
+    public PackedRTree get(GeoPackageMetadataDb db, String geoPackage, String tableName) {
+        TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+        return get(db, tableDs.getGeoPackageId(geoPackage), tableName);
+    }
+
+    /**
+     * Get the packed R-tree of the table, building it when missing or built from an
+     * earlier index of the table. The opened tree is cached until invalidated.
+     *
+     * @param db
+     * @param geoPackageId
+     * @param tableName
+     * @return packed R-tree or null if the table is not indexed
+     */
+    public PackedRTree get(GeoPackageMetadataDb db, long geoPackageId, String tableName) {
+        PackedRTree tree = getCurrent(db, geoPackageId, tableName);
+        if (tree == null) {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            TableMetadata metadata = tableDs.get(geoPackageId, tableName);
+            if (metadata != null && metadata.getLastIndexed() != null) {
+                tree = build(db, geoPackageId, tableName);
+                synchronized (trees) {
+                    trees.put(getKey(geoPackageId, tableName), tree);
+                }
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Get the packed R-tree of the table when the file is current with the last index of
+     * the table, without building it. The opened tree is cached until invalidated.
+     *
+     * @param db
+     * @param geoPackageId
+     * @param tableName
+     * @return packed R-tree or null if missing, built from an earlier index, or the table
+     * is not indexed
+     */
+    public PackedRTree getCurrent(GeoPackageMetadataDb db, long geoPackageId, String tableName) {
+        PackedRTree tree = getCached(geoPackageId, tableName);
+        if (tree == null) {
+            TableMetadataDataSource tableDs = new TableMetadataDataSource(db);
+            TableMetadata metadata = tableDs.get(geoPackageId, tableName);
+            File file = getFile(geoPackageId, tableName);
+            if (metadata != null && metadata.getLastIndexed() != null && file.exists()
+                    && PackedRTree.readLastIndexed(file) == metadata.getLastIndexed()) {
+                tree = PackedRTree.open(file);
+                synchronized (trees) {
+                    trees.put(getKey(geoPackageId, tableName), tree);
+                }
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Query for feature ids of the table intersecting the envelope
+     *
+     * @param db
+     * @param geoPackageId
+     * @param tableName
+     * @param envelope
+     * @param ids          populated with up to ids.length matching feature ids
+     * @return total matching count, which may exceed ids.length
+     */
+    public int query(GeoPackageMetadataDb db, long geoPackageId, String tableName,
+                     GeometryEnvelope envelope, long[] ids) {
+        int count = 0;
+        PackedRTree tree = get(db, geoPackageId, tableName);
+        if (tree != null) {
+            count = tree.query(envelope, ids);
+        }
+        return count;
+    }
+
+    /**
+     * Delete the packed R-tree file of the table
+     *
+     * @param geoPackageId
+     * @param tableName
+     * @return true if deleted
+     */
+    public boolean delete(long geoPackageId, String tableName) {
+        invalidate(geoPackageId, tableName);
+        return getFile(geoPackageId, tableName).delete();
+    }
+
+    /**
+     * Delete all packed R-tree files of the GeoPackage
+     *
+     * @param geoPackageId
+     * @return deleted count
+     */
+    public int delete(long geoPackageId) {
+        invalidate(geoPackageId);
+        int count = 0;
+        File[] files = getDirectory().listFiles();
+        if (files != null) {
+            String prefix = geoPackageId + "_";
+            for (File file : files) {
+                if (file.getName().startsWith(prefix) && file.delete()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+}
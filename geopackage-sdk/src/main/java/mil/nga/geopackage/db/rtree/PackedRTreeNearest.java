@@ -0,0 +1,201 @@
+package mil.nga.geopackage.db.rtree;
+
+/**
+ * Best-first nearest neighbour traversal of a {@link PackedRTree}, returning the indexed
+ * features in increasing envelope distance from a point. Nodes are expanded from a
+ * primitive min heap ordered by the distance to their boxes, so only the nodes closer than
+ * the last returned feature are visited. Distances are measured with the x and y offsets
+ * scaled to a common unit, allowing geographic coordinates to be measured in meters.
+ * Not thread safe, create one traversal per query.
+ */
+public class PackedRTreeNearest {
+
+    /**
+     * Packed R-tree
+     */
+    private final PackedRTree tree;
+
+    /**
+     * Query x
+     */
+    private final double x;
+
+    /**
+     * Query y
+     */
+    private final double y;
+
+    /**
+     * Distance units per x unit
+     */
+    private final double scaleX;
+
+    /**
+     * Distance units per y unit
+     */
+    private final double scaleY;
+
+    /**
+     * Heap nodes
+     */
+    private int[] heapNodes = new int[64];
+
+    /**
+     * Heap node squared distances
+     */
+    private double[] heapDistances = new double[64];
+
+    /**
+     * Heap size
+     */
+    private int heapSize;
+
+    /**
+     * Current feature id
+     */
+    private long id = -1;
+
+    /**
+     * Current feature envelope distance
+     */
+    private double distance = -1;
+
+    /**
+     * Constructor
+     *
+     * @param tree
+     * @param x
+     * @param y
+     * @param scaleX
+     * @param scaleY
+     */
+    PackedRTreeNearest(PackedRTree tree, double x, double y, double scaleX, double scaleY) {
+        this.tree = tree;
+        this.x = x;
+        this.y = y;
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        if (tree.size() > 0) {
+            push(tree.getNumNodes() - 1);
+        }
+    }
+
+    /**
+     * Move to the next nearest feature
+     *
+     * @return true if there is another feature
+     */
+    public boolean next() {
+        while (heapSize > 0) {
+            double nodeDistance = heapDistances[0];
+            int node = pop();
+            if (node < tree.size()) {
+                id = tree.index(node);
+                distance = Math.sqrt(nodeDistance);
+                return true;
+            }
+            int first = (int) tree.index(node);
+            int end = Math.min(first + tree.getNodeSize(), tree.levelEnd(first));
+            for (int child = first; child < end; child++) {
+                push(child);
+            }
+        }
+        id = -1;
+        distance = -1;
+        return false;
+    }
+
+    /**
+     * Get the current feature id
+     *
+     * @return feature id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Get the distance from the query point to the current feature envelope, a lower bound
+     * of the distance to the feature geometry
+     *
+     * @return envelope distance in the scaled units
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * Get the squared scaled distance from the query point to the node box
+     *
+     * @param node
+     * @return squared distance
+     */
+    private double getSquaredDistance(int node) {
+        double dx = Math.max(0.0, Math.max(tree.minX(node) - x, x - tree.maxX(node))) * scaleX;
+        double dy = Math.max(0.0, Math.max(tree.minY(node) - y, y - tree.maxY(node))) * scaleY;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Push the node onto the heap
+     *
+     * @param node
+     */
+    private void push(int node) {
+        if (heapSize == heapNodes.length) {
+            int[] nodes = new int[heapSize * 2];
+            System.arraycopy(heapNodes, 0, nodes, 0, heapSize);
+            heapNodes = nodes;
+            double[] distances = new double[heapSize * 2];
+            System.arraycopy(heapDistances, 0, distances, 0, heapSize);
+            heapDistances = distances;
+        }
+        double nodeDistance = getSquaredDistance(node);
+        int index = heapSize++;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heapDistances[parent] <= nodeDistance) {
+                break;
+            }
+            heapNodes[index] = heapNodes[parent];
+            heapDistances[index] = heapDistances[parent];
+            index = parent;
+        }
+        heapNodes[index] = node;
+        heapDistances[index] = nodeDistance;
+    }
+
+    /**
+     * Pop the nearest node from the heap
+     *
+     * @return node
+     */
+    private int pop() {
+        int node = heapNodes[0];
+        heapSize--;
+        if (heapSize > 0) {
+            int lastNode = heapNodes[heapSize];
+            double lastDistance = heapDistances[heapSize];
+            int index = 0;
+            while (true) {
+                int child = (index << 1) + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heapDistances[child + 1] < heapDistances[child]) {
+                    child++;
+                }
+                if (heapDistances[child] >= lastDistance) {
+                    break;
+                }
+                heapNodes[index] = heapNodes[child];
+                heapDistances[index] = heapDistances[child];
+                index = child;
+            }
+            heapNodes[index] = lastNode;
+            heapDistances[index] = lastDistance;
+        }
+        return node;
+    }
+
+}
@@ -0,0 +1,371 @@
+package mil.nga.geopackage.db.rtree;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import mil.nga.geopackage.GeoPackageException;
+
+/**
+ * Builds a Sort-Tile-Recursive packed R-tree from feature envelopes and writes it to a
+ * file readable by {@link PackedRTree}
+ */
+public class PackedRTreeWriter {
+
+    /**
+     * Default max number of children per node
+     */
+    public static final int DEFAULT_NODE_SIZE = 16;
+
+    /**
+     * Write buffer size in bytes
+     */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Max number of children per node
+     */
+    private final int nodeSize;
+
+    /**
+     * Number of features to add
+     */
+    private final int numItems;
+
+    /**
+     * Exclusive end node of each level, from the leaves up to the root
+     */
+    private final int[] levelBounds;
+
+    /**
+     * Node boxes as min x, min y, max x, max y
+     */
+    private final double[] boxes;
+
+    /**
+     * Node indices, feature ids for leaves and first child nodes for parents
+     */
+    private final long[] indices;
+
+    /**
+     * Number of features added
+     */
+    private int added = 0;
+
+    /**
+     * Constructor
+     *
+     * @param numItems number of features that will be added
+     */
+    public PackedRTreeWriter(int numItems) {
+        this(numItems, DEFAULT_NODE_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param numItems number of features that will be added
+     * @param nodeSize max number of children per node
+     */
+    public PackedRTreeWriter(int numItems, int nodeSize) {
+        if (numItems < 0) {
+            throw new GeoPackageException("Number of items must not be negative: " + numItems);
+        }
+        if (nodeSize < 2) {
+            throw new GeoPackageException("Node size must be at least 2: " + nodeSize);
+        }
+        this.numItems = numItems;
+        this.nodeSize = nodeSize;
+
+        int numLevels = 0;
+        int numNodes = numItems;
+        if (numItems > 0) {
+            numLevels = 1;
+            int count = numItems;
+            do {
+                count = (count + nodeSize - 1) / nodeSize;
+                numNodes += count;
+                numLevels++;
+            } while (count != 1);
+        }
+        levelBounds = new int[numLevels];
+        if (numItems > 0) {
+            int count = numItems;
+            int bound = numItems;
+            levelBounds[0] = bound;
+            for (int level = 1; level < numLevels; level++) {
+                count = (count + nodeSize - 1) / nodeSize;
+                bound += count;
+                levelBounds[level] = bound;
+            }
+        }
+
+        boxes = new double[numNodes * 4];
+        indices = new long[numNodes];
+    }
+
+    /**
+     * Add a feature envelope
+     *
+     * @param id   feature id
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     */
+    public void add(long id, double minX, double minY, double maxX, double maxY) {
+        if (added >= numItems) {
+            throw new GeoPackageException("Packed R-tree is full. Items: " + numItems);
+        }
+        int boxIndex = added * 4;
+        boxes[boxIndex] = minX;
+        boxes[boxIndex + 1] = minY;
+        boxes[boxIndex + 2] = maxX;
+        boxes[boxIndex + 3] = maxY;
+        indices[added] = id;
+        added++;
+    }
+
+    /**
+     * Pack the tree and write it to the file. The file is written to a temporary file
+     * first and then renamed so open readers of a previous file are not affected.
+     *
+     * @param file        packed R-tree file
+     * @param lastIndexed last indexed time of the geometry metadata the tree was built from
+     */
+    public void write(File file, long lastIndexed) {
+        if (added != numItems) {
+            throw new GeoPackageException("Packed R-tree expected " + numItems
+                    + " items but " + added + " were added");
+        }
+
+        pack();
+
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                writeTo(out.getChannel(), lastIndexed);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw new GeoPackageException("Failed to write packed R-tree file: "
+                    + file.getAbsolutePath(), e);
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new GeoPackageException("Failed to rename packed R-tree file: "
+                    + tempFile.getAbsolutePath() + " to " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Sort each level with Sort-Tile-Recursive ordering and build the parent nodes
+     */
+    private void pack() {
+        for (int level = 0; level < levelBounds.length - 1; level++) {
+            int start = level == 0 ? 0 : levelBounds[level - 1];
+            int end = levelBounds[level];
+
+            sortTileRecursive(start, end);
+
+            int parent = end;
+            for (int node = start; node < end; node += nodeSize) {
+                int childEnd = Math.min(node + nodeSize, end);
+                double minX = Double.POSITIVE_INFINITY;
+                double minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+                for (int child = node; child < childEnd; child++) {
+                    int boxIndex = child * 4;
+                    minX = Math.min(minX, boxes[boxIndex]);
+                    minY = Math.min(minY, boxes[boxIndex + 1]);
+                    maxX = Math.max(maxX, boxes[boxIndex + 2]);
+                    maxY = Math.max(maxY, boxes[boxIndex + 3]);
+                }
+                int boxIndex = parent * 4;
+                boxes[boxIndex] = minX;
+                boxes[boxIndex + 1] = minY;
+                boxes[boxIndex + 2] = maxX;
+                boxes[boxIndex + 3] = maxY;
+                indices[parent] = node;
+                parent++;
+            }
+        }
+    }
+
+    /**
+     * Reorder the level nodes into vertical slices sorted by center x, each sorted by
+     * center y, so that consecutive groups of node size nodes form compact tiles
+     *
+     * @param start first node
+     * @param end   exclusive end node
+     */
+    private void sortTileRecursive(int start, int end) {
+        int count = end - start;
+        if (count <= nodeSize) {
+            return;
+        }
+
+        int[] order = new int[count];
+        double[] centerX = new double[count];
+        double[] centerY = new double[count];
+        for (int i = 0; i < count; i++) {
+            int boxIndex = (start + i) * 4;
+            order[i] = i;
+            centerX[i] = (boxes[boxIndex] + boxes[boxIndex + 2]) / 2.0;
+            centerY[i] = (boxes[boxIndex + 1] + boxes[boxIndex + 3]) / 2.0;
+        }
+
+        int parents = (count + nodeSize - 1) / nodeSize;
+        int slices = (int) Math.ceil(Math.sqrt(parents));
+        int sliceSize = slices * nodeSize;
+
+        sort(order, centerX, 0, count - 1);
+        for (int sliceStart = 0; sliceStart < count; sliceStart += sliceSize) {
+            sort(order, centerY, sliceStart, Math.min(sliceStart + sliceSize, count) - 1);
+        }
+
+        double[] sortedBoxes = new double[count * 4];
+        long[] sortedIndices = new long[count];
+        for (int i = 0; i < count; i++) {
+            int from = start + order[i];
+            System.arraycopy(boxes, from * 4, sortedBoxes, i * 4, 4);
+            sortedIndices[i] = indices[from];
+        }
+        System.arraycopy(sortedBoxes, 0, boxes, start * 4, count * 4);
+        System.arraycopy(sortedIndices, 0, indices, start, count);
+    }
+
+    /**
+     * Sort the order positions by their keys
+     *
+     * @param order positions into keys
+     * @param keys
+     * @param left  first position
+     * @param right last position, inclusive
+     */
+    private static void sort(int[] order, double[] keys, int left, int right) {
+        while (right - left > 16) {
+            double pivot = keys[order[(left + right) >>> 1]];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) {
+                    i++;
+                }
+                while (keys[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int temp = order[i];
+                    order[i] = order[j];
+                    order[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse on the smaller side to bound the stack depth
+            if (j - left < right - i) {
+                sort(order, keys, left, j);
+                left = i;
+            } else {
+                sort(order, keys, i, right);
+                right = j;
+            }
+        }
+        for (int i = left + 1; i <= right; i++) {
+            int value = order[i];
+            double key = keys[value];
+            int j = i - 1;
+            while (j >= left && keys[order[j]] > key) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = value;
+        }
+    }
+
+    /**
+     * Write the header, level bounds, boxes, and indices
+     *
+     * @param channel
+     * @param lastIndexed
+     * @throws IOException
+     */
+    private void writeTo(FileChannel channel, long lastIndexed) throws IOException {
+
+        int numNodes = indices.length;
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(PackedRTree.BYTE_ORDER);
+
+        buffer.putInt(PackedRTree.MAGIC);
+        buffer.putInt(PackedRTree.VERSION);
+        buffer.putInt(nodeSize);
+        buffer.putInt(numItems);
+        buffer.putInt(numNodes);
+        buffer.putInt(levelBounds.length);
+        buffer.putLong(lastIndexed);
+        while (buffer.position() < PackedRTree.HEADER_LENGTH) {
+            buffer.put((byte) 0);
+        }
+
+        for (int bound : levelBounds) {
+            ensureCapacity(channel, buffer, 4);
+            buffer.putInt(bound);
+        }
+        int boxesOffset = PackedRTree.getBoxesOffset(levelBounds.length);
+        int position = PackedRTree.HEADER_LENGTH + (levelBounds.length * 4);
+        for (; position < boxesOffset; position++) {
+            ensureCapacity(channel, buffer, 1);
+            buffer.put((byte) 0);
+        }
+
+        for (double value : boxes) {
+            ensureCapacity(channel, buffer, 8);
+            buffer.putDouble(value);
+        }
+        for (long index : indices) {
+            ensureCapacity(channel, buffer, 8);
+            buffer.putLong(index);
+        }
+
+        flush(channel, buffer);
+    }
+
+    /**
+     * Flush the buffer to the channel if it does not have the remaining capacity
+     *
+     * @param channel
+     * @param buffer
+     * @param bytes
+     * @throws IOException
+     */
+    private static void ensureCapacity(FileChannel channel, ByteBuffer buffer, int bytes)
+            throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Write the buffer contents to the channel and clear it
+     *
+     * @param channel
+     * @param buffer
+     * @throws IOException
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+}
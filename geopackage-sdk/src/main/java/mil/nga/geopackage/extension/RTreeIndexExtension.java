@@ -0,0 +1,484 @@
+package mil.nga.geopackage.extension;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.j256.ormlite.dao.DaoManager;
+
+import java.sql.SQLException;
+
+import mil.nga.geopackage.BoundingBox;
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.geopackage.db.GeoPackageCoreConnection;
+import mil.nga.geopackage.db.GeoPackageTableCreator;
+import mil.nga.geopackage.features.user.FeatureCursor;
+import mil.nga.geopackage.features.user.FeatureDao;
+import mil.nga.geopackage.geom.GeoPackageGeometryData;
+import mil.nga.geopackage.geom.GeoPackageGeometryEnvelopeReader;
+import mil.nga.wkb.geom.GeometryEnvelope;
+
+/**
+ * RTree Spatial Index extension (gpkg_rtree_index). Detects, queries, creates, and
+ * maintains the rtree_&lt;table&gt;_&lt;geometry column&gt; virtual table stored within
+ * the GeoPackage.
+ *
+ * The GeoPackage RTree triggers depend on SQL geometry functions that are not available
+ * on Android and are dropped when a feature DAO is created, so the index is maintained by
+ * the feature DAO when rows are written.
+ */
+public class RTreeIndexExtension {
+
+    /**
+     * Extension name
+     */
+    public static final String EXTENSION_NAME = "gpkg_rtree_index";
+
+    /**
+     * Extension definition
+     */
+    public static final String DEFINITION = "GeoPackage 1.0 Specification Annex L";
+
+    /**
+     * RTree table name prefix
+     */
+    public static final String TABLE_PREFIX = "rtree_";
+
+    /**
+     * Id column
+     */
+    public static final String COLUMN_ID = "id";
+
+    /**
+     * Min X column
+     */
+    public static final String COLUMN_MIN_X = "minx";
+
+    /**
+     * Max X column
+     */
+    public static final String COLUMN_MAX_X = "maxx";
+
+    /**
+     * Min Y column
+     */
+    public static final String COLUMN_MIN_Y = "miny";
+
+    /**
+     * Max Y column
+     */
+    public static final String COLUMN_MAX_Y = "maxy";
+
+    /**
+     * Feature DAO
+     */
+    private final FeatureDao featureDao;
+
+    /**
+     * Database connection
+     */
+    private final SQLiteDatabase db;
+
+    /**
+     * RTree table name
+     */
+    private final String tableName;
+
+    /**
+     * Cached state of the RTree table existing and being usable
+     */
+    private Boolean indexed;
+
+    /**
+     * Constructor
+     *
+     * @param featureDao
+     */
+    public RTreeIndexExtension(FeatureDao featureDao) {
+        this.featureDao = featureDao;
+        this.db = featureDao.getSQLiteDatabase();
+        this.tableName = getTableName(featureDao.getTableName(), featureDao.getGeometryColumnName());
+    }
+
+    /**
+     * Get the RTree table name of the feature table geometry column
+     *
+     * @param featureTable
+     * @param geometryColumn
+     * @return RTree table name
+     */
+    public static String getTableName(String featureTable, String geometryColumn) {
+        return TABLE_PREFIX + featureTable + "_" + geometryColumn;
+    }
+
+    /**
+     * Get the RTree table name
+     *
+     * @return RTree table name
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Determine if the feature table has a usable RTree index. The RTree table must exist
+     * and the SQLite rtree module must be available to query it.
+     *
+     * @return true if indexed
+     */
+    public boolean has() {
+        if (indexed == null) {
+            boolean exists = featureDao.getDb().tableExists(tableName);
+            if (exists) {
+                try {
+                    Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + " FROM "
+                            + quote(tableName) + " LIMIT 1", null);
+                    cursor.close();
+                } catch (SQLiteException e) {
+                    exists = false;
+                }
+            }
+            indexed = exists;
+        }
+        return indexed;
+    }
+
+    /**
+     * Create the RTree table, index all feature rows, and register the extension
+     *
+     * @return number of indexed features
+     */
+    public int create() {
+
+        int count = 0;
+
+        db.beginTransaction();
+        try {
+            if (!featureDao.getDb().tableExists(tableName)) {
+                db.execSQL("CREATE VIRTUAL TABLE " + quote(tableName) + " USING rtree("
+                        + COLUMN_ID + ", " + COLUMN_MIN_X + ", " + COLUMN_MAX_X + ", "
+                        + COLUMN_MIN_Y + ", " + COLUMN_MAX_Y + ")");
+            } else {
+                db.execSQL("DELETE FROM " + quote(tableName));
+            }
+
+            count = load();
+
+            registerExtension();
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            indexed = null;
+        }
+
+        return count;
+    }
+
+    /**
+     * Index all feature rows with geometries
+     *
+     * @return indexed count
+     */
+    private int load() {
+        int count = 0;
+        SQLiteStatement statement = createInsertStatement();
+        FeatureCursor cursor = featureDao.queryForAll();
+        try {
+            int pkIndex = featureDao.getTable().getPkColumnIndex();
+            while (cursor.moveToNext()) {
+                GeometryEnvelope envelope = cursor.getGeometryEnvelope();
+                if (envelope != null) {
+                    insert(statement, cursor.getLong(pkIndex), envelope);
+                    count++;
+                }
+            }
+        } finally {
+            cursor.close();
+            statement.close();
+        }
+        return count;
+    }
+
+    /**
+     * Register the extension in the GeoPackage extensions table
+     */
+    private void registerExtension() {
+        GeoPackageCoreConnection connection = featureDao.getDb();
+        try {
+            ExtensionsDao extensionsDao = DaoManager.createDao(connection.getConnectionSource(),
+                    Extensions.class);
+            if (!extensionsDao.isTableExists()) {
+                new GeoPackageTableCreator(connection).createExtensions();
+            }
+            Extensions extension = extensionsDao.queryByExtension(EXTENSION_NAME,
+                    featureDao.getTableName(), featureDao.getGeometryColumnName());
+            if (extension == null) {
+                extension = new Extensions();
+                extension.setTableName(featureDao.getTableName());
+                extension.setColumnName(featureDao.getGeometryColumnName());
+                extension.setExtensionName(EXTENSION_NAME);
+                extension.setDefinition(DEFINITION);
+                extension.setScope(ExtensionScopeType.WRITE_ONLY);
+                extensionsDao.create(extension);
+            }
+        } catch (SQLException e) {
+            throw new GeoPackageException("Failed to register the " + EXTENSION_NAME
+                    + " extension. Table: " + featureDao.getTableName() + ", Column: "
+                    + featureDao.getGeometryColumnName(), e);
+        }
+    }
+
+    /**
+     * Drop the RTree table and remove the extension registration
+     */
+    public void delete() {
+        GeoPackageCoreConnection connection = featureDao.getDb();
+        db.beginTransaction();
+        try {
+            db.execSQL("DROP TABLE IF EXISTS " + quote(tableName));
+            ExtensionsDao extensionsDao = DaoManager.createDao(connection.getConnectionSource(),
+                    Extensions.class);
+            if (extensionsDao.isTableExists()) {
+                extensionsDao.deleteByExtension(EXTENSION_NAME, featureDao.getTableName(),
+                        featureDao.getGeometryColumnName());
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            throw new GeoPackageException("Failed to delete the " + EXTENSION_NAME
+                    + " extension. Table: " + featureDao.getTableName() + ", Column: "
+                    + featureDao.getGeometryColumnName(), e);
+        } finally {
+            db.endTransaction();
+            indexed = null;
+        }
+    }
+
+    /**
+     * Insert or replace the index of the feature geometry
+     *
+     * @param id            feature id
+     * @param geometryBytes GeoPackage geometry bytes, null to remove the index
+     */
+    public void insert(long id, byte[] geometryBytes) {
+        insert(id, geometryBytes != null
+                ? GeoPackageGeometryEnvelopeReader.getEnvelope(geometryBytes) : null);
+    }
+
+    /**
+     * Insert or replace the index of the feature geometry
+     *
+     * @param id           feature id
+     * @param geometryData geometry data, null to remove the index
+     */
+    public void insert(long id, GeoPackageGeometryData geometryData) {
+        insert(id, GeoPackageGeometryEnvelopeReader.getEnvelope(geometryData));
+    }
+
+    /**
+     * Insert or replace the index of the feature envelope
+     *
+     * @param id       feature id
+     * @param envelope envelope, null or empty to remove the index
+     */
+    public void insert(long id, GeometryEnvelope envelope) {
+        if (envelope == null) {
+            delete(id);
+        } else {
+            SQLiteStatement statement = createInsertStatement();
+            try {
+                insert(statement, id, envelope);
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Create an insert or replace statement for the RTree table
+     *
+     * @return statement that must be closed
+     */
+    private SQLiteStatement createInsertStatement() {
+        return db.compileStatement("INSERT OR REPLACE INTO " + quote(tableName) + " ("
+                + COLUMN_ID + ", " + COLUMN_MIN_X + ", " + COLUMN_MAX_X + ", "
+                + COLUMN_MIN_Y + ", " + COLUMN_MAX_Y + ") VALUES (?, ?, ?, ?, ?)");
+    }
+
+    /**
+     * Insert the envelope with the statement
+     *
+     * @param statement
+     * @param id
+     * @param envelope
+     */
+    private static void insert(SQLiteStatement statement, long id, GeometryEnvelope envelope) {
+        statement.clearBindings();
+        statement.bindLong(1, id);
+        statement.bindDouble(2, envelope.getMinX());
+        statement.bindDouble(3, envelope.getMaxX());
+        statement.bindDouble(4, envelope.getMinY());
+        statement.bindDouble(5, envelope.getMaxY());
+        statement.executeInsert();
+    }
+
+    /**
+     * Delete the index of the feature
+     *
+     * @param id feature id
+     * @return deleted count
+     */
+    public int delete(long id) {
+        return db.delete(quote(tableName), COLUMN_ID + " = ?",
+                new String[]{String.valueOf(id)});
+    }
+
+    /**
+     * Delete the indices of feature rows matching the where clause, called before the
+     * feature rows are deleted
+     *
+     * @param where     feature table where clause
+     * @param whereArgs
+     * @return deleted count
+     */
+    public int delete(String where, String[] whereArgs) {
+        return db.delete(quote(tableName), COLUMN_ID + " IN (" + pkSelect(where) + ")", whereArgs);
+    }
+
+    /**
+     * Query for features intersecting the bounding box in the feature projection
+     *
+     * @param boundingBox
+     * @return feature cursor that must be closed
+     */
+    public FeatureCursor query(BoundingBox boundingBox) {
+        return query(toEnvelope(boundingBox));
+    }
+
+    /**
+     * Query for features intersecting the envelope in the feature projection
+     *
+     * @param envelope
+     * @return feature cursor that must be closed
+     */
+    public FeatureCursor query(GeometryEnvelope envelope) {
+        String where = featureDao.getTable().getPkColumn().getName() + " IN (SELECT "
+                + COLUMN_ID + " FROM " + quote(tableName) + " WHERE " + envelopeWhere() + ")";
+        return featureDao.query(where, envelopeWhereArgs(envelope));
+    }
+
+    /**
+     * Query for feature ids intersecting the envelope in the feature projection
+     *
+     * @param envelope
+     * @return cursor of feature ids that must be closed
+     */
+    public Cursor queryIds(GeometryEnvelope envelope) {
+        return db.rawQuery("SELECT " + COLUMN_ID + " FROM " + quote(tableName) + " WHERE "
+                + envelopeWhere(), envelopeWhereArgs(envelope));
+    }
+
+    /**
+     * Count the features intersecting the bounding box in the feature projection
+     *
+     * @param boundingBox
+     * @return count
+     */
+    public int count(BoundingBox boundingBox) {
+        return count(toEnvelope(boundingBox));
+    }
+
+    /**
+     * Count the features intersecting the envelope in the feature projection
+     *
+     * @param envelope
+     * @return count
+     */
+    public int count(GeometryEnvelope envelope) {
+        int count = 0;
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + quote(tableName) + " WHERE "
+                + envelopeWhere(), envelopeWhereArgs(envelope));
+        try {
+            if (cursor.moveToFirst()) {
+                count = cursor.getInt(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return count;
+    }
+
+    /**
+     * Count all indexed features
+     *
+     * @return count
+     */
+    public int count() {
+        return featureDao.getDb().count(quote(tableName), null, null);
+    }
+
+    /**
+     * Build the RTree envelope intersection where clause
+     *
+     * @return where clause
+     */
+    private static String envelopeWhere() {
+        return COLUMN_MIN_X + " <= ? AND " + COLUMN_MAX_X + " >= ? AND "
+                + COLUMN_MIN_Y + " <= ? AND " + COLUMN_MAX_Y + " >= ?";
+    }
+
+    /**
+     * Build the RTree envelope intersection where arguments
+     *
+     * @param envelope
+     * @return where arguments
+     */
+    private static String[] envelopeWhereArgs(GeometryEnvelope envelope) {
+        return new String[]{String.valueOf(envelope.getMaxX()),
+                String.valueOf(envelope.getMinX()), String.valueOf(envelope.getMaxY()),
+                String.valueOf(envelope.getMinY())};
+    }
+
+    /**
+     * Build a select of feature ids matching the where clause
+     *
+     * @param where
+     * @return select statement
+     */
+    private String pkSelect(String where) {
+        StringBuilder select = new StringBuilder("SELECT ")
+                .append(featureDao.getTable().getPkColumn().getName())
+                .append(" FROM ").append(quote(featureDao.getTableName()));
+        if (where != null) {
+            select.append(" WHERE ").append(where);
+        }
+        return select.toString();
+    }
+
+    /**
+     * Convert a bounding box to an envelope
+     *
+     * @param boundingBox
+     * @return envelope
+     */
+    private static GeometryEnvelope toEnvelope(BoundingBox boundingBox) {
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(boundingBox.getMinLongitude());
+        envelope.setMaxX(boundingBox.getMaxLongitude());
+        envelope.setMinY(boundingBox.getMinLatitude());
+        envelope.setMaxY(boundingBox.getMaxLatitude());
+        return envelope;
+    }
+
+    /**
+     * Quote an identifier
+     *
+     * @param name
+     * @return quoted name
+     */
+    private static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+}
@@ -1,6 +1,10 @@
 package mil.nga.geopackage.factory;
 
 import android.content.Context;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import mil.nga.geopackage.GeoPackageManager;
 
@@ -11,6 +15,11 @@ import mil.nga.geopackage.GeoPackageManager;
  */
 public class GeoPackageFactory {
 
+    /**
+     * Listeners notified of imported GeoPackages
+     */
+    private static final List<GeoPackageImportListener> importListeners = new CopyOnWriteArrayList<GeoPackageImportListener>();
+
     /**
      * Get a GeoPackage Manager
      *
@@ -22,4 +31,41 @@ public class GeoPackageFactory {
         return new GeoPackageManagerImpl(context);
     }
 
+    /**
+     * Add a listener notified after GeoPackages are imported by any GeoPackage Manager
+     *
+     * @param listener
+     */
+    public static void addImportListener(GeoPackageImportListener listener) {
+        if (!importListeners.contains(listener)) {
+            importListeners.add(listener);
+        }
+    }
+
+    /**
+     * Remove an import listener
+     *
+     * @param listener
+     * @return true if removed
+     */
+    public static boolean removeImportListener(GeoPackageImportListener listener) {
+        return importListeners.remove(listener);
+    }
+
+    /**
+     * Notify the import listeners of an imported GeoPackage. Listener failures are logged
+     * and do not fail the import.
+     *
+     * @param database
+     */
+    static void notifyImported(String database) {
+        for (GeoPackageImportListener listener : importListeners) {
+            try {
+                listener.onImport(database);
+            } catch (RuntimeException e) {
+                Log.e(GeoPackageFactory.class.getSimpleName(), "Import listener failed. Database: " + database, e);
+            }
+        }
+    }
+
 }
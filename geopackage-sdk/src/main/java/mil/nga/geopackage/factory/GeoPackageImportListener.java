@@ -0,0 +1,16 @@
+package mil.nga.geopackage.factory;
+
+/**
+ * Listener notified after a GeoPackage is imported by a GeoPackage Manager, registered with
+ * {@link GeoPackageFactory#addImportListener(GeoPackageImportListener)}
+ */
+public interface GeoPackageImportListener {
+
+    /**
+     * Called after the GeoPackage database was imported and validated, on the importing thread
+     *
+     * @param database imported database name
+     */
+    void onImport(String database);
+
+}
@@ -33,6 +33,8 @@ import mil.nga.geopackage.db.GeoPackageTableCreator;
 import mil.nga.geopackage.db.metadata.GeoPackageMetadata;
 import mil.nga.geopackage.db.metadata.GeoPackageMetadataDataSource;
 import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
+import mil.nga.geopackage.db.metadata.GeometryMetadataStore;
+import mil.nga.geopackage.db.rtree.PackedRTreeIndex;
 import mil.nga.geopackage.io.GeoPackageIOUtils;
 import mil.nga.geopackage.io.GeoPackageProgress;
 import mil.nga.geopackage.validate.GeoPackageValidate;
@@ -176,6 +178,10 @@ class GeoPackageManagerImpl implements GeoPackageManager {
         metadataDb.open();
         try {
             GeoPackageMetadataDataSource dataSource = new GeoPackageMetadataDataSource(metadataDb);
+            GeoPackageMetadata metadata = dataSource.get(database);
+            if (metadata != null) {
+                new PackedRTreeIndex(context).delete(metadata.getId());
+            }
             deleted = dataSource.delete(database);
         } finally {
             metadataDb.close();
@@ -562,7 +568,11 @@ class GeoPackageManagerImpl implements GeoPackageManager {
             metadataDb.close();
         }
 
-        return exists(database);
+        boolean imported = exists(database);
+        if (imported) {
+            GeoPackageFactory.notifyImported(database);
+        }
+        return imported;
     }
 
     /**
@@ -575,7 +585,9 @@ class GeoPackageManagerImpl implements GeoPackageManager {
         for (String database : databaseArray) {
             if (!isTemporary(database)
                     && !database
-                    .equalsIgnoreCase(GeoPackageMetadataDb.DATABASE_NAME)) {
+                    .equalsIgnoreCase(GeoPackageMetadataDb.DATABASE_NAME)
+                    && !database
+                    .equalsIgnoreCase(GeometryMetadataStore.DIRECTORY)) {
                 databases.add(database);
             }
         }
@@ -671,7 +683,11 @@ class GeoPackageManagerImpl implements GeoPackageManager {
             }
         }
 
-        return exists(database);
+        boolean imported = exists(database);
+        if (imported && (progress == null || progress.isActive())) {
+            GeoPackageFactory.notifyImported(database);
+        }
+        return imported;
     }
 
     /**
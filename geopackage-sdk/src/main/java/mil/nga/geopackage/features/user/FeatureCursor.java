@@ -1,7 +1,9 @@
 package mil.nga.geopackage.features.user;
 
 import mil.nga.geopackage.geom.GeoPackageGeometryData;
+import mil.nga.geopackage.geom.GeoPackageGeometryEnvelopeReader;
 import mil.nga.geopackage.user.UserCursor;
+import mil.nga.wkb.geom.GeometryEnvelope;
 import android.database.Cursor;
 
 /**
@@ -64,4 +66,22 @@ public class FeatureCursor extends
 		return geometry;
 	}
 
+	/**
+	 * Get the geometry envelope, read from the geometry header when available
+	 * without decoding the geometry
+	 * 
+	 * @return envelope or null
+	 */
+	public GeometryEnvelope getGeometryEnvelope() {
+
+		byte[] geometryBytes = getBlob(getTable().getGeometryColumnIndex());
+
+		GeometryEnvelope envelope = null;
+		if (geometryBytes != null) {
+			envelope = GeoPackageGeometryEnvelopeReader.getEnvelope(geometryBytes);
+		}
+
+		return envelope;
+	}
+
 }
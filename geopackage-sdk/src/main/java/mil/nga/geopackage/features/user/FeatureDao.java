@@ -1,12 +1,25 @@
 package mil.nga.geopackage.features.user;
 
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mil.nga.geopackage.BoundingBox;
 import mil.nga.geopackage.GeoPackageException;
 import mil.nga.geopackage.core.contents.Contents;
 import mil.nga.geopackage.core.srs.SpatialReferenceSystem;
+import mil.nga.geopackage.db.FeatureIndexer;
 import mil.nga.geopackage.db.GeoPackageConnection;
+import mil.nga.geopackage.extension.RTreeIndexExtension;
 import mil.nga.geopackage.features.columns.GeometryColumns;
+import mil.nga.geopackage.geom.GeoPackageGeometryEnvelopeReader;
+import mil.nga.geopackage.projection.Projection;
 import mil.nga.geopackage.projection.ProjectionFactory;
 import mil.nga.geopackage.user.UserDao;
+import mil.nga.wkb.geom.GeometryEnvelope;
 import mil.nga.wkb.geom.GeometryType;
 
 /**
@@ -27,6 +40,17 @@ public class FeatureDao extends
      */
     private final GeometryColumns geometryColumns;
 
+    /**
+     * RTree index extension, maintained on writes when the index exists
+     */
+    private RTreeIndexExtension rtreeIndex;
+
+    /**
+     * Feature indexer querying the metadata index and maintaining it on writes when
+     * write-through indexing is enabled
+     */
+    private FeatureIndexer indexer;
+
     /**
      * Constructor
      *
@@ -101,4 +125,429 @@ public class FeatureDao extends
         return geometryColumns.getGeometryType();
     }
 
+    /**
+     * Get the RTree index extension of the feature table
+     *
+     * @return RTree index extension
+     */
+    public RTreeIndexExtension getRTreeIndex() {
+        if (rtreeIndex == null) {
+            rtreeIndex = new RTreeIndexExtension(this);
+        }
+        return rtreeIndex;
+    }
+
+    /**
+     * Determine if the feature table has a usable RTree index extension table. When
+     * indexed, the RTree index is maintained as rows are inserted, updated, and deleted.
+     *
+     * @return true if RTree indexed
+     */
+    public boolean isRTreeIndexed() {
+        return getRTreeIndex().has();
+    }
+
+    /**
+     * Get the feature indexer querying and maintaining the metadata index
+     *
+     * @return feature indexer or null
+     */
+    public FeatureIndexer getIndexer() {
+        return indexer;
+    }
+
+    /**
+     * Set the feature indexer used to query the metadata index by bounding box and to
+     * maintain it on writes when write-through indexing is enabled, see
+     * {@link FeatureIndexer#setWriteThrough(boolean)}
+     *
+     * @param indexer feature indexer or null
+     */
+    public void setIndexer(FeatureIndexer indexer) {
+        this.indexer = indexer;
+    }
+
+    /**
+     * Query for feature rows intersecting the bounding box using the GeoPackage RTree
+     * index when present, or the metadata index of the feature indexer.
+     *
+     * @param boundingBox bounding box
+     * @param projection  projection of the bounding box, null for the feature projection
+     * @return feature cursor that must be closed
+     */
+    public FeatureCursor queryForBoundingBox(BoundingBox boundingBox, Projection projection) {
+
+        BoundingBox featureBoundingBox = boundingBox;
+        if (projection != null && projection.getEpsg() != getProjection().getEpsg()) {
+            featureBoundingBox = projection.getTransformation(getProjection()).transform(boundingBox);
+        }
+
+        FeatureCursor cursor;
+        if (isRTreeIndexed()) {
+            cursor = getRTreeIndex().query(featureBoundingBox);
+        } else if (indexer != null) {
+            cursor = indexer.query(featureBoundingBox);
+        } else {
+            throw new GeoPackageException("Feature table is not RTree indexed and has no "
+                    + FeatureIndexer.class.getSimpleName() + ". GeoPackage: "
+                    + getDatabase() + ", Table: " + getTableName());
+        }
+        return cursor;
+    }
+
+    /**
+     * Estimate the number of feature rows intersecting the bounding box. The count is the
+     * exact envelope-candidate count from the RTree index when present, or estimated from
+     * the metadata index statistics of the feature indexer without querying the index.
+     *
+     * @param boundingBox bounding box
+     * @param projection  projection of the bounding box, null for the feature projection
+     * @return estimated count, or -1 if the indexed table has no statistics
+     */
+    public long estimateCount(BoundingBox boundingBox, Projection projection) {
+
+        BoundingBox featureBoundingBox = boundingBox;
+        if (projection != null && projection.getEpsg() != getProjection().getEpsg()) {
+            featureBoundingBox = projection.getTransformation(getProjection()).transform(boundingBox);
+        }
+
+        long count;
+        if (isRTreeIndexed()) {
+            count = getRTreeIndex().count(featureBoundingBox);
+        } else if (indexer != null) {
+            count = indexer.estimateCount(featureBoundingBox);
+        } else {
+            throw new GeoPackageException("Feature table is not RTree indexed and has no "
+                    + FeatureIndexer.class.getSimpleName() + ". GeoPackage: "
+                    + getDatabase() + ", Table: " + getTableName());
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Maintains the RTree and write-through metadata indices
+     */
+    @Override
+    public long insert(FeatureRow row) {
+        long id;
+        if (isWriteIndexed()) {
+            beginIndexedWrite();
+            boolean successful = false;
+            try {
+                id = super.insert(row);
+                indexWrite(id, GeoPackageGeometryEnvelopeReader.getEnvelope(row.getGeometry()));
+                successful = true;
+            } finally {
+                endIndexedWrite(successful);
+            }
+        } else {
+            id = super.insert(row);
+        }
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Maintains the RTree and write-through metadata indices
+     */
+    @Override
+    public long insert(ContentValues values) {
+        long id;
+        if (isWriteIndexed()) {
+            beginIndexedWrite();
+            boolean successful = false;
+            try {
+                id = super.insert(values);
+                if (id != -1) {
+                    indexWrite(id, values);
+                }
+                successful = id != -1;
+            } finally {
+                endIndexedWrite(successful);
+            }
+        } else {
+            id = super.insert(values);
+        }
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Maintains the RTree and write-through metadata indices
+     */
+    @Override
+    public long insertOrThrow(ContentValues values) {
+        long id;
+        if (isWriteIndexed()) {
+            beginIndexedWrite();
+            boolean successful = false;
+            try {
+                id = super.insertOrThrow(values);
+                indexWrite(id, values);
+                successful = true;
+            } finally {
+                endIndexedWrite(successful);
+            }
+        } else {
+            id = super.insertOrThrow(values);
+        }
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Maintains the RTree and write-through metadata indices
+     */
+    @Override
+    public int update(FeatureRow row) {
+        int updated;
+        if (isWriteIndexed()) {
+            beginIndexedWrite();
+            boolean successful = false;
+            try {
+                updated = super.update(row);
+                if (updated > 0) {
+                    indexWrite(row.getId(),
+                            GeoPackageGeometryEnvelopeReader.getEnvelope(row.getGeometry()));
+                }
+                successful = true;
+            } finally {
+                endIndexedWrite(successful);
+            }
+        } else {
+            updated = super.update(row);
+        }
+        return updated;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Maintains the RTree and write-through metadata indices
+     */
+    @Override
+    public int update(ContentValues values, String whereClause, String[] whereArgs) {
+        int updated;
+        if (isWriteIndexed()) {
+            beginIndexedWrite();
+            boolean successful = false;
+            try {
+                List<Long> ids = null;
+                if (values.containsKey(getGeometryColumnName()) || isTimeWrite(values)) {
+                    ids = queryIds(whereClause, whereArgs);
+                }
+                updated = super.update(values, whereClause, whereArgs);
+                if (ids != null) {
+                    for (long id : ids) {
+                        indexWrite(id, values);
+                    }
+                }
+                successful = true;
+            } finally {
+                endIndexedWrite(successful);
+            }
+        } else {
+            updated = super.update(values, whereClause, whereArgs);
+        }
+        return updated;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Maintains the RTree and write-through metadata indices
+     */
+    @Override
+    public int deleteById(long id) {
+        int deleted;
+        if (isWriteIndexed()) {
+            beginIndexedWrite();
+            boolean successful = false;
+            try {
+                deleted = super.deleteById(id);
+                indexWrite(id, (GeometryEnvelope) null);
+                successful = true;
+            } finally {
+                endIndexedWrite(successful);
+            }
+        } else {
+            deleted = super.deleteById(id);
+        }
+        return deleted;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Maintains the RTree and write-through metadata indices
+     */
+    @Override
+    public int delete(String whereClause, String[] whereArgs) {
+        int deleted;
+        if (isWriteIndexed()) {
+            beginIndexedWrite();
+            boolean successful = false;
+            try {
+                FeatureIndexer indexer = getWriteThroughIndexer();
+                List<Long> ids = null;
+                if (indexer != null) {
+                    ids = queryIds(whereClause, whereArgs);
+                }
+                if (isRTreeIndexed()) {
+                    getRTreeIndex().delete(whereClause, whereArgs);
+                }
+                deleted = super.delete(whereClause, whereArgs);
+                if (ids != null) {
+                    indexer.deleteWrite(ids);
+                }
+                successful = true;
+            } finally {
+                endIndexedWrite(successful);
+            }
+        } else {
+            deleted = super.delete(whereClause, whereArgs);
+        }
+        return deleted;
+    }
+
+    /**
+     * Determine if writes maintain an index
+     *
+     * @return true if the RTree index exists or write-through indexing is enabled
+     */
+    private boolean isWriteIndexed() {
+        return getWriteThroughIndexer() != null || isRTreeIndexed();
+    }
+
+    /**
+     * Get the feature indexer when write-through indexing is enabled
+     *
+     * @return feature indexer or null
+     */
+    private FeatureIndexer getWriteThroughIndexer() {
+        return indexer != null && indexer.isWriteThrough() ? indexer : null;
+    }
+
+    /**
+     * Begin an indexed write transaction
+     */
+    private void beginIndexedWrite() {
+        FeatureIndexer indexer = getWriteThroughIndexer();
+        if (indexer != null) {
+            indexer.beginWrite();
+        }
+        try {
+            getSQLiteDatabase().beginTransaction();
+        } catch (RuntimeException e) {
+            if (indexer != null) {
+                indexer.endWrite(false);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Index the written feature envelope
+     *
+     * @param id       feature id
+     * @param envelope envelope, null to remove the feature from the indices
+     */
+    private void indexWrite(long id, GeometryEnvelope envelope) {
+        if (isRTreeIndexed()) {
+            getRTreeIndex().insert(id, envelope);
+        }
+        FeatureIndexer indexer = getWriteThroughIndexer();
+        if (indexer != null) {
+            indexer.indexWrite(id, envelope);
+        }
+    }
+
+    /**
+     * Index the written feature when the content values contain the geometry, or the
+     * time column of a time indexed write-through indexer
+     *
+     * @param id     feature id
+     * @param values written content values
+     */
+    private void indexWrite(long id, ContentValues values) {
+        String geometryColumn = getGeometryColumnName();
+        if (values.containsKey(geometryColumn)) {
+            byte[] geometryBytes = values.getAsByteArray(geometryColumn);
+            indexWrite(id, geometryBytes != null
+                    ? GeoPackageGeometryEnvelopeReader.getEnvelope(geometryBytes) : null);
+        } else if (isTimeWrite(values)) {
+            getWriteThroughIndexer().indexWrite(id);
+        }
+    }
+
+    /**
+     * Determine if the content values write the time column of the write-through indexer
+     *
+     * @param values
+     * @return true if writing the indexed time
+     */
+    private boolean isTimeWrite(ContentValues values) {
+        FeatureIndexer indexer = getWriteThroughIndexer();
+        String timeColumn = indexer != null ? indexer.getTimeColumn() : null;
+        return timeColumn != null && values.containsKey(timeColumn);
+    }
+
+    /**
+     * End an indexed write transaction, committing the feature write and then the
+     * write-through metadata index when successful
+     *
+     * @param successful true if the write succeeded
+     */
+    private void endIndexedWrite(boolean successful) {
+        SQLiteDatabase db = getSQLiteDatabase();
+        FeatureIndexer indexer = getWriteThroughIndexer();
+        boolean marked = false;
+        boolean committed = false;
+        try {
+            if (successful) {
+                if (indexer != null) {
+                    indexer.writeSuccessful();
+                }
+                db.setTransactionSuccessful();
+                marked = true;
+            }
+        } finally {
+            try {
+                db.endTransaction();
+                committed = marked;
+            } finally {
+                if (indexer != null) {
+                    indexer.endWrite(committed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Query for the ids of rows matching the where clause
+     *
+     * @param whereClause
+     * @param whereArgs
+     * @return ids
+     */
+    private List<Long> queryIds(String whereClause, String[] whereArgs) {
+        List<Long> ids = new ArrayList<Long>();
+        Cursor cursor = getSQLiteDatabase().query(getTableName(),
+                new String[]{getTable().getPkColumn().getName()}, whereClause,
+                whereArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
 }
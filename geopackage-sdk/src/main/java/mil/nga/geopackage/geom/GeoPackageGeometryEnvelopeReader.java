@@ -0,0 +1,268 @@
+package mil.nga.geopackage.geom;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.wkb.geom.Geometry;
+import mil.nga.wkb.geom.GeometryEnvelope;
+import mil.nga.wkb.util.GeometryEnvelopeBuilder;
+
+/**
+ * Reads geometry envelopes directly from GeoPackage geometry blob header bytes without
+ * decoding the well-known binary geometry. Falls back to a full geometry decode only
+ * when the header does not contain an envelope.
+ */
+public class GeoPackageGeometryEnvelopeReader {
+
+    /**
+     * Magic number byte 1
+     */
+    private static final byte MAGIC_1 = 'G';
+
+    /**
+     * Magic number byte 2
+     */
+    private static final byte MAGIC_2 = 'P';
+
+    /**
+     * Expected header version
+     */
+    private static final byte VERSION = 0;
+
+    /**
+     * Index of the flags byte
+     */
+    private static final int FLAGS_INDEX = 3;
+
+    /**
+     * Index of the first envelope value, after the magic, version, flags, and srs id
+     */
+    private static final int ENVELOPE_INDEX = 8;
+
+    /**
+     * Size in bytes of the minimum header
+     */
+    private static final int MIN_HEADER_LENGTH = ENVELOPE_INDEX;
+
+    /**
+     * Get the envelope of the GeoPackage geometry bytes, reading the header envelope when
+     * present and decoding the geometry otherwise
+     *
+     * @param bytes GeoPackage geometry bytes
+     * @return envelope or null if the geometry is empty or has no envelope
+     */
+    public static GeometryEnvelope getEnvelope(byte[] bytes) {
+        GeometryEnvelope envelope = null;
+        if (bytes != null) {
+            int flags = readFlags(bytes);
+            if (!isEmpty(flags)) {
+                if (getEnvelopeIndicator(flags) > 0) {
+                    envelope = readEnvelope(bytes, flags);
+                } else {
+                    GeoPackageGeometryData geomData = new GeoPackageGeometryData(bytes);
+                    Geometry geometry = geomData.getGeometry();
+                    if (geometry != null) {
+                        envelope = GeometryEnvelopeBuilder.buildEnvelope(geometry);
+                    }
+                }
+            }
+        }
+        return envelope;
+    }
+
+    /**
+     * Get the envelope of the geometry data, building it from the geometry when not
+     * included in the header
+     *
+     * @param geometryData geometry data
+     * @return envelope or null if the geometry is null or empty
+     */
+    public static GeometryEnvelope getEnvelope(GeoPackageGeometryData geometryData) {
+        GeometryEnvelope envelope = null;
+        if (geometryData != null && !geometryData.isEmpty()) {
+            envelope = geometryData.getEnvelope();
+            if (envelope == null) {
+                Geometry geometry = geometryData.getGeometry();
+                if (geometry != null) {
+                    envelope = GeometryEnvelopeBuilder.buildEnvelope(geometry);
+                }
+            }
+        }
+        return envelope;
+    }
+
+    /**
+     * Read the envelope from the GeoPackage geometry header bytes
+     *
+     * @param bytes GeoPackage geometry bytes
+     * @return header envelope or null if the header has no envelope
+     */
+    public static GeometryEnvelope readEnvelope(byte[] bytes) {
+        GeometryEnvelope envelope = null;
+        int flags = readFlags(bytes);
+        if (getEnvelopeIndicator(flags) > 0) {
+            envelope = readEnvelope(bytes, flags);
+        }
+        return envelope;
+    }
+
+    /**
+     * Read the x and y envelope values of the GeoPackage geometry bytes into the provided
+     * array as min x, max x, min y, max y, reading the header envelope without allocating
+     * an envelope when present and decoding the geometry otherwise
+     *
+     * @param bytes    GeoPackage geometry bytes
+     * @param envelope array of at least length 4
+     * @return true if the array was populated, false if the geometry is empty
+     */
+    public static boolean readEnvelope(byte[] bytes, double[] envelope) {
+        boolean read = false;
+        int flags = readFlags(bytes);
+        if (getEnvelopeIndicator(flags) > 0) {
+            validateEnvelopeLength(bytes, flags);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(getByteOrder(flags));
+            for (int i = 0; i < 4; i++) {
+                envelope[i] = buffer.getDouble(ENVELOPE_INDEX + (i * 8));
+            }
+            read = true;
+        } else if (!isEmpty(flags)) {
+            GeometryEnvelope geometryEnvelope = getEnvelope(bytes);
+            if (geometryEnvelope != null) {
+                envelope[0] = geometryEnvelope.getMinX();
+                envelope[1] = geometryEnvelope.getMaxX();
+                envelope[2] = geometryEnvelope.getMinY();
+                envelope[3] = geometryEnvelope.getMaxY();
+                read = true;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Determine if the GeoPackage geometry header contains an envelope
+     *
+     * @param bytes GeoPackage geometry bytes
+     * @return true if an envelope is in the header
+     */
+    public static boolean hasEnvelope(byte[] bytes) {
+        return getEnvelopeIndicator(readFlags(bytes)) > 0;
+    }
+
+    /**
+     * Validate the header and read the flags byte
+     *
+     * @param bytes
+     * @return flags
+     */
+    private static int readFlags(byte[] bytes) {
+        if (bytes.length < MIN_HEADER_LENGTH) {
+            throw new GeoPackageException(
+                    "GeoPackage Geometry bytes are shorter than the minimum header length. Length: "
+                            + bytes.length + ", Expected Minimum: " + MIN_HEADER_LENGTH);
+        }
+        if (bytes[0] != MAGIC_1 || bytes[1] != MAGIC_2) {
+            throw new GeoPackageException(
+                    "Unexpected GeoPackage Geometry magic number: "
+                            + (char) bytes[0] + (char) bytes[1] + ", Expected: "
+                            + (char) MAGIC_1 + (char) MAGIC_2);
+        }
+        if (bytes[2] != VERSION) {
+            throw new GeoPackageException(
+                    "Unexpected GeoPackage Geometry version: " + bytes[2]
+                            + ", Expected: " + VERSION);
+        }
+        return bytes[FLAGS_INDEX] & 0xFF;
+    }
+
+    /**
+     * Read the envelope values from the header
+     *
+     * @param bytes
+     * @param flags
+     * @return envelope
+     */
+    private static GeometryEnvelope readEnvelope(byte[] bytes, int flags) {
+
+        validateEnvelopeLength(bytes, flags);
+
+        int indicator = getEnvelopeIndicator(flags);
+        boolean hasZ = indicator == 2 || indicator == 4;
+        boolean hasM = indicator == 3 || indicator == 4;
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(getByteOrder(flags));
+        int index = ENVELOPE_INDEX;
+
+        GeometryEnvelope envelope = new GeometryEnvelope(hasZ, hasM);
+        envelope.setMinX(buffer.getDouble(index));
+        envelope.setMaxX(buffer.getDouble(index += 8));
+        envelope.setMinY(buffer.getDouble(index += 8));
+        envelope.setMaxY(buffer.getDouble(index += 8));
+        if (hasZ) {
+            envelope.setMinZ(buffer.getDouble(index += 8));
+            envelope.setMaxZ(buffer.getDouble(index += 8));
+        }
+        if (hasM) {
+            envelope.setMinM(buffer.getDouble(index += 8));
+            envelope.setMaxM(buffer.getDouble(index += 8));
+        }
+
+        return envelope;
+    }
+
+    /**
+     * Validate the envelope indicator and that the bytes are long enough to contain the
+     * header envelope
+     *
+     * @param bytes
+     * @param flags
+     */
+    private static void validateEnvelopeLength(byte[] bytes, int flags) {
+
+        int indicator = getEnvelopeIndicator(flags);
+        if (indicator > 4) {
+            throw new GeoPackageException(
+                    "Unexpected GeoPackage Geometry envelope indicator: " + indicator
+                            + ", Expected: 0 - 4");
+        }
+
+        int values = indicator == 0 ? 0 : (indicator == 1 ? 4 : (indicator == 4 ? 8 : 6));
+        int required = ENVELOPE_INDEX + values * 8;
+        if (bytes.length < required) {
+            throw new GeoPackageException(
+                    "GeoPackage Geometry bytes are shorter than the header envelope. Length: "
+                            + bytes.length + ", Expected Minimum: " + required);
+        }
+    }
+
+    /**
+     * Get the envelope contents indicator from the flags
+     *
+     * @param flags
+     * @return 0 for no envelope, 1 for xy, 2 for xyz, 3 for xym, 4 for xyzm
+     */
+    private static int getEnvelopeIndicator(int flags) {
+        return (flags >> 1) & 0x07;
+    }
+
+    /**
+     * Check the empty geometry flag
+     *
+     * @param flags
+     * @return true if empty
+     */
+    private static boolean isEmpty(int flags) {
+        return ((flags >> 4) & 0x01) == 1;
+    }
+
+    /**
+     * Get the byte order from the flags
+     *
+     * @param flags
+     * @return byte order
+     */
+    private static ByteOrder getByteOrder(int flags) {
+        return (flags & 0x01) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+}
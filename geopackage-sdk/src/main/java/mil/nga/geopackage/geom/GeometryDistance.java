@@ -0,0 +1,218 @@
+package mil.nga.geopackage.geom;
+
+import java.util.List;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.wkb.geom.CompoundCurve;
+import mil.nga.wkb.geom.Curve;
+import mil.nga.wkb.geom.CurvePolygon;
+import mil.nga.wkb.geom.Geometry;
+import mil.nga.wkb.geom.GeometryCollection;
+import mil.nga.wkb.geom.LineString;
+import mil.nga.wkb.geom.Point;
+import mil.nga.wkb.geom.PolyhedralSurface;
+
+/**
+ * Calculates the planar distance from a point to a geometry, zero when the point is within
+ * a polygon. The x and y offsets are scaled to the distance units before measuring. Circular
+ * strings are measured along the segments between their points.
+ */
+public class GeometryDistance {
+
+    /**
+     * Query x
+     */
+    private final double x;
+
+    /**
+     * Query y
+     */
+    private final double y;
+
+    /**
+     * Distance units per x unit
+     */
+    private final double scaleX;
+
+    /**
+     * Distance units per y unit
+     */
+    private final double scaleY;
+
+    /**
+     * Get the distance from the point to the geometry in projection units
+     *
+     * @param geometry
+     * @param x
+     * @param y
+     * @return distance
+     */
+    public static double distance(Geometry geometry, double x, double y) {
+        return distance(geometry, x, y, 1.0, 1.0);
+    }
+
+    /**
+     * Get the distance from the point to the geometry with the x and y offsets scaled to the
+     * distance units
+     *
+     * @param geometry
+     * @param x
+     * @param y
+     * @param scaleX distance units per x unit
+     * @param scaleY distance units per y unit
+     * @return distance
+     */
+    public static double distance(Geometry geometry, double x, double y, double scaleX, double scaleY) {
+        GeometryDistance geometryDistance = new GeometryDistance(x, y, scaleX, scaleY);
+        return Math.sqrt(geometryDistance.squaredDistance(geometry));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param x
+     * @param y
+     * @param scaleX
+     * @param scaleY
+     */
+    private GeometryDistance(double x, double y, double scaleX, double scaleY) {
+        this.x = x;
+        this.y = y;
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+    }
+
+    /**
+     * Get the squared scaled distance to the geometry
+     *
+     * @param geometry
+     * @return squared distance
+     */
+    private double squaredDistance(Geometry geometry) {
+
+        double distance;
+
+        if (geometry instanceof Point) {
+            Point point = (Point) geometry;
+            double dx = (point.getX() - x) * scaleX;
+            double dy = (point.getY() - y) * scaleY;
+            distance = dx * dx + dy * dy;
+        } else if (geometry instanceof LineString) {
+            distance = squaredDistance(((LineString) geometry).getPoints());
+        } else if (geometry instanceof CompoundCurve) {
+            distance = Double.POSITIVE_INFINITY;
+            for (LineString lineString : ((CompoundCurve) geometry).getLineStrings()) {
+                distance = Math.min(distance, squaredDistance(lineString.getPoints()));
+            }
+        } else if (geometry instanceof CurvePolygon) {
+            distance = squaredDistance((CurvePolygon<?>) geometry);
+        } else if (geometry instanceof PolyhedralSurface) {
+            distance = Double.POSITIVE_INFINITY;
+            for (Geometry polygon : ((PolyhedralSurface) geometry).getPolygons()) {
+                distance = Math.min(distance, squaredDistance(polygon));
+            }
+        } else if (geometry instanceof GeometryCollection) {
+            distance = Double.POSITIVE_INFINITY;
+            for (Object child : ((GeometryCollection<?>) geometry).getGeometries()) {
+                distance = Math.min(distance, squaredDistance((Geometry) child));
+            }
+        } else {
+            throw new GeoPackageException("Unsupported geometry type for distance: "
+                    + geometry.getGeometryType());
+        }
+
+        return distance;
+    }
+
+    /**
+     * Get the squared scaled distance to the polygon, zero when within the polygon by the
+     * even-odd rule over all rings
+     *
+     * @param polygon
+     * @return squared distance
+     */
+    private double squaredDistance(CurvePolygon<?> polygon) {
+        double distance = Double.POSITIVE_INFINITY;
+        boolean inside = false;
+        for (Curve ring : polygon.getRings()) {
+            if (ring instanceof LineString) {
+                List<Point> points = ((LineString) ring).getPoints();
+                distance = Math.min(distance, squaredDistance(points));
+                inside ^= crossings(points);
+            } else if (ring instanceof CompoundCurve) {
+                for (LineString lineString : ((CompoundCurve) ring).getLineStrings()) {
+                    List<Point> points = lineString.getPoints();
+                    distance = Math.min(distance, squaredDistance(points));
+                    inside ^= crossings(points);
+                }
+            } else {
+                distance = Math.min(distance, squaredDistance(ring));
+            }
+        }
+        return inside ? 0.0 : distance;
+    }
+
+    /**
+     * Get the squared scaled distance to the line through the points
+     *
+     * @param points
+     * @return squared distance
+     */
+    private double squaredDistance(List<Point> points) {
+        double distance = Double.POSITIVE_INFINITY;
+        int size = points.size();
+        if (size == 1) {
+            distance = squaredDistance(points.get(0));
+        } else {
+            for (int i = 1; i < size; i++) {
+                distance = Math.min(distance, squaredSegmentDistance(points.get(i - 1), points.get(i)));
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Get the squared scaled distance to the segment
+     *
+     * @param start
+     * @param end
+     * @return squared distance
+     */
+    private double squaredSegmentDistance(Point start, Point end) {
+        double ax = (start.getX() - x) * scaleX;
+        double ay = (start.getY() - y) * scaleY;
+        double bx = (end.getX() - x) * scaleX;
+        double by = (end.getY() - y) * scaleY;
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = 0.0;
+        if (lengthSquared > 0) {
+            t = Math.max(0.0, Math.min(1.0, -(ax * dx + ay * dy) / lengthSquared));
+        }
+        double px = ax + t * dx;
+        double py = ay + t * dy;
+        return px * px + py * py;
+    }
+
+    /**
+     * Determine if a ray from the query point crosses the ring edges an odd number of times
+     *
+     * @param points ring points
+     * @return true if odd
+     */
+    private boolean crossings(List<Point> points) {
+        boolean odd = false;
+        int size = points.size();
+        for (int i = 0, j = size - 1; i < size; j = i++) {
+            Point a = points.get(i);
+            Point b = points.get(j);
+            if ((a.getY() > y) != (b.getY() > y)
+                    && x < (b.getX() - a.getX()) * (y - a.getY()) / (b.getY() - a.getY()) + a.getX()) {
+                odd = !odd;
+            }
+        }
+        return odd;
+    }
+
+}
@@ -0,0 +1,191 @@
+package mil.nga.geopackage.geom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.wkb.geom.CompoundCurve;
+import mil.nga.wkb.geom.Curve;
+import mil.nga.wkb.geom.CurvePolygon;
+import mil.nga.wkb.geom.Geometry;
+import mil.nga.wkb.geom.GeometryCollection;
+import mil.nga.wkb.geom.LineString;
+import mil.nga.wkb.geom.Point;
+import mil.nga.wkb.geom.Polygon;
+import mil.nga.wkb.geom.PolyhedralSurface;
+
+/**
+ * Tests two geometries for planar intersection, including touching geometries. The
+ * geometry is prepared once into polygons and lines, so it can be tested against many
+ * other geometries. Points are tested as single point lines and circular strings along
+ * the segments between their points.
+ */
+public class GeometryIntersects {
+
+    /**
+     * Polygon filters of the geometry polygons
+     */
+    private final List<PolygonFilter> polygons = new ArrayList<PolygonFilter>();
+
+    /**
+     * Point lists of the geometry lines and points
+     */
+    private final List<List<Point>> lines = new ArrayList<List<Point>>();
+
+    /**
+     * Determine if the geometries intersect
+     *
+     * @param geometry1
+     * @param geometry2
+     * @return true if intersecting
+     */
+    public static boolean intersects(Geometry geometry1, Geometry geometry2) {
+        return new GeometryIntersects(geometry1).intersects(geometry2);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param geometry prepared geometry
+     */
+    public GeometryIntersects(Geometry geometry) {
+        prepare(geometry);
+    }
+
+    /**
+     * Determine if the prepared geometry intersects the geometry
+     *
+     * @param geometry
+     * @return true if intersecting
+     */
+    public boolean intersects(Geometry geometry) {
+        for (PolygonFilter polygon : polygons) {
+            if (polygon.intersects(geometry)) {
+                return true;
+            }
+        }
+        if (!lines.isEmpty()) {
+            GeometryIntersects other = new GeometryIntersects(geometry);
+            for (PolygonFilter polygon : other.polygons) {
+                for (List<Point> line : lines) {
+                    if (polygon.intersects(toLineString(line))) {
+                        return true;
+                    }
+                }
+            }
+            for (List<Point> line : lines) {
+                for (List<Point> otherLine : other.lines) {
+                    if (intersects(line, otherLine)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Prepare the geometry into polygons and lines
+     *
+     * @param geometry
+     */
+    private void prepare(Geometry geometry) {
+        if (geometry instanceof Point) {
+            lines.add(Collections.singletonList((Point) geometry));
+        } else if (geometry instanceof LineString) {
+            lines.add(((LineString) geometry).getPoints());
+        } else if (geometry instanceof CompoundCurve) {
+            for (LineString lineString : ((CompoundCurve) geometry).getLineStrings()) {
+                lines.add(lineString.getPoints());
+            }
+        } else if (geometry instanceof CurvePolygon) {
+            preparePolygon((CurvePolygon<?>) geometry);
+        } else if (geometry instanceof PolyhedralSurface) {
+            for (Geometry polygon : ((PolyhedralSurface) geometry).getPolygons()) {
+                prepare(polygon);
+            }
+        } else if (geometry instanceof GeometryCollection) {
+            for (Object child : ((GeometryCollection<?>) geometry).getGeometries()) {
+                prepare((Geometry) child);
+            }
+        } else {
+            throw new GeoPackageException("Unsupported geometry type for intersection: "
+                    + geometry.getGeometryType());
+        }
+    }
+
+    /**
+     * Prepare the polygon, flattening compound curve rings into line string rings
+     *
+     * @param curvePolygon
+     */
+    private void preparePolygon(CurvePolygon<?> curvePolygon) {
+        Polygon polygon = new Polygon(false, false);
+        for (Curve ring : curvePolygon.getRings()) {
+            if (ring instanceof LineString) {
+                polygon.addRing((LineString) ring);
+            } else if (ring instanceof CompoundCurve) {
+                LineString flattened = new LineString(false, false);
+                for (LineString lineString : ((CompoundCurve) ring).getLineStrings()) {
+                    for (Point point : lineString.getPoints()) {
+                        flattened.addPoint(point);
+                    }
+                }
+                polygon.addRing(flattened);
+            } else {
+                throw new GeoPackageException("Unsupported ring type for intersection: "
+                        + ring.getGeometryType());
+            }
+        }
+        if (polygon.numRings() > 0 && polygon.getRings().get(0).numPoints() >= 3) {
+            polygons.add(new PolygonFilter(polygon));
+        } else {
+            // Degenerate polygons are tested by their rings
+            for (LineString ring : polygon.getRings()) {
+                lines.add(ring.getPoints());
+            }
+        }
+    }
+
+    /**
+     * Determine if the lines through the points intersect
+     *
+     * @param line1
+     * @param line2
+     * @return true if intersecting
+     */
+    private static boolean intersects(List<Point> line1, List<Point> line2) {
+        int size1 = line1.size();
+        int size2 = line2.size();
+        if (size1 == 0 || size2 == 0) {
+            return false;
+        }
+        for (int i = 0; i < Math.max(1, size1 - 1); i++) {
+            Point a = line1.get(i);
+            Point b = line1.get(Math.min(i + 1, size1 - 1));
+            for (int j = 0; j < Math.max(1, size2 - 1); j++) {
+                Point c = line2.get(j);
+                Point d = line2.get(Math.min(j + 1, size2 - 1));
+                if (PolygonFilter.segmentsIntersect(a.getX(), a.getY(), b.getX(), b.getY(),
+                        c.getX(), c.getY(), d.getX(), d.getY())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create a line string of the points
+     *
+     * @param points
+     * @return line string
+     */
+    private static LineString toLineString(List<Point> points) {
+        LineString lineString = new LineString(false, false);
+        lineString.setPoints(points);
+        return lineString;
+    }
+
+}
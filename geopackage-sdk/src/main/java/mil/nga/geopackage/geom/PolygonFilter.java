@@ -0,0 +1,424 @@
+package mil.nga.geopackage.geom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mil.nga.geopackage.GeoPackageException;
+import mil.nga.wkb.geom.CompoundCurve;
+import mil.nga.wkb.geom.Curve;
+import mil.nga.wkb.geom.CurvePolygon;
+import mil.nga.wkb.geom.Geometry;
+import mil.nga.wkb.geom.GeometryCollection;
+import mil.nga.wkb.geom.GeometryEnvelope;
+import mil.nga.wkb.geom.LineString;
+import mil.nga.wkb.geom.Point;
+import mil.nga.wkb.geom.Polygon;
+import mil.nga.wkb.geom.PolyhedralSurface;
+
+/**
+ * Tests envelopes and geometries for planar intersection with a query polygon. Points
+ * within the polygon are determined by the even-odd rule over all rings, and geometries
+ * touching the polygon boundary intersect. Circular strings are tested along the segments
+ * between their points.
+ */
+public class PolygonFilter {
+
+    /**
+     * Ring x coordinates
+     */
+    private final double[][] ringsX;
+
+    /**
+     * Ring y coordinates
+     */
+    private final double[][] ringsY;
+
+    /**
+     * Polygon envelope
+     */
+    private final GeometryEnvelope envelope;
+
+    /**
+     * Constructor
+     *
+     * @param polygon query polygon with an exterior ring of at least 3 points
+     */
+    public PolygonFilter(Polygon polygon) {
+        List<LineString> rings = polygon.getRings();
+        if (rings.isEmpty() || rings.get(0).numPoints() < 3) {
+            throw new GeoPackageException("Query polygon requires an exterior ring of at least 3 points");
+        }
+        ringsX = new double[rings.size()][];
+        ringsY = new double[rings.size()][];
+        envelope = new GeometryEnvelope();
+        envelope.setMinX(Double.POSITIVE_INFINITY);
+        envelope.setMinY(Double.POSITIVE_INFINITY);
+        envelope.setMaxX(Double.NEGATIVE_INFINITY);
+        envelope.setMaxY(Double.NEGATIVE_INFINITY);
+        for (int r = 0; r < rings.size(); r++) {
+            List<Point> points = rings.get(r).getPoints();
+            ringsX[r] = new double[points.size()];
+            ringsY[r] = new double[points.size()];
+            for (int i = 0; i < points.size(); i++) {
+                Point point = points.get(i);
+                ringsX[r][i] = point.getX();
+                ringsY[r][i] = point.getY();
+                if (r == 0) {
+                    envelope.setMinX(Math.min(envelope.getMinX(), point.getX()));
+                    envelope.setMinY(Math.min(envelope.getMinY(), point.getY()));
+                    envelope.setMaxX(Math.max(envelope.getMaxX(), point.getX()));
+                    envelope.setMaxY(Math.max(envelope.getMaxY(), point.getY()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the envelope of the polygon exterior ring
+     *
+     * @return envelope
+     */
+    public GeometryEnvelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * Determine if the envelope intersects the polygon
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return true if intersecting
+     */
+    public boolean intersects(double minX, double minY, double maxX, double maxY) {
+        if (!intersectsEnvelope(minX, minY, maxX, maxY)) {
+            return false;
+        }
+        return vertexWithin(minX, minY, maxX, maxY) || within(minX, minY)
+                || crossesEnvelope(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Determine if the envelope is within the polygon interior, so that every geometry
+     * within the envelope intersects the polygon
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return true if within
+     */
+    public boolean contains(double minX, double minY, double maxX, double maxY) {
+        return minX >= envelope.getMinX() && maxX <= envelope.getMaxX()
+                && minY >= envelope.getMinY() && maxY <= envelope.getMaxY()
+                && within(minX, minY) && !vertexWithin(minX, minY, maxX, maxY)
+                && !crossesEnvelope(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Determine if the geometry intersects the polygon
+     *
+     * @param geometry
+     * @return true if intersecting
+     */
+    public boolean intersects(Geometry geometry) {
+
+        boolean intersects;
+
+        if (geometry instanceof Point) {
+            Point point = (Point) geometry;
+            intersects = intersects(point.getX(), point.getY());
+        } else if (geometry instanceof LineString) {
+            intersects = intersects(((LineString) geometry).getPoints());
+        } else if (geometry instanceof CompoundCurve) {
+            intersects = false;
+            for (LineString lineString : ((CompoundCurve) geometry).getLineStrings()) {
+                if (intersects(lineString.getPoints())) {
+                    intersects = true;
+                    break;
+                }
+            }
+        } else if (geometry instanceof CurvePolygon) {
+            intersects = intersects((CurvePolygon<?>) geometry);
+        } else if (geometry instanceof PolyhedralSurface) {
+            intersects = false;
+            for (Geometry polygon : ((PolyhedralSurface) geometry).getPolygons()) {
+                if (intersects(polygon)) {
+                    intersects = true;
+                    break;
+                }
+            }
+        } else if (geometry instanceof GeometryCollection) {
+            intersects = false;
+            for (Object child : ((GeometryCollection<?>) geometry).getGeometries()) {
+                if (intersects((Geometry) child)) {
+                    intersects = true;
+                    break;
+                }
+            }
+        } else {
+            throw new GeoPackageException("Unsupported geometry type for polygon intersection: "
+                    + geometry.getGeometryType());
+        }
+
+        return intersects;
+    }
+
+    /**
+     * Determine if the point is within or on the boundary of the polygon
+     *
+     * @param x
+     * @param y
+     * @return true if intersecting
+     */
+    private boolean intersects(double x, double y) {
+        return x >= envelope.getMinX() && x <= envelope.getMaxX()
+                && y >= envelope.getMinY() && y <= envelope.getMaxY()
+                && (within(x, y) || crosses(x, y, x, y));
+    }
+
+    /**
+     * Determine if the line through the points intersects the polygon
+     *
+     * @param points
+     * @return true if intersecting
+     */
+    private boolean intersects(List<Point> points) {
+        int size = points.size();
+        if (size == 0) {
+            return false;
+        }
+        Point first = points.get(0);
+        if (intersects(first.getX(), first.getY())) {
+            return true;
+        }
+        for (int i = 1; i < size; i++) {
+            Point start = points.get(i - 1);
+            Point end = points.get(i);
+            if (crosses(start.getX(), start.getY(), end.getX(), end.getY())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine if the polygon geometry intersects the query polygon, when a ring crosses
+     * the query polygon, a ring is within the query polygon, or the query polygon is within
+     * the polygon geometry
+     *
+     * @param polygon
+     * @return true if intersecting
+     */
+    private boolean intersects(CurvePolygon<?> polygon) {
+        List<List<Point>> rings = new ArrayList<List<Point>>();
+        for (Curve ring : polygon.getRings()) {
+            if (ring instanceof LineString) {
+                rings.add(((LineString) ring).getPoints());
+            } else if (ring instanceof CompoundCurve) {
+                for (LineString lineString : ((CompoundCurve) ring).getLineStrings()) {
+                    rings.add(lineString.getPoints());
+                }
+            } else {
+                throw new GeoPackageException("Unsupported ring type for polygon intersection: "
+                        + ring.getGeometryType());
+            }
+        }
+        for (List<Point> ring : rings) {
+            if (intersects(ring)) {
+                return true;
+            }
+        }
+        boolean inside = false;
+        double x = ringsX[0][0];
+        double y = ringsY[0][0];
+        for (List<Point> ring : rings) {
+            inside ^= crossings(ring, x, y);
+        }
+        return inside;
+    }
+
+    /**
+     * Determine if the point is within the polygon by the even-odd rule over all rings
+     *
+     * @param x
+     * @param y
+     * @return true if within
+     */
+    private boolean within(double x, double y) {
+        boolean odd = false;
+        for (int r = 0; r < ringsX.length; r++) {
+            double[] xs = ringsX[r];
+            double[] ys = ringsY[r];
+            for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+                if ((ys[i] > y) != (ys[j] > y)
+                        && x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]) {
+                    odd = !odd;
+                }
+            }
+        }
+        return odd;
+    }
+
+    /**
+     * Determine if a ray from the point crosses the ring edges an odd number of times
+     *
+     * @param points ring points
+     * @param x
+     * @param y
+     * @return true if odd
+     */
+    private static boolean crossings(List<Point> points, double x, double y) {
+        boolean odd = false;
+        int size = points.size();
+        for (int i = 0, j = size - 1; i < size; j = i++) {
+            Point a = points.get(i);
+            Point b = points.get(j);
+            if ((a.getY() > y) != (b.getY() > y)
+                    && x < (b.getX() - a.getX()) * (y - a.getY()) / (b.getY() - a.getY()) + a.getX()) {
+                odd = !odd;
+            }
+        }
+        return odd;
+    }
+
+    /**
+     * Determine if the segment intersects a polygon ring edge
+     *
+     * @param ax
+     * @param ay
+     * @param bx
+     * @param by
+     * @return true if intersecting
+     */
+    private boolean crosses(double ax, double ay, double bx, double by) {
+        for (int r = 0; r < ringsX.length; r++) {
+            double[] xs = ringsX[r];
+            double[] ys = ringsY[r];
+            for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+                if (segmentsIntersect(ax, ay, bx, by, xs[j], ys[j], xs[i], ys[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine if a polygon ring edge intersects an envelope edge
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return true if intersecting
+     */
+    private boolean crossesEnvelope(double minX, double minY, double maxX, double maxY) {
+        return crosses(minX, minY, maxX, minY) || crosses(maxX, minY, maxX, maxY)
+                || crosses(maxX, maxY, minX, maxY) || crosses(minX, maxY, minX, minY);
+    }
+
+    /**
+     * Determine if a polygon ring vertex is within the envelope
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return true if a vertex is within
+     */
+    private boolean vertexWithin(double minX, double minY, double maxX, double maxY) {
+        for (int r = 0; r < ringsX.length; r++) {
+            double[] xs = ringsX[r];
+            double[] ys = ringsY[r];
+            for (int i = 0; i < xs.length; i++) {
+                if (xs[i] >= minX && xs[i] <= maxX && ys[i] >= minY && ys[i] <= maxY) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine if the envelope intersects the polygon envelope
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return true if intersecting
+     */
+    private boolean intersectsEnvelope(double minX, double minY, double maxX, double maxY) {
+        return minX <= envelope.getMaxX() && maxX >= envelope.getMinX()
+                && minY <= envelope.getMaxY() && maxY >= envelope.getMinY();
+    }
+
+    /**
+     * Determine if the closed segments ab and cd intersect, including touching and
+     * collinear overlapping segments
+     *
+     * @param ax
+     * @param ay
+     * @param bx
+     * @param by
+     * @param cx
+     * @param cy
+     * @param dx
+     * @param dy
+     * @return true if intersecting
+     */
+    static boolean segmentsIntersect(double ax, double ay, double bx, double by,
+                                             double cx, double cy, double dx, double dy) {
+        if (Math.max(ax, bx) < Math.min(cx, dx) || Math.max(cx, dx) < Math.min(ax, bx)
+                || Math.max(ay, by) < Math.min(cy, dy) || Math.max(cy, dy) < Math.min(ay, by)) {
+            return false;
+        }
+        int o1 = orientation(ax, ay, bx, by, cx, cy);
+        int o2 = orientation(ax, ay, bx, by, dx, dy);
+        int o3 = orientation(cx, cy, dx, dy, ax, ay);
+        int o4 = orientation(cx, cy, dx, dy, bx, by);
+        if (o1 != o2 && o3 != o4) {
+            return true;
+        }
+        // Collinear cases, within the bounding box overlap checked above
+        return (o1 == 0 && onSegment(ax, ay, bx, by, cx, cy))
+                || (o2 == 0 && onSegment(ax, ay, bx, by, dx, dy))
+                || (o3 == 0 && onSegment(cx, cy, dx, dy, ax, ay))
+                || (o4 == 0 && onSegment(cx, cy, dx, dy, bx, by));
+    }
+
+    /**
+     * Get the orientation of point c relative to the directed line ab
+     *
+     * @param ax
+     * @param ay
+     * @param bx
+     * @param by
+     * @param cx
+     * @param cy
+     * @return 1 counter clockwise, -1 clockwise, 0 collinear
+     */
+    private static int orientation(double ax, double ay, double bx, double by, double cx, double cy) {
+        double cross = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        return cross > 0 ? 1 : (cross < 0 ? -1 : 0);
+    }
+
+    /**
+     * Determine if the collinear point c is within the bounds of the segment ab
+     *
+     * @param ax
+     * @param ay
+     * @param bx
+     * @param by
+     * @param cx
+     * @param cy
+     * @return true if on the segment
+     */
+    private static boolean onSegment(double ax, double ay, double bx, double by, double cx, double cy) {
+        return cx >= Math.min(ax, bx) && cx <= Math.max(ax, bx)
+                && cy >= Math.min(ay, by) && cy <= Math.max(ay, by);
+    }
+
+}
@@ -0,0 +1,21 @@
+package mil.nga.geopackage.tiles.features;
+
+import android.graphics.Bitmap;
+
+/**
+ * Interface for drawing a custom tile in place of the features, used when a tile
+ * contains more features than the max features per tile
+ */
+public interface CustomFeaturesTile {
+
+    /**
+     * Draw a custom tile
+     *
+     * @param tileWidth        tile width to draw
+     * @param tileHeight       tile height to draw
+     * @param tileFeatureCount estimated number of features in the tile
+     * @return custom bitmap
+     */
+    public Bitmap drawTile(int tileWidth, int tileHeight, long tileFeatureCount);
+
+}
@@ -2,7 +2,6 @@ package mil.nga.geopackage.tiles.features;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.Canvas;
@@ -19,9 +18,8 @@ import java.util.List;
 
 import mil.nga.geopackage.BoundingBox;
 import mil.nga.geopackage.R;
-import mil.nga.geopackage.db.metadata.GeoPackageMetadataDb;
-import mil.nga.geopackage.db.metadata.GeometryMetadata;
-import mil.nga.geopackage.db.metadata.GeometryMetadataDataSource;
+import mil.nga.geopackage.db.FeatureIndexer;
+import mil.nga.geopackage.db.metadata.TableStatistics;
 import mil.nga.geopackage.features.user.FeatureCursor;
 import mil.nga.geopackage.features.user.FeatureDao;
 import mil.nga.geopackage.features.user.FeatureRow;
@@ -38,6 +36,7 @@ import mil.nga.geopackage.projection.ProjectionFactory;
 import mil.nga.geopackage.projection.ProjectionTransform;
 import mil.nga.geopackage.tiles.TileBoundingBoxUtils;
 import mil.nga.wkb.geom.Geometry;
+import mil.nga.wkb.geom.GeometryEnvelope;
 import mil.nga.wkb.geom.Point;
 
 /**
@@ -70,10 +69,36 @@ public class FeatureTiles {
     private final FeatureDao featureDao;
 
     /**
-     * When true, features are retrieved from the geometry index. When false all geometries are queried
+     * When true, features are retrieved from the geometry index, preferring the GeoPackage RTree
+     * index when the feature table has one. When false all geometries are queried
      */
     private boolean indexQuery = true;
 
+    /**
+     * When true, metadata index candidates matching on a float rounded bound are refined
+     * against their exact feature envelopes. When false the candidates are drawn unrefined,
+     * clipped by the tile.
+     */
+    private boolean refineIndexQuery = true;
+
+    /**
+     * Max estimated features drawn in a tile before drawing the max features tile instead,
+     * null for no max
+     */
+    private Integer maxFeaturesPerTile;
+
+    /**
+     * Custom tile drawn when a tile exceeds the max features per tile, null to draw an
+     * empty tile
+     */
+    private CustomFeaturesTile maxFeaturesTileDraw;
+
+    /**
+     * Estimated fraction of the table features in a tile at or above which all features are
+     * queried instead of the metadata index
+     */
+    private double fullScanSelectivity = 0.5;
+
     /**
      * Tile height
      */
@@ -264,6 +289,82 @@ public class FeatureTiles {
         this.indexQuery = indexQuery;
     }
 
+    /**
+     * Is refine index query
+     *
+     * @return
+     */
+    public boolean isRefineIndexQuery() {
+        return refineIndexQuery;
+    }
+
+    /**
+     * Set the refine index query, false to skip reading the features matching on a float
+     * rounded metadata index bound for their exact envelopes
+     *
+     * @param refineIndexQuery
+     */
+    public void setRefineIndexQuery(boolean refineIndexQuery) {
+        this.refineIndexQuery = refineIndexQuery;
+    }
+
+    /**
+     * Get the max features per tile
+     *
+     * @return max features per tile or null
+     */
+    public Integer getMaxFeaturesPerTile() {
+        return maxFeaturesPerTile;
+    }
+
+    /**
+     * Set the max features per tile. When the estimated number of features in an index
+     * queried tile is larger, the max features tile draw is drawn instead of the features.
+     *
+     * @param maxFeaturesPerTile max features per tile or null for no max
+     */
+    public void setMaxFeaturesPerTile(Integer maxFeaturesPerTile) {
+        this.maxFeaturesPerTile = maxFeaturesPerTile;
+    }
+
+    /**
+     * Get the max features tile draw
+     *
+     * @return
+     */
+    public CustomFeaturesTile getMaxFeaturesTileDraw() {
+        return maxFeaturesTileDraw;
+    }
+
+    /**
+     * Set the max features tile draw, drawn in place of tiles exceeding the max features
+     * per tile
+     *
+     * @param maxFeaturesTileDraw custom features tile or null to draw an empty tile
+     */
+    public void setMaxFeaturesTileDraw(CustomFeaturesTile maxFeaturesTileDraw) {
+        this.maxFeaturesTileDraw = maxFeaturesTileDraw;
+    }
+
+    /**
+     * Get the full scan selectivity
+     *
+     * @return
+     */
+    public double getFullScanSelectivity() {
+        return fullScanSelectivity;
+    }
+
+    /**
+     * Set the estimated fraction of the table features in a tile at or above which all
+     * features are queried instead of the metadata index
+     *
+     * @param fullScanSelectivity selectivity from 0.0 to 1.0, above 1.0 to always use the index
+     */
+    public void setFullScanSelectivity(double fullScanSelectivity) {
+        this.fullScanSelectivity = fullScanSelectivity;
+    }
+
     /**
      * Get the tile width
      *
@@ -482,13 +583,60 @@ public class FeatureTiles {
     public Bitmap drawTile(int x, int y, int zoom) {
         Bitmap bitmap;
         if (indexQuery) {
-            bitmap = drawTileQueryIndex(x, y, zoom);
+            bitmap = drawTileQueryEstimated(x, y, zoom);
         } else {
             bitmap = drawTileQueryAll(x, y, zoom);
         }
         return bitmap;
     }
 
+    /**
+     * Draw a tile bitmap from the x, y, and zoom level, choosing from the estimated tile
+     * feature count between the max features tile, querying all features, and querying the
+     * index. The count is exact with a GeoPackage RTree index and estimated from the table
+     * statistics of the metadata index, which never choose a full query when not present.
+     *
+     * @param x
+     * @param y
+     * @param zoom
+     * @return
+     */
+    private Bitmap drawTileQueryEstimated(int x, int y, int zoom) {
+
+        BoundingBox expandedQueryBoundingBox = getExpandedBoundingBox(TileBoundingBoxUtils
+                .getWebMercatorBoundingBox(x, y, zoom));
+
+        long tileCount = -1;
+        double selectivity = 0.0;
+        if (featureDao.isRTreeIndexed()) {
+            if (maxFeaturesPerTile != null) {
+                tileCount = featureDao.estimateCount(expandedQueryBoundingBox, WEB_MERCATOR_PROJECTION);
+            }
+        } else {
+            TableStatistics statistics = getIndexer().getStatistics();
+            if (statistics != null) {
+                GeometryEnvelope envelope = getFeatureEnvelope(expandedQueryBoundingBox);
+                tileCount = statistics.estimateCount(envelope);
+                selectivity = statistics.estimateSelectivity(envelope);
+            }
+        }
+
+        Bitmap bitmap;
+        if (maxFeaturesPerTile != null && tileCount > maxFeaturesPerTile) {
+            if (maxFeaturesTileDraw != null) {
+                bitmap = maxFeaturesTileDraw.drawTile(tileWidth, tileHeight, tileCount);
+            } else {
+                bitmap = Bitmap.createBitmap(tileWidth,
+                        tileHeight, Bitmap.Config.ARGB_8888);
+            }
+        } else if (selectivity >= fullScanSelectivity) {
+            bitmap = drawTileQueryAll(x, y, zoom);
+        } else {
+            bitmap = drawTileQueryIndex(x, y, zoom);
+        }
+        return bitmap;
+    }
+
     /**
      * Draw a tile bitmap from the x, y, and zoom level by querying all features. This could
      * be very slow if there are a lot of features
@@ -505,19 +653,7 @@ public class FeatureTiles {
                 .getWebMercatorBoundingBox(x, y, zoom);
 
         // Create an expanded bounding box to handle features outside the tile that overlap
-        double minLongitude = TileBoundingBoxUtils.getLongitudeFromPixel(tileWidth, webMercatorBoundingBox, 0 - widthOverlap);
-        double maxLongitude = TileBoundingBoxUtils.getLongitudeFromPixel(tileWidth, webMercatorBoundingBox, tileWidth + widthOverlap);
-        double maxLatitude = TileBoundingBoxUtils.getLatitudeFromPixel(tileHeight, webMercatorBoundingBox, 0 - heightOverlap);
-        double minLatitude = TileBoundingBoxUtils.getLatitudeFromPixel(tileHeight, webMercatorBoundingBox, tileHeight + heightOverlap);
-        BoundingBox expandedQueryBoundingBox = new BoundingBox(
-                minLongitude,
-                maxLongitude,
-                minLatitude,
-                maxLatitude);
-
-        // Convert to the projection bounding box to query the index
-        ProjectionTransform webMercatorToProjectionTransform = WEB_MERCATOR_PROJECTION.getTransformation(featureDao.getProjection());
-        BoundingBox projectionBoundingBox = webMercatorToProjectionTransform.transform(expandedQueryBoundingBox);
+        BoundingBox expandedQueryBoundingBox = getExpandedBoundingBox(webMercatorBoundingBox);
 
         // Create bitmap and canvas
         Bitmap bitmap = Bitmap.createBitmap(tileWidth,
@@ -529,29 +665,81 @@ public class FeatureTiles {
         GoogleMapShapeConverter converter = new GoogleMapShapeConverter(
                 featureDao.getProjection());
 
-        GeoPackageMetadataDb db = new GeoPackageMetadataDb(context);
-        db.open();
+        // Query the RTree or metadata index for the features matching the bounds
+        FeatureCursor cursor;
+        if (refineIndexQuery || featureDao.isRTreeIndexed()) {
+            getIndexer();
+            cursor = featureDao.queryForBoundingBox(expandedQueryBoundingBox, WEB_MERCATOR_PROJECTION);
+        } else {
+            cursor = getIndexer().query(getFeatureEnvelope(expandedQueryBoundingBox), false);
+        }
+        cursor.setReuseRow(true);
         try {
-            // Query for geometries matching the bounds in the index
-            GeometryMetadataDataSource ds = new GeometryMetadataDataSource(db);
-            Cursor cursor = ds.query(featureDao.getDatabase(), featureDao.getTableName(), projectionBoundingBox);
-            try {
-                while (cursor.moveToNext()) {
-                    GeometryMetadata metadata = ds.createGeometryMetadata(cursor);
-                    long id = metadata.getId();
-                    FeatureRow row = featureDao.queryForIdRow(id);
-                    drawFeature(webMercatorBoundingBox, wgs84ToWebMercatorTransform, canvas, row, converter);
-                }
-            } finally {
-                cursor.close();
+            while (cursor.moveToNext()) {
+                FeatureRow row = cursor.getRow();
+                drawFeature(webMercatorBoundingBox, wgs84ToWebMercatorTransform, canvas, row, converter);
             }
         } finally {
-            db.close();
+            cursor.close();
         }
 
         return bitmap;
     }
 
+    /**
+     * Get the web mercator bounding box expanded by the draw overlap to include features
+     * outside the tile that overlap
+     *
+     * @param webMercatorBoundingBox
+     * @return expanded bounding box
+     */
+    private BoundingBox getExpandedBoundingBox(BoundingBox webMercatorBoundingBox) {
+        double minLongitude = TileBoundingBoxUtils.getLongitudeFromPixel(tileWidth, webMercatorBoundingBox, 0 - widthOverlap);
+        double maxLongitude = TileBoundingBoxUtils.getLongitudeFromPixel(tileWidth, webMercatorBoundingBox, tileWidth + widthOverlap);
+        double maxLatitude = TileBoundingBoxUtils.getLatitudeFromPixel(tileHeight, webMercatorBoundingBox, 0 - heightOverlap);
+        double minLatitude = TileBoundingBoxUtils.getLatitudeFromPixel(tileHeight, webMercatorBoundingBox, tileHeight + heightOverlap);
+        return new BoundingBox(
+                minLongitude,
+                maxLongitude,
+                minLatitude,
+                maxLatitude);
+    }
+
+    /**
+     * Get the envelope of the web mercator bounding box in the feature projection
+     *
+     * @param webMercatorBoundingBox
+     * @return feature envelope
+     */
+    private GeometryEnvelope getFeatureEnvelope(BoundingBox webMercatorBoundingBox) {
+        BoundingBox featureBoundingBox = webMercatorBoundingBox;
+        Projection projection = featureDao.getProjection();
+        if (projection.getEpsg() != WEB_MERCATOR_PROJECTION.getEpsg()) {
+            featureBoundingBox = WEB_MERCATOR_PROJECTION.getTransformation(projection)
+                    .transform(webMercatorBoundingBox);
+        }
+        GeometryEnvelope envelope = new GeometryEnvelope();
+        envelope.setMinX(featureBoundingBox.getMinLongitude());
+        envelope.setMaxX(featureBoundingBox.getMaxLongitude());
+        envelope.setMinY(featureBoundingBox.getMinLatitude());
+        envelope.setMaxY(featureBoundingBox.getMaxLatitude());
+        return envelope;
+    }
+
+    /**
+     * Get the feature indexer of the feature DAO, setting a new indexer when it has none
+     *
+     * @return feature indexer
+     */
+    private FeatureIndexer getIndexer() {
+        FeatureIndexer indexer = featureDao.getIndexer();
+        if (indexer == null) {
+            indexer = new FeatureIndexer(context, featureDao);
+            featureDao.setIndexer(indexer);
+        }
+        return indexer;
+    }
+
     /**
      * Draw a tile bitmap from the x, y, and zoom level by querying all features. This could
      * be very slow if there are a lot of features
@@ -592,6 +780,7 @@ public class FeatureTiles {
         GoogleMapShapeConverter converter = new GoogleMapShapeConverter(
                 featureDao.getProjection());
 
+        cursor.setReuseRow(true);
         while (cursor.moveToNext()) {
             FeatureRow row = cursor.getRow();
             drawFeature(boundingBox, wgs84ToWebMercatorTransform, canvas, row, converter);
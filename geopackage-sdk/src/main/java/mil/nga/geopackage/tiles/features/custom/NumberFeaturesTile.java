@@ -0,0 +1,159 @@
+package mil.nga.geopackage.tiles.features.custom;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import mil.nga.geopackage.tiles.features.CustomFeaturesTile;
+
+/**
+ * Draws a tile indicating the number of features within the tile, as a count within
+ * a circle at the tile center
+ */
+public class NumberFeaturesTile implements CustomFeaturesTile {
+
+    /**
+     * Text paint
+     */
+    private Paint textPaint = new Paint();
+
+    /**
+     * Circle paint
+     */
+    private Paint circlePaint = new Paint();
+
+    /**
+     * Circle fill paint, null to not fill the circle
+     */
+    private Paint circleFillPaint = new Paint();
+
+    /**
+     * Circle padding around the text in pixels
+     */
+    private float circlePadding = 5.0f;
+
+    /**
+     * Constructor
+     */
+    public NumberFeaturesTile() {
+
+        textPaint.setAntiAlias(true);
+        textPaint.setColor(Color.rgb(71, 86, 105));
+        textPaint.setTextSize(18.0f);
+
+        circlePaint.setAntiAlias(true);
+        circlePaint.setColor(Color.argb(225, 71, 86, 105));
+        circlePaint.setStyle(Paint.Style.STROKE);
+        circlePaint.setStrokeWidth(3.0f);
+
+        circleFillPaint.setAntiAlias(true);
+        circleFillPaint.setColor(Color.argb(225, 255, 255, 255));
+        circleFillPaint.setStyle(Paint.Style.FILL);
+    }
+
+    /**
+     * Get the text paint
+     *
+     * @return
+     */
+    public Paint getTextPaint() {
+        return textPaint;
+    }
+
+    /**
+     * Set the text paint
+     *
+     * @param textPaint
+     */
+    public void setTextPaint(Paint textPaint) {
+        this.textPaint = textPaint;
+    }
+
+    /**
+     * Get the circle paint
+     *
+     * @return
+     */
+    public Paint getCirclePaint() {
+        return circlePaint;
+    }
+
+    /**
+     * Set the circle paint
+     *
+     * @param circlePaint
+     */
+    public void setCirclePaint(Paint circlePaint) {
+        this.circlePaint = circlePaint;
+    }
+
+    /**
+     * Get the circle fill paint
+     *
+     * @return
+     */
+    public Paint getCircleFillPaint() {
+        return circleFillPaint;
+    }
+
+    /**
+     * Set the circle fill paint
+     *
+     * @param circleFillPaint
+     */
+    public void setCircleFillPaint(Paint circleFillPaint) {
+        this.circleFillPaint = circleFillPaint;
+    }
+
+    /**
+     * Get the circle padding
+     *
+     * @return
+     */
+    public float getCirclePadding() {
+        return circlePadding;
+    }
+
+    /**
+     * Set the circle padding
+     *
+     * @param circlePadding
+     */
+    public void setCirclePadding(float circlePadding) {
+        this.circlePadding = circlePadding;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Bitmap drawTile(int tileWidth, int tileHeight, long tileFeatureCount) {
+
+        Bitmap bitmap = Bitmap.createBitmap(tileWidth, tileHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        String featureText = String.valueOf(tileFeatureCount);
+        Rect textBounds = new Rect();
+        textPaint.getTextBounds(featureText, 0, featureText.length(), textBounds);
+
+        float centerX = tileWidth / 2.0f;
+        float centerY = tileHeight / 2.0f;
+
+        // Draw the circle around the text
+        float diameter = Math.max(textBounds.width(), textBounds.height());
+        float radius = diameter / 2.0f + circlePadding + circlePaint.getStrokeWidth() / 2.0f;
+        if (circleFillPaint != null) {
+            canvas.drawCircle(centerX, centerY, radius, circleFillPaint);
+        }
+        canvas.drawCircle(centerX, centerY, radius, circlePaint);
+
+        // Draw the text centered in the circle
+        canvas.drawText(featureText, centerX - textBounds.exactCenterX(),
+                centerY - textBounds.exactCenterY(), textPaint);
+
+        return bitmap;
+    }
+
+}
@@ -146,6 +146,7 @@ public class GeoPackageOverlay implements TileProvider {
 					Bitmap tileBitmap = null;
 					Canvas canvas = null;
 					Paint paint = null;
+					tileCursor.setReuseRow(true);
 					while (tileCursor.moveToNext()) {
 
 						// Get the next tile
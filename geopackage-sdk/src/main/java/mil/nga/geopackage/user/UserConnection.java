@@ -2,6 +2,11 @@ package mil.nga.geopackage.user;
 
 import android.database.sqlite.SQLiteDatabase;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import mil.nga.geopackage.db.GeoPackageConnection;
 
 /**
@@ -22,6 +27,11 @@ public abstract class UserConnection<TColumn extends UserColumn, TTable extends
      */
     private final SQLiteDatabase database;
 
+    /**
+     * Tracked query patterns by key, null when not tracking
+     */
+    private Map<String, UserQueryPattern> queryPatterns;
+
     /**
      * Constructor
      *
@@ -31,6 +41,63 @@ public abstract class UserConnection<TColumn extends UserColumn, TTable extends
         this.database = database.getDb();
     }
 
+    /**
+     * Is query pattern tracking enabled
+     *
+     * @return
+     */
+    public synchronized boolean isTrackQueryPatterns() {
+        return queryPatterns != null;
+    }
+
+    /**
+     * Set query pattern tracking. When enabled, the where clause and order by of each table
+     * query are recorded as a query pattern. Disabling clears the tracked patterns.
+     *
+     * @param track
+     */
+    public synchronized void setTrackQueryPatterns(boolean track) {
+        if (track) {
+            if (queryPatterns == null) {
+                queryPatterns = new LinkedHashMap<String, UserQueryPattern>();
+            }
+        } else {
+            queryPatterns = null;
+        }
+    }
+
+    /**
+     * Get the tracked query patterns in the order first queried
+     *
+     * @return query patterns
+     */
+    public synchronized List<UserQueryPattern> getQueryPatterns() {
+        List<UserQueryPattern> patterns = new ArrayList<UserQueryPattern>();
+        if (queryPatterns != null) {
+            patterns.addAll(queryPatterns.values());
+        }
+        return patterns;
+    }
+
+    /**
+     * Record the query pattern when tracking
+     *
+     * @param selection
+     * @param selectionArgs
+     * @param orderBy
+     */
+    private synchronized void trackQueryPattern(String selection, String[] selectionArgs, String orderBy) {
+        if (queryPatterns != null) {
+            String key = UserQueryPattern.getKey(selection, orderBy);
+            UserQueryPattern pattern = queryPatterns.get(key);
+            if (pattern == null) {
+                pattern = new UserQueryPattern(selection, selectionArgs, orderBy);
+                queryPatterns.put(key, pattern);
+            }
+            pattern.increment();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -46,6 +113,7 @@ public abstract class UserConnection<TColumn extends UserColumn, TTable extends
     public TResult query(String table, String[] columns, String selection,
                          String[] selectionArgs, String groupBy, String having,
                          String orderBy) {
+        trackQueryPattern(selection, selectionArgs, orderBy);
         return (TResult) database.query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
     }
 
@@ -56,6 +124,7 @@ public abstract class UserConnection<TColumn extends UserColumn, TTable extends
     public TResult query(String table, String[] columns, String selection,
                          String[] selectionArgs, String groupBy, String having,
                          String orderBy, String limit) {
+        trackQueryPattern(selection, selectionArgs, orderBy);
         return (TResult) database.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
     }
 
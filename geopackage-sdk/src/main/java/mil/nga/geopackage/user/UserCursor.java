@@ -3,6 +3,8 @@ package mil.nga.geopackage.user;
 import android.database.Cursor;
 import android.database.CursorWrapper;
 
+import java.util.List;
+
 import mil.nga.geopackage.db.GeoPackageDataType;
 
 /**
@@ -21,6 +23,16 @@ public abstract class UserCursor<TColumn extends UserColumn, TTable extends User
      */
     private final TTable table;
 
+    /**
+     * When true, {@link #getRow()} fills and returns the same row instance for each row
+     */
+    private boolean reuseRow = false;
+
+    /**
+     * Row filled in place when reusing rows
+     */
+    private TRow reusableRow;
+
     /**
      * Constructor
      *
@@ -49,6 +61,27 @@ public abstract class UserCursor<TColumn extends UserColumn, TTable extends User
         return table;
     }
 
+    /**
+     * Is the reusable row mode enabled
+     *
+     * @return true if rows are reused
+     */
+    public boolean isReuseRow() {
+        return reuseRow;
+    }
+
+    /**
+     * Set the reusable row mode. When enabled, {@link #getRow()} fills one row instance in
+     * place instead of allocating the row, its column types, and its values for each row.
+     * The returned row is overwritten when the next row is read, so it must not be retained
+     * or modified. Use for full table passes that read each row once.
+     *
+     * @param reuseRow true to reuse rows
+     */
+    public void setReuseRow(boolean reuseRow) {
+        this.reuseRow = reuseRow;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -57,7 +90,9 @@ public abstract class UserCursor<TColumn extends UserColumn, TTable extends User
 
         TRow row = null;
 
-        if (table != null) {
+        if (table != null && reuseRow) {
+            row = fillReusableRow();
+        } else if (table != null) {
 
             int[] columnTypes = new int[table.columnCount()];
             Object[] values = new Object[table.columnCount()];
@@ -78,6 +113,52 @@ public abstract class UserCursor<TColumn extends UserColumn, TTable extends User
         return row;
     }
 
+    /**
+     * Fill the reusable row in place with the current row
+     *
+     * @return reusable row
+     */
+    private TRow fillReusableRow() {
+
+        if (reusableRow == null) {
+            reusableRow = getRow(new int[table.columnCount()], new Object[table.columnCount()]);
+        }
+
+        int[] columnTypes = reusableRow.getRowColumnTypes();
+        Object[] values = reusableRow.getValues();
+
+        List<TColumn> columns = table.getColumns();
+        for (int i = 0; i < columns.size(); i++) {
+
+            TColumn column = columns.get(i);
+            int index = column.getIndex();
+            int type = getType(index);
+
+            columnTypes[index] = type;
+
+            // Keep the previous boxed number when unchanged
+            Object previous = values[index];
+            GeoPackageDataType dataType = column.getDataType();
+            if (type == FIELD_TYPE_INTEGER && previous instanceof Long
+                    && (dataType == GeoPackageDataType.INTEGER || dataType == GeoPackageDataType.INT)) {
+                long value = getLong(index);
+                if ((Long) previous != value) {
+                    values[index] = value;
+                }
+            } else if (type == FIELD_TYPE_FLOAT && previous instanceof Double
+                    && (dataType == GeoPackageDataType.DOUBLE || dataType == GeoPackageDataType.REAL)) {
+                double value = getDouble(index);
+                if (Double.doubleToLongBits((Double) previous) != Double.doubleToLongBits(value)) {
+                    values[index] = value;
+                }
+            } else {
+                values[index] = getValue(column);
+            }
+        }
+
+        return reusableRow;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,75 @@
+package mil.nga.geopackage.user;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index on the columns of a user table
+ */
+public class UserIndex {
+
+    /**
+     * Index name
+     */
+    private final String name;
+
+    /**
+     * Indexed column names in index order
+     */
+    private final List<String> columns;
+
+    /**
+     * Unique index flag
+     */
+    private final boolean unique;
+
+    /**
+     * Constructor
+     *
+     * @param name
+     * @param columns
+     * @param unique
+     */
+    public UserIndex(String name, List<String> columns, boolean unique) {
+        this.name = name;
+        this.columns = Collections.unmodifiableList(columns);
+        this.unique = unique;
+    }
+
+    /**
+     * Get the index name
+     *
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the indexed column names in index order
+     *
+     * @return
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Is a unique index
+     *
+     * @return
+     */
+    public boolean isUnique() {
+        return unique;
+    }
+
+    /**
+     * Is an index created by a {@link UserIndexManager}
+     *
+     * @return
+     */
+    public boolean isManaged() {
+        return name.startsWith(UserIndexManager.INDEX_PREFIX);
+    }
+
+}
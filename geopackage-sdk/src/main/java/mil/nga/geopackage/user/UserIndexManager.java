@@ -0,0 +1,319 @@
+package mil.nga.geopackage.user;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import mil.nga.geopackage.GeoPackageException;
+
+/**
+ * Attribute index manager of a feature or tile user table. Creates, lists, and drops
+ * indexes on user table columns and reports the tracked query patterns not supported by
+ * an index. Indexes are created in the GeoPackage so they are kept when the GeoPackage
+ * file is exported or copied.
+ */
+public class UserIndexManager {
+
+    /**
+     * Name prefix of indexes created by the manager
+     */
+    public static final String INDEX_PREFIX = "uidx_";
+
+    /**
+     * User DAO
+     */
+    private final UserDao<?, ?, ?, ?> userDao;
+
+    /**
+     * Database connection
+     */
+    private final SQLiteDatabase db;
+
+    /**
+     * Constructor
+     *
+     * @param userDao
+     */
+    public UserIndexManager(UserDao<?, ?, ?, ?> userDao) {
+        this.userDao = userDao;
+        this.db = userDao.getSQLiteDatabase();
+    }
+
+    /**
+     * Get the user DAO
+     *
+     * @return
+     */
+    public UserDao<?, ?, ?, ?> getUserDao() {
+        return userDao;
+    }
+
+    /**
+     * Create an index on the columns if it does not exist
+     *
+     * @param columns column names in index order
+     * @return index
+     */
+    public UserIndex create(String... columns) {
+        if (columns.length == 0) {
+            throw new GeoPackageException("At least one column is required to create an index. Table: "
+                    + userDao.getTableName());
+        }
+        for (String column : columns) {
+            userDao.getTable().getColumnIndex(column);
+        }
+        String name = getIndexName(columns);
+        StringBuilder sql = new StringBuilder("CREATE INDEX IF NOT EXISTS ")
+                .append(quote(name)).append(" ON ").append(quote(userDao.getTableName())).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(quote(columns[i]));
+        }
+        sql.append(")");
+        db.execSQL(sql.toString());
+        return new UserIndex(name, Arrays.asList(columns), false);
+    }
+
+    /**
+     * Create a compound index on the columns followed by the primary key column if it does
+     * not exist, supporting attribute queries ordered or paged by row id
+     *
+     * @param columns column names in index order
+     * @return index
+     */
+    public UserIndex createWithRowId(String... columns) {
+        String[] indexColumns = Arrays.copyOf(columns, columns.length + 1);
+        indexColumns[columns.length] = userDao.getTable().getPkColumn().getName();
+        return create(indexColumns);
+    }
+
+    /**
+     * Determine if the managed index on the columns exists, with the columns in index order
+     *
+     * @param columns column names in index order
+     * @return true if exists
+     */
+    public boolean has(String... columns) {
+        String name = getIndexName(columns);
+        boolean exists = false;
+        for (UserIndex index : getIndexes()) {
+            if (index.getName().equals(name)) {
+                exists = index.getColumns().equals(Arrays.asList(columns));
+                break;
+            }
+        }
+        return exists;
+    }
+
+    /**
+     * Get all indexes on the table, including unique constraint indexes and indexes not
+     * created by the manager
+     *
+     * @return indexes
+     */
+    public List<UserIndex> getIndexes() {
+        List<UserIndex> indexes = new ArrayList<UserIndex>();
+        Cursor cursor = db.rawQuery("PRAGMA index_list(" + quote(userDao.getTableName()) + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            int uniqueIndex = cursor.getColumnIndexOrThrow("unique");
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(nameIndex);
+                indexes.add(new UserIndex(name, getIndexColumns(name), cursor.getInt(uniqueIndex) != 0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return indexes;
+    }
+
+    /**
+     * Drop the managed index on the columns if it exists
+     *
+     * @param columns column names in index order
+     */
+    public void drop(String... columns) {
+        db.execSQL("DROP INDEX IF EXISTS " + quote(getIndexName(columns)));
+    }
+
+    /**
+     * Drop all indexes created by the manager on the table
+     *
+     * @return dropped count
+     */
+    public int dropAll() {
+        int count = 0;
+        for (UserIndex index : getIndexes()) {
+            if (index.isManaged()) {
+                db.execSQL("DROP INDEX IF EXISTS " + quote(index.getName()));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Is query pattern tracking enabled on the table connection
+     *
+     * @return
+     */
+    public boolean isTrackQueryPatterns() {
+        return getUserConnection().isTrackQueryPatterns();
+    }
+
+    /**
+     * Set query pattern tracking on the table connection, recording the where clause and
+     * order by of each user DAO query
+     *
+     * @param track
+     */
+    public void setTrackQueryPatterns(boolean track) {
+        getUserConnection().setTrackQueryPatterns(track);
+    }
+
+    /**
+     * Get the tracked query patterns
+     *
+     * @return query patterns
+     */
+    public List<UserQueryPattern> getQueryPatterns() {
+        return getUserConnection().getQueryPatterns();
+    }
+
+    /**
+     * Get the tracked query patterns with a where clause or order by that SQLite runs with
+     * a full table scan or a temporary sort instead of an index
+     *
+     * @return unindexed query patterns
+     */
+    public List<UserQueryPattern> getUnindexedQueryPatterns() {
+        List<UserQueryPattern> unindexed = new ArrayList<UserQueryPattern>();
+        for (UserQueryPattern pattern : getQueryPatterns()) {
+            if ((pattern.getWhere() != null || pattern.getOrderBy() != null) && !isIndexed(pattern)) {
+                unindexed.add(pattern);
+            }
+        }
+        return unindexed;
+    }
+
+    /**
+     * Determine if SQLite runs the query pattern with an index, without a full table scan
+     * or a temporary sort
+     *
+     * @param pattern
+     * @return true if indexed
+     */
+    public boolean isIndexed(UserQueryPattern pattern) {
+        boolean indexed = true;
+        for (String detail : explain(pattern.getWhere(), pattern.getWhereArgs(), pattern.getOrderBy())) {
+            if ((detail.startsWith("SCAN ") && !detail.contains(" USING "))
+                    || detail.startsWith("USE TEMP B-TREE")) {
+                indexed = false;
+                break;
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Explain the query plan SQLite uses for a table query
+     *
+     * @param where     where clause or null
+     * @param whereArgs where arguments or null
+     * @param orderBy   order by or null
+     * @return query plan detail lines
+     */
+    public List<String> explain(String where, String[] whereArgs, String orderBy) {
+        StringBuilder sql = new StringBuilder("EXPLAIN QUERY PLAN SELECT * FROM ")
+                .append(quote(userDao.getTableName()));
+        if (where != null) {
+            sql.append(" WHERE ").append(where);
+        }
+        if (orderBy != null) {
+            sql.append(" ORDER BY ").append(orderBy);
+        }
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = db.rawQuery(sql.toString(), whereArgs);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * Get the managed index name of the columns. The table and column names are each
+     * prefixed by their length, so distinct tables and column lists never share a name.
+     *
+     * @param columns
+     * @return index name
+     */
+    public String getIndexName(String... columns) {
+        StringBuilder name = new StringBuilder(INDEX_PREFIX);
+        appendNamePart(name, userDao.getTableName());
+        for (String column : columns) {
+            name.append("_");
+            appendNamePart(name, column);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Append the length prefixed table or column name to the index name
+     *
+     * @param name index name
+     * @param part table or column name
+     */
+    private static void appendNamePart(StringBuilder name, String part) {
+        name.append(part.length()).append("_").append(part);
+    }
+
+    /**
+     * Get the column names of the index in index order
+     *
+     * @param name
+     * @return column names
+     */
+    private List<String> getIndexColumns(String name) {
+        List<String> columns = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("PRAGMA index_info(" + quote(name) + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Get the user connection of the table
+     *
+     * @return user connection
+     */
+    private UserConnection<?, ?, ?, ?> getUserConnection() {
+        return (UserConnection<?, ?, ?, ?>) userDao.getUserDb();
+    }
+
+    /**
+     * Quote an identifier
+     *
+     * @param name
+     * @return quoted name
+     */
+    private static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+}
@@ -0,0 +1,96 @@
+package mil.nga.geopackage.user;
+
+/**
+ * Query pattern of a user table, the where clause and order by of queries differing only
+ * in their argument values
+ */
+public class UserQueryPattern {
+
+    /**
+     * Where clause
+     */
+    private final String where;
+
+    /**
+     * Order by
+     */
+    private final String orderBy;
+
+    /**
+     * Arguments of the first query with the pattern
+     */
+    private final String[] whereArgs;
+
+    /**
+     * Number of queries with the pattern
+     */
+    private int count;
+
+    /**
+     * Constructor
+     *
+     * @param where
+     * @param whereArgs
+     * @param orderBy
+     */
+    UserQueryPattern(String where, String[] whereArgs, String orderBy) {
+        this.where = where;
+        this.whereArgs = whereArgs != null ? whereArgs.clone() : null;
+        this.orderBy = orderBy;
+    }
+
+    /**
+     * Get the pattern key
+     *
+     * @param where
+     * @param orderBy
+     * @return key
+     */
+    static String getKey(String where, String orderBy) {
+        return where + "\u0000" + orderBy;
+    }
+
+    /**
+     * Get the where clause
+     *
+     * @return where clause or null
+     */
+    public String getWhere() {
+        return where;
+    }
+
+    /**
+     * Get the arguments of the first query with the pattern
+     *
+     * @return where arguments or null
+     */
+    public String[] getWhereArgs() {
+        return whereArgs;
+    }
+
+    /**
+     * Get the order by
+     *
+     * @return order by or null
+     */
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    /**
+     * Get the number of queries with the pattern
+     *
+     * @return
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Increment the query count
+     */
+    synchronized void increment() {
+        count++;
+    }
+
+}